@@ -3,6 +3,7 @@ package org.example.config;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.springframework.boot.autoconfigure.orm.jpa.EntityManagerFactoryDependsOnPostProcessor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
@@ -14,6 +15,14 @@ import java.util.TimeZone;
 @Configuration
 public class AppConfig {
 
+    /**
+     * Миграция ключа поставщиков должна завершиться до обновления схемы Hibernate
+     */
+    @Bean
+    public static EntityManagerFactoryDependsOnPostProcessor supplierKeyMigrationDependency() {
+        return new EntityManagerFactoryDependsOnPostProcessor(SupplierKeyMigration.class);
+    }
+
     @Bean
     public PasswordEncoder passwordEncoder() {
         return new BCryptPasswordEncoder();
@@ -0,0 +1,154 @@
+package org.example.config;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.example.service.CatalogVersionService;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Индекс и начальное заполнение products.change_version для выгрузки изменений каталога.
+ * Выполняется в фоне после старта, когда Hibernate уже добавил колонку; все шаги идемпотентны,
+ * прерванная миграция продолжается при следующем старте.
+ * Индекс строится через CREATE INDEX CONCURRENTLY и не блокирует загрузку поставщиков.
+ * Строки, загруженные до появления версий (change_version IS NULL), получают одну общую версию
+ * короткими транзакциями по диапазонам id. Пока заполнение идёт, версия числится незавершённым
+ * изменением, поэтому выгрузка изменений не выходит за неё: клиент с since ниже этой версии
+ * получит заполненные строки как обычные изменения, а полная выгрузка отдаёт их всегда.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ChangeVersionMigration {
+
+    private static final int BACKFILL_BATCH = 50_000;
+    private static final int MAX_BACKFILL_PASSES = 10;
+
+    private static final String INDEX_NAME = "idx_products_change_version";
+
+    private static final String SELECT_INDEX_VALID = """
+            SELECT i.indisvalid FROM pg_index i JOIN pg_class c ON c.oid = i.indexrelid
+            WHERE c.relname = ? AND c.relnamespace = current_schema()::regnamespace""";
+
+    private static final String HAS_UNVERSIONED = "SELECT EXISTS (SELECT 1 FROM products WHERE change_version IS NULL)";
+
+    // Строки, занятые транзакцией загрузки, пропускаются: она сама запишет им версию
+    private static final String BACKFILL = """
+            UPDATE products SET change_version = ?
+            WHERE id IN (
+                SELECT id FROM products
+                WHERE id > ? AND id <= ? AND change_version IS NULL
+                FOR UPDATE SKIP LOCKED)""";
+
+    private final DataSource dataSource;
+    private final CatalogVersionService catalogVersionService;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrateInBackground() {
+        Thread thread = new Thread(() -> {
+            try {
+                migrate();
+            } catch (Exception e) {
+                log.error("Миграция products.change_version не завершена: {}", e.getMessage(), e);
+            }
+        }, "change-version-migration");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void migrate() throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(true);
+            createIndex(connection);
+            if (hasUnversionedRows(connection)) {
+                backfill(connection);
+            }
+        }
+    }
+
+    /**
+     * Построить индекс по change_version; невалидный индекс, оставшийся от прерванного
+     * CREATE INDEX CONCURRENTLY, пересоздаётся
+     */
+    private void createIndex(Connection connection) throws SQLException {
+        Boolean valid = null;
+        try (PreparedStatement statement = connection.prepareStatement(SELECT_INDEX_VALID)) {
+            statement.setString(1, INDEX_NAME);
+            try (ResultSet rs = statement.executeQuery()) {
+                if (rs.next()) {
+                    valid = rs.getBoolean(1);
+                }
+            }
+        }
+        if (Boolean.TRUE.equals(valid)) return;
+        long start = System.currentTimeMillis();
+        try (Statement statement = connection.createStatement()) {
+            if (valid != null) {
+                statement.execute("DROP INDEX CONCURRENTLY IF EXISTS " + INDEX_NAME);
+            }
+            statement.execute("CREATE INDEX CONCURRENTLY IF NOT EXISTS " + INDEX_NAME + " ON products (change_version)");
+        }
+        log.info("Индекс {} построен за {} мс", INDEX_NAME, System.currentTimeMillis() - start);
+    }
+
+    private boolean hasUnversionedRows(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery(HAS_UNVERSIONED)) {
+            rs.next();
+            return rs.getBoolean(1);
+        }
+    }
+
+    /**
+     * Заполнить change_version порциями по диапазону id, каждая порция в своей транзакции.
+     * Проходы повторяются, пока есть строки без версии: пропущенные из-за блокировки строки
+     * могли остаться без версии, если занявшая их транзакция откатилась.
+     */
+    private void backfill(Connection connection) throws SQLException {
+        long start = System.currentTimeMillis();
+        long version = catalogVersionService.beginChange();
+        long updated = 0;
+        try {
+            for (int pass = 0; pass < MAX_BACKFILL_PASSES && hasUnversionedRows(connection); pass++) {
+                updated += backfillPass(connection, version);
+            }
+        } finally {
+            catalogVersionService.endChange(version);
+        }
+        if (hasUnversionedRows(connection)) {
+            log.warn("Заполнение products.change_version не завершено ({} строк), продолжится при следующем старте", updated);
+            return;
+        }
+        log.info("Заполнение products.change_version версией {}: {} строк за {} мс",
+                version, updated, System.currentTimeMillis() - start);
+    }
+
+    private long backfillPass(Connection connection, long version) throws SQLException {
+        long minId;
+        long maxId;
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT coalesce(min(id), 0), coalesce(max(id), 0) FROM products")) {
+            rs.next();
+            minId = rs.getLong(1) - 1;
+            maxId = rs.getLong(2);
+        }
+        long updated = 0;
+        try (PreparedStatement statement = connection.prepareStatement(BACKFILL)) {
+            statement.setLong(1, version);
+            for (long from = minId; from < maxId; from += BACKFILL_BATCH) {
+                statement.setLong(2, from);
+                statement.setLong(3, from + BACKFILL_BATCH);
+                updated += statement.executeUpdate();
+            }
+        }
+        return updated;
+    }
+}
@@ -45,9 +45,11 @@ public class SecurityConfig {
                 .authorizeHttpRequests(authz -> authz
                         .requestMatchers("/api/auth/**", "/swagger-ui/**", "/v3/api-docs/**", "/api-docs/**").permitAll()
                         .requestMatchers("/api/subscription/**").permitAll()
-                        .requestMatchers("/api/data/upload-supplier-data").hasRole("ADMIN")
+                        .requestMatchers("/api/data/upload-supplier-data", "/api/data/upload-supplier-data/**").hasRole("ADMIN")
                         .requestMatchers("/api/admin/**").hasRole("ADMIN")
+                        .requestMatchers("/actuator/metrics", "/actuator/metrics/**").hasRole("ADMIN")
                         .requestMatchers("/api/data/**").authenticated()
+                        .requestMatchers("/api/products/**").authenticated()
                         .anyRequest().permitAll()
                 )
                 .addFilterBefore(jwtFilter, UsernamePasswordAuthenticationFilter.class);
@@ -0,0 +1,254 @@
+package org.example.config;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Перевод products со строкового ключа поставщика (supplier_name) на целочисленный supplier_id.
+ * Выполняется при старте до обновления схемы Hibernate и только если в products ещё есть
+ * колонка supplier_name. Все шаги идемпотентны, поэтому прерванная миграция продолжается
+ * при следующем старте.
+ * Заполнение supplier_id идёт короткими транзакциями по диапазонам id, уникальный индекс
+ * строится через CREATE INDEX CONCURRENTLY; блокирующим остаётся только короткое переключение
+ * ограничений в конце.
+ * Заполнение пишет новую версию каждой строки: после VACUUM место переиспользуется, но файл
+ * таблицы не уменьшается без VACUUM FULL или pg_repack. Размеры таблицы и индексов и время
+ * эталонных запросов до и после миграции пишутся в лог.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SupplierKeyMigration {
+
+    private static final int BACKFILL_BATCH = 50_000;
+
+    private static final String BACKFILL = """
+            UPDATE products p SET supplier_id = s.id
+            FROM suppliers s
+            WHERE s.supplier_name = p.supplier_name
+              AND p.id > ? AND p.id <= ? AND p.supplier_id IS NULL""";
+
+    // Размер таблицы и каждого индекса products в байтах
+    private static final String RELATION_SIZES = """
+            SELECT 'products', pg_relation_size('products')
+            UNION ALL
+            SELECT c.relname, pg_relation_size(c.oid)
+            FROM pg_index i JOIN pg_class c ON c.oid = i.indexrelid
+            WHERE i.indrelid = 'products'::regclass""";
+
+    // Эталонные запросы для сравнения до и после миграции: все товары одного поставщика
+    // (снимок для сверки загрузки) и точечный поиск по поставщику и штрихкоду.
+    // Поставщик — у первой строки products; %s — условие на поставщика в текущей схеме:
+    // до миграции по имени, после — по id, как поставщиков адресует загрузка
+    private static final String SAMPLE_SUPPLIER = "SELECT supplier_name, barcode FROM products ORDER BY id LIMIT 1";
+    private static final String SUPPLIER_SCAN = "SELECT id, barcode, price_with_vat FROM products p WHERE %s";
+    private static final String SUPPLIER_BARCODE_LOOKUP = "SELECT id, price_with_vat FROM products p WHERE %s AND barcode = ?";
+    private static final String BY_NAME = "p.supplier_name = ?";
+    private static final String BY_ID = "p.supplier_id = ?";
+
+    private final DataSource dataSource;
+
+    @PostConstruct
+    public void migrate() throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            if (!columnExists(connection, "products", "supplier_name")
+                    || !columnExists(connection, "suppliers", "supplier_name")) {
+                return;
+            }
+            long start = System.currentTimeMillis();
+            String[] sample = sampleProduct(connection);
+            logSizes(connection, "до миграции");
+            if (sample != null) {
+                logQueryTimes(connection, "до миграции", BY_NAME, sample[0], sample[1]);
+            }
+            connection.setAutoCommit(true);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("ALTER TABLE suppliers ADD COLUMN IF NOT EXISTS id INTEGER GENERATED BY DEFAULT AS IDENTITY");
+                statement.execute("ALTER TABLE products ADD COLUMN IF NOT EXISTS supplier_id INTEGER");
+            }
+
+            backfill(connection);
+
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("DROP INDEX CONCURRENTLY IF EXISTS idx_supplier_barcode");
+                statement.execute("CREATE UNIQUE INDEX CONCURRENTLY IF NOT EXISTS uk_products_supplier_barcode ON products (supplier_id, barcode)");
+            }
+
+            switchConstraints(connection);
+
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("ALTER TABLE products VALIDATE CONSTRAINT fk_products_supplier");
+                // Заполнение переписало все строки: старые версии освобождаются для повторного
+                // использования, статистика по новой колонке нужна планам эталонных запросов
+                statement.execute("VACUUM (ANALYZE) products");
+            }
+            logSizes(connection, "после миграции");
+            if (sample != null) {
+                logQueryTimes(connection, "после миграции", BY_ID, supplierId(connection, sample[0]), sample[1]);
+            }
+            log.info("Миграция products на supplier_id завершена за {} мс", System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * Заполнить supplier_id порциями по диапазону id, каждая порция в своей транзакции
+     */
+    private void backfill(Connection connection) throws SQLException {
+        long minId;
+        long maxId;
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT coalesce(min(id), 0), coalesce(max(id), 0) FROM products")) {
+            rs.next();
+            minId = rs.getLong(1) - 1;
+            maxId = rs.getLong(2);
+        }
+        long updated = 0;
+        try (PreparedStatement statement = connection.prepareStatement(BACKFILL)) {
+            for (long from = minId; from < maxId; from += BACKFILL_BATCH) {
+                statement.setLong(1, from);
+                statement.setLong(2, from + BACKFILL_BATCH);
+                updated += statement.executeUpdate();
+            }
+        }
+        log.info("Заполнение products.supplier_id: {} строк", updated);
+    }
+
+    /**
+     * Переключить первичный ключ suppliers, уникальное ограничение и внешний ключ products
+     * на supplier_id и удалить products.supplier_name в одной транзакции
+     */
+    private void switchConstraints(Connection connection) throws SQLException {
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            // Строки, добавленные после заполнения порциями
+            statement.execute("""
+                    UPDATE products p SET supplier_id = s.id
+                    FROM suppliers s
+                    WHERE s.supplier_name = p.supplier_name AND p.supplier_id IS NULL""");
+            for (String constraint : findConstraints(connection, "products", "f")) {
+                statement.execute("ALTER TABLE products DROP CONSTRAINT \"" + constraint + "\"");
+            }
+            for (String constraint : findConstraints(connection, "products", "u")) {
+                statement.execute("ALTER TABLE products DROP CONSTRAINT \"" + constraint + "\"");
+            }
+            for (String constraint : findConstraints(connection, "suppliers", "p")) {
+                statement.execute("ALTER TABLE suppliers DROP CONSTRAINT \"" + constraint + "\"");
+            }
+            statement.execute("ALTER TABLE suppliers ADD PRIMARY KEY (id)");
+            statement.execute("ALTER TABLE suppliers ADD CONSTRAINT uk_suppliers_supplier_name UNIQUE (supplier_name)");
+            statement.execute("ALTER TABLE products ADD CONSTRAINT uk_products_supplier_barcode UNIQUE USING INDEX uk_products_supplier_barcode");
+            statement.execute("""
+                    ALTER TABLE products ADD CONSTRAINT fk_products_supplier
+                    FOREIGN KEY (supplier_id) REFERENCES suppliers (id) NOT VALID""");
+            statement.execute("ALTER TABLE products DROP COLUMN supplier_name");
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private List<String> findConstraints(Connection connection, String table, String type) throws SQLException {
+        List<String> names = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT conname FROM pg_constraint WHERE conrelid = ?::regclass AND contype = ?")) {
+            statement.setString(1, table);
+            statement.setString(2, type);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    names.add(rs.getString(1));
+                }
+            }
+        }
+        return names;
+    }
+
+    private boolean columnExists(Connection connection, String table, String column) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("""
+                SELECT 1 FROM information_schema.columns
+                WHERE table_schema = current_schema() AND table_name = ? AND column_name = ?""")) {
+            statement.setString(1, table);
+            statement.setString(2, column);
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    private void logSizes(Connection connection, String stage) throws SQLException {
+        List<String> sizes = new ArrayList<>();
+        long indexes = 0;
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery(RELATION_SIZES)) {
+            while (rs.next()) {
+                sizes.add(rs.getString(1) + " " + rs.getLong(2));
+                if (!rs.getString(1).equals("products")) indexes += rs.getLong(2);
+            }
+        }
+        log.info("pg_relation_size {} (байт): {}; индексы всего {}", stage, String.join(", ", sizes), indexes);
+    }
+
+    private Integer supplierId(Connection connection, String supplierName) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT id FROM suppliers WHERE supplier_name = ?")) {
+            statement.setString(1, supplierName);
+            try (ResultSet rs = statement.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    /**
+     * Поставщик и штрихкод первой строки products для эталонных запросов; null, если таблица пуста
+     */
+    private String[] sampleProduct(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery(SAMPLE_SUPPLIER)) {
+            return rs.next() ? new String[]{rs.getString(1), rs.getString(2)} : null;
+        }
+    }
+
+    /**
+     * Время выполнения эталонных запросов по EXPLAIN ANALYZE (лучшее из трёх запусков)
+     */
+    private void logQueryTimes(Connection connection, String stage, String supplierCondition,
+                               Object supplier, String barcode) throws SQLException {
+        double scan = explainAnalyze(connection, SUPPLIER_SCAN.formatted(supplierCondition), supplier);
+        double lookup = explainAnalyze(connection, SUPPLIER_BARCODE_LOOKUP.formatted(supplierCondition), supplier, barcode);
+        log.info("EXPLAIN ANALYZE {}: товары поставщика {} мс, поиск по поставщику и штрихкоду {} мс",
+                stage, scan, lookup);
+    }
+
+    private double explainAnalyze(Connection connection, String sql, Object... parameters) throws SQLException {
+        double best = Double.MAX_VALUE;
+        try (PreparedStatement statement = connection.prepareStatement("EXPLAIN (ANALYZE, BUFFERS) " + sql)) {
+            for (int i = 0; i < parameters.length; i++) {
+                statement.setObject(i + 1, parameters[i]);
+            }
+            for (int run = 0; run < 3; run++) {
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        String line = rs.getString(1).trim();
+                        if (line.startsWith("Execution Time:")) {
+                            best = Math.min(best, Double.parseDouble(line.replaceAll("[^0-9.]", "")));
+                        }
+                    }
+                }
+            }
+        }
+        return best;
+    }
+}
@@ -6,16 +6,24 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.example.dto.SubscriptionStatusResponse;
+import org.example.dto.SupplierTermsDto;
+import org.example.entity.Supplier;
+import org.example.repository.SupplierRepository;
 import org.example.repository.SubscriptionRepository;
 import org.example.service.HistoryService;
 import org.example.service.SubscriptionService;
 import org.example.dto.AdminHistoryDto;
 import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -29,6 +37,7 @@ public class AdminController {
     private final HistoryService historyService;
     private final SubscriptionService subscriptionService;
     private final SubscriptionRepository subscriptionRepository;
+    private final SupplierRepository supplierRepository;
 
     @GetMapping("/file-upload-history")
     @Operation(summary = "Получить историю загрузок файлов", description = "Возвращает историю загрузок файлов всеми пользователями")
@@ -68,4 +77,45 @@ public class AdminController {
             return ResponseEntity.internalServerError().build();
         }
     }
-}
\ No newline at end of file
+
+    @GetMapping("/suppliers/terms")
+    @Operation(summary = "Условия поставщиков", description = "Минимальная сумма заказа и стоимость доставки каждого поставщика для разбиения корзины")
+    public ResponseEntity<List<SupplierTermsDto>> getSupplierTerms() {
+        List<SupplierTermsDto> terms = supplierRepository.findAll()
+                .stream()
+                .map(supplier -> new SupplierTermsDto(supplier.getSupplierName(), supplier.getMinOrderSum(), supplier.getDeliveryFee()))
+                .collect(Collectors.toList());
+        return ResponseEntity.ok(terms);
+    }
+
+    @PutMapping("/suppliers/terms")
+    @Transactional
+    @Operation(summary = "Изменить условия поставщиков", description = "Задать минимальную сумму заказа и стоимость доставки перечисленным поставщикам; null снимает ограничение")
+    public ResponseEntity<?> updateSupplierTerms(@RequestBody List<SupplierTermsDto> terms) {
+        for (SupplierTermsDto term : terms) {
+            if ((term.getMinOrderSum() != null && term.getMinOrderSum() < 0)
+                    || (term.getDeliveryFee() != null && term.getDeliveryFee() < 0)) {
+                return ResponseEntity.badRequest().body(Map.of("error", "Сумма и стоимость доставки не могут быть отрицательными"));
+            }
+        }
+        Map<String, Supplier> suppliers = supplierRepository.findBySupplierNameIn(
+                        terms.stream().map(SupplierTermsDto::getSupplierName).collect(Collectors.toList()))
+                .stream()
+                .collect(Collectors.toMap(Supplier::getSupplierName, Function.identity()));
+        List<String> unknown = terms.stream()
+                .map(SupplierTermsDto::getSupplierName)
+                .filter(name -> !suppliers.containsKey(name))
+                .collect(Collectors.toList());
+        if (!unknown.isEmpty()) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Поставщики не найдены: " + String.join(", ", unknown)));
+        }
+        for (SupplierTermsDto term : terms) {
+            Supplier supplier = suppliers.get(term.getSupplierName());
+            supplier.setMinOrderSum(term.getMinOrderSum());
+            supplier.setDeliveryFee(term.getDeliveryFee());
+        }
+        supplierRepository.saveAll(suppliers.values());
+        log.info("Обновлены условия {} поставщиков", terms.size());
+        return ResponseEntity.ok(Map.of("updated", terms.size()));
+    }
+}
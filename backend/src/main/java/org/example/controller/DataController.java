@@ -3,37 +3,54 @@ package org.example.controller;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
-import org.example.dto.ExcelUploadResponse;
+import org.example.dto.BasketPlan;
+import org.example.dto.DetailedAnalysisResult;
 import org.example.dto.PriceAnalysisResult;
-import org.example.entity.Product;
-import org.example.repository.ProductRepository;
+import org.example.dto.SupplierOfferDto;
+import org.example.dto.UploadJobStatus;
 import org.example.repository.ClientRepository;
-import org.example.service.ExcelProcessingService;
+import org.example.service.AnalysisResultCache;
+import org.example.service.BasketOptimizationService;
+import org.example.service.CatalogExportService;
+import org.example.service.CatalogSnapshotService;
+import org.example.service.CatalogVersionService;
+import org.example.service.DetailedAnalysisService;
 import org.example.service.PriceAnalysisService;
+import org.example.service.StreamingPriceAnalysisService;
 import org.example.service.SubscriptionService;
+import org.example.service.SupplierFilter;
+import org.example.service.SupplierUploadJobService;
+import org.example.util.ExportFormat;
+import org.example.util.TableWriter;
+import org.example.util.TableWriter.Style;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
-import org.apache.poi.ss.usermodel.CellStyle;
-import org.apache.poi.ss.usermodel.Font;
-import org.apache.poi.ss.usermodel.Cell;
 import org.example.dto.InvoiceItemRequest;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.Comparator;
-import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.core.type.TypeReference;
 
@@ -44,18 +61,30 @@ import com.fasterxml.jackson.core.type.TypeReference;
 @Tag(name = "Данные", description = "API для работы с данными")
 public class DataController {
 
-    private final ExcelProcessingService excelProcessingService;
+    // Версия изменений каталога, до которой включительно ответ содержит все изменения
+    private static final String CATALOG_VERSION_HEADER = "X-Catalog-Version";
+
+    private final SupplierUploadJobService supplierUploadJobService;
     private final PriceAnalysisService priceAnalysisService;
-    private final ProductRepository productRepository;
+    private final StreamingPriceAnalysisService streamingPriceAnalysisService;
+    private final DetailedAnalysisService detailedAnalysisService;
+    private final BasketOptimizationService basketOptimizationService;
+    private final CatalogExportService catalogExportService;
+    private final CatalogSnapshotService catalogSnapshotService;
+    private final CatalogVersionService catalogVersionService;
     private final SubscriptionService subscriptionService;
     private final ClientRepository clientRepository;
     private final ObjectMapper objectMapper;
 
     @PostMapping(value = "/upload-supplier-data", consumes = "multipart/form-data")
-    @Operation(summary = "Загрузка данных поставщиков", description = "Загрузка Excel файла с данными поставщиков и товаров")
+    @Operation(summary = "Загрузка данных поставщиков", description = "Загрузка Excel файла с данными поставщиков и товаров. "
+            + "Если обработка не завершилась за ingest.jobs.sync-wait-seconds, возвращается 202 со статусом фоновой задачи; "
+            + "дальше статус опрашивается через /upload-supplier-data/jobs/{jobId}. Для больших файлов используйте /upload-supplier-data/jobs")
     public ResponseEntity<?> uploadSupplierData(
             @Parameter(description = "Excel файл с данными поставщиков", required = true)
-            @RequestParam("file") MultipartFile file) {
+            @RequestParam("file") MultipartFile file,
+            @Parameter(description = "Заменить прайс-листы поставщиков из файла: удалить их товары, которых нет в файле")
+            @RequestParam(value = "replace", defaultValue = "false") boolean replace) {
 
         // 🔒 Проверка подписки
         Authentication auth = SecurityContextHolder.getContext().getAuthentication();
@@ -84,20 +113,87 @@ public class DataController {
         }
 
         try {
-            ExcelUploadResponse response = excelProcessingService.processSupplierDataFile(file);
+            UploadJobStatus job = supplierUploadJobService.process(file, replace);
+            if (job.getResult() == null) {
+                log.info("Загрузка данных поставщиков {} пользователя {} продолжается в фоне", job.getJobId(), email);
+                return ResponseEntity.status(HttpStatus.ACCEPTED).body(job);
+            }
             log.info("Данные поставщиков загружены пользователем: {}", email);
-            return ResponseEntity.ok(response);
+            return ResponseEntity.ok(job.getResult());
+        } catch (IllegalStateException e) {
+            log.warn("Загрузка данных поставщиков отклонена для {}: {}", email, e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(Map.of("error", e.getMessage()));
         } catch (Exception e) {
             log.error("Ошибка при загрузке данных поставщиков для {}: {}", email, e.getMessage());
             return ResponseEntity.badRequest().body(Map.of("error", "Ошибка обработки файла: " + e.getMessage()));
         }
     }
 
+    @PostMapping(value = "/upload-supplier-data/jobs", consumes = "multipart/form-data")
+    @Operation(summary = "Фоновая загрузка данных поставщиков", description = "Ставит Excel файл поставщиков в очередь на обработку и сразу возвращает идентификатор задачи")
+    public ResponseEntity<?> submitSupplierDataJob(
+            @Parameter(description = "Excel файл с данными поставщиков", required = true)
+            @RequestParam("file") MultipartFile file,
+            @Parameter(description = "Заменить прайс-листы поставщиков из файла: удалить их товары, которых нет в файле")
+            @RequestParam(value = "replace", defaultValue = "false") boolean replace) {
+
+        // 🔒 Проверка подписки
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        String phone = auth.getName();
+        var client = clientRepository.findByPhone(phone);
+
+        if (client.isEmpty()) {
+            log.error("Client not found for phone: {}", phone);
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(Map.of("error", "Клиент не найден"));
+        }
+
+        String email = client.get().getEmail();
+        if (!subscriptionService.isSubscriptionActive(email)) {
+            log.warn("User {} tried to upload supplier data but subscription is expired", email);
+            return ResponseEntity.status(HttpStatus.PAYMENT_REQUIRED)
+                    .body(Map.of("error", "Подписка истекла. Пожалуйста, продлите подписку"));
+        }
+
+        if (file.isEmpty()) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Файл не должен быть пустым"));
+        }
+
+        if (!file.getOriginalFilename().endsWith(".xlsx") && !file.getOriginalFilename().endsWith(".xls")) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Поддерживаются только Excel файлы (.xlsx, .xls)"));
+        }
+
+        try {
+            UploadJobStatus job = supplierUploadJobService.submit(file, replace);
+            log.info("Загрузка данных поставщиков {} поставлена в очередь пользователем: {}", job.getJobId(), email);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(job);
+        } catch (IllegalStateException e) {
+            log.warn("Загрузка данных поставщиков отклонена для {}: {}", email, e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            log.error("Ошибка при постановке загрузки в очередь для {}: {}", email, e.getMessage());
+            return ResponseEntity.badRequest().body(Map.of("error", "Ошибка обработки файла: " + e.getMessage()));
+        }
+    }
+
+    @GetMapping("/upload-supplier-data/jobs/{jobId}")
+    @Operation(summary = "Статус фоновой загрузки", description = "Этап, количество обработанных строк, скорость и итог фоновой загрузки данных поставщиков")
+    public ResponseEntity<?> getSupplierDataJob(@PathVariable String jobId) {
+        return supplierUploadJobService.getStatus(jobId)
+                .<ResponseEntity<?>>map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .body(Map.of("error", "Задача загрузки не найдена")));
+    }
+
     @PostMapping(value = "/analyze-prices", consumes = "multipart/form-data")
     @Operation(summary = "Анализ цен", description = "Анализ лучших цен на основе загруженного файла с товарами. Файл должен содержать колонки: Штрихкод и Количество")
     public ResponseEntity<?> analyzePrices(
             @Parameter(description = "Excel файл с товарами для анализа", required = true)
-            @RequestParam("file") MultipartFile file) {
+            @RequestParam("file") MultipartFile file,
+            @Parameter(description = "Разрешённые поставщики: лучшая цена ищется только среди них")
+            @RequestParam(value = "allowSuppliers", required = false) List<String> allowSuppliers,
+            @Parameter(description = "Запрещённые поставщики: их предложения не учитываются")
+            @RequestParam(value = "denySuppliers", required = false) List<String> denySuppliers) {
 
         // 🔒 Проверка подписки
         Authentication auth = SecurityContextHolder.getContext().getAuthentication();
@@ -126,54 +222,231 @@ public class DataController {
         }
 
         try {
-            List<PriceAnalysisResult> results = priceAnalysisService.analyzePrices(file);
-            log.info("Анализ цен выполнен для пользователя: {} ({} товаров)", email, results.size());
-            return ResponseEntity.ok(results);
+            SupplierFilter filter = SupplierFilter.resolve(allowSuppliers, denySuppliers, client.get());
+            AnalysisResultCache.CachedAnalysis analysis = priceAnalysisService.analyzePrices(file, filter);
+            log.info("Анализ цен выполнен для пользователя: {} ({} товаров)", email, analysis.resultCount());
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(analysis.responseJson());
         } catch (Exception e) {
             log.error("Ошибка при анализе цен для {}: {}", email, e.getMessage());
             return ResponseEntity.badRequest().body(Map.of("error", "Ошибка обработки файла: " + e.getMessage()));
         }
     }
 
-    @GetMapping("/download-database")
-    @Operation(summary = "Выгрузка базы данных", description = "Скачать Excel файл с полной базой данных продуктов")
-    public void downloadDatabase(HttpServletResponse response) throws IOException {
-        response.setContentType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
-        response.setHeader("Content-Disposition", "attachment; filename=database_export.xlsx");
-
-        try (Workbook workbook = new XSSFWorkbook()) {
-            Sheet sheet = workbook.createSheet("База данных");
-
-            // Заголовки
-            Row headerRow = sheet.createRow(0);
-            String[] headers = {"Наименование поставщика", "Штрих код", "Наименование", "ПЦ с НДС опт"};
-            for (int i = 0; i < headers.length; i++) {
-                headerRow.createCell(i).setCellValue(headers[i]);
+    @PostMapping(value = "/analyze-prices/stream", consumes = "multipart/form-data")
+    @Operation(summary = "Потоковый анализ цен", description = "Анализ лучших цен для больших файлов заказа: файл читается потоково, результаты отдаются JSON массивом по мере готовности пачек. Как и в обычном анализе, строки с одним штрихкодом объединяются (количество из последней строки); с perLine=true результат выдаётся на каждую строку файла. Файл должен содержать колонки: Штрихкод и Количество")
+    public void analyzePricesStream(
+            @Parameter(description = "Excel файл с товарами для анализа", required = true)
+            @RequestParam("file") MultipartFile file,
+            @Parameter(description = "Разрешённые поставщики: лучшая цена ищется только среди них")
+            @RequestParam(value = "allowSuppliers", required = false) List<String> allowSuppliers,
+            @Parameter(description = "Запрещённые поставщики: их предложения не учитываются")
+            @RequestParam(value = "denySuppliers", required = false) List<String> denySuppliers,
+            @Parameter(description = "Результат на каждую строку без объединения повторяющихся штрихкодов")
+            @RequestParam(value = "perLine", defaultValue = "false") boolean perLine,
+            HttpServletResponse response) throws IOException {
+
+        // 🔒 Проверка подписки
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        String phone = auth.getName();
+        var client = clientRepository.findByPhone(phone);
+
+        if (client.isEmpty()) {
+            log.error("Client not found for phone: {}", phone);
+            writeError(response, HttpStatus.UNAUTHORIZED, "Клиент не найден");
+            return;
+        }
+
+        String email = client.get().getEmail();
+        if (!subscriptionService.isSubscriptionActive(email)) {
+            log.warn("User {} tried to analyze prices but subscription is expired", email);
+            writeError(response, HttpStatus.PAYMENT_REQUIRED, "Подписка истекла. Пожалуйста, продлите подписку");
+            return;
+        }
+
+        if (file.isEmpty()) {
+            writeError(response, HttpStatus.BAD_REQUEST, "Файл не должен быть пустым");
+            return;
+        }
+
+        if (!file.getOriginalFilename().endsWith(".xlsx") && !file.getOriginalFilename().endsWith(".xls")) {
+            writeError(response, HttpStatus.BAD_REQUEST, "Поддерживаются только Excel файлы (.xlsx, .xls)");
+            return;
+        }
+
+        JsonResultWriter writer = new JsonResultWriter(response);
+        try {
+            SupplierFilter filter = SupplierFilter.resolve(allowSuppliers, denySuppliers, client.get());
+            int lines = streamingPriceAnalysisService.analyzePrices(file, filter, perLine, writer);
+            writer.close();
+            log.info("Потоковый анализ цен выполнен для пользователя: {} ({} строк)", email, lines);
+        } catch (Exception e) {
+            log.error("Ошибка при потоковом анализе цен для {}: {}", email, e.getMessage());
+            if (!writer.started) {
+                writeError(response, HttpStatus.BAD_REQUEST, "Ошибка обработки файла: " + e.getMessage());
             }
+            // Если ответ уже начат, незакрытый JSON массив сообщает клиенту об обрыве
+        }
+    }
+
+    @PostMapping(value = "/analyze-prices/batch", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    @Operation(summary = "Пакетный анализ цен", description = "Анализ лучших цен без Excel: тело — JSON массив или NDJSON строк вида {\"barcode\": \"...\", \"quantity\": 1}. Результаты отдаются по мере готовности пачек: JSON массивом, а для application/x-ndjson — по объекту на строку. Строки с одним штрихкодом объединяются (количество из последней строки); с perLine=true результат выдаётся на каждую строку")
+    public void analyzePricesBatch(
+            @Parameter(description = "Разрешённые поставщики: лучшая цена ищется только среди них")
+            @RequestParam(value = "allowSuppliers", required = false) List<String> allowSuppliers,
+            @Parameter(description = "Запрещённые поставщики: их предложения не учитываются")
+            @RequestParam(value = "denySuppliers", required = false) List<String> denySuppliers,
+            @Parameter(description = "Результат на каждую строку без объединения повторяющихся штрихкодов")
+            @RequestParam(value = "perLine", defaultValue = "false") boolean perLine,
+            HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+        // 🔒 Проверка подписки
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        String phone = auth.getName();
+        var client = clientRepository.findByPhone(phone);
+
+        if (client.isEmpty()) {
+            log.error("Client not found for phone: {}", phone);
+            writeError(response, HttpStatus.UNAUTHORIZED, "Клиент не найден");
+            return;
+        }
+
+        String email = client.get().getEmail();
+        if (!subscriptionService.isSubscriptionActive(email)) {
+            log.warn("User {} tried to analyze prices but subscription is expired", email);
+            writeError(response, HttpStatus.PAYMENT_REQUIRED, "Подписка истекла. Пожалуйста, продлите подписку");
+            return;
+        }
 
-            // Данные
-            List<Product> allProducts = productRepository.findAll();
-            int rowNum = 1;
-            for (Product p : allProducts) {
-                Row row = sheet.createRow(rowNum++);
-                row.createCell(0).setCellValue(p.getSupplier().getSupplierName());
-                row.createCell(1).setCellValue(p.getBarcode());
-                row.createCell(2).setCellValue(p.getProductName() != null ? p.getProductName() : "");
-                row.createCell(3).setCellValue(p.getPriceWithVat() != null ? p.getPriceWithVat() : 0.0);
+        boolean ndjson = request.getContentType() != null
+                && MediaType.parseMediaType(request.getContentType()).isCompatibleWith(MediaType.APPLICATION_NDJSON);
+        JsonResultWriter writer = new JsonResultWriter(response, ndjson);
+        try {
+            SupplierFilter filter = SupplierFilter.resolve(allowSuppliers, denySuppliers, client.get());
+            int lines = streamingPriceAnalysisService.analyzeJson(request.getInputStream(), ndjson ? "NDJSON" : "JSON", filter, perLine, writer);
+            writer.close();
+            log.info("Пакетный анализ цен выполнен для пользователя: {} ({} строк)", email, lines);
+        } catch (Exception e) {
+            log.error("Ошибка при пакетном анализе цен для {}: {}", email, e.getMessage());
+            if (!writer.started) {
+                writeError(response, HttpStatus.BAD_REQUEST, "Ошибка обработки запроса: " + e.getMessage());
             }
+        }
+    }
+
+    @PostMapping("/analyze-prices/basket")
+    @Operation(summary = "Разбиение корзины по поставщикам", description = "Заказ с минимальной полной стоимостью: цены товаров плюс доставка каждого поставщика, с соблюдением минимальной суммы заказа. Тело: {\"lines\": [{\"barcode\": \"...\", \"quantity\": 1}], \"exact\": false, \"timeBudgetMs\": 500, \"allowSuppliers\": [...] или \"denySuppliers\": [...]}; кроме lines всё необязательно. exact — после эвристики перебирать наборы поставщиков, пока есть время; exhaustive в ответе — перебор доказал, что более дешёвого разбиения нет")
+    public ResponseEntity<?> analyzePricesBasket(@RequestBody Map<String, Object> requestBody) {
 
-            // Авторазмер колонок
-            for (int i = 0; i < headers.length; i++) {
-                sheet.autoSizeColumn(i);
+        // 🔒 Проверка подписки
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        String phone = auth.getName();
+        var client = clientRepository.findByPhone(phone);
+
+        if (client.isEmpty()) {
+            log.error("Client not found for phone: {}", phone);
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(Map.of("error", "Клиент не найден"));
+        }
+
+        String email = client.get().getEmail();
+        if (!subscriptionService.isSubscriptionActive(email)) {
+            log.warn("User {} tried to analyze prices but subscription is expired", email);
+            return ResponseEntity.status(HttpStatus.PAYMENT_REQUIRED)
+                    .body(Map.of("error", "Подписка истекла. Пожалуйста, продлите подписку"));
+        }
+
+        List<PriceAnalysisResult> lines = objectMapper.convertValue(
+            requestBody.get("lines"),
+            new TypeReference<List<PriceAnalysisResult>>() {}
+        );
+        if (lines == null || lines.isEmpty()) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Список позиций не должен быть пустым"));
+        }
+        boolean exact = Boolean.TRUE.equals(requestBody.get("exact"));
+        Long timeBudgetMs = requestBody.get("timeBudgetMs") instanceof Number number ? number.longValue() : null;
+        try {
+            BasketPlan plan = basketOptimizationService.optimize(lines, supplierFilter(requestBody), timeBudgetMs, exact);
+            log.info("Разбиение корзины выполнено для пользователя: {} ({} позиций, {} заказов)", email, lines.size(), plan.getOrders().size());
+            return ResponseEntity.ok(plan);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @GetMapping("/download-database")
+    @Operation(summary = "Выгрузка базы данных", description = "Скачать файл с полной базой данных продуктов. Готовый Excel файл текущей версии каталога отдаётся с ETag и поддержкой If-None-Match и Range (докачка); пока он строится после загрузки поставщиков, книга строится на лету. CSV/TSV пишутся на лету курсором. Формат: параметр format=xlsx|csv|tsv или заголовок Accept; для CSV/TSV gzip=true сжимает ответ, bom=true добавляет BOM для Excel. Заголовок X-Catalog-Version — версия для последующего запроса изменений")
+    public void downloadDatabase(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        ExportTarget target = exportTarget(request, response);
+        if (target == null) return;
+
+        CatalogSnapshotService.Snapshot snapshot = target.format() == ExportFormat.XLSX ? catalogSnapshotService.current() : null;
+        if (snapshot != null) {
+            boolean sendfile = Boolean.TRUE.equals(request.getAttribute("org.apache.tomcat.sendfile.support"));
+            // Файл открывается сразу: заменённая версия удаляется не раньше analysis.export.snapshot-grace-ms,
+            // а открытый файл дочитывается и после удаления
+            try (FileChannel channel = sendfile ? null : FileChannel.open(snapshot.file(), StandardOpenOption.READ)) {
+                if (sendfile && !Files.isReadable(snapshot.file())) {
+                    throw new NoSuchFileException(snapshot.file().toString());
+                }
+                response.setContentType(target.format().getContentType());
+                response.setHeader("Content-Disposition", "attachment; filename=database_export.xlsx");
+                response.setHeader(CATALOG_VERSION_HEADER, String.valueOf(snapshot.changeVersion()));
+                sendSnapshot(snapshot, channel, request, response);
+                return;
+            } catch (NoSuchFileException e) {
+                log.warn("Файл выгрузки каталога {} недоступен, выгрузка строится на лету", snapshot.file());
             }
+        }
+        if (target.format() == ExportFormat.XLSX) {
+            catalogSnapshotService.requestBuild();
+        }
+        // Версия берётся до чтения: более поздние изменения могут попасть в выгрузку и придут повторно
+        response.setHeader(CATALOG_VERSION_HEADER, String.valueOf(catalogVersionService.highWaterMark()));
+        try (OutputStream out = openExport(target, response, "database_export")) {
+            catalogExportService.write(target.format(), out, target.bom());
+        }
+    }
 
-            workbook.write(response.getOutputStream());
+    @GetMapping("/download-database/changes")
+    @Operation(summary = "Выгрузка изменений базы данных", description = "Товары, вставленные, изменённые или удалённые загрузкой поставщиков после версии since, в порядке версий. Начальная версия — заголовок X-Catalog-Version полной выгрузки (изменения после неё могли уже войти в файл и придут повторно, применение строки идемпотентно), следующая — тот же заголовок этого ответа. Отметки удаления хранятся analysis.export.tombstone-retention-days дней; если since старше удалённых отметок, ответ 410 и нужна полная выгрузка. Формат: параметр format=csv|tsv|ndjson или заголовок Accept, по умолчанию CSV; gzip=true сжимает ответ, bom=true добавляет BOM в CSV/TSV")
+    public void downloadDatabaseChanges(@RequestParam("since") long since, HttpServletRequest request,
+                                        HttpServletResponse response) throws IOException {
+        if (since < 0) {
+            writeError(response, HttpStatus.BAD_REQUEST, "Версия since не может быть отрицательной");
+            return;
+        }
+        long horizon = catalogVersionService.horizon();
+        if (since < horizon) {
+            writeError(response, HttpStatus.GONE, "Отметки удаления до версии " + horizon
+                    + " удалены по сроку хранения, начните с полной выгрузки /download-database");
+            return;
+        }
+        String format = request.getParameter("format");
+        String accept = request.getHeader(HttpHeaders.ACCEPT);
+        boolean ndjson = format != null && format.trim().equalsIgnoreCase("ndjson")
+                || (format == null || format.isBlank()) && accept != null && accept.toLowerCase(Locale.ROOT).contains(MediaType.APPLICATION_NDJSON_VALUE);
+        boolean gzip = Boolean.parseBoolean(request.getParameter("gzip"));
+
+        long upTo = catalogVersionService.highWaterMark();
+        if (ndjson) {
+            response.setHeader(CATALOG_VERSION_HEADER, String.valueOf(upTo));
+            try (OutputStream out = openExport(response, "application/x-ndjson;charset=UTF-8", "database_changes.ndjson", gzip)) {
+                catalogExportService.writeChangesJson(since, upTo, out);
+            }
+            return;
+        }
+        ExportTarget target = exportTarget(request, response, ExportFormat.CSV);
+        if (target == null) return;
+        response.setHeader(CATALOG_VERSION_HEADER, String.valueOf(upTo));
+        try (OutputStream out = openExport(target, response, "database_changes")) {
+            catalogExportService.writeChanges(since, upTo, target.format(), out, target.bom());
         }
     }
 
     @PostMapping("/export-results")
-    @Operation(summary = "Выгрузка результата анализа в Excel", description = "Скачать Excel файл с результатами анализа цен")
-    public void exportAnalysis(@RequestBody Map<String, Object> requestBody, HttpServletResponse response) throws IOException {
+    @Operation(summary = "Выгрузка результата анализа", description = "Скачать файл с результатами анализа цен. Формат: параметр format=xlsx|csv|tsv или заголовок Accept; для CSV/TSV gzip=true сжимает ответ, bom=true добавляет BOM для Excel")
+    public void exportAnalysis(@RequestBody Map<String, Object> requestBody, HttpServletRequest request,
+                               HttpServletResponse response) throws IOException {
         try {
             List<PriceAnalysisResult> results = objectMapper.convertValue(
                 requestBody.get("results"),
@@ -184,40 +457,22 @@ public class DataController {
                 response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
                 return;
             }
-            
-            response.setContentType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
-            response.setHeader("Content-Disposition", "attachment; filename=price_analysis_export.xlsx");
-
-            try (Workbook workbook = new XSSFWorkbook()) {
-                Sheet sheet = workbook.createSheet("Результат анализа");
-
-                // Заголовки
-                Row headerRow = sheet.createRow(0);
-                String[] headers = {"Штрихкод", "Количество", "Наименование товара", "Поставщик", "Цена за единицу", "Общая сумма", "Требует ручной обработки", "Сообщение"};
-                for (int i = 0; i < headers.length; i++) {
-                    headerRow.createCell(i).setCellValue(headers[i]);
-                }
-
-                // Данные
-                int rowNum = 1;
-                for (PriceAnalysisResult result : results) {
-                    Row row = sheet.createRow(rowNum++);
-                    row.createCell(0).setCellValue(result.getBarcode() != null ? result.getBarcode() : "");
-                    row.createCell(1).setCellValue(result.getQuantity() != null ? result.getQuantity() : 0);
-                    row.createCell(2).setCellValue(result.getProductName() != null ? result.getProductName() : "");
-                    row.createCell(3).setCellValue(result.getSupplierName() != null ? result.getSupplierName() : "");
-                    row.createCell(4).setCellValue(result.getUnitPrice() != null ? result.getUnitPrice() : 0.0);
-                    row.createCell(5).setCellValue(result.getTotalPrice() != null ? result.getTotalPrice() : 0.0);
-                    row.createCell(6).setCellValue(result.getRequiresManualProcessing() != null && result.getRequiresManualProcessing() ? "Да" : "Нет");
-                    row.createCell(7).setCellValue(result.getMessage() != null ? result.getMessage() : "");
-                }
-
-                // Авторазмер колонок
-                for (int i = 0; i < headers.length; i++) {
-                    sheet.autoSizeColumn(i);
-                }
-
-                workbook.write(response.getOutputStream());
+            ExportTarget target = exportTarget(request, response);
+            if (target == null) return;
+
+            try (OutputStream out = openExport(target, response, "price_analysis_export");
+                 TableWriter writer = target.format().open(out, target.bom(), "Результат анализа",
+                         "Штрихкод", "Количество", "Наименование товара", "Поставщик", "Цена за единицу", "Общая сумма", "Требует ручной обработки", "Сообщение")) {
+                writer.rows(results, (result, row) -> row
+                        .text(result.getBarcode())
+                        .number(result.getQuantity() != null ? result.getQuantity() : 0, Style.INTEGER)
+                        .text(result.getProductName())
+                        .text(result.getSupplierName())
+                        .number(result.getUnitPrice() != null ? result.getUnitPrice() : 0.0, Style.MONEY)
+                        .number(result.getTotalPrice() != null ? result.getTotalPrice() : 0.0, Style.MONEY)
+                        .text(Boolean.TRUE.equals(result.getRequiresManualProcessing()) ? "Да" : "Нет")
+                        .text(result.getMessage()));
+                writer.finish();
             }
         } catch (Exception e) {
             log.error("Ошибка экспорта результатов", e);
@@ -225,9 +480,28 @@ public class DataController {
         }
     }
 
+    @PostMapping("/detailed-analysis")
+    @Operation(summary = "Детальный анализ цен", description = "Самые дешёвые предложения поставщиков по каждой позиции результатов анализа. Тело: {\"results\": [...], \"topK\": 10, \"allowSuppliers\": [...] или \"denySuppliers\": [...]}; кроме results всё необязательно, без фильтра в запросе действует фильтр из профиля")
+    public ResponseEntity<?> detailedAnalysis(@RequestBody Map<String, Object> requestBody) {
+        List<PriceAnalysisResult> results = objectMapper.convertValue(
+            requestBody.get("results"),
+            new TypeReference<List<PriceAnalysisResult>>() {}
+        );
+        if (results == null || results.isEmpty()) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Список результатов не должен быть пустым"));
+        }
+        Integer topK = requestBody.get("topK") instanceof Number number ? number.intValue() : null;
+        try {
+            return ResponseEntity.ok(detailedAnalysisService.analyze(results, topK, supplierFilter(requestBody)));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
     @PostMapping("/export-supplier-results")
-    @Operation(summary = "Выгрузка детального анализа цен в Excel", description = "Скачать Excel файл с детальным анализом всех цен по каждому товару")
-    public void exportDetailedAnalysis(@RequestBody Map<String, Object> requestBody, HttpServletResponse response) throws IOException {
+    @Operation(summary = "Выгрузка детального анализа цен", description = "Скачать файл с детальным анализом цен по каждому товару: самые дешёвые предложения поставщиков (topK и фильтр поставщиков в теле запроса, как в /detailed-analysis). Формат: параметр format=xlsx|csv|tsv или заголовок Accept; для CSV/TSV gzip=true сжимает ответ, bom=true добавляет BOM для Excel")
+    public void exportDetailedAnalysis(@RequestBody Map<String, Object> requestBody, HttpServletRequest request,
+                                       HttpServletResponse response) throws IOException {
         try {
             List<PriceAnalysisResult> results = objectMapper.convertValue(
                 requestBody.get("results"),
@@ -238,143 +512,54 @@ public class DataController {
                 response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
                 return;
             }
-            response.setContentType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
-            response.setHeader("Content-Disposition", "attachment; filename=detailed_price_analysis_export.xlsx");
-
-            try (Workbook workbook = new XSSFWorkbook()) {
-                Sheet sheet = workbook.createSheet("Детальный анализ цен");
-
-                // Создаем стили
-                CellStyle headerStyle = workbook.createCellStyle();
-            Font headerFont = workbook.createFont();
-            headerFont.setBold(true);
-            headerStyle.setFont(headerFont);
-
-            CellStyle numberStyle = workbook.createCellStyle();
-            numberStyle.setDataFormat(workbook.createDataFormat().getFormat("#,##0.00"));
-
-            CellStyle percentageStyle = workbook.createCellStyle();
-            percentageStyle.setDataFormat(workbook.createDataFormat().getFormat("0.00\"%\""));
-
-            // Заголовки
-            Row headerRow = sheet.createRow(0);
-            String[] headers = {"Штрихкод", "Количество", "Наименование товара", "Поставщик", "Цена за единицу", "Процент", "Общая сумма", "Требует ручной обработки"};
-            for (int i = 0; i < headers.length; i++) {
-                Cell cell = headerRow.createCell(i);
-                cell.setCellValue(headers[i]);
-                cell.setCellStyle(headerStyle);
-            }
-
-            int rowNum = 1;
-
-            for (PriceAnalysisResult result : results) {
-                if (result.getRequiresManualProcessing() != null && result.getRequiresManualProcessing()) {
-                    // Товары, требующие ручной обработки
-                    Row row = sheet.createRow(rowNum++);
-                    row.createCell(0).setCellValue(result.getBarcode() != null ? result.getBarcode() : "");
-                    row.createCell(1).setCellValue(result.getQuantity() != null ? result.getQuantity() : 0);
-                    row.createCell(2).setCellValue("Товар не найден");
-                    row.createCell(3).setCellValue("");
-                    row.createCell(4).setCellValue("");
-                    row.createCell(5).setCellValue("");
-                    row.createCell(6).setCellValue("");
-                    row.createCell(7).setCellValue("Да");
-                } else {
-                    // Получаем все предложения по этому штрихкоду
-                    List<Product> allProducts = productRepository.findByBarcode(result.getBarcode());
-                    
-                    if (allProducts.isEmpty()) {
-                        // Если товар не найден в базе
-                        Row row = sheet.createRow(rowNum++);
-                        row.createCell(0).setCellValue(result.getBarcode() != null ? result.getBarcode() : "");
-                        row.createCell(1).setCellValue(result.getQuantity() != null ? result.getQuantity() : 0);
-                        row.createCell(2).setCellValue("Товар не найден в базе");
-                        row.createCell(3).setCellValue("");
-                        row.createCell(4).setCellValue("");
-                        row.createCell(5).setCellValue("");
-                        row.createCell(6).setCellValue("");
-                        row.createCell(7).setCellValue("Да");
+            ExportTarget target = exportTarget(request, response);
+            if (target == null) return;
+            Integer topK = requestBody.get("topK") instanceof Number number ? number.intValue() : null;
+            // Предложения по всем штрихкодам одним запросом вместо запроса на каждую строку
+            List<DetailedAnalysisResult> detailedResults = detailedAnalysisService.analyze(results, topK, supplierFilter(requestBody));
+
+            try (OutputStream out = openExport(target, response, "detailed_price_analysis_export");
+                 TableWriter writer = target.format().open(out, target.bom(), "Детальный анализ цен",
+                         "Штрихкод", "Количество", "Наименование товара", "Поставщик", "Цена за единицу", "Процент", "Общая сумма", "Требует ручной обработки")) {
+                for (DetailedAnalysisResult result : detailedResults) {
+                    int quantity = result.getQuantity() != null ? result.getQuantity() : 0;
+                    if (Boolean.TRUE.equals(result.getRequiresManualProcessing()) || !result.isFoundInDatabase()) {
+                        // Товары, требующие ручной обработки, и товары, которых нет в базе
+                        writer.row()
+                                .text(result.getBarcode())
+                                .number(quantity, Style.INTEGER)
+                                .text(Boolean.TRUE.equals(result.getRequiresManualProcessing()) ? "Товар не найден" : "Товар не найден в базе")
+                                .skip().skip().skip().skip()
+                                .text("Да");
+                    } else if (result.getOffers().isEmpty()) {
+                        // Если все товары без цены
+                        writer.row()
+                                .text(result.getBarcode())
+                                .number(quantity, Style.INTEGER)
+                                .text(result.getProductName())
+                                .skip().skip().skip().skip()
+                                .text("Нет");
                     } else {
-                        // Сортируем товары по цене (от меньшей к большей)
-                        List<Product> sortedProducts = allProducts.stream()
-                                .filter(p -> p.getPriceWithVat() != null)
-                                .sorted(Comparator.comparing(Product::getPriceWithVat))
-                                .collect(Collectors.toList());
-
-                        if (sortedProducts.isEmpty()) {
-                            // Если все товары без цены
-                            Row row = sheet.createRow(rowNum++);
-                            row.createCell(0).setCellValue(result.getBarcode() != null ? result.getBarcode() : "");
-                            row.createCell(1).setCellValue(result.getQuantity() != null ? result.getQuantity() : 0);
-                            row.createCell(2).setCellValue(result.getProductName() != null ? result.getProductName() : "");
-                            row.createCell(3).setCellValue("");
-                            row.createCell(4).setCellValue("");
-                            row.createCell(5).setCellValue("");
-                            row.createCell(6).setCellValue("");
-                            row.createCell(7).setCellValue("Нет");
-                        } else {
-                            Double bestPrice = sortedProducts.get(0).getPriceWithVat();
-                            boolean isFirstRow = true;
-
-                            for (Product product : sortedProducts) {
-                                Row row = sheet.createRow(rowNum++);
-                                
-                                if (isFirstRow) {
-                                    // Первая строка - лучшая цена
-                                    row.createCell(0).setCellValue(result.getBarcode() != null ? result.getBarcode() : "");
-                                    row.createCell(1).setCellValue(result.getQuantity() != null ? result.getQuantity() : 0);
-                                    row.createCell(2).setCellValue(result.getProductName() != null ? result.getProductName() : "");
-                                    row.createCell(3).setCellValue(product.getSupplier().getSupplierName());
-                                    
-                                    Cell priceCell = row.createCell(4);
-                                    priceCell.setCellValue(product.getPriceWithVat());
-                                    priceCell.setCellStyle(numberStyle);
-                                    
-                                    // Процент для лучшей цены = 0%
-                                    Cell percentageCell = row.createCell(5);
-                                    percentageCell.setCellValue(0.0);
-                                    percentageCell.setCellStyle(percentageStyle);
-                                    
-                                    // Общая сумма
-                                    Double totalPrice = product.getPriceWithVat() * result.getQuantity();
-                                    Cell totalCell = row.createCell(6);
-                                    totalCell.setCellValue(totalPrice);
-                                    totalCell.setCellStyle(numberStyle);
-                                    
-                                    row.createCell(7).setCellValue("Нет");
-                                    isFirstRow = false;
-                                } else {
-                                    // Последующие строки - другие предложения
-                                    row.createCell(0).setCellValue("");
-                                    row.createCell(1).setCellValue("");
-                                    row.createCell(2).setCellValue("");
-                                    row.createCell(3).setCellValue(product.getSupplier().getSupplierName());
-                                    
-                                    Cell priceCell = row.createCell(4);
-                                    priceCell.setCellValue(product.getPriceWithVat());
-                                    priceCell.setCellStyle(numberStyle);
-                                    
-                                    // Расчет процента разницы от лучшей цены
-                                    double percentage = ((product.getPriceWithVat() - bestPrice) / bestPrice) * 100;
-                                    Cell percentageCell = row.createCell(5);
-                                    percentageCell.setCellValue(percentage);
-                                    percentageCell.setCellStyle(percentageStyle);
-                                    
-                                    row.createCell(6).setCellValue("");
-                                    row.createCell(7).setCellValue("");
-                                }
+                        // Предложения уже отсортированы по цене: первая строка — лучшая цена с общей суммой
+                        boolean isFirstRow = true;
+                        for (SupplierOfferDto offer : result.getOffers()) {
+                            writer.row();
+                            if (isFirstRow) {
+                                writer.text(result.getBarcode()).number(quantity, Style.INTEGER).text(result.getProductName());
+                            } else {
+                                writer.skip().skip().skip();
+                            }
+                            writer.text(offer.getSupplierName())
+                                    .number(offer.getPriceWithVat(), Style.MONEY)
+                                    .number(offer.getPercentOverBest(), Style.PERCENT);
+                            if (isFirstRow) {
+                                writer.number(offer.getPriceWithVat() * quantity, Style.MONEY).text("Нет");
+                                isFirstRow = false;
                             }
                         }
                     }
                 }
-            }
-
-            // Авторазмер колонок
-            for (int i = 0; i < headers.length; i++) {
-                sheet.autoSizeColumn(i);
-            }
-
-            workbook.write(response.getOutputStream());
+                writer.finish();
             }
         } catch (Exception e) {
             log.error("Ошибка экспорта детального анализа", e);
@@ -383,129 +568,254 @@ public class DataController {
     }
 
     @PostMapping("/export-history-to-excel")
-    @Operation(summary = "Выгрузка истории в Excel", description = "Скачать Excel файл с историей на основе входного JSON")
-    public void exportHistoryToExcel(@RequestBody List<Map<String, Object>> data, HttpServletResponse response) throws IOException {
-        response.setContentType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
-        response.setHeader("Content-Disposition", "attachment; filename=history_export.xlsx");
-
-        try (Workbook workbook = new XSSFWorkbook()) {
-            Sheet sheet = workbook.createSheet("История");
-
-            // Заголовки (изменён порядок: сначала Штрихкод, затем Количество)
-            Row headerRow = sheet.createRow(0);
-            String[] headers = {"Штрихкод", "Количество"};
-            for (int i = 0; i < headers.length; i++) {
-                headerRow.createCell(i).setCellValue(headers[i]);
-            }
-
-            // Данные (изменён порядок: сначала Штрихкод, затем Количество)
-            int rowNum = 1;
-            for (Map<String, Object> item : data) {
-                Row row = sheet.createRow(rowNum++);
-                row.createCell(0).setCellValue(item.get("Штрихкод") != null ? item.get("Штрихкод").toString() : "");
-                row.createCell(1).setCellValue(item.get("Количество") != null ? ((Number) item.get("Количество")).doubleValue() : 0.0);
-            }
-
-            // Авторазмер колонок
-            for (int i = 0; i < headers.length; i++) {
-                sheet.autoSizeColumn(i);
-            }
-
-            workbook.write(response.getOutputStream());
+    @Operation(summary = "Выгрузка истории", description = "Скачать файл с историей на основе входного JSON. Формат: параметр format=xlsx|csv|tsv или заголовок Accept; для CSV/TSV gzip=true сжимает ответ, bom=true добавляет BOM для Excel")
+    public void exportHistoryToExcel(@RequestBody List<Map<String, Object>> data, HttpServletRequest request,
+                                     HttpServletResponse response) throws IOException {
+        ExportTarget target = exportTarget(request, response);
+        if (target == null) return;
+
+        try (OutputStream out = openExport(target, response, "history_export");
+             TableWriter writer = target.format().open(out, target.bom(), "История", "Штрихкод", "Количество")) {
+            writer.rows(data, (item, row) -> row
+                    .text(item.get("Штрихкод") != null ? item.get("Штрихкод").toString() : "")
+                    .number(item.get("Количество") != null ? ((Number) item.get("Количество")).doubleValue() : 0.0));
+            writer.finish();
         }
     }
 
     @PostMapping("/export-invoice")
-    @Operation(summary = "Выгрузка накладной в Excel", description = "Скачать Excel файл в виде накладной на основе переданных данных")
-    public void exportInvoice(@RequestBody List<InvoiceItemRequest> invoiceItems, HttpServletResponse response) throws IOException {
-        response.setContentType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
-        response.setHeader("Content-Disposition", "attachment; filename=invoice_export.xlsx");
-
-        try (Workbook workbook = new XSSFWorkbook()) {
-            Sheet sheet = workbook.createSheet("Накладная");
-
-            // Создаем стиль для заголовков
-            CellStyle headerStyle = workbook.createCellStyle();
-            Font headerFont = workbook.createFont();
-            headerFont.setBold(true);
-            headerStyle.setFont(headerFont);
-
-            // Заголовки
-            Row headerRow = sheet.createRow(0);
-            String[] headers = {"Штрихкод", "Наименование", "Количество", "Цена за шт.", "Сумма"};
-            for (int i = 0; i < headers.length; i++) {
-                Cell cell = headerRow.createCell(i);
-                cell.setCellValue(headers[i]);
-                cell.setCellStyle(headerStyle);
-            }
-
-            // Данные
-            int rowNum = 1;
-            double totalSum = 0.0;
-
-            for (InvoiceItemRequest item : invoiceItems) {
-                Row row = sheet.createRow(rowNum++);
-                
-                // Штрихкод - форматируем как в примере (научная нотация)
+    @Operation(summary = "Выгрузка накладной", description = "Скачать файл в виде накладной на основе переданных данных. Формат: параметр format=xlsx|csv|tsv или заголовок Accept; для CSV/TSV gzip=true сжимает ответ, bom=true добавляет BOM для Excel")
+    public void exportInvoice(@RequestBody List<InvoiceItemRequest> invoiceItems, HttpServletRequest request,
+                              HttpServletResponse response) throws IOException {
+        ExportTarget target = exportTarget(request, response);
+        if (target == null) return;
+
+        try (OutputStream out = openExport(target, response, "invoice_export");
+             TableWriter writer = target.format().open(out, target.bom(), "Накладная", "Штрихкод", "Наименование", "Количество", "Цена за шт.", "Сумма")) {
+            writer.rows(invoiceItems, (item, row) -> {
+                // Цифровой штрихкод записывается в Excel числом в научной нотации, как в образце накладной;
+                // в CSV/TSV — как есть, с ведущими нулями
                 String barcode = item.getBarcode();
-                Cell barcodeCell = row.createCell(0);
-                if (barcode != null && !barcode.isEmpty()) {
+                Double barcodeValue = null;
+                if (!target.format().isText() && barcode != null && !barcode.isEmpty()) {
                     try {
-                        double barcodeValue = Double.parseDouble(barcode);
-                        barcodeCell.setCellValue(barcodeValue);
-                        // Устанавливаем формат ячейки для научной нотации
-                        CellStyle scientificStyle = workbook.createCellStyle();
-                        scientificStyle.setDataFormat(workbook.createDataFormat().getFormat("0.#####E+00"));
-                        barcodeCell.setCellStyle(scientificStyle);
-                    } catch (NumberFormatException e) {
-                        barcodeCell.setCellValue(barcode);
+                        barcodeValue = Double.parseDouble(barcode);
+                    } catch (NumberFormatException ignored) {
+                        // Нецифровой штрихкод остаётся текстом
                     }
-                } else {
-                    barcodeCell.setCellValue("");
                 }
-                
-                // Наименование
-                String productName = item.getProductName();
-                row.createCell(1).setCellValue(productName != null ? productName : "");
-                
-                // Количество
-                Integer quantity = item.getQuantity();
-                row.createCell(2).setCellValue(quantity != null ? quantity : 0);
-                
-                // Цена за шт.
-                Double unitPrice = item.getUnitPrice();
-                Cell priceCell = row.createCell(3);
-                if (unitPrice != null) {
-                    priceCell.setCellValue(unitPrice);
-                    // Форматируем как денежное значение с двумя десятичными знаками
-                    CellStyle priceStyle = workbook.createCellStyle();
-                    priceStyle.setDataFormat(workbook.createDataFormat().getFormat("#,##0.00"));
-                    priceCell.setCellStyle(priceStyle);
+                if (barcodeValue != null) {
+                    row.number(barcodeValue, Style.SCIENTIFIC);
                 } else {
-                    priceCell.setCellValue(0.0);
-                }
-                
-                // Сумма
-                Double totalPrice = item.getTotalPrice();
-                Cell totalCell = row.createCell(4);
-                if (totalPrice != null) {
-                    totalCell.setCellValue(totalPrice);
-                    totalSum += totalPrice;
-                    // Форматируем как денежное значение с двумя десятичными знаками
-                    CellStyle totalStyle = workbook.createCellStyle();
-                    totalStyle.setDataFormat(workbook.createDataFormat().getFormat("#,##0.00"));
-                    totalCell.setCellStyle(totalStyle);
-                } else {
-                    totalCell.setCellValue(0.0);
+                    row.text(barcode);
                 }
+                row.text(item.getProductName())
+                        .number(item.getQuantity() != null ? item.getQuantity() : 0, Style.INTEGER)
+                        .number(item.getUnitPrice() != null ? item.getUnitPrice() : 0.0, item.getUnitPrice() != null ? Style.MONEY : Style.GENERAL)
+                        .number(item.getTotalPrice() != null ? item.getTotalPrice() : 0.0, item.getTotalPrice() != null ? Style.MONEY : Style.GENERAL);
+            });
+            writer.finish();
+        }
+    }
+
+    /**
+     * Фильтр поставщиков из тела запроса (allowSuppliers / denySuppliers) или из профиля клиента
+     */
+    private SupplierFilter supplierFilter(Map<String, Object> requestBody) {
+        List<String> allowSuppliers = objectMapper.convertValue(requestBody.get("allowSuppliers"), new TypeReference<List<String>>() {});
+        List<String> denySuppliers = objectMapper.convertValue(requestBody.get("denySuppliers"), new TypeReference<List<String>>() {});
+        String phone = SecurityContextHolder.getContext().getAuthentication().getName();
+        return SupplierFilter.resolve(allowSuppliers, denySuppliers, clientRepository.findByPhone(phone).orElse(null));
+    }
+
+    /**
+     * Формат выгрузки из запроса: format=xlsx|csv|tsv или Accept, gzip=true — сжатие CSV/TSV,
+     * bom=true — BOM в начале CSV/TSV
+     */
+    private record ExportTarget(ExportFormat format, boolean gzip, boolean bom) {
+    }
+
+    /**
+     * Формат выгрузки из запроса; для неизвестного формата — ответ 400 и null
+     */
+    private ExportTarget exportTarget(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        return exportTarget(request, response, ExportFormat.XLSX);
+    }
+
+    private ExportTarget exportTarget(HttpServletRequest request, HttpServletResponse response,
+                                      ExportFormat fallback) throws IOException {
+        try {
+            ExportFormat format = ExportFormat.resolve(request.getParameter("format"), request.getHeader(HttpHeaders.ACCEPT), fallback);
+            // xlsx уже сжат внутри zip-контейнера
+            boolean gzip = format.isText() && Boolean.parseBoolean(request.getParameter("gzip"));
+            return new ExportTarget(format, gzip, Boolean.parseBoolean(request.getParameter("bom")));
+        } catch (IllegalArgumentException e) {
+            writeError(response, HttpStatus.BAD_REQUEST, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Заголовки ответа для выгрузки и поток для записи; закрытие потока дописывает сжатие
+     */
+    private OutputStream openExport(ExportTarget target, HttpServletResponse response, String fileName) throws IOException {
+        return openExport(response, target.format().getContentType(),
+                fileName + "." + target.format().getExtension(), target.gzip());
+    }
+
+    private OutputStream openExport(HttpServletResponse response, String contentType, String fileName,
+                                    boolean gzip) throws IOException {
+        response.setContentType(contentType);
+        response.setHeader("Content-Disposition", "attachment; filename=" + fileName);
+        response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        if (!gzip) {
+            return response.getOutputStream();
+        }
+        response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+        return new GZIPOutputStream(response.getOutputStream(), 64 * 1024);
+    }
+
+    /**
+     * Отдать готовый файл выгрузки: 304 при совпадении ETag, 206 для одного диапазона Range.
+     * Без открытого канала (под Tomcat) файл отправляется через sendfile мимо памяти приложения,
+     * иначе — transferTo из канала файла.
+     */
+    private void sendSnapshot(CatalogSnapshotService.Snapshot snapshot, FileChannel channel, HttpServletRequest request,
+                              HttpServletResponse response) throws IOException {
+        response.setHeader(HttpHeaders.ETAG, snapshot.etag());
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null && (ifNoneMatch.trim().equals("*")
+                || Arrays.asList(ifNoneMatch.trim().split("\\s*,\\s*")).contains(snapshot.etag()))) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        long size = snapshot.size();
+        long start = 0;
+        long end = size - 1;
+        String range = request.getHeader(HttpHeaders.RANGE);
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (range != null && (ifRange == null || ifRange.trim().equals(snapshot.etag()))) {
+            long[] bounds = parseRange(range, size);
+            if (bounds == null) {
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+                return;
+            }
+            if (bounds[0] != 0 || bounds[1] != size - 1) {
+                start = bounds[0];
+                end = bounds[1];
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+            }
+        }
+        response.setContentLengthLong(end - start + 1);
+
+        if (channel == null) {
+            request.setAttribute("org.apache.tomcat.sendfile.filename", snapshot.file().toAbsolutePath().toString());
+            request.setAttribute("org.apache.tomcat.sendfile.start", start);
+            request.setAttribute("org.apache.tomcat.sendfile.end", end + 1);
+            return;
+        }
+        WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+        long position = start;
+        while (position <= end) {
+            position += channel.transferTo(position, end + 1 - position, out);
+        }
+    }
+
+    /**
+     * Один диапазон из заголовка Range: {начало, конец} включительно; null — диапазон за пределами файла.
+     * Несколько диапазонов и непонятный заголовок дают весь файл.
+     */
+    private static long[] parseRange(String range, long size) {
+        long[] whole = {0, size - 1};
+        if (!range.startsWith("bytes=") || range.indexOf(',') >= 0) return whole;
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) return whole;
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                // Последние N байт
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) return null;
+                return new long[]{Math.max(0, size - suffix), size - 1};
             }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+            if (start >= size || start > end) return null;
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return whole;
+        }
+    }
+
+    private void writeError(HttpServletResponse response, HttpStatus status, String message) throws IOException {
+        response.setStatus(status.value());
+        response.setContentType("application/json;charset=UTF-8");
+        objectMapper.writeValue(response.getOutputStream(), Map.of("error", message));
+    }
+
+    /**
+     * Запись результатов анализа прямо в ответ: JSON массивом или NDJSON (по объекту на строку);
+     * ответ начинается с первой пачки
+     */
+    private class JsonResultWriter implements StreamingPriceAnalysisService.ResultSink {
+        private final HttpServletResponse response;
+        private final boolean ndjson;
+        private JsonGenerator generator;
+        private boolean started;
+
+        JsonResultWriter(HttpServletResponse response) {
+            this(response, false);
+        }
 
-            // Авторазмер колонок
-            for (int i = 0; i < headers.length; i++) {
-                sheet.autoSizeColumn(i);
+        JsonResultWriter(HttpServletResponse response, boolean ndjson) {
+            this.response = response;
+            this.ndjson = ndjson;
+        }
+
+        @Override
+        public void accept(PriceAnalysisResult result) throws IOException {
+            if (generator == null) {
+                start();
+            }
+            generator.writeObject(result);
+            if (ndjson) {
+                generator.writeRaw('\n');
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (generator != null) {
+                generator.flush();
             }
+        }
+
+        void close() throws IOException {
+            if (generator == null) {
+                start();
+            }
+            if (!ndjson) {
+                generator.writeEndArray();
+            }
+            generator.close();
+        }
 
-            workbook.write(response.getOutputStream());
+        private void start() throws IOException {
+            started = true;
+            response.setContentType(ndjson ? "application/x-ndjson;charset=UTF-8" : "application/json;charset=UTF-8");
+            generator = objectMapper.getFactory().createGenerator(response.getOutputStream());
+            if (ndjson) {
+                // Объекты верхнего уровня разделяются переводом строки, а не пробелом
+                generator.setRootValueSeparator(null);
+            } else {
+                generator.writeStartArray();
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,57 @@
+package org.example.controller;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.extern.slf4j.Slf4j;
+import org.example.service.ProductSearchIndex;
+import org.example.service.SupplierFilter;
+import org.example.util.CurrentUserUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+@Slf4j
+@RestController
+@RequestMapping("/api/products")
+@Tag(name = "Товары", description = "API поиска по каталогу товаров")
+public class ProductController {
+
+    private final ProductSearchIndex productSearchIndex;
+    private final CurrentUserUtil currentUserUtil;
+    private final int maxLimit;
+
+    public ProductController(ProductSearchIndex productSearchIndex, CurrentUserUtil currentUserUtil,
+                             @Value("${analysis.search.max-limit:50}") int maxLimit) {
+        this.productSearchIndex = productSearchIndex;
+        this.currentUserUtil = currentUserUtil;
+        this.maxLimit = maxLimit;
+    }
+
+    @GetMapping("/search")
+    @Operation(summary = "Поиск товаров", description = "Автодополнение по началу штрихкода или по началу слов наименования; для каждого товара возвращается лучшее предложение с учётом фильтра поставщиков профиля")
+    public ResponseEntity<?> search(
+            @Parameter(description = "Начало штрихкода или слов наименования", required = true)
+            @RequestParam("q") String query,
+            @Parameter(description = "Максимум товаров в ответе")
+            @RequestParam(value = "limit", defaultValue = "20") int limit) {
+
+        if (!productSearchIndex.isReady()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(Map.of("error", "Индекс поиска ещё строится, повторите запрос позже"));
+        }
+        try {
+            SupplierFilter filter = SupplierFilter.resolve(null, null, currentUserUtil.getCurrentClient());
+            return ResponseEntity.ok(productSearchIndex.search(query, Math.min(Math.max(limit, 1), maxLimit), filter));
+        } catch (Exception e) {
+            log.error("Ошибка поиска товаров по запросу '{}': {}", query, e.getMessage());
+            return ResponseEntity.badRequest().body(Map.of("error", "Ошибка поиска: " + e.getMessage()));
+        }
+    }
+}
@@ -4,10 +4,15 @@ import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
 import org.example.dto.HistoryDto;
+import org.example.dto.SupplierFilterDto;
+import org.example.entity.Client;
+import org.example.repository.ClientRepository;
 import org.example.util.CurrentUserUtil;
 import org.example.service.HistoryService;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
@@ -21,6 +26,7 @@ public class ProfileController {
 
     private final CurrentUserUtil currentUserUtil;
     private final HistoryService historyService;
+    private final ClientRepository clientRepository;
 
     @GetMapping("/history")
     @Operation(summary = "Получить историю запросов", description = "Возвращает историю всех запросов пользователя с ответами и датами")
@@ -28,4 +34,23 @@ public class ProfileController {
         List<HistoryDto> history = historyService.getHistoryForClient(currentUserUtil.getCurrentClient());
         return ResponseEntity.ok(history);
     }
-}
\ No newline at end of file
+
+    @GetMapping("/supplier-filter")
+    @Operation(summary = "Получить фильтр поставщиков", description = "Фильтр поставщиков, применяемый к анализу цен, если в запросе не указан свой")
+    public ResponseEntity<SupplierFilterDto> getSupplierFilter() {
+        Client client = currentUserUtil.getCurrentClient();
+        return ResponseEntity.ok(new SupplierFilterDto(client.getSupplierFilterMode(),
+                client.getSupplierFilterNames() != null ? client.getSupplierFilterNames() : List.of()));
+    }
+
+    @PutMapping("/supplier-filter")
+    @Operation(summary = "Сохранить фильтр поставщиков", description = "mode: ALLOW — только перечисленные поставщики, DENY — кроме перечисленных, null — без фильтра")
+    public ResponseEntity<SupplierFilterDto> updateSupplierFilter(@RequestBody SupplierFilterDto request) {
+        Client client = currentUserUtil.getCurrentClient();
+        client.setSupplierFilterMode(request.getMode());
+        client.setSupplierFilterNames(request.getMode() != null && request.getSuppliers() != null
+                ? List.copyOf(request.getSuppliers()) : null);
+        clientRepository.save(client);
+        return getSupplierFilter();
+    }
+}
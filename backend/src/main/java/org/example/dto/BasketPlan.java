@@ -0,0 +1,31 @@
+package org.example.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Разбиение корзины по поставщикам с учётом минимальной суммы заказа и стоимости доставки
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class BasketPlan {
+    // Товары плюс доставка по всем заказам
+    private double totalCost;
+    private double itemsCost;
+    private double deliveryCost;
+    // Каждая строка у самого дешёвого поставщика: стоимость с доставкой и соблюдены ли минимальные суммы
+    private double cheapestLinesCost;
+    private boolean cheapestLinesFeasible;
+    // Перебор завершился до истечения времени и доказал, что более дешёвого разбиения нет
+    private boolean exhaustive;
+    private long elapsedMs;
+    private List<SupplierOrder> orders;
+    // Не найденные в базе и не размещённые из-за ограничений поставщиков строки
+    private List<PriceAnalysisResult> unassigned;
+}
@@ -0,0 +1,21 @@
+package org.example.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Лучшее предложение по штрихкоду: плоская проекция products и suppliers без сущностей
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class BestOfferDto {
+    private String barcode;
+    private int supplierId;
+    private String supplierName;
+    private double priceWithVat;
+    private String productName;
+}
@@ -0,0 +1,25 @@
+package org.example.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Строка детального анализа: позиция заказа и самые дешёвые предложения по ней, от лучшего
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class DetailedAnalysisResult {
+    private String barcode;
+    private Integer quantity;
+    private String productName;
+    private Boolean requiresManualProcessing;
+    // Штрихкод есть в базе, даже если ни у одного предложения нет цены
+    private boolean foundInDatabase;
+    private List<SupplierOfferDto> offers;
+}
@@ -15,6 +15,7 @@ public class ExcelUploadResponse {
     private int newRecords;
     private int updatedRecords;
     private int unchangedRecords;
+    private int removedRecords;
     private int processedRecords;
     private int failedRecords;
 }
\ No newline at end of file
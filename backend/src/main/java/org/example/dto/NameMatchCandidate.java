@@ -0,0 +1,22 @@
+package org.example.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Похожий по наименованию товар каталога для строки заказа, штрихкода которой нет в базе
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class NameMatchCandidate {
+    private String barcode;
+    private String productName;
+    // Сходство наименований от 0 до 1
+    private double similarity;
+    private String supplierName;
+    private Double unitPrice;
+}
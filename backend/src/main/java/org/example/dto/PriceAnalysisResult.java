@@ -1,10 +1,13 @@
 package org.example.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.util.List;
+
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -18,4 +21,7 @@ public class PriceAnalysisResult {
     private Double totalPrice;
     private Boolean requiresManualProcessing;
     private String message;
+    // Похожие по наименованию товары, если штрихкод не найден, а наименование в заказе указано
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private List<NameMatchCandidate> candidates;
 }
\ No newline at end of file
@@ -0,0 +1,20 @@
+package org.example.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Найденный товар каталога с лучшим предложением; поставщик и цена пустые, если предложений с ценой нет
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ProductSearchHit {
+    private String barcode;
+    private String productName;
+    private String supplierName;
+    private Double priceWithVat;
+}
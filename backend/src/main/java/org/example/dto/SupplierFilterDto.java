@@ -0,0 +1,21 @@
+package org.example.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.example.entity.Client;
+
+import java.util.List;
+
+/**
+ * Фильтр поставщиков профиля: ALLOW — только перечисленные, DENY — кроме перечисленных, null — без фильтра
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class SupplierFilterDto {
+    private Client.SupplierFilterMode mode;
+    private List<String> suppliers;
+}
@@ -0,0 +1,21 @@
+package org.example.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Предложение поставщика по штрихкоду в детальном анализе
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class SupplierOfferDto {
+    private String supplierName;
+    private String productName;
+    private double priceWithVat;
+    // Разница с лучшей ценой по штрихкоду в процентах; у лучшего предложения 0
+    private double percentOverBest;
+}
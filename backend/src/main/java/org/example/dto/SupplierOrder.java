@@ -0,0 +1,23 @@
+package org.example.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Заказ у одного поставщика в разбиении корзины
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class SupplierOrder {
+    private String supplierName;
+    private Double minOrderSum;
+    private double deliveryFee;
+    private double itemsSum;
+    private List<PriceAnalysisResult> lines;
+}
@@ -0,0 +1,19 @@
+package org.example.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Условия поставщика: минимальная сумма заказа и стоимость доставки; null — без ограничения и бесплатно
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class SupplierTermsDto {
+    private String supplierName;
+    private Double minOrderSum;
+    private Double deliveryFee;
+}
@@ -0,0 +1,40 @@
+package org.example.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class UploadJobStatus {
+    private String jobId;
+    private String fileName;
+    private Phase phase;
+    private int rowsProcessed;
+    private int totalRows;
+    private long rowsPerSecond;
+    private LocalDateTime createdAt;
+    private LocalDateTime startedAt;
+    private LocalDateTime finishedAt;
+    private ExcelUploadResponse result;
+    private String error;
+    // Поставщики, у которых последняя порция не зафиксирована; повторная загрузка файла повторит только их
+    private List<String> uncommittedSuppliers;
+
+    public enum Phase {
+        QUEUED,
+        SCAN,
+        SUPPLIERS,
+        CACHE,
+        ROWS,
+        COMMIT,
+        DONE,
+        FAILED
+    }
+}
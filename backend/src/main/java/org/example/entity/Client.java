@@ -5,6 +5,7 @@ import jakarta.persistence.*;
 import lombok.*;
 import org.example.util.TimeUtil;
 import java.time.LocalDateTime;
+import java.util.List;
 
 @Entity
 @Table(name = "clients")
@@ -50,7 +51,19 @@ public class Client {
     @Builder.Default
     private LocalDateTime registrationDate = TimeUtil.nowMoscow();
 
+    // Фильтр поставщиков по умолчанию для анализа цен; null — без фильтра
+    @Enumerated(EnumType.STRING)
+    private SupplierFilterMode supplierFilterMode;
+
+    @Convert(converter = StringListConverter.class)
+    @Column(columnDefinition = "TEXT")
+    private List<String> supplierFilterNames;
+
     public enum SubscriptionStatus {
         ACTIVE, EXPIRED
     }
+
+    public enum SupplierFilterMode {
+        ALLOW, DENY
+    }
 }
\ No newline at end of file
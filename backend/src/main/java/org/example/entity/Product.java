@@ -7,9 +7,8 @@ import org.hibernate.annotations.BatchSize;
 @Entity
 @Table(name = "products", indexes = {
         @Index(name = "idx_barcode", columnList = "barcode"),
-        @Index(name = "idx_barcode_price", columnList = "barcode, price_with_vat"),
-        @Index(name = "idx_supplier_barcode", columnList = "supplier_name, barcode")
-}, uniqueConstraints = @UniqueConstraint(columnNames = {"supplier_name", "barcode"}))
+        @Index(name = "idx_barcode_price", columnList = "barcode, price_with_vat")
+}, uniqueConstraints = @UniqueConstraint(name = "uk_products_supplier_barcode", columnNames = {"supplier_id", "barcode"}))
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -21,7 +20,7 @@ public class Product {
     private Long id;
 
     @ManyToOne(fetch = FetchType.LAZY)
-    @JoinColumn(name = "supplier_name")
+    @JoinColumn(name = "supplier_id", foreignKey = @ForeignKey(name = "fk_products_supplier"))
     private Supplier supplier;
 
     @Column(nullable = false)
@@ -31,4 +30,12 @@ public class Product {
 
     @Column(name = "price_with_vat")
     private Double priceWithVat;
+
+    /**
+     * Версия каталога, в которой строка последний раз вставлена или изменена загрузкой поставщика.
+     * Строки, загруженные до появления версий, получают общую версию в {@link org.example.config.ChangeVersionMigration};
+     * до её завершения у них null. Индекс по колонке строит та же миграция
+     */
+    @Column(name = "change_version")
+    private Long changeVersion;
 }
\ No newline at end of file
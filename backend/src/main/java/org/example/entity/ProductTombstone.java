@@ -0,0 +1,38 @@
+package org.example.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+import java.time.LocalDateTime;
+
+/**
+ * Отметка об удалении товара загрузкой поставщика в режиме замены. Нужна выгрузке изменений
+ * каталога: удалённой строки в products уже нет, а клиент должен узнать, что её надо убрать.
+ * Отметки старше срока хранения удаляются, см. {@link org.example.service.CatalogVersionService#purgeTombstones()}.
+ */
+@Entity
+@Table(name = "product_tombstones", indexes = {
+        @Index(name = "idx_product_tombstones_change_version", columnList = "change_version"),
+        @Index(name = "idx_product_tombstones_created_at", columnList = "created_at")
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ProductTombstone {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "supplier_id", nullable = false, foreignKey = @ForeignKey(name = "fk_product_tombstones_supplier"))
+    private Supplier supplier;
+
+    @Column(nullable = false)
+    private String barcode;
+
+    @Column(name = "change_version", nullable = false)
+    private Long changeVersion;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+}
@@ -2,15 +2,32 @@ package org.example.entity;
 
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.BatchSize;
 
 @Entity
-@Table(name = "suppliers")
+@Table(name = "suppliers", uniqueConstraints = @UniqueConstraint(name = "uk_suppliers_supplier_name", columnNames = "supplier_name"))
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
 @Builder
+@BatchSize(size = 50)
 public class Supplier {
     @Id
-    @Column(name = "supplier_name")
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Integer id;
+
+    @Column(name = "supplier_name", nullable = false)
     private String supplierName;
-}
\ No newline at end of file
+
+    /** SHA-256 блока строк поставщика из последней завершённой загрузки */
+    @Column(name = "content_digest", length = 64)
+    private String contentDigest;
+
+    /** Минимальная сумма заказа у поставщика; null — без ограничения */
+    @Column(name = "min_order_sum")
+    private Double minOrderSum;
+
+    /** Фиксированная стоимость доставки одного заказа; null — бесплатно */
+    @Column(name = "delivery_fee")
+    private Double deliveryFee;
+}
@@ -0,0 +1,81 @@
+package org.example.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+import java.time.LocalDateTime;
+import java.util.List;
+import org.example.util.TimeUtil;
+
+/**
+ * Загрузка файла поставщиков: отпечаток файла и контрольная точка фиксации.
+ * По контрольной точке повторная загрузка того же файла продолжается с первой незафиксированной строки.
+ * Если следующую порцию зафиксировали не все группы поставщиков, в partialCommitRow и uncommittedSuppliers
+ * записывается, у кого она не зафиксирована: при продолжении порция повторяется только для них.
+ */
+@Entity
+@Table(name = "supplier_uploads", indexes = {
+    @Index(name = "idx_supplier_upload_fingerprint", columnList = "fingerprint")
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class SupplierUpload {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    /** SHA-256 содержимого файла */
+    @Column(nullable = false, length = 64)
+    private String fingerprint;
+
+    private String fileName;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private Status status;
+
+    private int totalRows;
+
+    /** Номер строки листа, до которой включительно изменения зафиксированы */
+    private int lastCommittedRow;
+
+    /** Строка, до которой порция после контрольной точки зафиксирована частично; 0 — такой порции нет */
+    @Column(columnDefinition = "integer not null default 0")
+    private int partialCommitRow;
+
+    /** Поставщики, не зафиксировавшие порцию до partialCommitRow; остальные поставщики файла её зафиксировали */
+    @Convert(converter = StringListConverter.class)
+    @Column(columnDefinition = "TEXT")
+    private List<String> uncommittedSuppliers;
+
+    private int newRecords;
+    private int updatedRecords;
+    private int unchangedRecords;
+    private int skippedRecords;
+    private int failedRecords;
+
+    /** Удалено товаров в режиме замены */
+    @Column(columnDefinition = "integer not null default 0")
+    private int removedRecords;
+
+    /** id поставщиков файла */
+    @Column(columnDefinition = "integer[]")
+    private int[] supplierIds;
+
+    /**
+     * Версия каталога на момент завершения: все изменения с версиями не выше неё зафиксированы.
+     * Повтор файла не обрабатывается, пока у его поставщиков нет изменений после этой версии
+     */
+    private Long catalogVersion;
+
+    @Column(nullable = false)
+    @Builder.Default
+    private LocalDateTime createdAt = TimeUtil.nowMoscow();
+
+    private LocalDateTime updatedAt;
+
+    public enum Status {
+        IN_PROGRESS, FAILED, COMPLETED
+    }
+}
@@ -0,0 +1,113 @@
+package org.example.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+
+/**
+ * Версия каталога товаров на последовательности PostgreSQL: значения монотонно растут
+ * и сохраняются между перезапусками. Здесь же горизонт выгрузки изменений и очистка отметок удаления.
+ */
+@Repository
+@RequiredArgsConstructor
+public class CatalogVersionRepository {
+
+    private static final String CREATE_SEQUENCE = "CREATE SEQUENCE IF NOT EXISTS catalog_version_seq";
+
+    // До первого nextval last_value равен начальному значению, но is_called = false
+    private static final String SELECT_CURRENT =
+            "SELECT CASE WHEN is_called THEN last_value ELSE 0 END FROM catalog_version_seq";
+
+    private static final String SELECT_NEXT = "SELECT nextval('catalog_version_seq')";
+
+    // Горизонт выгрузки изменений: наибольшая версия удалённых по сроку хранения отметок удаления
+    private static final String CREATE_HORIZON = """
+            CREATE TABLE IF NOT EXISTS catalog_change_horizon (
+                id int PRIMARY KEY CHECK (id = 1),
+                version bigint NOT NULL
+            )""";
+
+    private static final String SELECT_HORIZON =
+            "SELECT coalesce((SELECT version FROM catalog_change_horizon WHERE id = 1), 0)";
+
+    // Удаление отметок и подъём горизонта одним оператором: горизонт не отстаёт от удалённых отметок
+    private static final String PURGE_TOMBSTONES = """
+            WITH purged AS (
+                DELETE FROM product_tombstones WHERE created_at < ? OR created_at IS NULL
+                RETURNING change_version
+            ), horizon AS (
+                INSERT INTO catalog_change_horizon (id, version)
+                SELECT 1, max(change_version) FROM purged HAVING count(*) > 0
+                ON CONFLICT (id) DO UPDATE SET version = GREATEST(catalog_change_horizon.version, EXCLUDED.version)
+                RETURNING version
+            )
+            SELECT (SELECT count(*) FROM purged), coalesce((SELECT version FROM horizon), 0)""";
+
+    private final DataSource dataSource;
+
+    public void createSequence() throws SQLException {
+        execute(CREATE_SEQUENCE);
+        execute(CREATE_HORIZON);
+    }
+
+    public long current() throws SQLException {
+        return queryLong(SELECT_CURRENT);
+    }
+
+    public long next() throws SQLException {
+        return queryLong(SELECT_NEXT);
+    }
+
+    /**
+     * Версия, до которой включительно отметки удаления могли быть удалены по сроку хранения;
+     * изменения после более ранней версии восстановить нельзя
+     */
+    public long horizon() throws SQLException {
+        return queryLong(SELECT_HORIZON);
+    }
+
+    /**
+     * Удалить отметки удаления, записанные раньше cutoff, и поднять горизонт до наибольшей удалённой версии.
+     * Возвращает {число удалённых отметок, новый горизонт или 0, если ничего не удалено}.
+     */
+    public long[] purgeTombstones(LocalDateTime cutoff) throws SQLException {
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        try (PreparedStatement statement = connection.prepareStatement(PURGE_TOMBSTONES)) {
+            statement.setObject(1, cutoff);
+            try (ResultSet rs = statement.executeQuery()) {
+                rs.next();
+                return new long[]{rs.getLong(1), rs.getLong(2)};
+            }
+        } finally {
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+    }
+
+    private void execute(String sql) throws SQLException {
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        } finally {
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+    }
+
+    private long queryLong(String sql) throws SQLException {
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery(sql)) {
+            rs.next();
+            return rs.getLong(1);
+        } finally {
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+    }
+}
@@ -0,0 +1,502 @@
+package org.example.repository;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.example.dto.BestOfferDto;
+import org.example.entity.Client;
+import org.example.util.TimeUtil;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Массовая запись товаров поставщиков средствами PostgreSQL.
+ * Строки потоком передаются через COPY во временную staging таблицу, после чего
+ * сливаются в products одним INSERT ... ON CONFLICT. Работает в текущей транзакции.
+ */
+@Repository
+@RequiredArgsConstructor
+public class ProductBulkRepository {
+
+    private static final String CREATE_STAGING = """
+            CREATE TEMP TABLE IF NOT EXISTS products_staging (
+                supplier_id    INTEGER      NOT NULL,
+                barcode        VARCHAR(255) NOT NULL,
+                product_name   VARCHAR(255),
+                price_with_vat DOUBLE PRECISION
+            ) ON COMMIT DROP""";
+
+    private static final String COPY_STAGING =
+            "COPY products_staging (supplier_id, barcode, product_name, price_with_vat) FROM STDIN";
+
+    // xmax = 0 только у строк, вставленных этим запросом; строки без изменений не попадают в RETURNING
+    // и сохраняют прежнюю версию изменения
+    private static final String MERGE_STAGING = """
+            WITH upserted AS (
+                INSERT INTO products (supplier_id, barcode, product_name, price_with_vat, change_version)
+                SELECT supplier_id, barcode, product_name, price_with_vat, ? FROM products_staging
+                ON CONFLICT (supplier_id, barcode) DO UPDATE
+                    SET product_name = EXCLUDED.product_name,
+                        price_with_vat = EXCLUDED.price_with_vat,
+                        change_version = EXCLUDED.change_version
+                    WHERE products.product_name IS DISTINCT FROM EXCLUDED.product_name
+                       OR products.price_with_vat IS DISTINCT FROM EXCLUDED.price_with_vat
+                RETURNING (xmax = 0) AS inserted
+            )
+            SELECT count(*) FILTER (WHERE inserted), count(*) FILTER (WHERE NOT inserted) FROM upserted""";
+
+    private static final String SELECT_SNAPSHOTS = """
+            SELECT supplier_id, id, barcode, price_with_vat, product_name
+            FROM products
+            WHERE supplier_id = ANY (?)""";
+
+    // Удалённые строки оставляют отметку с версией изменения для выгрузки изменений каталога
+    private static final String DELETE_BY_IDS = """
+            WITH deleted AS (
+                DELETE FROM products WHERE id = ANY (?) RETURNING supplier_id, barcode
+            ), tombstones AS (
+                INSERT INTO product_tombstones (supplier_id, barcode, change_version, created_at)
+                SELECT supplier_id, barcode, ?, ? FROM deleted
+            )
+            SELECT barcode FROM deleted""";
+
+    // Изменены ли товары поставщиков после версии: записанные строки, строки без версии
+    // (заполнение change_version ещё идёт) и удаления; читается по индексам change_version
+    private static final String SELECT_CHANGED_SINCE = """
+            SELECT EXISTS (SELECT 1 FROM products WHERE change_version > ? AND supplier_id = ANY (?))
+                OR EXISTS (SELECT 1 FROM products WHERE change_version IS NULL AND supplier_id = ANY (?))
+                OR EXISTS (SELECT 1 FROM product_tombstones WHERE change_version > ? AND supplier_id = ANY (?))""";
+
+    // Все предложения с ценой, сгруппированные по штрихкоду и упорядоченные по цене (idx_barcode_price)
+    private static final String SELECT_PRICED_OFFERS = """
+            SELECT barcode, supplier_id, price_with_vat, product_name
+            FROM products
+            WHERE price_with_vat IS NOT NULL
+            ORDER BY barcode, price_with_vat""";
+
+    // Штрихкоды передаются одним параметром-массивом: текст запроса один для любого размера заказа
+    private static final String SELECT_BEST_OFFERS_BY_BARCODES = """
+            SELECT DISTINCT ON (p.barcode) p.barcode, p.supplier_id, s.supplier_name, p.price_with_vat, p.product_name
+            FROM products p
+            JOIN suppliers s ON s.id = p.supplier_id
+            WHERE p.barcode = ANY (?) AND p.price_with_vat IS NOT NULL%s
+            ORDER BY p.barcode, p.price_with_vat""";
+
+    private static final String ALLOWED_SUPPLIERS = " AND s.supplier_name = ANY (?)";
+    private static final String DENIED_SUPPLIERS = " AND s.supplier_name <> ALL (?)";
+
+    // Все предложения по штрихкодам заказа одним запросом; отбор лучших выполняет вызывающий код
+    private static final String SELECT_OFFERS_BY_BARCODES = """
+            SELECT p.barcode, p.supplier_id, s.supplier_name, p.price_with_vat, p.product_name
+            FROM products p
+            JOIN suppliers s ON s.id = p.supplier_id
+            WHERE p.barcode = ANY (?)""";
+
+    // Весь каталог для выгрузки; порядок строк не задан, чтобы не сортировать таблицу на сервере
+    private static final String SELECT_CATALOG = """
+            SELECT s.supplier_name, p.barcode, p.product_name, p.price_with_vat
+            FROM products p
+            JOIN suppliers s ON s.id = p.supplier_id""";
+
+    // Изменения каталога в диапазоне версий: вставленные и изменённые строки вместе с отметками удалений.
+    // Обе части читаются по индексам change_version и сливаются по версии без сортировки таблицы
+    private static final String SELECT_CHANGES = """
+            SELECT p.change_version, FALSE, s.supplier_name, p.barcode, p.product_name, p.price_with_vat
+            FROM products p
+            JOIN suppliers s ON s.id = p.supplier_id
+            WHERE p.change_version > ? AND p.change_version <= ?
+            UNION ALL
+            SELECT t.change_version, TRUE, s.supplier_name, t.barcode, NULL, NULL
+            FROM product_tombstones t
+            JOIN suppliers s ON s.id = t.supplier_id
+            WHERE t.change_version > ? AND t.change_version <= ?
+            ORDER BY 1""";
+
+    // Наименование штрихкода — у самого дешёвого предложения, товары без цены в конце
+    private static final String SELECT_PRODUCT_NAMES = """
+            SELECT DISTINCT ON (barcode) barcode, product_name
+            FROM products
+            WHERE product_name IS NOT NULL%s
+            ORDER BY barcode, price_with_vat""";
+
+    private static final int FETCH_SIZE = 10_000;
+
+    private final DataSource dataSource;
+
+    @FunctionalInterface
+    public interface ProductSnapshotHandler {
+        void accept(int supplierId, long id, String barcode, Double priceWithVat, String productName);
+    }
+
+    /**
+     * Прочитать товары поставщиков курсором (порциями по FETCH_SIZE строк), не создавая сущностей.
+     * Курсор на стороне сервера работает только внутри транзакции.
+     */
+    public void streamProductSnapshots(int[] supplierIds, ProductSnapshotHandler handler) throws SQLException {
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        try (PreparedStatement statement = connection.prepareStatement(SELECT_SNAPSHOTS)) {
+            statement.setFetchSize(FETCH_SIZE);
+            statement.setArray(1, connection.unwrap(PGConnection.class).createArrayOf("int4", supplierIds));
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    double price = rs.getDouble(4);
+                    handler.accept(rs.getInt(1), rs.getLong(2), rs.getString(3),
+                            rs.wasNull() ? null : price, rs.getString(5));
+                }
+            }
+        } finally {
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+    }
+
+    @FunctionalInterface
+    public interface BestOfferHandler {
+        void accept(String barcode, int supplierId, double priceWithVat, String productName);
+    }
+
+    /**
+     * Прочитать курсором все предложения каталога с ценой: строки одного штрихкода идут подряд,
+     * от меньшей цены к большей. Курсор на стороне сервера работает только внутри транзакции.
+     */
+    public void streamPricedOffers(BestOfferHandler handler) throws SQLException {
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        try (PreparedStatement statement = connection.prepareStatement(SELECT_PRICED_OFFERS)) {
+            statement.setFetchSize(FETCH_SIZE);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    handler.accept(rs.getString(1), rs.getInt(2), rs.getDouble(3), rs.getString(4));
+                }
+            }
+        } finally {
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+    }
+
+    /**
+     * Лучшее предложение по каждому из переданных штрихкодов одним запросом без создания сущностей.
+     * Штрихкоды без предложений с ценой в результат не попадают.
+     */
+    public List<BestOfferDto> findBestOffers(Collection<String> barcodes) throws SQLException {
+        return findBestOffers(barcodes, null, List.of());
+    }
+
+    /**
+     * Лучшее предложение среди разрешённых поставщиков: mode = ALLOW — только из списка,
+     * DENY — кроме поставщиков из списка, null — без фильтра
+     */
+    public List<BestOfferDto> findBestOffers(Collection<String> barcodes, Client.SupplierFilterMode mode,
+                                             Collection<String> supplierNames) throws SQLException {
+        String supplierCondition = mode == null ? ""
+                : mode == Client.SupplierFilterMode.ALLOW ? ALLOWED_SUPPLIERS : DENIED_SUPPLIERS;
+        List<BestOfferDto> offers = new ArrayList<>(barcodes.size());
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        try (PreparedStatement statement = connection.prepareStatement(SELECT_BEST_OFFERS_BY_BARCODES.formatted(supplierCondition))) {
+            statement.setArray(1, connection.createArrayOf("varchar", barcodes.toArray()));
+            if (mode != null) {
+                statement.setArray(2, connection.createArrayOf("varchar", supplierNames.toArray()));
+            }
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    offers.add(new BestOfferDto(rs.getString(1), rs.getInt(2), rs.getString(3),
+                            rs.getDouble(4), rs.getString(5)));
+                }
+            }
+        } finally {
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+        return offers;
+    }
+
+    @FunctionalInterface
+    public interface OfferHandler {
+        void accept(String barcode, int supplierId, String supplierName, Double priceWithVat, String productName);
+    }
+
+    /**
+     * Прочитать курсором все предложения по переданным штрихкодам, включая товары без цены.
+     * Курсор на стороне сервера работает только внутри транзакции.
+     */
+    public void streamOffers(Collection<String> barcodes, OfferHandler handler) throws SQLException {
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        try (PreparedStatement statement = connection.prepareStatement(SELECT_OFFERS_BY_BARCODES)) {
+            statement.setFetchSize(FETCH_SIZE);
+            statement.setArray(1, connection.createArrayOf("varchar", barcodes.toArray()));
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    double price = rs.getDouble(4);
+                    handler.accept(rs.getString(1), rs.getInt(2), rs.getString(3), rs.wasNull() ? null : price, rs.getString(5));
+                }
+            }
+        } finally {
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+    }
+
+    @FunctionalInterface
+    public interface CatalogRowHandler {
+        void accept(String supplierName, String barcode, String productName, Double priceWithVat) throws IOException;
+    }
+
+    /**
+     * Прочитать курсором все товары каталога с наименованием поставщика, не создавая сущностей.
+     * Курсор на стороне сервера работает только внутри транзакции.
+     */
+    public void streamCatalog(CatalogRowHandler handler) throws SQLException, IOException {
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        try (PreparedStatement statement = connection.prepareStatement(SELECT_CATALOG)) {
+            statement.setFetchSize(FETCH_SIZE);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    double price = rs.getDouble(4);
+                    handler.accept(rs.getString(1), rs.getString(2), rs.getString(3), rs.wasNull() ? null : price);
+                }
+            }
+        } finally {
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+    }
+
+    @FunctionalInterface
+    public interface CatalogChangeHandler {
+        void accept(long version, boolean deleted, String supplierName, String barcode, String productName,
+                    Double priceWithVat) throws IOException;
+    }
+
+    /**
+     * Прочитать курсором изменения каталога с версиями в (since, upTo] в порядке версий; у удалённых
+     * товаров наименование и цена — null. Курсор на стороне сервера работает только внутри транзакции.
+     */
+    public void streamChanges(long since, long upTo, CatalogChangeHandler handler) throws SQLException, IOException {
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        try (PreparedStatement statement = connection.prepareStatement(SELECT_CHANGES)) {
+            statement.setLong(1, since);
+            statement.setLong(2, upTo);
+            statement.setLong(3, since);
+            statement.setLong(4, upTo);
+            statement.setFetchSize(FETCH_SIZE);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    double price = rs.getDouble(6);
+                    handler.accept(rs.getLong(1), rs.getBoolean(2), rs.getString(3), rs.getString(4), rs.getString(5),
+                            rs.wasNull() ? null : price);
+                }
+            }
+        } finally {
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+    }
+
+    @FunctionalInterface
+    public interface ProductNameHandler {
+        void accept(String barcode, String productName);
+    }
+
+    /**
+     * Прочитать курсором наименование каждого штрихкода каталога.
+     * Курсор на стороне сервера работает только внутри транзакции.
+     */
+    public void streamProductNames(ProductNameHandler handler) throws SQLException {
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        try (PreparedStatement statement = connection.prepareStatement(SELECT_PRODUCT_NAMES.formatted(""))) {
+            statement.setFetchSize(FETCH_SIZE);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    handler.accept(rs.getString(1), rs.getString(2));
+                }
+            }
+        } finally {
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+    }
+
+    /**
+     * Наименования переданных штрихкодов одним запросом; штрихкоды без товаров в результат не попадают
+     */
+    public void findProductNames(Collection<String> barcodes, ProductNameHandler handler) throws SQLException {
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        try (PreparedStatement statement = connection.prepareStatement(SELECT_PRODUCT_NAMES.formatted(" AND barcode = ANY (?)"))) {
+            statement.setArray(1, connection.createArrayOf("varchar", barcodes.toArray()));
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    handler.accept(rs.getString(1), rs.getString(2));
+                }
+            }
+        } finally {
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+    }
+
+    /**
+     * Удалить товары по списку id одним запросом в текущей транзакции и записать отметки удаления
+     * с версией changeVersion; штрихкоды удалённых строк передаются получателю. Возвращает число удалённых строк.
+     */
+    public int deleteProducts(long[] ids, long changeVersion, Consumer<String> deletedBarcodes) throws SQLException {
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        try (PreparedStatement statement = connection.prepareStatement(DELETE_BY_IDS)) {
+            statement.setArray(1, connection.unwrap(PGConnection.class).createArrayOf("int8", ids));
+            statement.setLong(2, changeVersion);
+            statement.setObject(3, TimeUtil.nowMoscow());
+            int deleted = 0;
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    deletedBarcodes.accept(rs.getString(1));
+                    deleted++;
+                }
+            }
+            return deleted;
+        } finally {
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+    }
+
+    /**
+     * Менялись ли товары поставщиков после версии version: вставка, изменение или удаление
+     * с большей версией либо строка, которой версия ещё не присвоена
+     */
+    public boolean hasChangesSince(int[] supplierIds, long version) throws SQLException {
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        try (PreparedStatement statement = connection.prepareStatement(SELECT_CHANGED_SINCE)) {
+            java.sql.Array ids = connection.unwrap(PGConnection.class).createArrayOf("int4", supplierIds);
+            statement.setLong(1, version);
+            statement.setArray(2, ids);
+            statement.setArray(3, ids);
+            statement.setLong(4, version);
+            statement.setArray(5, ids);
+            try (ResultSet rs = statement.executeQuery()) {
+                rs.next();
+                return rs.getBoolean(1);
+            }
+        } finally {
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+    }
+
+    /**
+     * Создать staging таблицу и открыть COPY поток в соединении текущей транзакции
+     */
+    public StagingWriter openStaging() throws SQLException {
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(CREATE_STAGING);
+            statement.execute("TRUNCATE products_staging");
+        }
+        CopyIn copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_STAGING);
+        return new StagingWriter(connection, copyIn);
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    public static class MergeResult {
+        private final int inserted;
+        private final int updated;
+        private final int unchanged;
+    }
+
+    /**
+     * Запись строк в staging таблицу в текстовом формате COPY.
+     * Строки дублей (одинаковые поставщик и штрихкод) передавать нельзя — ON CONFLICT их не примет.
+     */
+    public class StagingWriter implements AutoCloseable {
+        private static final int FLUSH_THRESHOLD = 64 * 1024;
+
+        private final Connection connection;
+        private final CopyIn copyIn;
+        private final StringBuilder buffer = new StringBuilder(FLUSH_THRESHOLD + 1024);
+        private int rows;
+
+        private StagingWriter(Connection connection, CopyIn copyIn) {
+            this.connection = connection;
+            this.copyIn = copyIn;
+        }
+
+        /**
+         * Добавить строку; отсутствующая цена передаётся как NaN
+         */
+        public void add(int supplierId, CharSequence barcode, String productName, double priceWithVat) throws SQLException {
+            buffer.append(supplierId).append('\t');
+            appendField(barcode).append('\t');
+            appendField(productName).append('\t');
+            if (Double.isNaN(priceWithVat)) {
+                buffer.append("\\N");
+            } else {
+                buffer.append(priceWithVat);
+            }
+            buffer.append('\n');
+            rows++;
+            if (buffer.length() >= FLUSH_THRESHOLD) {
+                flush();
+            }
+        }
+
+        public int getRows() {
+            return rows;
+        }
+
+        /**
+         * Завершить COPY и слить staging таблицу в products; вставленные и изменённые строки
+         * получают версию changeVersion
+         */
+        public MergeResult merge(long changeVersion) throws SQLException {
+            flush();
+            copyIn.endCopy();
+            try (PreparedStatement statement = connection.prepareStatement(MERGE_STAGING)) {
+                statement.setLong(1, changeVersion);
+                try (ResultSet rs = statement.executeQuery()) {
+                    rs.next();
+                    int inserted = rs.getInt(1);
+                    int updated = rs.getInt(2);
+                    return new MergeResult(inserted, updated, rows - inserted - updated);
+                }
+            }
+        }
+
+        @Override
+        public void close() throws SQLException {
+            try {
+                if (copyIn.isActive()) {
+                    copyIn.cancelCopy();
+                }
+            } finally {
+                DataSourceUtils.releaseConnection(connection, dataSource);
+            }
+        }
+
+        private void flush() throws SQLException {
+            if (buffer.isEmpty()) return;
+            byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+            copyIn.writeToCopy(bytes, 0, bytes.length);
+            buffer.setLength(0);
+        }
+
+        private StringBuilder appendField(CharSequence value) {
+            if (value == null) {
+                return buffer.append("\\N");
+            }
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '\\' -> buffer.append("\\\\");
+                    case '\t' -> buffer.append("\\t");
+                    case '\n' -> buffer.append("\\n");
+                    case '\r' -> buffer.append("\\r");
+                    default -> buffer.append(c);
+                }
+            }
+            return buffer;
+        }
+    }
+}
@@ -17,9 +17,6 @@ public interface ProductRepository extends JpaRepository<Product, Long> {
     // Новый метод для поиска всех товаров по штрихкоду
     List<Product> findByBarcode(String barcode);
 
-    @Query("SELECT p FROM Product p WHERE p.barcode IN :barcodes ORDER BY p.barcode, p.priceWithVat ASC")
-    List<Product> findByBarcodesOrderedByPrice(@Param("barcodes") List<String> barcodes);
-
     Optional<Product> findBySupplier_SupplierNameAndBarcode(String supplierName, String barcode);
 
     @Query("SELECT COUNT(p) FROM Product p")
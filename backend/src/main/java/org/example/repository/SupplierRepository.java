@@ -4,6 +4,10 @@ import org.example.entity.Supplier;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
+
 @Repository
-public interface SupplierRepository extends JpaRepository<Supplier, String> {
-}
\ No newline at end of file
+public interface SupplierRepository extends JpaRepository<Supplier, Integer> {
+    List<Supplier> findBySupplierNameIn(Collection<String> supplierNames);
+}
@@ -0,0 +1,13 @@
+package org.example.repository;
+
+import org.example.entity.SupplierUpload;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface SupplierUploadRepository extends JpaRepository<SupplierUpload, Long> {
+    Optional<SupplierUpload> findFirstByFingerprintOrderByCreatedAtDesc(String fingerprint);
+    Optional<SupplierUpload> findFirstByFingerprintAndStatusOrderByUpdatedAtDesc(String fingerprint, SupplierUpload.Status status);
+}
@@ -0,0 +1,134 @@
+package org.example.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кэш результатов анализа цен. Ключ — SHA-256 файла заказа с фильтром поставщиков и версия каталога, поэтому после
+ * загрузки поставщиков старые результаты больше не находятся и вытесняются первыми.
+ * Хранится готовый JSON ответа, так что попадание не требует ни разбора файла, ни сериализации,
+ * и строки файла для записи в историю. Результаты, посчитанные до построения индексов подбора
+ * по наименованию, не кэшируются — в них не хватает похожих товаров.
+ * Размер ограничен числом записей и суммарным весом (примерным объёмом JSON в памяти);
+ * при превышении вытесняются давно не использованные записи.
+ * Метрики: analysis.cache.requests (result=hit|miss), analysis.cache.evictions,
+ * analysis.cache.size, analysis.cache.weight.
+ */
+@Slf4j
+@Service
+public class AnalysisResultCache {
+
+    private final int maxEntries;
+    private final long maxWeightBytes;
+
+    // Порядок доступа: первой идёт давно не использованная запись
+    private final LinkedHashMap<Key, CachedAnalysis> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    private long newestCatalogVersion;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public AnalysisResultCache(MeterRegistry meterRegistry,
+                               @Value("${analysis.cache.max-entries:500}") int maxEntries,
+                               @Value("${analysis.cache.max-megabytes:128}") long maxMegabytes) {
+        this.maxEntries = maxEntries;
+        this.maxWeightBytes = maxMegabytes * 1024 * 1024;
+
+        FunctionCounter.builder("analysis.cache.requests", hits, AtomicLong::get)
+                .tag("result", "hit").description("Попадания в кэш анализа цен").register(meterRegistry);
+        FunctionCounter.builder("analysis.cache.requests", misses, AtomicLong::get)
+                .tag("result", "miss").description("Промахи кэша анализа цен").register(meterRegistry);
+        FunctionCounter.builder("analysis.cache.evictions", evictions, AtomicLong::get)
+                .description("Вытесненные записи кэша анализа цен").register(meterRegistry);
+        Gauge.builder("analysis.cache.size", this, AnalysisResultCache::size)
+                .description("Записей в кэше анализа цен").register(meterRegistry);
+        Gauge.builder("analysis.cache.weight", this, AnalysisResultCache::weight)
+                .baseUnit("bytes").description("Примерный объём кэша анализа цен").register(meterRegistry);
+        log.info("Кэш анализа цен: до {} записей, до {} МБ", maxEntries, maxMegabytes);
+    }
+
+    /**
+     * Готовый ответ анализа: JSON массив результатов, их количество и строки файла заказа для истории
+     */
+    public record CachedAnalysis(String responseJson, int resultCount, List<Map<String, Object>> fileContent) {
+        long weight() {
+            // Кириллица хранится в String по 2 байта на символ; плюс заголовки объектов и элементы карт
+            long weight = (long) responseJson.length() * 2 + 128;
+            if (fileContent != null) {
+                for (Map<String, Object> row : fileContent) {
+                    weight += 64 + row.size() * 96L;
+                    for (Object value : row.values()) {
+                        if (value instanceof String text) {
+                            weight += text.length() * 2L;
+                        }
+                    }
+                }
+            }
+            return weight;
+        }
+    }
+
+    private record Key(String fileHash, long catalogVersion) {
+    }
+
+    public synchronized CachedAnalysis get(String fileHash, long catalogVersion) {
+        dropOlderVersions(catalogVersion);
+        CachedAnalysis cached = entries.get(new Key(fileHash, catalogVersion));
+        (cached != null ? hits : misses).incrementAndGet();
+        return cached;
+    }
+
+    public synchronized void put(String fileHash, long catalogVersion, CachedAnalysis analysis) {
+        if (catalogVersion < newestCatalogVersion || analysis.weight() > maxWeightBytes) return;
+        dropOlderVersions(catalogVersion);
+        CachedAnalysis previous = entries.put(new Key(fileHash, catalogVersion), analysis);
+        if (previous != null) {
+            weight -= previous.weight();
+        }
+        weight += analysis.weight();
+
+        Iterator<CachedAnalysis> eldest = entries.values().iterator();
+        while (entries.size() > maxEntries || weight > maxWeightBytes) {
+            weight -= eldest.next().weight();
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long weight() {
+        return weight;
+    }
+
+    /**
+     * После изменения каталога результаты прошлых версий уже не будут запрошены — освободить память сразу
+     */
+    private void dropOlderVersions(long catalogVersion) {
+        if (catalogVersion <= newestCatalogVersion) return;
+        newestCatalogVersion = catalogVersion;
+        Iterator<Map.Entry<Key, CachedAnalysis>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Key, CachedAnalysis> entry = iterator.next();
+            if (entry.getKey().catalogVersion() < catalogVersion) {
+                weight -= entry.getValue().weight();
+                iterator.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package org.example.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.dto.BasketPlan;
+import org.example.dto.PriceAnalysisResult;
+import org.example.dto.SupplierOrder;
+import org.example.entity.Supplier;
+import org.example.repository.ProductBulkRepository;
+import org.example.repository.SupplierRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Разбиение корзины по поставщикам с минимальной полной стоимостью: товары плюс доставка,
+ * с соблюдением минимальной суммы заказа каждого поставщика. Предложения берутся из индекса
+ * лучших цен (до его построения — из базы), условия поставщиков — из таблицы поставщиков.
+ * Время поиска ограничено: по истечении возвращается лучшее найденное разбиение.
+ */
+@Slf4j
+@Service
+public class BasketOptimizationService {
+
+    private static final int BARCODE_BATCH = 10_000;
+
+    private final BestPriceIndex bestPriceIndex;
+    private final ProductBulkRepository productBulkRepository;
+    private final SupplierRepository supplierRepository;
+    private final TransactionTemplate readOnlyTransaction;
+    private final long defaultTimeBudgetMs;
+    private final long maxTimeBudgetMs;
+
+    public BasketOptimizationService(BestPriceIndex bestPriceIndex,
+                                     ProductBulkRepository productBulkRepository,
+                                     SupplierRepository supplierRepository,
+                                     PlatformTransactionManager transactionManager,
+                                     @Value("${analysis.basket.time-budget-ms:500}") long defaultTimeBudgetMs,
+                                     @Value("${analysis.basket.max-time-budget-ms:5000}") long maxTimeBudgetMs) {
+        this.bestPriceIndex = bestPriceIndex;
+        this.productBulkRepository = productBulkRepository;
+        this.supplierRepository = supplierRepository;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.defaultTimeBudgetMs = defaultTimeBudgetMs;
+        this.maxTimeBudgetMs = maxTimeBudgetMs;
+    }
+
+    /**
+     * Разбить позиции заказа по поставщикам. Повторяющиеся штрихкоды складываются; timeBudgetMs = null —
+     * время из настроек. exact — после эвристики перебирать наборы поставщиков до истечения времени.
+     */
+    public BasketPlan optimize(List<PriceAnalysisResult> lines, SupplierFilter filter, Long timeBudgetMs, boolean exact) {
+        long startTime = System.nanoTime();
+        long budgetMs = Math.max(1, Math.min(timeBudgetMs != null ? timeBudgetMs : defaultTimeBudgetMs, maxTimeBudgetMs));
+        long deadline = startTime + TimeUnit.MILLISECONDS.toNanos(budgetMs);
+
+        List<PriceAnalysisResult> unassigned = new ArrayList<>();
+        Map<String, Integer> quantities = new LinkedHashMap<>();
+        for (PriceAnalysisResult line : lines) {
+            if (line.getBarcode() == null || line.getBarcode().isBlank()
+                    || line.getQuantity() == null || line.getQuantity() <= 0) {
+                PriceAnalysisResult invalid = PriceAnalysisService.notFoundResult(line.getBarcode(), line.getQuantity());
+                invalid.setMessage("Не указан штрихкод или количество");
+                unassigned.add(invalid);
+                continue;
+            }
+            quantities.merge(line.getBarcode().trim(), line.getQuantity(), Integer::sum);
+        }
+
+        List<String> barcodes = new ArrayList<>(quantities.keySet());
+        BestPriceIndex.Offers[] offers = bestPriceIndex.isReady()
+                ? bestPriceIndex.findOffers(barcodes, filter)
+                : findOffersInDatabase(barcodes, filter);
+
+        // Локальные номера поставщиков и строки, по которым есть предложения
+        Map<Integer, Integer> localSuppliers = new HashMap<>();
+        List<Integer> supplierIds = new ArrayList<>();
+        List<String> lineBarcodes = new ArrayList<>();
+        List<BestPriceIndex.Offers> lineOffers = new ArrayList<>();
+        int offerCount = 0;
+        for (int i = 0; i < barcodes.size(); i++) {
+            if (offers[i] == null) {
+                unassigned.add(PriceAnalysisService.notFoundResult(barcodes.get(i), quantities.get(barcodes.get(i))));
+                continue;
+            }
+            lineBarcodes.add(barcodes.get(i));
+            lineOffers.add(offers[i]);
+            offerCount += offers[i].supplierIds().length;
+            for (int supplierId : offers[i].supplierIds()) {
+                if (localSuppliers.putIfAbsent(supplierId, supplierIds.size()) == null) {
+                    supplierIds.add(supplierId);
+                }
+            }
+        }
+
+        Map<Integer, Supplier> suppliers = new HashMap<>();
+        for (Supplier supplier : supplierRepository.findAllById(supplierIds)) {
+            suppliers.put(supplier.getId(), supplier);
+        }
+        double[] minOrder = new double[supplierIds.size()];
+        double[] deliveryFee = new double[supplierIds.size()];
+        for (int s = 0; s < supplierIds.size(); s++) {
+            Supplier supplier = suppliers.get(supplierIds.get(s));
+            minOrder[s] = supplier != null && supplier.getMinOrderSum() != null ? supplier.getMinOrderSum() : 0;
+            deliveryFee[s] = supplier != null && supplier.getDeliveryFee() != null ? supplier.getDeliveryFee() : 0;
+        }
+
+        // Предложения строк подряд, от дешёвого к дорогому
+        int[] offerStart = new int[lineBarcodes.size() + 1];
+        int[] offerSupplier = new int[offerCount];
+        double[] offerCost = new double[offerCount];
+        for (int line = 0; line < lineBarcodes.size(); line++) {
+            BestPriceIndex.Offers lineOffer = lineOffers.get(line);
+            int quantity = quantities.get(lineBarcodes.get(line));
+            int position = offerStart[line];
+            for (int j = 0; j < lineOffer.supplierIds().length; j++, position++) {
+                offerSupplier[position] = localSuppliers.get(lineOffer.supplierIds()[j]);
+                offerCost[position] = lineOffer.prices()[j] * quantity;
+            }
+            offerStart[line + 1] = position;
+        }
+
+        BasketOptimizer optimizer = new BasketOptimizer(offerStart, offerSupplier, offerCost, minOrder, deliveryFee);
+        BasketOptimizer.Solution solution = optimizer.optimize(deadline, exact);
+        int[] cheapest = Arrays.copyOf(offerStart, lineBarcodes.size());
+        boolean cheapestFeasible = true;
+        for (boolean violated : optimizer.belowMinimum(cheapest)) {
+            cheapestFeasible &= !violated;
+        }
+
+        Map<Integer, SupplierOrder> orders = new LinkedHashMap<>();
+        double itemsCost = 0;
+        for (int line = 0; line < lineBarcodes.size(); line++) {
+            String barcode = lineBarcodes.get(line);
+            int offer = solution.assignment()[line];
+            if (offer < 0) {
+                PriceAnalysisResult result = PriceAnalysisService.notFoundResult(barcode, quantities.get(barcode));
+                result.setMessage("Нет поставщика, у которого заказ проходит по минимальной сумме");
+                unassigned.add(result);
+                continue;
+            }
+            int local = offerSupplier[offer];
+            int index = offer - offerStart[line];
+            BestPriceIndex.Offers lineOffer = lineOffers.get(line);
+            String supplierName = supplierName(lineOffer.supplierIds()[index], suppliers);
+            SupplierOrder order = orders.computeIfAbsent(local, s -> SupplierOrder.builder()
+                    .supplierName(supplierName)
+                    .minOrderSum(minOrder[s] > 0 ? minOrder[s] : null)
+                    .deliveryFee(deliveryFee[s])
+                    .lines(new ArrayList<>())
+                    .build());
+            order.getLines().add(PriceAnalysisService.bestOfferResult(barcode, quantities.get(barcode), supplierName,
+                    lineOffer.prices()[index], lineOffer.productNames()[index]));
+            order.setItemsSum(order.getItemsSum() + offerCost[offer]);
+            itemsCost += offerCost[offer];
+        }
+        double deliveryCost = 0;
+        for (SupplierOrder order : orders.values()) {
+            deliveryCost += order.getDeliveryFee();
+        }
+        List<SupplierOrder> sortedOrders = new ArrayList<>(orders.values());
+        sortedOrders.sort(Comparator.comparingDouble(SupplierOrder::getItemsSum).reversed());
+
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        log.info("🧺 Разбиение корзины{}: {} мс ({} строк, {} поставщиков, {} заказов, перебор: {}, узлов {})",
+                PriceAnalysisService.describe(filter), elapsedMs, lineBarcodes.size(), supplierIds.size(),
+                sortedOrders.size(), exact ? (solution.exhaustive() ? "полный" : "по времени") : "нет",
+                solution.searchedNodes());
+
+        return BasketPlan.builder()
+                .totalCost(itemsCost + deliveryCost)
+                .itemsCost(itemsCost)
+                .deliveryCost(deliveryCost)
+                .cheapestLinesCost(optimizer.cheapestCost())
+                .cheapestLinesFeasible(cheapestFeasible)
+                .exhaustive(solution.exhaustive())
+                .elapsedMs(elapsedMs)
+                .orders(sortedOrders)
+                .unassigned(unassigned)
+                .build();
+    }
+
+    private String supplierName(int supplierId, Map<Integer, Supplier> suppliers) {
+        Supplier supplier = suppliers.get(supplierId);
+        return supplier != null ? supplier.getSupplierName() : bestPriceIndex.supplierName(supplierId);
+    }
+
+    private record DatabaseOffer(int supplierId, double price, String productName) {
+    }
+
+    /**
+     * Предложения из базы, пока индекс лучших цен строится; товары без цены пропускаются
+     */
+    private BestPriceIndex.Offers[] findOffersInDatabase(List<String> barcodes, SupplierFilter filter) {
+        Map<String, List<DatabaseOffer>> found = new HashMap<>();
+        readOnlyTransaction.executeWithoutResult(status -> {
+            try {
+                for (int from = 0; from < barcodes.size(); from += BARCODE_BATCH) {
+                    productBulkRepository.streamOffers(barcodes.subList(from, Math.min(from + BARCODE_BATCH, barcodes.size())),
+                            (barcode, supplierId, supplierName, price, productName) -> {
+                                if (price != null && filter.permits(supplierName)) {
+                                    found.computeIfAbsent(barcode, b -> new ArrayList<>())
+                                            .add(new DatabaseOffer(supplierId, price, productName));
+                                }
+                            });
+                }
+            } catch (SQLException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        });
+
+        BestPriceIndex.Offers[] offers = new BestPriceIndex.Offers[barcodes.size()];
+        for (int i = 0; i < offers.length; i++) {
+            List<DatabaseOffer> barcodeOffers = found.get(barcodes.get(i));
+            if (barcodeOffers == null) continue;
+            barcodeOffers.sort(Comparator.comparingDouble(DatabaseOffer::price));
+            int[] ids = new int[barcodeOffers.size()];
+            double[] prices = new double[ids.length];
+            String[] names = new String[ids.length];
+            for (int j = 0; j < ids.length; j++) {
+                ids[j] = barcodeOffers.get(j).supplierId();
+                prices[j] = barcodeOffers.get(j).price();
+                names[j] = barcodeOffers.get(j).productName();
+            }
+            offers[i] = new BestPriceIndex.Offers(ids, prices, names);
+        }
+        return offers;
+    }
+}
@@ -0,0 +1,677 @@
+package org.example.service;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Разбиение корзины по поставщикам с минимальной полной стоимостью: цена товаров плюс фиксированная
+ * доставка каждого поставщика, у которого что-то заказано, при соблюдении минимальной суммы заказа.
+ * Предложения строк хранятся плоскими массивами (для строки i — offerStart[i]..offerStart[i + 1]),
+ * упорядоченными по стоимости; поставщики пронумерованы от 0.
+ * Сначала работает эвристика: все строки у самых дешёвых поставщиков, затем закрытие поставщиков,
+ * не набравших минимальной суммы, и локальный поиск (закрыть поставщика, открыть поставщика с
+ * добором до минимальной суммы, перенести строку) с выходом из локальных минимумов через
+ * принудительное закрытие поставщика. Затем, если задано, перебор с отсечениями по
+ * наборам открытых поставщиков до истечения срока (см. {@link BranchAndBound}).
+ * Строка без доступного поставщика остаётся неразмещённой и штрафуется, поэтому решения
+ * с неразмещёнными строками хуже любого решения без них.
+ */
+final class BasketOptimizer {
+
+    static final double UNASSIGNED_PENALTY = 1e12;
+    private static final double EPSILON = 1e-6;
+
+    private final int lineCount;
+    private final int supplierCount;
+    private final int[] offerStart;
+    private final int[] offerSupplier;
+    private final double[] offerCost;
+    private final double[] minOrder;
+    private final double[] deliveryFee;
+
+    // Предложения каждого поставщика: для поставщика s — supplierOfferStart[s]..supplierOfferStart[s + 1]
+    private final int[] supplierOfferStart;
+    private final int[] supplierOfferLine;
+    private final int[] supplierOffer;
+
+    private long deadline;
+
+    // Текущее решение эвристики: номер предложения каждой строки или -1
+    private int[] assigned;
+    private double[] supplierSum;
+    private int[] supplierLines;
+
+    /**
+     * Результат: выбранное предложение каждой строки (-1 — строка не размещена), полная стоимость
+     * и признак того, что перебор завершился до срока и доказал: более дешёвого разбиения нет.
+     * Если перебор закончился, но добор до минимальных сумм в каком-то листе мог быть не лучшим,
+     * признак не ставится.
+     */
+    record Solution(int[] assignment, double totalCost, boolean exhaustive, long searchedNodes) {
+    }
+
+    BasketOptimizer(int[] offerStart, int[] offerSupplier, double[] offerCost, double[] minOrder, double[] deliveryFee) {
+        this.lineCount = offerStart.length - 1;
+        this.supplierCount = minOrder.length;
+        this.offerStart = offerStart;
+        this.offerSupplier = offerSupplier;
+        this.offerCost = offerCost;
+        this.minOrder = minOrder;
+        this.deliveryFee = deliveryFee;
+
+        supplierOfferStart = new int[supplierCount + 1];
+        for (int supplier : offerSupplier) {
+            supplierOfferStart[supplier + 1]++;
+        }
+        for (int s = 0; s < supplierCount; s++) {
+            supplierOfferStart[s + 1] += supplierOfferStart[s];
+        }
+        int[] fill = Arrays.copyOf(supplierOfferStart, supplierCount);
+        supplierOfferLine = new int[offerSupplier.length];
+        supplierOffer = new int[offerSupplier.length];
+        for (int line = 0; line < lineCount; line++) {
+            for (int offer = offerStart[line]; offer < offerStart[line + 1]; offer++) {
+                int position = fill[offerSupplier[offer]]++;
+                supplierOfferLine[position] = line;
+                supplierOffer[position] = offer;
+            }
+        }
+    }
+
+    Solution optimize(long deadlineNanos, boolean exact) {
+        this.deadline = deadlineNanos;
+        assigned = new int[lineCount];
+        Arrays.fill(assigned, -1);
+        supplierSum = new double[supplierCount];
+        supplierLines = new int[supplierCount];
+        for (int line = 0; line < lineCount; line++) {
+            assign(line, offerStart[line] < offerStart[line + 1] ? offerStart[line] : -1);
+        }
+
+        closeInfeasibleSuppliers();
+        improveLocally();
+        escapeLocalOptimum();
+        double heuristicCost = totalCost(assigned);
+
+        if (!exact) {
+            return new Solution(assigned, heuristicCost, false, 0);
+        }
+        BranchAndBound search = new BranchAndBound(heuristicCost);
+        boolean exhaustive = search.run();
+        if (search.bestAssignment != null && search.bestCost < heuristicCost - EPSILON) {
+            return new Solution(search.bestAssignment, search.bestCost, exhaustive, search.nodes);
+        }
+        return new Solution(assigned, heuristicCost, exhaustive, search.nodes);
+    }
+
+    /**
+     * Стоимость без разбиения: каждая строка у самого дешёвого поставщика, минимальные суммы не учитываются
+     */
+    double cheapestCost() {
+        int[] cheapest = new int[lineCount];
+        for (int line = 0; line < lineCount; line++) {
+            cheapest[line] = offerStart[line] < offerStart[line + 1] ? offerStart[line] : -1;
+        }
+        return totalCost(cheapest);
+    }
+
+    double totalCost(int[] assignment) {
+        double cost = 0;
+        boolean[] used = new boolean[supplierCount];
+        for (int line = 0; line < lineCount; line++) {
+            int offer = assignment[line];
+            if (offer < 0) {
+                cost += UNASSIGNED_PENALTY;
+            } else {
+                cost += offerCost[offer];
+                used[offerSupplier[offer]] = true;
+            }
+        }
+        for (int s = 0; s < supplierCount; s++) {
+            if (used[s]) cost += deliveryFee[s];
+        }
+        return cost;
+    }
+
+    /**
+     * Поставщики, у которых заказано меньше минимальной суммы
+     */
+    boolean[] belowMinimum(int[] assignment) {
+        double[] sums = new double[supplierCount];
+        boolean[] used = new boolean[supplierCount];
+        for (int line = 0; line < lineCount; line++) {
+            int offer = assignment[line];
+            if (offer >= 0) {
+                sums[offerSupplier[offer]] += offerCost[offer];
+                used[offerSupplier[offer]] = true;
+            }
+        }
+        boolean[] below = new boolean[supplierCount];
+        for (int s = 0; s < supplierCount; s++) {
+            below[s] = used[s] && sums[s] < minOrder[s] - EPSILON;
+        }
+        return below;
+    }
+
+    private void assign(int line, int offer) {
+        int previous = assigned[line];
+        if (previous >= 0) {
+            supplierSum[offerSupplier[previous]] -= offerCost[previous];
+            supplierLines[offerSupplier[previous]]--;
+        }
+        assigned[line] = offer;
+        if (offer >= 0) {
+            supplierSum[offerSupplier[offer]] += offerCost[offer];
+            supplierLines[offerSupplier[offer]]++;
+        }
+    }
+
+    private boolean isOpen(int supplier) {
+        return supplierLines[supplier] > 0;
+    }
+
+    private boolean isFeasible(int supplier) {
+        return supplierLines[supplier] == 0 || supplierSum[supplier] >= minOrder[supplier] - EPSILON;
+    }
+
+    /**
+     * Самое дешёвое предложение строки у другого открытого поставщика или -1
+     */
+    private int cheapestOpenExcept(int line, int excluded) {
+        for (int offer = offerStart[line]; offer < offerStart[line + 1]; offer++) {
+            int supplier = offerSupplier[offer];
+            if (supplier != excluded && isOpen(supplier)) return offer;
+        }
+        return -1;
+    }
+
+    /**
+     * Изменение стоимости при закрытии поставщика: его строки уходят к самым дешёвым другим открытым
+     */
+    private double closeDelta(int supplier) {
+        double delta = -deliveryFee[supplier];
+        for (int i = supplierOfferStart[supplier]; i < supplierOfferStart[supplier + 1]; i++) {
+            int line = supplierOfferLine[i];
+            if (assigned[line] != supplierOffer[i]) continue;
+            int alternative = cheapestOpenExcept(line, supplier);
+            delta += alternative < 0 ? UNASSIGNED_PENALTY - offerCost[supplierOffer[i]]
+                    : offerCost[alternative] - offerCost[supplierOffer[i]];
+        }
+        return delta;
+    }
+
+    private void close(int supplier) {
+        for (int i = supplierOfferStart[supplier]; i < supplierOfferStart[supplier + 1]; i++) {
+            int line = supplierOfferLine[i];
+            if (assigned[line] == supplierOffer[i]) {
+                assign(line, cheapestOpenExcept(line, supplier));
+            }
+        }
+    }
+
+    /**
+     * Закрывать не набравших минимальной суммы поставщиков, начиная с самого дешёвого закрытия.
+     * Получатели строк только прибавляют в сумме, поэтому новых нарушений не возникает.
+     */
+    private void closeInfeasibleSuppliers() {
+        while (true) {
+            int worst = -1;
+            double worstDelta = Double.MAX_VALUE;
+            for (int s = 0; s < supplierCount; s++) {
+                if (isOpen(s) && !isFeasible(s)) {
+                    double delta = closeDelta(s);
+                    if (delta < worstDelta) {
+                        worstDelta = delta;
+                        worst = s;
+                    }
+                }
+            }
+            if (worst < 0) return;
+            close(worst);
+        }
+    }
+
+    private void improveLocally() {
+        boolean improved = true;
+        while (improved && System.nanoTime() < deadline) {
+            improved = false;
+
+            int bestClose = -1;
+            double bestCloseDelta = -EPSILON;
+            for (int s = 0; s < supplierCount; s++) {
+                if (isOpen(s)) {
+                    double delta = closeDelta(s);
+                    if (delta < bestCloseDelta) {
+                        bestCloseDelta = delta;
+                        bestClose = s;
+                    }
+                }
+            }
+
+            int bestOpen = -1;
+            double bestOpenDelta = -EPSILON;
+            int[] bestOpenMoves = null;
+            for (int s = 0; s < supplierCount && System.nanoTime() < deadline; s++) {
+                if (isOpen(s)) continue;
+                OpenMove move = planOpen(s);
+                if (move != null && move.delta < bestOpenDelta) {
+                    bestOpenDelta = move.delta;
+                    bestOpen = s;
+                    bestOpenMoves = move.offers;
+                }
+            }
+
+            if (bestClose >= 0 && bestCloseDelta <= bestOpenDelta) {
+                close(bestClose);
+                improved = true;
+            } else if (bestOpen >= 0) {
+                for (int offer : bestOpenMoves) {
+                    int line = lineOf(offer);
+                    assign(line, offer);
+                }
+                improved = true;
+            }
+            improved |= shiftLines();
+        }
+    }
+
+    /**
+     * Выход из локального минимума: принудительно закрыть одного из открытых поставщиков и снова
+     * улучшать; при выигрыше начать сначала, иначе вернуть прежнее решение. Так находятся замены
+     * поставщика на другого, которые не видны одиночным открытием или закрытием.
+     */
+    private void escapeLocalOptimum() {
+        double bestCost = totalCost(assigned);
+        boolean improved = true;
+        while (improved && System.nanoTime() < deadline) {
+            improved = false;
+            for (int s = 0; s < supplierCount && System.nanoTime() < deadline; s++) {
+                if (!isOpen(s)) continue;
+                int[] savedAssigned = assigned.clone();
+                double[] savedSum = supplierSum.clone();
+                int[] savedLines = supplierLines.clone();
+                close(s);
+                closeInfeasibleSuppliers();
+                improveLocally();
+                double cost = totalCost(assigned);
+                if (cost < bestCost - EPSILON) {
+                    bestCost = cost;
+                    improved = true;
+                } else {
+                    assigned = savedAssigned;
+                    supplierSum = savedSum;
+                    supplierLines = savedLines;
+                }
+            }
+        }
+    }
+
+    private record OpenMove(double delta, int[] offers) {
+    }
+
+    /**
+     * Открыть закрытого поставщика: забрать строки, где он дешевле текущего, и при нехватке
+     * до минимальной суммы добрать строки с наименьшей доплатой. Строку можно забрать, только
+     * если её прежний поставщик останется в пределах минимальной суммы или опустеет.
+     */
+    private OpenMove planOpen(int supplier) {
+        int from = supplierOfferStart[supplier];
+        int to = supplierOfferStart[supplier + 1];
+        if (from == to) return null;
+
+        // Доплата за перенос каждой строки, от выгодных к невыгодным
+        int count = to - from;
+        long[] order = new long[count];
+        double[] extra = new double[count];
+        for (int i = 0; i < count; i++) {
+            int offer = supplierOffer[from + i];
+            int line = supplierOfferLine[from + i];
+            int current = assigned[line];
+            extra[i] = current < 0 ? offerCost[offer] - UNASSIGNED_PENALTY : offerCost[offer] - offerCost[current];
+            order[i] = i;
+        }
+        sortByExtra(order, extra);
+
+        double[] donorSum = new double[0];
+        int[] donorLines = new int[0];
+        Map<Integer, Integer> donorIndex = new HashMap<>();
+        double sum = 0;
+        double delta = deliveryFee[supplier];
+        int[] moves = new int[count];
+        int moved = 0;
+        for (int k = 0; k < count; k++) {
+            int i = (int) order[k];
+            boolean saving = extra[i] < -EPSILON;
+            if (!saving && sum >= minOrder[supplier] - EPSILON) break;
+            int offer = supplierOffer[from + i];
+            int current = assigned[supplierOfferLine[from + i]];
+            if (current >= 0) {
+                int donor = offerSupplier[current];
+                Integer index = donorIndex.get(donor);
+                if (index == null) {
+                    index = donorIndex.size();
+                    donorIndex.put(donor, index);
+                    donorSum = Arrays.copyOf(donorSum, index + 1);
+                    donorLines = Arrays.copyOf(donorLines, index + 1);
+                    donorSum[index] = supplierSum[donor];
+                    donorLines[index] = supplierLines[donor];
+                }
+                double remainingSum = donorSum[index] - offerCost[current];
+                int remainingLines = donorLines[index] - 1;
+                if (remainingLines > 0 && remainingSum < minOrder[donor] - EPSILON) continue;
+                donorSum[index] = remainingSum;
+                donorLines[index] = remainingLines;
+                if (remainingLines == 0) {
+                    delta -= deliveryFee[donor];
+                }
+            }
+            sum += offerCost[offer];
+            delta += extra[i];
+            moves[moved++] = offer;
+        }
+        if (moved == 0 || sum < minOrder[supplier] - EPSILON) return null;
+        return new OpenMove(delta, Arrays.copyOf(moves, moved));
+    }
+
+    /**
+     * Перенести отдельные строки к более дешёвым открытым поставщикам, не нарушая минимальных сумм
+     */
+    private boolean shiftLines() {
+        boolean improved = false;
+        for (int line = 0; line < lineCount; line++) {
+            int current = assigned[line];
+            if (current < 0) continue;
+            int donor = offerSupplier[current];
+            for (int offer = offerStart[line]; offer < current; offer++) {
+                int target = offerSupplier[offer];
+                if (!isOpen(target)) continue;
+                boolean donorEmpties = supplierLines[donor] == 1;
+                if (!donorEmpties && supplierSum[donor] - offerCost[current] < minOrder[donor] - EPSILON) continue;
+                assign(line, offer);
+                improved = true;
+                break;
+            }
+        }
+        return improved;
+    }
+
+    private int lineOf(int offer) {
+        int low = 0;
+        int high = lineCount - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (offerStart[middle] <= offer) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    private int[] cheapestAssignment(boolean[] open) {
+        int[] assignment = new int[lineCount];
+        for (int line = 0; line < lineCount; line++) {
+            assignment[line] = -1;
+            for (int offer = offerStart[line]; offer < offerStart[line + 1]; offer++) {
+                if (open[offerSupplier[offer]]) {
+                    assignment[line] = offer;
+                    break;
+                }
+            }
+        }
+        return assignment;
+    }
+
+    private static void sortByExtra(long[] order, double[] extra) {
+        // Предложений одного поставщика в корзине немного больше числа строк, достаточно сортировки слиянием
+        long[] buffer = new long[order.length];
+        for (int width = 1; width < order.length; width <<= 1) {
+            for (int from = 0; from < order.length; from += width << 1) {
+                int middle = Math.min(from + width, order.length);
+                int to = Math.min(from + (width << 1), order.length);
+                int left = from;
+                int right = middle;
+                int out = from;
+                while (left < middle && right < to) {
+                    buffer[out++] = extra[(int) order[left]] <= extra[(int) order[right]] ? order[left++] : order[right++];
+                }
+                while (left < middle) buffer[out++] = order[left++];
+                while (right < to) buffer[out++] = order[right++];
+            }
+            System.arraycopy(buffer, 0, order, 0, order.length);
+        }
+    }
+
+    /**
+     * Перебор наборов открытых поставщиков в глубину. Нижняя граница узла — каждая строка у самого
+     * дешёвого не закрытого поставщика плюс доставка уже открытых; минимальные суммы проверяются в листьях.
+     * В листе строки сначала ставятся к самым дешёвым открытым поставщикам; недобравшие минимальной
+     * суммы поставщики добирают строки у остальных открытых с наименьшей доплатой. Такой добор не всегда
+     * оптимален, поэтому для листа считается и нижняя граница с учётом минимальных сумм (добор частями
+     * строк); перебор считается полным, только если ни один лист не может оказаться дешевле найденного.
+     */
+    private final class BranchAndBound {
+        final int[] order;
+        // 0 — не решено, 1 — открыт, 2 — закрыт
+        final byte[] decision = new byte[supplierCount];
+        double bestCost;
+        int[] bestAssignment;
+        // Наименьшая нижняя граница листов, лучшее разбиение которых осталось неизвестным
+        double unresolvedBound = Double.MAX_VALUE;
+        long nodes;
+        boolean timedOut;
+
+        BranchAndBound(double incumbentCost) {
+            this.bestCost = incumbentCost;
+            // Поставщик, у которого не набрать минимальной суммы даже всеми строками, не открывается
+            double[] capacity = new double[supplierCount];
+            for (int i = 0; i < supplierOffer.length; i++) {
+                capacity[offerSupplier[supplierOffer[i]]] += offerCost[supplierOffer[i]];
+            }
+            int candidates = 0;
+            for (int s = 0; s < supplierCount; s++) {
+                if (capacity[s] < minOrder[s] - EPSILON) {
+                    decision[s] = 2;
+                } else {
+                    candidates++;
+                }
+            }
+            // Сначала поставщики, у которых самые дешёвые предложения по большему числу строк
+            double[] weight = new double[supplierCount];
+            for (int line = 0; line < lineCount; line++) {
+                if (offerStart[line] < offerStart[line + 1]) {
+                    weight[offerSupplier[offerStart[line]]] += offerCost[offerStart[line]];
+                }
+            }
+            long[] sorted = new long[candidates];
+            double[] negative = new double[supplierCount];
+            for (int s = 0, i = 0; s < supplierCount; s++) {
+                if (decision[s] == 2) continue;
+                sorted[i++] = s;
+                negative[s] = -weight[s];
+            }
+            sortByExtra(sorted, negative);
+            order = new int[candidates];
+            for (int i = 0; i < candidates; i++) {
+                order[i] = (int) sorted[i];
+            }
+        }
+
+        /**
+         * Возвращает true, если перебор завершился до срока и лучшего разбиения, чем найденное, нет
+         */
+        boolean run() {
+            search(0);
+            return !timedOut && unresolvedBound >= bestCost - EPSILON;
+        }
+
+        private void search(int depth) {
+            if (timedOut) return;
+            if ((++nodes & 63) == 0 && System.nanoTime() >= deadline) {
+                timedOut = true;
+                return;
+            }
+            if (lowerBound() >= bestCost - EPSILON) return;
+            if (depth == order.length) {
+                evaluateLeaf();
+                return;
+            }
+            int supplier = order[depth];
+            decision[supplier] = 1;
+            search(depth + 1);
+            decision[supplier] = 2;
+            search(depth + 1);
+            decision[supplier] = 0;
+        }
+
+        private double lowerBound() {
+            double bound = 0;
+            for (int s = 0; s < supplierCount; s++) {
+                if (decision[s] == 1) bound += deliveryFee[s];
+            }
+            for (int line = 0; line < lineCount; line++) {
+                double cheapest = UNASSIGNED_PENALTY;
+                for (int offer = offerStart[line]; offer < offerStart[line + 1]; offer++) {
+                    if (decision[offerSupplier[offer]] != 2) {
+                        cheapest = offerCost[offer];
+                        break;
+                    }
+                }
+                bound += cheapest;
+                if (bound >= bestCost) return bound;
+            }
+            return bound;
+        }
+
+        private void evaluateLeaf() {
+            boolean[] open = new boolean[supplierCount];
+            for (int s = 0; s < supplierCount; s++) {
+                open[s] = decision[s] == 1;
+            }
+            int[] assignment = cheapestAssignment(open);
+            double cost = totalCost(assignment);
+            if (cost >= bestCost - EPSILON) return;
+            boolean[] below = belowMinimum(assignment);
+            boolean violated = false;
+            for (boolean b : below) {
+                violated |= b;
+            }
+            if (violated) {
+                double bound = cost + topUpBound(assignment, open, below);
+                if (bound >= bestCost - EPSILON) return;
+                if (!topUp(assignment, below)) {
+                    unresolvedBound = Math.min(unresolvedBound, bound);
+                    return;
+                }
+                cost = totalCost(assignment);
+                if (cost > bound + EPSILON) {
+                    unresolvedBound = Math.min(unresolvedBound, bound);
+                }
+            }
+            if (cost < bestCost - EPSILON) {
+                bestCost = cost;
+                bestAssignment = assignment;
+            }
+        }
+
+        /**
+         * Предложения поставщика по строкам, размещённым у других поставщиков, упорядоченные
+         * по доплате за рубль добора
+         */
+        private int[] topUpCandidates(int[] assignment, int supplier) {
+            int from = supplierOfferStart[supplier];
+            int to = supplierOfferStart[supplier + 1];
+            int[] offers = new int[to - from];
+            double[] ratio = new double[to - from];
+            int count = 0;
+            for (int i = from; i < to; i++) {
+                int offer = supplierOffer[i];
+                int current = assignment[supplierOfferLine[i]];
+                if (current < 0 || offerSupplier[current] == supplier || offerCost[offer] <= 0) continue;
+                offers[count] = offer;
+                ratio[count] = (offerCost[offer] - offerCost[current]) / offerCost[offer];
+                count++;
+            }
+            long[] order = new long[count];
+            for (int k = 0; k < count; k++) {
+                order[k] = k;
+            }
+            sortByExtra(order, ratio);
+            int[] candidates = new int[count];
+            for (int k = 0; k < count; k++) {
+                candidates[k] = offers[(int) order[k]];
+            }
+            return candidates;
+        }
+
+        /**
+         * Нижняя граница доплаты к стоимости листа, если в нём заняты все открытые поставщики:
+         * недобравшие и незанятые добирают минимальную сумму с наименьшей доплатой при переносе
+         * строк частями, незанятые ещё платят доставку. UNASSIGNED_PENALTY — добрать нельзя.
+         * Меньшие наборы поставщиков оцениваются в своих листах.
+         */
+        private double topUpBound(int[] assignment, boolean[] open, boolean[] below) {
+            double[] sums = supplierSums(assignment);
+            boolean[] used = new boolean[supplierCount];
+            for (int offer : assignment) {
+                if (offer >= 0) used[offerSupplier[offer]] = true;
+            }
+            double extra = 0;
+            for (int s = 0; s < supplierCount; s++) {
+                if (!open[s] || used[s] && !below[s]) continue;
+                if (!used[s]) extra += deliveryFee[s];
+                double deficit = minOrder[s] - sums[s];
+                for (int offer : topUpCandidates(assignment, s)) {
+                    if (deficit <= EPSILON) break;
+                    double gain = offerCost[offer];
+                    double surcharge = gain - offerCost[assignment[lineOf(offer)]];
+                    double part = Math.min(1, deficit / gain);
+                    extra += surcharge * part;
+                    deficit -= gain * part;
+                }
+                if (deficit > EPSILON) return UNASSIGNED_PENALTY;
+            }
+            return extra;
+        }
+
+        /**
+         * Добрать недобравших поставщиков до минимальной суммы строками других открытых поставщиков;
+         * строку можно забрать, только если её поставщик останется в пределах минимальной суммы
+         * или опустеет. Возвращает false, если добрать всех не удалось.
+         */
+        private boolean topUp(int[] assignment, boolean[] below) {
+            double[] sums = supplierSums(assignment);
+            int[] lines = new int[supplierCount];
+            for (int offer : assignment) {
+                if (offer >= 0) lines[offerSupplier[offer]]++;
+            }
+            for (int s = 0; s < supplierCount; s++) {
+                if (!below[s]) continue;
+                for (int offer : topUpCandidates(assignment, s)) {
+                    if (sums[s] >= minOrder[s] - EPSILON) break;
+                    int line = lineOf(offer);
+                    int current = assignment[line];
+                    int donor = offerSupplier[current];
+                    if (lines[donor] > 1 && sums[donor] - offerCost[current] < minOrder[donor] - EPSILON) continue;
+                    sums[donor] -= offerCost[current];
+                    lines[donor]--;
+                    sums[s] += offerCost[offer];
+                    lines[s]++;
+                    assignment[line] = offer;
+                }
+                if (sums[s] < minOrder[s] - EPSILON) return false;
+            }
+            return true;
+        }
+
+        private double[] supplierSums(int[] assignment) {
+            double[] sums = new double[supplierCount];
+            for (int offer : assignment) {
+                if (offer >= 0) sums[offerSupplier[offer]] += offerCost[offer];
+            }
+            return sums;
+        }
+    }
+}
@@ -0,0 +1,482 @@
+package org.example.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.entity.Client;
+import org.example.entity.Supplier;
+import org.example.repository.ProductBulkRepository;
+import org.example.repository.SupplierRepository;
+import org.example.util.BarcodeKeys;
+import org.example.util.LongIntHashMap;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Предложения поставщиков по каждому штрихкоду каталога в памяти процесса.
+ * Для каждого штрихкода хранятся массивы id поставщиков, цен и наименований, упорядоченные по цене,
+ * и битовое множество id поставщиков; цифровые штрихкоды адресуются через long-ключи (см. BarcodeKeys).
+ * Без фильтра лучшее предложение — первое; с фильтром поставщиков множество отсекает штрихкоды без
+ * подходящих поставщиков, а для остальных берётся первое разрешённое предложение, без обращения к базе.
+ * Индекс строится в фоне после старта и обновляется загрузкой поставщиков после фиксации
+ * каждой порции. Пока индекс не построен, isReady() возвращает false.
+ */
+@Slf4j
+@Service
+public class BestPriceIndex {
+
+    private static final int REFRESH_BATCH = 10_000;
+
+    private final ProductBulkRepository productBulkRepository;
+    private final SupplierRepository supplierRepository;
+    private final TransactionTemplate readOnlyTransaction;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // Построение и обновления выполняются по очереди, чтобы более старый снимок не перезаписал новый
+    private final Object updateMonitor = new Object();
+    private volatile boolean ready;
+
+    private Slots slots = new Slots(16);
+    private String[] supplierNames = new String[0];
+    private Map<String, Integer> supplierIdsByName = new HashMap<>();
+
+    public BestPriceIndex(ProductBulkRepository productBulkRepository, SupplierRepository supplierRepository,
+                          PlatformTransactionManager transactionManager) {
+        this.productBulkRepository = productBulkRepository;
+        this.supplierRepository = supplierRepository;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+    }
+
+    /**
+     * Лучшее предложение: поставщик, цена с НДС и наименование товара у этого поставщика
+     */
+    public record BestOffer(String supplierName, double priceWithVat, String productName) {
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildInBackground() {
+        Thread thread = new Thread(this::rebuild, "best-price-index");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Лучшие предложения среди разрешённых фильтром поставщиков; для штрихкодов без таких
+     * предложений в массиве null
+     */
+    public BestOffer[] findAll(List<String> barcodes, SupplierFilter filter) {
+        BestOffer[] offers = new BestOffer[barcodes.size()];
+        lock.readLock().lock();
+        try {
+            SupplierMask mask = filter.isEmpty() ? null : toMask(filter);
+            for (int i = 0; i < offers.length; i++) {
+                int slot = slots.find(barcodes.get(i));
+                if (slot < 0) continue;
+                int offer = slots.best(slot, mask);
+                if (offer >= 0) {
+                    offers[i] = new BestOffer(supplierNames[slots.supplierIds[slot][offer]],
+                            slots.prices[slot][offer], slots.productNames[slot][offer]);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return offers;
+    }
+
+    /**
+     * Предложения штрихкода от меньшей цены к большей
+     */
+    public record Offers(int[] supplierIds, double[] prices, String[] productNames) {
+    }
+
+    /**
+     * Все предложения разрешённых фильтром поставщиков по каждому штрихкоду; для штрихкодов без
+     * таких предложений в массиве null. Массивы результата — копии, их можно изменять.
+     */
+    public Offers[] findOffers(List<String> barcodes, SupplierFilter filter) {
+        Offers[] offers = new Offers[barcodes.size()];
+        lock.readLock().lock();
+        try {
+            SupplierMask mask = filter.isEmpty() ? null : toMask(filter);
+            for (int i = 0; i < offers.length; i++) {
+                int slot = slots.find(barcodes.get(i));
+                if (slot < 0 || slots.best(slot, mask) < 0) continue;
+                int[] ids = slots.supplierIds[slot];
+                int count = 0;
+                int[] permittedIds = new int[ids.length];
+                double[] permittedPrices = new double[ids.length];
+                String[] permittedNames = new String[ids.length];
+                for (int j = 0; j < ids.length; j++) {
+                    if (mask == null || mask.permits(ids[j])) {
+                        permittedIds[count] = ids[j];
+                        permittedPrices[count] = slots.prices[slot][j];
+                        permittedNames[count] = slots.productNames[slot][j];
+                        count++;
+                    }
+                }
+                offers[i] = new Offers(Arrays.copyOf(permittedIds, count), Arrays.copyOf(permittedPrices, count),
+                        Arrays.copyOf(permittedNames, count));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return offers;
+    }
+
+    /**
+     * Есть ли у штрихкода предложения с ценой, без учёта фильтра поставщиков
+     */
+    public boolean contains(String barcode) {
+        lock.readLock().lock();
+        try {
+            return slots.find(barcode) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public String supplierName(int supplierId) {
+        lock.readLock().lock();
+        try {
+            return supplierId < supplierNames.length ? supplierNames[supplierId] : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Перечитать предложения по изменённым штрихкодам после фиксации загрузки.
+     * Ошибка чтения не прерывает загрузку: индекс перестраивается целиком.
+     */
+    public void refresh(LongIntHashMap barcodeKeys, Collection<String> textBarcodes) {
+        if (barcodeKeys.isEmpty() && textBarcodes.isEmpty()) return;
+        List<String> barcodes = new ArrayList<>(barcodeKeys.size() + textBarcodes.size());
+        barcodeKeys.forEach((key, value) -> barcodes.add(BarcodeKeys.toBarcode(key)));
+        barcodes.addAll(textBarcodes);
+
+        long start = System.currentTimeMillis();
+        synchronized (updateMonitor) {
+            if (!ready) return;
+            try {
+                Map<String, OfferGroup> changes = new HashMap<>();
+                Map<Integer, String> changedSuppliers = new HashMap<>();
+                for (int from = 0; from < barcodes.size(); from += REFRESH_BATCH) {
+                    productBulkRepository.streamOffers(barcodes.subList(from, Math.min(from + REFRESH_BATCH, barcodes.size())),
+                            (barcode, supplierId, supplierName, price, productName) -> {
+                                if (price == null) return;
+                                changes.computeIfAbsent(barcode, OfferGroup::new).add(supplierId, price, productName);
+                                changedSuppliers.putIfAbsent(supplierId, supplierName);
+                            });
+                }
+                lock.writeLock().lock();
+                try {
+                    changedSuppliers.forEach(this::putSupplierName);
+                    for (String barcode : barcodes) {
+                        OfferGroup group = changes.get(barcode);
+                        if (group != null) {
+                            group.putTo(slots);
+                        } else {
+                            slots.remove(barcode);
+                        }
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            } catch (Exception e) {
+                log.warn("Ошибка обновления индекса лучших цен, индекс будет перестроен: {}", e.getMessage());
+                ready = false;
+                buildInBackground();
+                return;
+            }
+        }
+        log.info("🔄 Обновление индекса лучших цен: {} мс ({} штрихкодов)",
+                System.currentTimeMillis() - start, barcodes.size());
+    }
+
+    private void rebuild() {
+        long start = System.currentTimeMillis();
+        synchronized (updateMonitor) {
+            try {
+                Slots built = new Slots(1 << 16);
+                readOnlyTransaction.executeWithoutResult(status -> {
+                    try {
+                        // Строки одного штрихкода идут подряд и уже упорядочены по цене
+                        OfferGroup[] group = {null};
+                        productBulkRepository.streamPricedOffers((barcode, supplierId, price, productName) -> {
+                            if (group[0] == null || !group[0].barcode.equals(barcode)) {
+                                if (group[0] != null) {
+                                    group[0].putTo(built);
+                                }
+                                group[0] = new OfferGroup(barcode);
+                            }
+                            group[0].add(supplierId, price, productName);
+                        });
+                        if (group[0] != null) {
+                            group[0].putTo(built);
+                        }
+                    } catch (SQLException e) {
+                        throw new IllegalStateException(e.getMessage(), e);
+                    }
+                });
+                String[] names = loadSupplierNames();
+                Map<String, Integer> idsByName = new HashMap<>();
+                for (int id = 0; id < names.length; id++) {
+                    if (names[id] != null) {
+                        idsByName.put(names[id], id);
+                    }
+                }
+                lock.writeLock().lock();
+                try {
+                    slots = built;
+                    supplierNames = names;
+                    supplierIdsByName = idsByName;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                ready = true;
+                log.info("🗂️ Индекс лучших цен построен: {} мс ({} штрихкодов, {} предложений, ~{} КБ)",
+                        System.currentTimeMillis() - start, built.size, built.offerCount, built.estimatedBytes() / 1024);
+            } catch (Exception e) {
+                log.error("Ошибка построения индекса лучших цен, анализ выполняется запросами к базе", e);
+            }
+        }
+    }
+
+    // Вызывается под блокировкой записи
+    private void putSupplierName(int supplierId, String supplierName) {
+        if (supplierId >= supplierNames.length) {
+            supplierNames = Arrays.copyOf(supplierNames, Math.max(supplierId + 1, supplierNames.length * 2));
+        }
+        supplierNames[supplierId] = supplierName;
+        supplierIdsByName.put(supplierName, supplierId);
+    }
+
+    private String[] loadSupplierNames() {
+        List<Supplier> suppliers = supplierRepository.findAll();
+        int maxId = suppliers.stream().mapToInt(Supplier::getId).max().orElse(0);
+        String[] names = new String[maxId + 1];
+        for (Supplier supplier : suppliers) {
+            names[supplier.getId()] = supplier.getSupplierName();
+        }
+        return names;
+    }
+
+    // Вызывается под блокировкой чтения; неизвестные поставщики пропускаются
+    private SupplierMask toMask(SupplierFilter filter) {
+        long[] bits = new long[(supplierNames.length >> 6) + 1];
+        for (String name : filter.getSupplierNames()) {
+            Integer id = supplierIdsByName.get(name);
+            if (id != null) {
+                bits[id >> 6] |= 1L << id;
+            }
+        }
+        return new SupplierMask(bits, filter.getMode() == Client.SupplierFilterMode.ALLOW);
+    }
+
+    /**
+     * Фильтр поставщиков в виде битового множества id
+     */
+    private record SupplierMask(long[] bits, boolean allow) {
+
+        boolean permits(int supplierId) {
+            int word = supplierId >> 6;
+            boolean listed = word < bits.length && (bits[word] & (1L << supplierId)) != 0;
+            return listed == allow;
+        }
+
+        /**
+         * Есть ли среди поставщиков штрихкода хотя бы один разрешённый
+         */
+        boolean permitsAny(long[] offered) {
+            for (int word = 0; word < offered.length; word++) {
+                long listed = word < bits.length ? bits[word] : 0;
+                if ((offered[word] & (allow ? listed : ~listed)) != 0) return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Предложения одного штрихкода, собираемые перед записью в ячейку
+     */
+    private static final class OfferGroup {
+        final String barcode;
+        int[] supplierIds = new int[4];
+        double[] prices = new double[4];
+        String[] productNames = new String[4];
+        int count;
+
+        OfferGroup(String barcode) {
+            this.barcode = barcode;
+        }
+
+        void add(int supplierId, double price, String productName) {
+            if (count == supplierIds.length) {
+                supplierIds = Arrays.copyOf(supplierIds, count * 2);
+                prices = Arrays.copyOf(prices, count * 2);
+                productNames = Arrays.copyOf(productNames, count * 2);
+            }
+            supplierIds[count] = supplierId;
+            prices[count] = price;
+            productNames[count] = productName;
+            count++;
+        }
+
+        void putTo(Slots target) {
+            target.put(barcode, Arrays.copyOf(supplierIds, count), Arrays.copyOf(prices, count),
+                    Arrays.copyOf(productNames, count));
+        }
+    }
+
+    /**
+     * Ячейки индекса. Ячейка удалённого штрихкода остаётся в таблице с пустыми массивами
+     * и переиспользуется при повторном появлении.
+     */
+    private static final class Slots {
+        final LongIntHashMap numericSlots;
+        final Map<String, Integer> textSlots = new HashMap<>();
+        // Предложения ячейки от меньшей цены к большей
+        int[][] supplierIds;
+        double[][] prices;
+        String[][] productNames;
+        // Битовое множество id поставщиков ячейки; null, если предложение одно
+        long[][] supplierBits;
+        int size;
+        long offerCount;
+
+        Slots(int expectedSize) {
+            int capacity = Math.max(16, expectedSize);
+            numericSlots = new LongIntHashMap(capacity);
+            supplierIds = new int[capacity][];
+            prices = new double[capacity][];
+            productNames = new String[capacity][];
+            supplierBits = new long[capacity][];
+        }
+
+        int find(String barcode) {
+            long key = BarcodeKeys.toKey(barcode);
+            if (key != BarcodeKeys.NOT_NUMERIC) {
+                return numericSlots.get(key);
+            }
+            Integer slot = textSlots.get(barcode);
+            return slot != null ? slot : -1;
+        }
+
+        /**
+         * Номер самого дешёвого разрешённого предложения ячейки или -1
+         */
+        int best(int slot, SupplierMask mask) {
+            int[] ids = supplierIds[slot];
+            if (ids == null || ids.length == 0) return -1;
+            if (mask == null) return 0;
+            if (supplierBits[slot] != null && !mask.permitsAny(supplierBits[slot])) return -1;
+            for (int i = 0; i < ids.length; i++) {
+                if (mask.permits(ids[i])) return i;
+            }
+            return -1;
+        }
+
+        void put(String barcode, int[] ids, double[] offerPrices, String[] names) {
+            sortByPrice(ids, offerPrices, names);
+            int slot = find(barcode);
+            if (slot < 0) {
+                slot = allocate();
+                long key = BarcodeKeys.toKey(barcode);
+                if (key != BarcodeKeys.NOT_NUMERIC) {
+                    numericSlots.put(key, slot);
+                } else {
+                    textSlots.put(barcode, slot);
+                }
+            } else if (supplierIds[slot] != null) {
+                offerCount -= supplierIds[slot].length;
+            }
+            supplierIds[slot] = ids;
+            prices[slot] = offerPrices;
+            productNames[slot] = names;
+            supplierBits[slot] = ids.length > 1 ? toBits(ids) : null;
+            offerCount += ids.length;
+        }
+
+        void remove(String barcode) {
+            int slot = find(barcode);
+            if (slot >= 0 && supplierIds[slot] != null) {
+                offerCount -= supplierIds[slot].length;
+                supplierIds[slot] = null;
+                prices[slot] = null;
+                productNames[slot] = null;
+                supplierBits[slot] = null;
+            }
+        }
+
+        private static long[] toBits(int[] ids) {
+            int maxId = 0;
+            for (int id : ids) {
+                maxId = Math.max(maxId, id);
+            }
+            long[] bits = new long[(maxId >> 6) + 1];
+            for (int id : ids) {
+                bits[id >> 6] |= 1L << id;
+            }
+            return bits;
+        }
+
+        /**
+         * Упорядочить предложения по цене; при чтении из базы они обычно уже упорядочены,
+         * а предложений по одному штрихкоду немного, поэтому достаточно сортировки вставками
+         */
+        private static void sortByPrice(int[] ids, double[] offerPrices, String[] names) {
+            for (int i = 1; i < ids.length; i++) {
+                int id = ids[i];
+                double price = offerPrices[i];
+                String name = names[i];
+                int j = i - 1;
+                while (j >= 0 && offerPrices[j] > price) {
+                    ids[j + 1] = ids[j];
+                    offerPrices[j + 1] = offerPrices[j];
+                    names[j + 1] = names[j];
+                    j--;
+                }
+                ids[j + 1] = id;
+                offerPrices[j + 1] = price;
+                names[j + 1] = name;
+            }
+        }
+
+        private int allocate() {
+            if (size == supplierIds.length) {
+                int capacity = size * 2;
+                supplierIds = Arrays.copyOf(supplierIds, capacity);
+                prices = Arrays.copyOf(prices, capacity);
+                productNames = Arrays.copyOf(productNames, capacity);
+                supplierBits = Arrays.copyOf(supplierBits, capacity);
+            }
+            return size++;
+        }
+
+        /**
+         * Примерный объём памяти в байтах без самих строк наименований
+         */
+        long estimatedBytes() {
+            // Ссылки и заголовки массивов ячейки, по 20 байт на предложение, ключи хеш-таблиц
+            return (long) supplierIds.length * 32 + (long) size * 64 + offerCount * 20
+                    + (long) numericSlots.size() * 20 + (long) textSlots.size() * 96;
+        }
+    }
+}
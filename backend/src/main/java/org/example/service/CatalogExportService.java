@@ -0,0 +1,156 @@
+package org.example.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.example.repository.ProductBulkRepository;
+import org.example.util.ExportFormat;
+import org.example.util.TableWriter;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.SQLException;
+
+/**
+ * Выгрузка всего каталога и изменений каталога между версиями. Строки читаются курсором и сразу
+ * пишутся в потоковую книгу Excel, CSV/TSV или NDJSON, поэтому расход памяти не зависит от размера каталога.
+ */
+@Slf4j
+@Service
+public class CatalogExportService {
+
+    private static final String[] HEADERS = {"Наименование поставщика", "Штрих код", "Наименование", "ПЦ с НДС опт"};
+    private static final String[] CHANGE_HEADERS = {"Версия", "Удалён", "Наименование поставщика", "Штрих код", "Наименование", "ПЦ с НДС опт"};
+
+    private final ProductBulkRepository productBulkRepository;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate readOnlyTransaction;
+
+    public CatalogExportService(ProductBulkRepository productBulkRepository, ObjectMapper objectMapper,
+                                PlatformTransactionManager transactionManager) {
+        this.productBulkRepository = productBulkRepository;
+        this.objectMapper = objectMapper;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+    }
+
+    /**
+     * Записать книгу с каталогом в поток; возвращает число строк товаров
+     */
+    public long writeWorkbook(OutputStream out) throws IOException {
+        return write(ExportFormat.XLSX, out, false);
+    }
+
+    /**
+     * Записать каталог в поток в заданном формате; возвращает число строк товаров
+     */
+    public long write(ExportFormat format, OutputStream out, boolean bom) throws IOException {
+        long startTime = System.currentTimeMillis();
+        try (TableWriter writer = format.open(out, bom, "База данных", HEADERS)) {
+            try {
+                readOnlyTransaction.executeWithoutResult(status -> {
+                    try {
+                        productBulkRepository.streamCatalog((supplierName, barcode, productName, priceWithVat) -> writer.row()
+                                .text(supplierName)
+                                .text(barcode)
+                                .text(productName)
+                                .number(priceWithVat != null ? priceWithVat : 0.0));
+                    } catch (SQLException e) {
+                        throw new IllegalStateException(e.getMessage(), e);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            writer.finish();
+            log.info("📤 Выгрузка каталога ({}): {} мс ({} строк)", format, System.currentTimeMillis() - startTime, writer.dataRows());
+            return writer.dataRows();
+        }
+    }
+
+    /**
+     * Записать изменения каталога с версиями в (since, upTo] таблицей в заданном формате;
+     * у удалённых товаров наименование и цена пустые. Возвращает число строк.
+     */
+    public long writeChanges(long since, long upTo, ExportFormat format, OutputStream out, boolean bom) throws IOException {
+        long startTime = System.currentTimeMillis();
+        try (TableWriter writer = format.open(out, bom, "Изменения каталога", CHANGE_HEADERS)) {
+            streamChanges(since, upTo, (version, deleted, supplierName, barcode, productName, priceWithVat) -> {
+                writer.row()
+                        .number(version, TableWriter.Style.INTEGER)
+                        .text(deleted ? "Да" : "Нет")
+                        .text(supplierName)
+                        .text(barcode)
+                        .text(productName);
+                if (priceWithVat != null) {
+                    writer.number(priceWithVat);
+                } else {
+                    writer.skip();
+                }
+            });
+
+            writer.finish();
+            log.info("📤 Выгрузка изменений каталога ({}) с версии {} по {}: {} мс ({} строк)",
+                    format, since, upTo, System.currentTimeMillis() - startTime, writer.dataRows());
+            return writer.dataRows();
+        }
+    }
+
+    /**
+     * Записать изменения каталога с версиями в (since, upTo] в NDJSON, по объекту на строку;
+     * поток не закрывается. Возвращает число строк.
+     */
+    public long writeChangesJson(long since, long upTo, OutputStream out) throws IOException {
+        long startTime = System.currentTimeMillis();
+        long[] rows = new long[1];
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            // Объекты верхнего уровня разделяются переводом строки, а не пробелом
+            generator.setRootValueSeparator(null);
+            streamChanges(since, upTo, (version, deleted, supplierName, barcode, productName, priceWithVat) -> {
+                generator.writeStartObject();
+                generator.writeNumberField("version", version);
+                generator.writeBooleanField("deleted", deleted);
+                generator.writeStringField("supplierName", supplierName);
+                generator.writeStringField("barcode", barcode);
+                if (!deleted) {
+                    generator.writeStringField("productName", productName);
+                    if (priceWithVat != null) {
+                        generator.writeNumberField("priceWithVat", priceWithVat);
+                    } else {
+                        generator.writeNullField("priceWithVat");
+                    }
+                }
+                generator.writeEndObject();
+                generator.writeRaw('\n');
+                rows[0]++;
+            });
+        }
+        log.info("📤 Выгрузка изменений каталога (NDJSON) с версии {} по {}: {} мс ({} строк)",
+                since, upTo, System.currentTimeMillis() - startTime, rows[0]);
+        return rows[0];
+    }
+
+    private void streamChanges(long since, long upTo, ProductBulkRepository.CatalogChangeHandler handler) throws IOException {
+        try {
+            readOnlyTransaction.executeWithoutResult(status -> {
+                try {
+                    productBulkRepository.streamChanges(since, upTo, handler);
+                } catch (SQLException e) {
+                    throw new IllegalStateException(e.getMessage(), e);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package org.example.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Готовые файлы выгрузки каталога: книга строится один раз на версию каталога в фоне и хранится
+ * на локальном диске, скачивание отдаёт файл без повторного построения. После загрузки поставщиков
+ * построение откладывается, пока каталог не перестанет меняться analysis.export.snapshot-delay-ms,
+ * чтобы длинная загрузка с промежуточными фиксациями не строила файл на каждую порцию.
+ * Файл пишется во временный и переименовывается, поэтому недописанный файл не отдаётся.
+ * Файл заменённой версии удаляется только через analysis.export.snapshot-grace-ms: скачивание,
+ * получившее его из {@link #current()}, успевает открыть файл (сам или через sendfile Tomcat),
+ * а открытый файл дочитывается и после удаления.
+ */
+@Slf4j
+@Service
+public class CatalogSnapshotService {
+
+    private static final String PREFIX = "catalog-";
+    private static final String EXTENSION = ".xlsx";
+
+    private final CatalogExportService catalogExportService;
+    private final CatalogVersionService catalogVersionService;
+    private final Path directory;
+    private final long delayMs;
+    private final long graceMs;
+
+    // Файлы заменённых версий, ожидающие удаления
+    private final Set<Path> retiring = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService cleanup = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "catalog-snapshot-cleanup");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicBoolean buildRequested = new AtomicBoolean();
+    private final AtomicBoolean building = new AtomicBoolean();
+    private volatile Snapshot snapshot;
+
+    /**
+     * Файл выгрузки для версии каталога; changeVersion — версия изменений, все изменения до которой
+     * вошли в файл; etag — значение заголовка ETag вместе с кавычками
+     */
+    public record Snapshot(long version, long changeVersion, Path file, long size, String etag) {
+    }
+
+    public CatalogSnapshotService(CatalogExportService catalogExportService, CatalogVersionService catalogVersionService,
+                                  @Value("${analysis.export.snapshot-dir:${java.io.tmpdir}/catalog-export}") String directory,
+                                  @Value("${analysis.export.snapshot-delay-ms:5000}") long delayMs,
+                                  @Value("${analysis.export.snapshot-grace-ms:600000}") long graceMs) {
+        this.catalogExportService = catalogExportService;
+        this.catalogVersionService = catalogVersionService;
+        this.directory = Path.of(directory);
+        this.delayMs = delayMs;
+        this.graceMs = graceMs;
+    }
+
+    /**
+     * Файл для текущей версии каталога или null, если он ещё строится
+     */
+    public Snapshot current() {
+        Snapshot current = snapshot;
+        return current != null && current.version() == catalogVersionService.current() ? current : null;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildInBackground() {
+        requestBuild();
+    }
+
+    /**
+     * Построить файл для текущей версии в фоне; запросы во время ожидания и построения объединяются
+     */
+    public void requestBuild() {
+        buildRequested.set(true);
+        if (!building.compareAndSet(false, true)) return;
+        Thread thread = new Thread(() -> {
+            try {
+                while (buildRequested.getAndSet(false)) {
+                    if (waitForQuietCatalog()) {
+                        build();
+                    }
+                }
+            } finally {
+                building.set(false);
+            }
+            // Запрос мог прийти между последней проверкой и снятием флага
+            if (buildRequested.get()) {
+                requestBuild();
+            }
+        }, "catalog-snapshot");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Ждать, пока за delayMs не придёт новых запросов; false — поток прерван
+     */
+    private boolean waitForQuietCatalog() {
+        try {
+            do {
+                Thread.sleep(delayMs);
+            } while (buildRequested.getAndSet(false));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void build() {
+        long version = catalogVersionService.current();
+        Snapshot existing = snapshot;
+        if (existing != null && existing.version() == version) return;
+        // Берётся до чтения каталога: изменения с версиями выше могут попасть в файл и придут повторно
+        long changeVersion = catalogVersionService.highWaterMark();
+
+        Path target = directory.resolve(PREFIX + version + EXTENSION);
+        Path temp = directory.resolve(PREFIX + version + EXTENSION + ".tmp");
+        try {
+            Files.createDirectories(directory);
+            if (!Files.exists(target)) {
+                long startTime = System.currentTimeMillis();
+                try (OutputStream out = Files.newOutputStream(temp)) {
+                    catalogExportService.writeWorkbook(out);
+                }
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                log.info("📦 Файл выгрузки каталога версии {} готов: {} мс, {} байт",
+                        version, System.currentTimeMillis() - startTime, Files.size(target));
+            }
+            snapshot = new Snapshot(version, changeVersion, target, Files.size(target), "\"" + PREFIX + version + "\"");
+            if (existing != null && !existing.file().equals(target)) {
+                retire(existing.file());
+            }
+            deleteOtherSnapshots(target);
+        } catch (Exception e) {
+            log.error("Не удалось подготовить файл выгрузки каталога версии {}: {}", version, e.getMessage());
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // Недописанный файл будет перезаписан при следующем построении
+            }
+        }
+    }
+
+    /**
+     * Удалить файл заменённой версии через graceMs
+     */
+    private void retire(Path file) {
+        retiring.add(file);
+        cleanup.schedule(() -> {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                log.warn("Не удалось удалить файл выгрузки {}: {}", file, e.getMessage());
+            } finally {
+                retiring.remove(file);
+            }
+        }, graceMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Удалить файлы прежних версий, кроме ожидающих удаления: их ещё могут открывать скачивания.
+     * Остальные файлы остались от прошлых запусков и текущим процессом не отдавались.
+     */
+    private void deleteOtherSnapshots(Path keep) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*")) {
+            for (Path file : files) {
+                if (!file.equals(keep) && !retiring.contains(file)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package org.example.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.example.repository.CatalogVersionRepository;
+import org.example.util.TimeUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.sql.SQLException;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Текущая версия каталога товаров. Загрузка поставщиков увеличивает её после фиксации каждой
+ * порции, в которой изменились товары; по версии кэши понимают, что каталог изменился.
+ * <p>
+ * Из той же последовательности выдаются версии изменения строк products. Транзакции порций
+ * фиксируются не в порядке выдачи версий, поэтому выгрузка изменений читает только версии
+ * не выше {@link #highWaterMark()}: до неё все транзакции с выданными версиями завершены.
+ * Учёт незавершённых транзакций ведётся в памяти, как и остальные индексы каталога, —
+ * загрузка поставщиков идёт в одном экземпляре приложения.
+ * <p>
+ * Отметки удаления товаров хранятся {@code analysis.export.tombstone-retention-days} дней;
+ * после очистки {@link #horizon()} — наименьшая версия, от которой выгрузка изменений ещё полна.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class CatalogVersionService {
+
+    private final CatalogVersionRepository catalogVersionRepository;
+    private final AtomicLong current = new AtomicLong();
+    private final AtomicLong horizon = new AtomicLong();
+
+    @Value("${analysis.export.tombstone-retention-days:30}")
+    private int tombstoneRetentionDays;
+
+    private final ScheduledExecutorService tombstoneCleanup = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "product-tombstone-cleanup");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Версии изменения, выданные незафиксированным транзакциям, и последняя выданная версия
+    private final TreeSet<Long> pendingChanges = new TreeSet<>();
+    private long lastIssued;
+
+    @PostConstruct
+    public void init() throws SQLException {
+        catalogVersionRepository.createSequence();
+        current.set(catalogVersionRepository.current());
+        horizon.set(catalogVersionRepository.horizon());
+        synchronized (pendingChanges) {
+            lastIssued = current.get();
+        }
+        log.info("Версия каталога: {}", current.get());
+    }
+
+    public long current() {
+        return current.get();
+    }
+
+    /**
+     * Изменения после версии since можно выгрузить полностью только при since >= horizon():
+     * отметки удаления с версиями до горизонта уже удалены
+     */
+    public long horizon() {
+        return horizon.get();
+    }
+
+    /**
+     * Очистка отметок удаления раз в час, первая — через минуту после старта
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void scheduleTombstoneCleanup() {
+        tombstoneCleanup.scheduleWithFixedDelay(() -> {
+            try {
+                purgeTombstones();
+            } catch (Exception e) {
+                log.warn("Не удалось удалить устаревшие отметки удаления: {}", e.getMessage());
+            }
+        }, 1, 60, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Удалить отметки удаления старше срока хранения и поднять горизонт выгрузки изменений
+     */
+    public void purgeTombstones() throws SQLException {
+        long[] purged = catalogVersionRepository.purgeTombstones(
+                TimeUtil.nowMoscow().minusDays(tombstoneRetentionDays));
+        if (purged[0] > 0) {
+            horizon.accumulateAndGet(purged[1], Math::max);
+            log.info("🧹 Удалено отметок удаления старше {} дн.: {}, горизонт выгрузки изменений: {}",
+                    tombstoneRetentionDays, purged[0], horizon.get());
+        }
+    }
+
+    /**
+     * Зарегистрировать изменение каталога; возвращает новую версию
+     */
+    public long bump() throws SQLException {
+        long version;
+        synchronized (pendingChanges) {
+            version = catalogVersionRepository.next();
+            lastIssued = Math.max(lastIssued, version);
+        }
+        return current.accumulateAndGet(version, Math::max);
+    }
+
+    /**
+     * Выдать версию изменения строк для открытой транзакции; после фиксации или отката
+     * транзакции обязателен вызов {@link #endChange(long)}
+     */
+    public long beginChange() throws SQLException {
+        synchronized (pendingChanges) {
+            long version = catalogVersionRepository.next();
+            lastIssued = Math.max(lastIssued, version);
+            pendingChanges.add(version);
+            return version;
+        }
+    }
+
+    public void endChange(long version) {
+        synchronized (pendingChanges) {
+            pendingChanges.remove(version);
+        }
+    }
+
+    /**
+     * Наибольшая версия, до которой включительно все изменения строк зафиксированы или откачены
+     */
+    public long highWaterMark() {
+        synchronized (pendingChanges) {
+            return pendingChanges.isEmpty() ? lastIssued : pendingChanges.first() - 1;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package org.example.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.dto.DetailedAnalysisResult;
+import org.example.dto.PriceAnalysisResult;
+import org.example.dto.SupplierOfferDto;
+import org.example.repository.ProductBulkRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Детальный анализ цен: по каждой позиции заказа K самых дешёвых предложений поставщиков.
+ * Предложения берутся из индекса лучших цен в памяти, где фильтр поставщиков применяется маской;
+ * пока индекс строится — читаются курсором одним запросом на пачку штрихкодов.
+ * Для каждого штрихкода держится ограниченная куча из K элементов, поэтому полная сортировка
+ * предложений не нужна.
+ */
+@Slf4j
+@Service
+public class DetailedAnalysisService {
+
+    private static final int MAX_TOP_K = 100;
+    private static final int BARCODE_BATCH = 10_000;
+
+    private final ProductBulkRepository productBulkRepository;
+    private final BestPriceIndex bestPriceIndex;
+    private final TransactionTemplate readOnlyTransaction;
+    private final int defaultTopK;
+
+    public DetailedAnalysisService(ProductBulkRepository productBulkRepository, BestPriceIndex bestPriceIndex,
+                                   PlatformTransactionManager transactionManager,
+                                   @Value("${analysis.detailed.top-k:10}") int defaultTopK) {
+        this.productBulkRepository = productBulkRepository;
+        this.bestPriceIndex = bestPriceIndex;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.defaultTopK = defaultTopK;
+    }
+
+    /**
+     * Детальный анализ по результатам обычного анализа. topK = null — значение из настроек;
+     * позиции, требующие ручной обработки, возвращаются без предложений. Предложения поставщиков,
+     * не разрешённых фильтром, в отбор не попадают.
+     */
+    public List<DetailedAnalysisResult> analyze(List<PriceAnalysisResult> results, Integer topK, SupplierFilter filter) {
+        long startTime = System.currentTimeMillis();
+        int k = Math.max(1, Math.min(topK != null ? topK : defaultTopK, MAX_TOP_K));
+
+        Set<String> barcodes = new LinkedHashSet<>();
+        for (PriceAnalysisResult result : results) {
+            if (!Boolean.TRUE.equals(result.getRequiresManualProcessing()) && result.getBarcode() != null) {
+                barcodes.add(result.getBarcode());
+            }
+        }
+        Map<String, TopOffers> offers = findTopOffers(new ArrayList<>(barcodes), k, filter);
+
+        List<DetailedAnalysisResult> detailed = new ArrayList<>(results.size());
+        for (PriceAnalysisResult result : results) {
+            TopOffers top = result.getBarcode() != null ? offers.get(result.getBarcode()) : null;
+            detailed.add(DetailedAnalysisResult.builder()
+                    .barcode(result.getBarcode())
+                    .quantity(result.getQuantity())
+                    .productName(result.getProductName())
+                    .requiresManualProcessing(result.getRequiresManualProcessing())
+                    .foundInDatabase(top != null)
+                    .offers(top != null ? top.sorted() : List.of())
+                    .build());
+        }
+        log.info("🔎 Детальный анализ: {} мс ({} позиций, {} штрихкодов, до {} предложений на штрихкод)",
+                System.currentTimeMillis() - startTime, results.size(), barcodes.size(), k);
+        return detailed;
+    }
+
+    private Map<String, TopOffers> findTopOffers(List<String> barcodes, int k, SupplierFilter filter) {
+        if (bestPriceIndex.isReady()) {
+            return findTopOffersInMemory(barcodes, k, filter);
+        }
+        Map<String, TopOffers> offers = new HashMap<>();
+        if (barcodes.isEmpty()) return offers;
+        readOnlyTransaction.executeWithoutResult(status -> {
+            try {
+                for (int from = 0; from < barcodes.size(); from += BARCODE_BATCH) {
+                    productBulkRepository.streamOffers(barcodes.subList(from, Math.min(from + BARCODE_BATCH, barcodes.size())),
+                            (barcode, supplierId, supplierName, price, productName) -> {
+                                TopOffers top = offers.computeIfAbsent(barcode, b -> new TopOffers(k));
+                                if (filter.permits(supplierName)) {
+                                    top.offer(supplierName, price, productName);
+                                }
+                            });
+                }
+            } catch (SQLException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        });
+        return offers;
+    }
+
+    /**
+     * Отбор из индекса лучших цен: индекс отдаёт только предложения разрешённых поставщиков.
+     * Штрихкод с предложениями только неразрешённых поставщиков считается найденным, как и при чтении из базы.
+     */
+    private Map<String, TopOffers> findTopOffersInMemory(List<String> barcodes, int k, SupplierFilter filter) {
+        Map<String, TopOffers> offers = new HashMap<>();
+        BestPriceIndex.Offers[] found = bestPriceIndex.findOffers(barcodes, filter);
+        for (int i = 0; i < found.length; i++) {
+            String barcode = barcodes.get(i);
+            BestPriceIndex.Offers barcodeOffers = found[i];
+            if (barcodeOffers == null) {
+                if (!filter.isEmpty() && bestPriceIndex.contains(barcode)) {
+                    offers.put(barcode, new TopOffers(k));
+                }
+                continue;
+            }
+            TopOffers top = new TopOffers(k);
+            for (int j = 0; j < barcodeOffers.supplierIds().length; j++) {
+                top.offer(bestPriceIndex.supplierName(barcodeOffers.supplierIds()[j]), barcodeOffers.prices()[j],
+                        barcodeOffers.productNames()[j]);
+            }
+            offers.put(barcode, top);
+        }
+        return offers;
+    }
+
+    /**
+     * K самых дешёвых предложений. Вершина кучи — самое дорогое из отобранных: более дешёвое
+     * предложение вытесняет его, более дорогое отбрасывается без создания объекта.
+     */
+    private static final class TopOffers {
+        private static final Comparator<SupplierOfferDto> MOST_EXPENSIVE_FIRST =
+                Comparator.comparingDouble(SupplierOfferDto::getPriceWithVat).reversed();
+
+        final int k;
+        final PriorityQueue<SupplierOfferDto> heap;
+
+        TopOffers(int k) {
+            this.k = k;
+            this.heap = new PriorityQueue<>(Math.min(k, 16), MOST_EXPENSIVE_FIRST);
+        }
+
+        void offer(String supplierName, Double price, String productName) {
+            // Товар без цены отмечает штрихкод как найденный, но в отбор не попадает
+            if (price == null) return;
+            if (heap.size() == k) {
+                if (price >= heap.peek().getPriceWithVat()) return;
+                heap.poll();
+            }
+            heap.add(new SupplierOfferDto(supplierName, productName, price, 0));
+        }
+
+        List<SupplierOfferDto> sorted() {
+            List<SupplierOfferDto> sorted = new ArrayList<>(heap);
+            sorted.sort(Comparator.comparingDouble(SupplierOfferDto::getPriceWithVat));
+            if (!sorted.isEmpty()) {
+                double bestPrice = sorted.get(0).getPriceWithVat();
+                for (SupplierOfferDto offer : sorted) {
+                    offer.setPercentOverBest(bestPrice != 0 ? (offer.getPriceWithVat() - bestPrice) / bestPrice * 100 : 0);
+                }
+            }
+            return sorted;
+        }
+    }
+}
@@ -1,19 +1,39 @@
 package org.example.service;
 
+import com.zaxxer.hikari.HikariDataSource;
+import jakarta.annotation.PostConstruct;
+import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.poi.ss.usermodel.*;
 import org.example.dto.ExcelUploadResponse;
-import org.example.entity.Product;
+import org.example.dto.UploadJobStatus;
 import org.example.entity.Supplier;
-import org.example.repository.ProductRepository;
+import org.example.entity.SupplierUpload;
+import org.example.repository.ProductBulkRepository;
 import org.example.repository.SupplierRepository;
+import org.example.repository.SupplierUploadRepository;
+import org.example.util.BarcodeKeys;
+import org.example.util.CharSequenceIndex;
+import org.example.util.ExcelRowReader;
+import org.example.util.FileFingerprint;
+import org.example.util.LongIntHashMap;
+import org.example.util.TimeUtil;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
-import org.springframework.web.multipart.MultipartFile;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import jakarta.persistence.EntityManager;
+import javax.sql.DataSource;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -21,199 +41,633 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class ExcelProcessingService {
 
-    private final ProductRepository productRepository;
+    private final ProductBulkRepository productBulkRepository;
     private final SupplierRepository supplierRepository;
-    private final EntityManager entityManager;
+    private final SupplierUploadRepository supplierUploadRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final PlatformTransactionManager transactionManager;
+    private final BestPriceIndex bestPriceIndex;
+    private final ProductNameIndex productNameIndex;
+    private final ProductSearchIndex productSearchIndex;
+    private final CatalogVersionService catalogVersionService;
+    private final CatalogSnapshotService catalogSnapshotService;
+    private final DataSource dataSource;
 
-    @Transactional
-    public ExcelUploadResponse processSupplierDataFile(MultipartFile file) throws Exception {
-        long startTime = System.currentTimeMillis();
+    private static final int PROGRESS_STEP = 1000;
 
-        ExcelUploadResponse response = ExcelUploadResponse.builder().build();
-        int newRecords = 0;
-        int updatedRecords = 0;
-        int unchangedRecords = 0;
-        int failed = 0;
-        int skipped = 0;
+    // Отпечатки файлов, которые загружаются прямо сейчас
+    private final Set<String> activeFingerprints = ConcurrentHashMap.newKeySet();
+
+    @Value("${ingest.parallel.threads:1}")
+    private int parallelThreads;
+
+    @Value("${ingest.parallel.reserved-connections:4}")
+    private int reservedConnections;
+
+    // Используется, только если пул соединений не Hikari
+    @Value("${spring.datasource.hikari.maximum-pool-size:10}")
+    private int maxPoolSize;
 
-        Set<String> fileDuplicateCheckCache = new HashSet<>();
-        Map<String, Supplier> supplierCache = new HashMap<>();
-        Map<String, Product> productCache = new HashMap<>();
+    @Value("${ingest.jobs.max-concurrent:2}")
+    private int maxConcurrentJobs;
 
-        try (Workbook workbook = WorkbookFactory.create(file.getInputStream())) {
-            Sheet sheet = workbook.getSheetAt(0);
+    @Value("${ingest.commit-interval-rows:0}")
+    private int commitIntervalRows;
 
-            // Определяем индексы колонок
-            int supplierNameCol = findColumnIndex(sheet, "Наименование поставщика");
-            int barcodeCol = findColumnIndex(sheet, "Штрих код");
-            int productNameCol = findColumnIndex(sheet, "Наименование");
-            int priceCol = findColumnIndex(sheet, "ПЦ с НДС опт");
+    // Число групп поставщиков на одну загрузку
+    private int parallelism;
 
-            if (supplierNameCol == -1 || barcodeCol == -1 || productNameCol == -1 || priceCol == -1) {
-                throw new IllegalArgumentException("Не найдены все необходимые заголовки в файле. Убедитесь, что файл предназначен для загрузки данных поставщиков, а не для анализа цен.");
+    /**
+     * Загрузка файла поставщиков с диска. Лист читается потоково в два прохода:
+     * первый собирает поставщиков, второй обрабатывает строки.
+     * Строки делятся на группы по поставщикам; каждая группа определяет изменения и пишет
+     * в products в своей транзакции и своём соединении. Изменения фиксируются порциями по
+     * ingest.commit-interval-rows строк (0 — одной порцией в конце): фиксация порции начинается
+     * только после успешного слияния во всех группах, после фиксации во всех сохраняется контрольная точка.
+     * Фиксация групп не атомарна: если она не удалась в одной группе, уже зафиксированные группы
+     * остаются, а контрольная точка — на предыдущей порции. Поставщики групп, не зафиксировавших
+     * порцию, записываются в загрузку и перечисляются в PartialCommitException; повторная загрузка
+     * того же файла продолжается с контрольной точки и повторяет порцию только для них.
+     * В режиме замены (replace) у поставщиков из файла удаляются товары, которых в файле нет.
+     * Вызывается только из очереди SupplierUploadJobService: число групп рассчитано на то, что одновременно
+     * идёт не больше ingest.jobs.max-concurrent загрузок.
+     */
+    public ExcelUploadResponse processSupplierDataFile(Path file, String fileName, boolean replace,
+                                                       IngestProgressListener progress) throws Exception {
+        String fingerprint = FileFingerprint.sha256(file);
+        if (!activeFingerprints.add(fingerprint)) {
+            throw new IllegalArgumentException("Этот файл уже загружается");
+        }
+        try {
+            // Прошлая загрузка могла быть без замены и оставить товары, которых нет в файле
+            Optional<SupplierUpload> sameUpload = replace ? Optional.empty() : findLastUploadOfSameFile(fingerprint);
+            if (sameUpload.isPresent()) {
+                return unchangedFileResponse(sameUpload.get());
             }
+            return ingest(file, fileName, fingerprint, replace, progress);
+        } finally {
+            activeFingerprints.remove(fingerprint);
+        }
+    }
 
-            log.info("Detected columns - SupplierName: {}, Barcode: {}, ProductName: {}, Price: {}", supplierNameCol, barcodeCol, productNameCol, priceCol);
+    private ExcelUploadResponse ingest(Path file, String fileName, String fingerprint, boolean replace,
+                                       IngestProgressListener progress) throws Exception {
+        long startTime = System.currentTimeMillis();
 
-            // Подготовка поставщиков перед обработкой
+        ExcelUploadResponse response = ExcelUploadResponse.builder().build();
+        IngestCounters counters = new IngestCounters();
+        SupplierUpload upload = startUpload(fingerprint, fileName, counters);
+        int resumeAfterRow = upload.getLastCommittedRow();
+        int resumedPartialRow = upload.getPartialCommitRow();
+        List<String> resumedSuppliers = resumedPartialRow > 0 ? upload.getUncommittedSuppliers() : List.of();
+        int unchangedSupplierCount;
+
+        try {
+            // Первый проход: определяем индексы колонок и собираем поставщиков
+            progress.onPhase(UploadJobStatus.Phase.SCAN);
             long scanStart = System.currentTimeMillis();
-            int totalRows = sheet.getLastRowNum();
-            Set<String> suppliersInFile = new HashSet<>();
-            for (int i = 1; i <= totalRows; i++) {
-                Row row = sheet.getRow(i);
-                if (row != null) {
-                    String supplierName = getCellStringValue(row.getCell(supplierNameCol));
-                    if (supplierName != null && !supplierName.trim().isEmpty()) {
-                        suppliersInFile.add(supplierName.trim());
-                    }
-                }
-            }
-            log.info("📄 Сканирование файла: {} мс ({} строк, {} поставщиков)", 
-                System.currentTimeMillis() - scanStart, totalRows, suppliersInFile.size());
-            
-            // Массовая загрузка поставщиков
+            FileScan scan = scanFile(file);
+            progress.onTotalRows(scan.totalRows);
+            upload.setTotalRows(scan.totalRows);
+
+            log.info("Detected columns - SupplierName: {}, Barcode: {}, ProductName: {}, Price: {}",
+                scan.supplierNameCol, scan.barcodeCol, scan.productNameCol, scan.priceCol);
+            log.info("📄 Сканирование файла: {} мс ({} строк, {} поставщиков)",
+                System.currentTimeMillis() - scanStart, scan.totalRows, scan.supplierRows.size());
+
+            // Массовая загрузка поставщиков; фиксируется сразу, чтобы группы в других соединениях их видели
+            progress.onPhase(UploadJobStatus.Phase.SUPPLIERS);
             long supplierStart = System.currentTimeMillis();
-            ensureSuppliersExist(suppliersInFile);
-            log.info("📦 Загрузка поставщиков: {} мс", System.currentTimeMillis() - supplierStart);
-            
-            // Загрузка существующих товаров в кэш (оптимизировано)
-            long cacheStart = System.currentTimeMillis();
-            loadExistingProductsToCache(suppliersInFile, productCache);
-            log.info("🗂️ Загрузка товаров в кэш: {} мс ({} товаров)", 
-                System.currentTimeMillis() - cacheStart, productCache.size());
+            Set<String> unchangedSuppliers = inTransaction(() -> prepareSuppliers(scan, replace));
+            unchangedSupplierCount = unchangedSuppliers.size();
+            upload.setSupplierIds(scan.supplierIds);
+            log.info("📦 Загрузка поставщиков: {} мс (без изменений: {} из {})",
+                System.currentTimeMillis() - supplierStart, unchangedSuppliers.size(), scan.supplierNames.length);
 
-            long processStart = System.currentTimeMillis();
-            List<Product> batchProducts = new ArrayList<>();
-            int batchSize = 5000;
+            List<SupplierPartition> partitions = createPartitions(scan, unchangedSuppliers, parallelism);
+            RowDispatcher dispatcher = new RowDispatcher(scan, partitions, counters, progress, resumeAfterRow, replace,
+                upload.getPartialCommitRow(), upload.getUncommittedSuppliers());
 
-            for (int i = 1; i <= totalRows; i++) {
-                Row row = sheet.getRow(i);
-                if (row == null) continue;
+            if (partitions.size() == 1) {
+                processPartitionInline(file, partitions.get(0), dispatcher, upload, progress);
+            } else {
+                processPartitionsInParallel(file, partitions, dispatcher, upload, progress);
+            }
+            saveSupplierDigests(scan, unchangedSuppliers);
+        } catch (Exception e) {
+            upload.setStatus(SupplierUpload.Status.FAILED);
+            upload.setUpdatedAt(TimeUtil.nowMoscow());
+            supplierUploadRepository.save(upload);
+            throw e;
+        }
 
-                try {
-                    String supplierName = getCellStringValue(row.getCell(supplierNameCol));
-                    String barcode = getCellStringValue(row.getCell(barcodeCol));
-                    String productName = getCellStringValue(row.getCell(productNameCol));
-                    Double price = getCellNumericValue(row.getCell(priceCol));
+        int newRecords = upload.getNewRecords();
+        int updatedRecords = upload.getUpdatedRecords();
+        int unchangedRecords = upload.getUnchangedRecords();
+        int failed = upload.getFailedRecords();
+        int skipped = upload.getSkippedRecords();
+        int removedRecords = upload.getRemovedRecords();
 
-                    if (supplierName == null || supplierName.trim().isEmpty() || barcode == null || barcode.trim().isEmpty()) {
-                        throw new IllegalArgumentException("Не указан поставщик или штрихкод");
-                    }
+        long processingTime = System.currentTimeMillis() - startTime;
+
+        String message = String.format("Добавлено: %d, обновлено: %d, без изменений: %d, пропущено дубликатов: %d, ошибок: %d. Время: %d мс",
+                newRecords, updatedRecords, unchangedRecords, skipped, failed, processingTime);
+        if (replace) {
+            message += String.format(". Удалено отсутствующих в файле: %d", removedRecords);
+        }
+        if (unchangedSupplierCount > 0) {
+            message += String.format(". Поставщиков без изменений: %d", unchangedSupplierCount);
+        }
+        if (resumeAfterRow > 0) {
+            message += String.format(". Загрузка продолжена после строки %d", resumeAfterRow + 1);
+        }
+        if (resumedPartialRow > 0) {
+            message += String.format(". До строки %d повторены только поставщики: %s",
+                resumedPartialRow + 1, String.join(", ", resumedSuppliers));
+        }
 
-                    supplierName = supplierName.trim();
-                    barcode = barcode.trim();
-                    if (productName != null) productName = productName.trim();
+        response.setSuccess(true);
+        response.setMessage(message);
+        response.setNewRecords(newRecords);
+        response.setUpdatedRecords(updatedRecords);
+        response.setUnchangedRecords(unchangedRecords);
+        response.setRemovedRecords(removedRecords);
+        response.setProcessedRecords(newRecords + updatedRecords);
+        response.setFailedRecords(failed);
 
-                    // Проверка дубликата в файле
-                    String duplicateKey = supplierName + "|" + barcode;
-                    if (fileDuplicateCheckCache.contains(duplicateKey)) {
-                        skipped++;
-                        continue;
+        log.info("✅ Обработка завершена: {} (Обработано {} записей/сек)", message,
+            Math.round(upload.getTotalRows() / (processingTime / 1000.0)));
+
+        return response;
+    }
+
+    /**
+     * Последняя завершённая загрузка того же файла, если после неё товары его поставщиков
+     * не менялись: ни другими загрузками, ни миграциями, ни удалениями. Изменения ищутся
+     * по версиям строк products и отметкам удаления; если отметки после версии загрузки
+     * уже очищены (горизонт выше неё), доказать отсутствие изменений нельзя.
+     */
+    private Optional<SupplierUpload> findLastUploadOfSameFile(String fingerprint) throws SQLException {
+        Optional<SupplierUpload> last = supplierUploadRepository
+            .findFirstByFingerprintAndStatusOrderByUpdatedAtDesc(fingerprint, SupplierUpload.Status.COMPLETED);
+        if (last.isEmpty()) return last;
+        SupplierUpload upload = last.get();
+        if (upload.getCatalogVersion() == null || upload.getSupplierIds() == null) return Optional.empty();
+        if (catalogVersionService.horizon() > upload.getCatalogVersion()) return Optional.empty();
+        if (productBulkRepository.hasChangesSince(upload.getSupplierIds(), upload.getCatalogVersion())) {
+            log.info("Файл уже загружался ({}), но товары его поставщиков с тех пор изменились", upload.getId());
+            return Optional.empty();
+        }
+        return last;
+    }
+
+    /**
+     * Ответ без обработки: итоги прошлой загрузки того же файла
+     */
+    private ExcelUploadResponse unchangedFileResponse(SupplierUpload upload) {
+        String message = String.format("Файл не изменился с последней загрузки (%s). Её итоги: добавлено: %d, обновлено: %d, "
+                + "без изменений: %d, удалено: %d, пропущено дубликатов: %d, ошибок: %d",
+            upload.getUpdatedAt().format(DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm")),
+            upload.getNewRecords(), upload.getUpdatedRecords(), upload.getUnchangedRecords(),
+            upload.getRemovedRecords(), upload.getSkippedRecords(), upload.getFailedRecords());
+        log.info("✅ {}", message);
+        return ExcelUploadResponse.builder()
+            .success(true)
+            .message(message)
+            .newRecords(upload.getNewRecords())
+            .updatedRecords(upload.getUpdatedRecords())
+            .unchangedRecords(upload.getUnchangedRecords())
+            .removedRecords(upload.getRemovedRecords())
+            .processedRecords(upload.getNewRecords() + upload.getUpdatedRecords())
+            .failedRecords(upload.getFailedRecords())
+            .build();
+    }
+
+    /**
+     * Найти незавершённую загрузку того же файла и продолжить её, иначе начать новую
+     */
+    private SupplierUpload startUpload(String fingerprint, String fileName, IngestCounters counters) {
+        Optional<SupplierUpload> previous = supplierUploadRepository.findFirstByFingerprintOrderByCreatedAtDesc(fingerprint)
+            .filter(upload -> upload.getStatus() != SupplierUpload.Status.COMPLETED && upload.getLastCommittedRow() > 0);
+        if (previous.isPresent()) {
+            SupplierUpload upload = previous.get();
+            log.info("Продолжение загрузки {} после строки {}", upload.getId(), upload.getLastCommittedRow() + 1);
+            counters.newRecords = upload.getNewRecords();
+            counters.updatedRecords = upload.getUpdatedRecords();
+            counters.unchangedRecords = upload.getUnchangedRecords();
+            counters.removedRecords = upload.getRemovedRecords();
+            counters.skipped = upload.getSkippedRecords();
+            counters.failed = upload.getFailedRecords();
+            upload.setStatus(SupplierUpload.Status.IN_PROGRESS);
+            upload.setUpdatedAt(TimeUtil.nowMoscow());
+            return supplierUploadRepository.save(upload);
+        }
+        return supplierUploadRepository.save(SupplierUpload.builder()
+            .fingerprint(fingerprint)
+            .fileName(fileName)
+            .status(SupplierUpload.Status.IN_PROGRESS)
+            .updatedAt(TimeUtil.nowMoscow())
+            .build());
+    }
+
+    /**
+     * Сохранить контрольную точку после фиксации порции во всех группах
+     */
+    private void saveCheckpoint(SupplierUpload upload, int lastRow, boolean last,
+                                IngestCounters counters, List<SupplierPartition> partitions) {
+        int newRecords = counters.newRecords;
+        int updatedRecords = counters.updatedRecords;
+        int unchangedRecords = counters.unchangedRecords;
+        int removedRecords = counters.removedRecords;
+        for (SupplierPartition partition : partitions) {
+            newRecords += partition.committedInserted;
+            updatedRecords += partition.committedUpdated;
+            unchangedRecords += partition.committedUnchanged;
+            removedRecords += partition.committedRemoved;
+        }
+        upload.setLastCommittedRow(lastRow);
+        upload.setPartialCommitRow(0);
+        upload.setUncommittedSuppliers(null);
+        upload.setNewRecords(newRecords);
+        upload.setUpdatedRecords(updatedRecords);
+        upload.setUnchangedRecords(unchangedRecords);
+        upload.setRemovedRecords(removedRecords);
+        upload.setSkippedRecords(counters.skipped);
+        upload.setFailedRecords(counters.failed);
+        if (last) {
+            // Все порции зафиксированы: изменения загрузки не выше этой версии
+            upload.setCatalogVersion(catalogVersionService.highWaterMark());
+        }
+        upload.setStatus(last ? SupplierUpload.Status.COMPLETED : SupplierUpload.Status.IN_PROGRESS);
+        upload.setUpdatedAt(TimeUtil.nowMoscow());
+        supplierUploadRepository.save(upload);
+        if (!last) {
+            log.info("Контрольная точка: зафиксировано до строки {}", lastRow + 1);
+        }
+    }
+
+    /**
+     * Опубликовать изменения зафиксированной порции всех групп: обновить индекс лучших цен
+     * по изменённым штрихкодам и увеличить версию каталога
+     */
+    private void publishCatalogChanges(List<SupplierPartition> partitions) throws SQLException {
+        LongIntHashMap barcodeKeys = new LongIntHashMap();
+        Set<String> textBarcodes = new HashSet<>();
+        for (SupplierPartition partition : partitions) {
+            partition.touchedKeys.forEach((key, value) -> barcodeKeys.put(key, 0));
+            textBarcodes.addAll(partition.touchedTextBarcodes);
+            partition.touchedKeys.clear();
+            partition.touchedTextBarcodes.clear();
+            partition.unpublished = false;
+        }
+        if (barcodeKeys.isEmpty() && textBarcodes.isEmpty()) return;
+        bestPriceIndex.refresh(barcodeKeys, textBarcodes);
+        productNameIndex.refresh(barcodeKeys, textBarcodes);
+        productSearchIndex.requestRebuild();
+        catalogVersionService.bump();
+        catalogSnapshotService.requestBuild();
+    }
+
+    /**
+     * Фиксация порции не удалась в части групп: изменения уже зафиксированных групп видны в products,
+     * поэтому они публикуются в индексах каталога. Контрольная точка не сдвигается — повторная
+     * загрузка повторит порцию целиком.
+     */
+    private void publishPartialCommit(List<SupplierPartition> partitions) {
+        List<SupplierPartition> committed = partitions.stream().filter(partition -> partition.unpublished).toList();
+        if (committed.isEmpty()) return;
+        log.warn("⚠️ Порция зафиксирована в {} из {} групп; повторная загрузка файла продолжит с контрольной точки",
+            committed.size(), partitions.size());
+        try {
+            publishCatalogChanges(committed);
+        } catch (Exception e) {
+            log.error("Не удалось обновить индексы каталога после частичной фиксации: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Записать в загрузку порцию, зафиксированную не во всех группах: строку её конца,
+     * поставщиков групп, которые её не зафиксировали, и итоги зафиксировавших групп.
+     * Возвращает этих поставщиков (пустой список, если порцию зафиксировали все группы, но сбой
+     * случился до сохранения контрольной точки) или null, если частичной фиксации не было.
+     * Если прошлая попытка уже зафиксировала ту же порцию у части поставщиков, они в список не попадают.
+     */
+    private List<String> recordPartialCommit(SupplierUpload upload, List<SupplierPartition> partitions,
+                                             RowDispatcher dispatcher) {
+        int chunk = dispatcher.chunks;
+        if (chunk == 0 || dispatcher.chunkRow <= upload.getLastCommittedRow()) return null;
+        List<SupplierPartition> committed = partitions.stream()
+            .filter(partition -> partition.committedChunks == chunk)
+            .toList();
+        if (committed.isEmpty()) return null;
+
+        Set<String> uncommitted = new TreeSet<>();
+        for (SupplierPartition partition : partitions) {
+            if (partition.committedChunks < chunk) uncommitted.addAll(partition.suppliers);
+        }
+        if (upload.getPartialCommitRow() == dispatcher.chunkRow && upload.getUncommittedSuppliers() != null) {
+            uncommitted.retainAll(upload.getUncommittedSuppliers());
+        }
+        for (SupplierPartition partition : committed) {
+            upload.setNewRecords(upload.getNewRecords() + partition.chunkInserted);
+            upload.setUpdatedRecords(upload.getUpdatedRecords() + partition.chunkUpdated);
+            upload.setUnchangedRecords(upload.getUnchangedRecords() + partition.chunkUnchanged);
+            upload.setRemovedRecords(upload.getRemovedRecords() + partition.chunkRemoved);
+        }
+        upload.setPartialCommitRow(dispatcher.chunkRow);
+        upload.setUncommittedSuppliers(new ArrayList<>(uncommitted));
+        log.warn("⚠️ Порция до строки {} не зафиксирована у поставщиков: {}", dispatcher.chunkRow + 1, uncommitted);
+        return upload.getUncommittedSuppliers();
+    }
+
+    /**
+     * Обработка одной группы в потоке чтения файла
+     */
+    private void processPartitionInline(Path file, SupplierPartition partition, RowDispatcher dispatcher,
+                                        SupplierUpload upload, IngestProgressListener progress) throws Exception {
+        List<SupplierPartition> partitions = List.of(partition);
+        try {
+            progress.onPhase(UploadJobStatus.Phase.CACHE);
+            partition.open();
+            logCache(partitions);
+
+            progress.onPhase(UploadJobStatus.Phase.ROWS);
+            dispatcher.readRows(file, new RowSink() {
+                @Override
+                public void batch(SupplierPartition target, RowBatch batch) throws Exception {
+                    target.process(batch);
+                }
+
+                @Override
+                public void commit(int lastRow, boolean last) throws Exception {
+                    if (last) progress.onPhase(UploadJobStatus.Phase.COMMIT);
+                    partition.mergeChunk();
+                    if (last) partition.removeMissing(dispatcher);
+                    partition.commitChunk();
+                    publishCatalogChanges(partitions);
+                    saveCheckpoint(upload, lastRow, last, dispatcher.counters, partitions);
+                }
+            });
+        } catch (Exception e) {
+            partition.rollbackQuietly();
+            // Порция могла зафиксироваться, а сбой случиться после фиксации
+            recordPartialCommit(upload, partitions, dispatcher);
+            throw e;
+        }
+    }
+
+    /**
+     * Параллельная обработка групп: каждая группа работает в своём потоке со своими транзакциями,
+     * а поток чтения файла раскладывает пачки строк по ограниченным очередям групп
+     */
+    private void processPartitionsInParallel(Path file, List<SupplierPartition> partitions, RowDispatcher dispatcher,
+                                             SupplierUpload upload, IngestProgressListener progress) throws Exception {
+        PartitionCoordinator coordinator = new PartitionCoordinator(partitions.size());
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(partitions.size(),
+                runnable -> new Thread(runnable, "supplier-ingest-" + threadNumber.incrementAndGet()));
+        try {
+            progress.onPhase(UploadJobStatus.Phase.CACHE);
+            List<Future<?>> futures = new ArrayList<>();
+            for (SupplierPartition partition : partitions) {
+                futures.add(executor.submit(() -> {
+                    partition.runWorker(coordinator, dispatcher);
+                    return null;
+                }));
+            }
+
+            Exception readFailure = null;
+            AtomicBoolean endSent = new AtomicBoolean();
+            try {
+                coordinator.opened.await();
+                coordinator.checkFailure();
+                logCache(partitions);
+
+                progress.onPhase(UploadJobStatus.Phase.ROWS);
+                dispatcher.readRows(file, new RowSink() {
+                    @Override
+                    public void batch(SupplierPartition target, RowBatch batch) throws Exception {
+                        coordinator.checkFailure();
+                        target.queue.put(batch);
                     }
-                    fileDuplicateCheckCache.add(duplicateKey);
-
-                    Supplier supplier = supplierCache.computeIfAbsent(supplierName, 
-                        name -> supplierRepository.findById(name).orElse(null));
-
-                    // Проверка существования в кэше
-                    String cacheKey = supplierName + "|" + barcode;
-                    Product existingProduct = productCache.get(cacheKey);
-
-                    if (existingProduct != null) {
-                        // Проверяем изменения ПЕРЕД добавлением в batch
-                        boolean priceChanged = !Objects.equals(existingProduct.getPriceWithVat(), price);
-                        boolean nameChanged = !Objects.equals(existingProduct.getProductName(), productName);
-
-                        if (priceChanged || nameChanged) {
-                            // Только если есть реальные изменения - обновляем
-                            existingProduct.setProductName(productName);
-                            existingProduct.setPriceWithVat(price);
-                            batchProducts.add(existingProduct);
-                            updatedRecords++;
-                        } else {
-                            unchangedRecords++;
+
+                    @Override
+                    public void commit(int lastRow, boolean last) throws Exception {
+                        if (last) progress.onPhase(UploadJobStatus.Phase.COMMIT);
+                        for (SupplierPartition partition : partitions) {
+                            partition.queue.put(last ? RowBatch.END : RowBatch.COMMIT);
                         }
-                    } else {
-                        Product newProduct = Product.builder()
-                                .supplier(supplier)
-                                .barcode(barcode)
-                                .productName(productName)
-                                .priceWithVat(price)
-                                .build();
-                        batchProducts.add(newProduct);
-                        newRecords++;
+                        endSent.set(last);
+                        while (!coordinator.committed.tryAcquire(partitions.size(), 100, TimeUnit.MILLISECONDS)) {
+                            coordinator.checkFailure();
+                        }
+                        publishCatalogChanges(partitions);
+                        saveCheckpoint(upload, lastRow, last, dispatcher.counters, partitions);
+                    }
+                });
+            } catch (Exception e) {
+                readFailure = e;
+                if (!endSent.get()) {
+                    for (SupplierPartition partition : partitions) {
+                        partition.queue.put(RowBatch.ABORT);
                     }
+                }
+            }
 
-                    // Сохраняем батч и очищаем Hibernate кэш
-                    if (batchProducts.size() >= batchSize) {
-                        productRepository.saveAll(batchProducts);
-                        entityManager.flush();
-                        entityManager.clear();
-                        batchProducts.clear();
+            Exception partitionFailure = null;
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (partitionFailure == null && !(e.getCause() instanceof CancellationException)) {
+                        partitionFailure = e.getCause() instanceof Exception cause ? cause : e;
                     }
-                } catch (Exception e) {
-                    failed++;
-                    log.warn("Ошибка обработки строки {}: {}", i + 1, e.getMessage());
                 }
             }
+            if (partitionFailure == null && readFailure == null) return;
+            publishPartialCommit(partitions);
+            Exception failure = partitionFailure != null ? partitionFailure : readFailure;
+            List<String> uncommitted = recordPartialCommit(upload, partitions, dispatcher);
+            if (uncommitted != null && !uncommitted.isEmpty()) {
+                throw new PartialCommitException(dispatcher.chunkRow, uncommitted, failure);
+            }
+            throw failure;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
-            // Сохраняем оставшиеся товары
-            if (!batchProducts.isEmpty()) {
-                productRepository.saveAll(batchProducts);
-                entityManager.flush();
+    /**
+     * Ключ цифрового штрихкода ячейки (см. BarcodeKeys) или NOT_NUMERIC, если штрихкод нужно читать строкой.
+     * Число в ячейке приводится к целому так же, как в getString.
+     */
+    private long barcodeKey(ExcelRowReader.SheetRow row, int col) {
+        CharSequence chars = row.getChars(col);
+        if (chars == null) return BarcodeKeys.NOT_NUMERIC;
+        if (row.isNumeric(col)) {
+            // До 15 цифр число точно представимо в double и совпадает с исходной записью
+            if (chars.length() <= 15) {
+                long key = BarcodeKeys.toKey(chars);
+                if (key != BarcodeKeys.NOT_NUMERIC) return key;
             }
+            return BarcodeKeys.fromNumber((long) row.getDouble(col));
+        }
+        int start = 0;
+        int end = chars.length();
+        while (start < end && chars.charAt(start) <= ' ') start++;
+        while (end > start && chars.charAt(end - 1) <= ' ') end--;
+        return BarcodeKeys.toKey(chars, start, end);
+    }
 
-            long processingTime = System.currentTimeMillis() - startTime;
-            log.info("⏱️  Обработка строк: {} мс", System.currentTimeMillis() - processStart);
-            
-            String message = String.format("Добавлено: %d, обновлено: %d, без изменений: %d, пропущено дубликатов: %d, ошибок: %d. Время: %d мс",
-                    newRecords, updatedRecords, unchangedRecords, skipped, failed, processingTime);
+    /**
+     * Число групп: не больше настроенного числа потоков и не больше доли пула соединений,
+     * оставшейся после резерва для остальных запросов, на одну одновременную загрузку.
+     * Размер пула берётся у самого пула, а не из свойства, которое может быть не задано
+     */
+    @PostConstruct
+    void initParallelism() throws SQLException {
+        int poolSize = dataSource.isWrapperFor(HikariDataSource.class)
+            ? dataSource.unwrap(HikariDataSource.class).getMaximumPoolSize()
+            : maxPoolSize;
+        int connectionBudget = (poolSize - reservedConnections) / Math.max(1, maxConcurrentJobs);
+        parallelism = Math.max(1, Math.min(parallelThreads, connectionBudget));
+        if (parallelism < parallelThreads) {
+            log.warn("Параллельная загрузка ограничена {} групп(ами) вместо {}: пул {} соединений, резерв {}, одновременных загрузок {}",
+                parallelism, parallelThreads, poolSize, reservedConnections, maxConcurrentJobs);
+        } else {
+            log.info("Параллельная загрузка: до {} групп поставщиков на загрузку (пул {} соединений)", parallelism, poolSize);
+        }
+    }
 
-            response.setSuccess(true);
-            response.setMessage(message);
-            response.setNewRecords(newRecords);
-            response.setUpdatedRecords(updatedRecords);
-            response.setUnchangedRecords(unchangedRecords);
-            response.setProcessedRecords(newRecords + updatedRecords);
-            response.setFailedRecords(failed);
+    /**
+     * Распределить поставщиков по группам: крупные поставщики первыми уходят в наименее загруженную группу
+     */
+    private List<SupplierPartition> createPartitions(FileScan scan, Set<String> excludedSuppliers, int parallelism) {
+        int count = Math.max(1, Math.min(parallelism, scan.supplierRows.size() - excludedSuppliers.size()));
+        List<SupplierPartition> partitions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            partitions.add(new SupplierPartition(scan));
+        }
+        scan.supplierRows.entrySet().stream()
+            .filter(entry -> !excludedSuppliers.contains(entry.getKey()))
+            .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
+            .forEach(entry -> {
+                SupplierPartition lightest = Collections.min(partitions, Comparator.comparingLong(partition -> partition.expectedRows));
+                lightest.suppliers.add(entry.getKey());
+                lightest.expectedRows += entry.getValue();
+            });
+        log.info("Загрузка в {} групп(ы) поставщиков", count);
+        return partitions;
+    }
 
-            log.info("✅ Обработка завершена: {} (Обработано {} записей/сек)", message, 
-                Math.round(totalRows / (processingTime / 1000.0)));
+    private void logCache(List<SupplierPartition> partitions) {
+        List<ProductDiffIndex> indexes = partitions.stream()
+            .flatMap(partition -> Arrays.stream(partition.diffIndexes))
+            .filter(Objects::nonNull)
+            .toList();
+        log.info("🗂️ Загрузка снимка товаров: {} товаров, ~{} КБ",
+            indexes.stream().mapToInt(ProductDiffIndex::size).sum(),
+            indexes.stream().mapToLong(ProductDiffIndex::estimatedBytes).sum() / 1024);
+    }
 
-            return response;
+    /**
+     * Выполнить действие в отдельной транзакции текущего потока
+     */
+    private <T> T inTransaction(Callable<T> action) throws Exception {
+        try {
+            return transactionTemplate.execute(status -> {
+                try {
+                    return action.call();
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new CheckedException(e);
+                }
+            });
+        } catch (CheckedException e) {
+            throw e.getCause();
         }
     }
 
     /**
-     * Загрузить все существующие товары в кэш для быстрого поиска
+     * Первый проход по файлу: поиск колонок по заголовку и сбор поставщиков
      */
-    private void loadExistingProductsToCache(Set<String> supplierNames, Map<String, Product> cache) {
-        log.info("Загрузка существующих товаров в кэш для {} поставщиков", supplierNames.size());
-        long cacheLoadStart = System.currentTimeMillis();
-        
-        // Загружаем все товары за один запрос используя IN запрос
-        List<Product> allProducts = productRepository.findBySupplierNameIn(supplierNames);
-        for (Product product : allProducts) {
-            String key = product.getSupplier().getSupplierName() + "|" + product.getBarcode();
-            cache.put(key, product);
+    private FileScan scanFile(Path file) throws Exception {
+        FileScan scan = new FileScan();
+        ExcelRowReader.read(file, row -> {
+            if (row.getRowNum() == 0) {
+                scan.supplierNameCol = findColumnIndex(row, "Наименование поставщика");
+                scan.barcodeCol = findColumnIndex(row, "Штрих код");
+                scan.productNameCol = findColumnIndex(row, "Наименование");
+                scan.priceCol = findColumnIndex(row, "ПЦ с НДС опт");
+                return;
+            }
+            scan.totalRows = row.getRowNum();
+            if (scan.supplierNameCol == -1) return;
+
+            String supplierName = row.getString(scan.supplierNameCol);
+            if (supplierName == null || supplierName.isEmpty()) return;
+            scan.supplierRows.merge(supplierName, 1, Integer::sum);
+
+            if (scan.barcodeCol == -1 || scan.productNameCol == -1 || scan.priceCol == -1) return;
+            long barcodeKey = barcodeKey(row, scan.barcodeCol);
+            String textBarcode = barcodeKey == BarcodeKeys.NOT_NUMERIC ? row.getString(scan.barcodeCol) : null;
+            if (barcodeKey == BarcodeKeys.NOT_NUMERIC && (textBarcode == null || textBarcode.isEmpty())) return;
+            double price = parseCellNumericValue(row, scan.priceCol);
+            scan.supplierDigests.computeIfAbsent(supplierName, name -> new SupplierBlockDigest())
+                .addRow(barcodeKey, textBarcode, row.getString(scan.productNameCol), Double.isNaN(price) ? 0.0 : price);
+        });
+
+        if (scan.supplierNameCol == -1 || scan.barcodeCol == -1 || scan.productNameCol == -1 || scan.priceCol == -1) {
+            throw new IllegalArgumentException("Не найдены все необходимые заголовки в файле. Убедитесь, что файл предназначен для загрузки данных поставщиков, а не для анализа цен.");
+        }
+
+        scan.supplierNames = scan.supplierRows.keySet().toArray(new String[0]);
+        for (int ordinal = 0; ordinal < scan.supplierNames.length; ordinal++) {
+            scan.supplierOrdinals.put(scan.supplierNames[ordinal], ordinal);
         }
-        
-        log.info("Загрузка кэша завершена за {} мс. Загружено {} товаров", 
-            System.currentTimeMillis() - cacheLoadStart, cache.size());
+        scan.supplierIndex = new CharSequenceIndex(scan.supplierNames);
+        return scan;
+    }
+
+    /**
+     * Загрузить id, цену и хеш наименования существующих товаров поставщиков из файла
+     */
+    private Map<Integer, ProductDiffIndex> loadDiffIndexes(int[] supplierIds) throws SQLException {
+        Map<Integer, ProductDiffIndex> indexes = new HashMap<>();
+        productBulkRepository.streamProductSnapshots(supplierIds, (supplierId, id, barcode, price, productName) ->
+            indexes.computeIfAbsent(supplierId, key -> new ProductDiffIndex(1024))
+                .add(id, barcode, price, productName));
+        return indexes;
     }
 
     /**
-     * Убедитесь, что все поставщики существуют в БД
+     * Создать недостающих поставщиков и найти тех, чей блок строк совпадает с прошлой загрузкой.
+     * У остальных дайджест сбрасывается до завершения загрузки: при сбое на середине
+     * их товары уже не соответствуют прошлому дайджесту. В режиме замены обрабатываются все
+     * поставщики: совпадение блока не означает отсутствие лишних товаров.
+     * Заполняет scan.supplierIds: дальше поставщики адресуются только целочисленными id.
      */
-    private void ensureSuppliersExist(Set<String> supplierNames) {
+    private Set<String> prepareSuppliers(FileScan scan, boolean replace) {
+        Set<String> supplierNames = scan.supplierRows.keySet();
         log.info("Проверка существования {} поставщиков", supplierNames.size());
-        
+
         // Получить существующих поставщиков
-        List<Supplier> existingSuppliers = supplierRepository.findAllById(supplierNames);
+        List<Supplier> existingSuppliers = supplierRepository.findBySupplierNameIn(supplierNames);
         Set<String> existingSupplierNames = existingSuppliers.stream()
             .map(Supplier::getSupplierName)
             .collect(Collectors.toSet());
 
+        Set<String> unchangedSuppliers = new HashSet<>();
+        for (Supplier supplier : existingSuppliers) {
+            String digest = scan.getSupplierDigest(supplier.getSupplierName());
+            if (!replace && digest != null && digest.equals(supplier.getContentDigest())) {
+                unchangedSuppliers.add(supplier.getSupplierName());
+            } else {
+                supplier.setContentDigest(null);
+            }
+        }
+
         // Создать недостающих поставщиков
         List<Supplier> newSuppliers = supplierNames.stream()
             .filter(name -> !existingSupplierNames.contains(name))
@@ -222,18 +676,38 @@ public class ExcelProcessingService {
 
         if (!newSuppliers.isEmpty()) {
             log.info("Создание {} новых поставщиков", newSuppliers.size());
-            supplierRepository.saveAll(newSuppliers);
+            supplierRepository.saveAllAndFlush(newSuppliers);
         }
+
+        scan.supplierIds = new int[scan.supplierNames.length];
+        for (List<Supplier> suppliers : List.of(existingSuppliers, newSuppliers)) {
+            for (Supplier supplier : suppliers) {
+                scan.supplierIds[scan.supplierOrdinals.get(supplier.getSupplierName())] = supplier.getId();
+            }
+        }
+        return unchangedSuppliers;
     }
 
-    private int findColumnIndex(Sheet sheet, String expectedHeader) {
-        Row headerRow = sheet.getRow(0);
-        if (headerRow == null) return -1;
+    /**
+     * Сохранить дайджесты блоков обработанных поставщиков после фиксации всех порций
+     */
+    private void saveSupplierDigests(FileScan scan, Set<String> unchangedSuppliers) throws Exception {
+        inTransaction(() -> {
+            List<Supplier> suppliers = supplierRepository.findBySupplierNameIn(scan.supplierRows.keySet());
+            for (Supplier supplier : suppliers) {
+                if (!unchangedSuppliers.contains(supplier.getSupplierName())) {
+                    supplier.setContentDigest(scan.getSupplierDigest(supplier.getSupplierName()));
+                }
+            }
+            return null;
+        });
+    }
 
+    private int findColumnIndex(ExcelRowReader.SheetRow headerRow, String expectedHeader) {
         String normalizedExpected = expectedHeader.trim().replaceAll("\\s+", "").toLowerCase();
 
         for (int i = 0; i < headerRow.getLastCellNum(); i++) {
-            String cellValue = getCellStringValue(headerRow.getCell(i));
+            String cellValue = headerRow.getString(i);
             if (cellValue != null) {
                 String normalizedCell = cellValue.trim().replaceAll("\\s+", "").toLowerCase();
                 if (normalizedCell.equals(normalizedExpected)) {
@@ -246,29 +720,594 @@ public class ExcelProcessingService {
         return -1;
     }
 
-    private String getCellStringValue(Cell cell) {
-        if (cell == null) return null;
-        return switch (cell.getCellType()) {
-            case STRING -> cell.getStringCellValue().trim();
-            case NUMERIC -> String.valueOf((long) cell.getNumericCellValue());
-            default -> null;
-        };
+    private double getCellNumericValue(ExcelRowReader.SheetRow row, int col) {
+        double value = parseCellNumericValue(row, col);
+        if (Double.isNaN(value)) {
+            log.warn("Ошибка парсинга цены: '{}'", row.getRaw(col));
+            return 0.0;
+        }
+        return value;
+    }
+
+    /**
+     * Число из ячейки; строка с запятой вместо точки тоже разбирается. NaN — нечисловая строка
+     */
+    private double parseCellNumericValue(ExcelRowReader.SheetRow row, int col) {
+        if (row.isNumeric(col)) {
+            return row.getDouble(col);
+        }
+        if (row.isString(col)) {
+            String value = row.getRaw(col).replace(",", ".").trim();
+            try {
+                return Double.parseDouble(value);
+            } catch (NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
+        return 0.0;
+    }
+
+    private static class FileScan {
+        int supplierNameCol = -1;
+        int barcodeCol = -1;
+        int productNameCol = -1;
+        int priceCol = -1;
+        int totalRows;
+        final Map<String, Integer> supplierRows = new HashMap<>();
+        // Порядковые номера поставщиков для адресации массивов вместо строковых ключей
+        final Map<String, Integer> supplierOrdinals = new HashMap<>();
+        final Map<String, SupplierBlockDigest> supplierDigests = new HashMap<>();
+        final Map<String, String> supplierDigestHex = new HashMap<>();
+        String[] supplierNames;
+        // Поиск порядкового номера по символам ячейки, без строки на каждую запись
+        CharSequenceIndex supplierIndex;
+        // id поставщиков в таблице suppliers по порядковым номерам
+        int[] supplierIds;
+
+        String getSupplierDigest(String supplierName) {
+            return supplierDigestHex.computeIfAbsent(supplierName,
+                name -> supplierDigests.containsKey(name) ? supplierDigests.get(name).toHex() : null);
+        }
+    }
+
+    private static class IngestCounters {
+        int rows;
+        int failed;
+        int skipped;
+        // Итоги уже зафиксированных порций при продолжении загрузки
+        int newRecords;
+        int updatedRecords;
+        int unchangedRecords;
+        int removedRecords;
+    }
+
+    /**
+     * Получатель пачек строк и границ порций фиксации
+     */
+    private interface RowSink {
+        void batch(SupplierPartition partition, RowBatch batch) throws Exception;
+
+        /** Все строки до lastRow включительно переданы; зафиксировать их во всех группах */
+        void commit(int lastRow, boolean last) throws Exception;
+    }
+
+    /**
+     * Второй проход по файлу: проверка строк, отсев дубликатов и раскладка пачек по группам.
+     * Поставщик находится по символам ячейки и представлен порядковым номером, цифровой
+     * штрихкод — long ключом. String создаются только для текстовых штрихкодов, цен в текстовых
+     * ячейках и наименований записываемых строк из встроенных строк листа; общие строки листа
+     * приходят готовыми экземплярами. Строки до контрольной точки только участвуют
+     * в поиске дубликатов и повторно не записываются.
+     */
+    private class RowDispatcher {
+        final FileScan scan;
+        final List<SupplierPartition> partitions;
+        final IngestCounters counters;
+        final IngestProgressListener progress;
+        final int resumeAfterRow;
+        final boolean replace;
+        // Штрихкоды каждого поставщика в файле, включая строки до контрольной точки;
+        // текстовые — в наборе поставщика, который создаётся при первом таком штрихкоде
+        final LongIntHashMap[] seenBarcodes;
+        final Set<String>[] seenTextBarcodes;
+        final SupplierPartition[] partitionByOrdinal;
+        // Прошлая попытка зафиксировала строки до partialCommitRow у этих поставщиков
+        final int partialCommitRow;
+        final boolean[] committedAhead;
+        RowSink sink;
+        int lastRow;
+        int rowsSinceCommit;
+        // Начатые порции и последняя строка текущей порции
+        int chunks;
+        int chunkRow;
+
+        RowDispatcher(FileScan scan, List<SupplierPartition> partitions, IngestCounters counters,
+                      IngestProgressListener progress, int resumeAfterRow, boolean replace,
+                      int partialCommitRow, List<String> uncommittedSuppliers) {
+            this.scan = scan;
+            this.partitions = partitions;
+            this.counters = counters;
+            this.progress = progress;
+            this.resumeAfterRow = resumeAfterRow;
+            this.replace = replace;
+            int supplierCount = scan.supplierNames.length;
+            seenBarcodes = new LongIntHashMap[supplierCount];
+            @SuppressWarnings("unchecked")
+            Set<String>[] textSets = new Set[supplierCount];
+            seenTextBarcodes = textSets;
+            partitionByOrdinal = new SupplierPartition[supplierCount];
+            for (int ordinal = 0; ordinal < supplierCount; ordinal++) {
+                seenBarcodes[ordinal] = new LongIntHashMap(scan.supplierRows.get(scan.supplierNames[ordinal]));
+            }
+            for (SupplierPartition partition : partitions) {
+                for (String supplierName : partition.suppliers) {
+                    partitionByOrdinal[scan.supplierOrdinals.get(supplierName)] = partition;
+                }
+            }
+            this.partialCommitRow = partialCommitRow;
+            committedAhead = new boolean[supplierCount];
+            if (partialCommitRow > 0) {
+                Set<String> retry = uncommittedSuppliers != null ? new HashSet<>(uncommittedSuppliers) : Set.of();
+                for (int ordinal = 0; ordinal < supplierCount; ordinal++) {
+                    committedAhead[ordinal] = !retry.contains(scan.supplierNames[ordinal]);
+                }
+            }
+        }
+
+        void readRows(Path file, RowSink sink) throws Exception {
+            this.sink = sink;
+            lastRow = resumeAfterRow;
+            long processStart = System.currentTimeMillis();
+
+            ExcelRowReader.read(file, row -> {
+                if (row.getRowNum() == 0) return;
+                if (++counters.rows % PROGRESS_STEP == 0) {
+                    progress.onRowsProcessed(counters.rows);
+                }
+                boolean replay = row.getRowNum() <= resumeAfterRow;
+                handleRow(row, replay);
+                if (replay) return;
+
+                lastRow = row.getRowNum();
+                if (commitIntervalRows > 0 && ++rowsSinceCommit >= commitIntervalRows) {
+                    commit(false);
+                }
+            });
+
+            commit(true);
+            progress.onRowsProcessed(counters.rows);
+            log.info("⏱️  Обработка строк: {} мс", System.currentTimeMillis() - processStart);
+        }
+
+        private void handleRow(ExcelRowReader.SheetRow row, boolean replay) throws Exception {
+            int ordinal;
+            long barcodeKey;
+            String textBarcode = null;
+            double price;
+            try {
+                ordinal = supplierOrdinal(row);
+                barcodeKey = barcodeKey(row, scan.barcodeCol);
+                if (barcodeKey == BarcodeKeys.NOT_NUMERIC) {
+                    textBarcode = row.getString(scan.barcodeCol);
+                }
+                price = replay ? 0 : getCellNumericValue(row, scan.priceCol);
+
+                if (ordinal < 0 || (barcodeKey == BarcodeKeys.NOT_NUMERIC && (textBarcode == null || textBarcode.isEmpty()))) {
+                    throw new IllegalArgumentException("Не указан поставщик или штрихкод");
+                }
+            } catch (Exception e) {
+                if (!replay) {
+                    counters.failed++;
+                    log.warn("Ошибка обработки строки {}: {}", row.getRowNum() + 1, e.getMessage());
+                }
+                return;
+            }
+
+            // Проверка дубликата в файле
+            boolean added = textBarcode == null
+                ? seenBarcodes[ordinal].putIfAbsent(barcodeKey, 0)
+                : textBarcodesOf(ordinal).add(textBarcode);
+            if (replay) return;
+            if (!added) {
+                counters.skipped++;
+                return;
+            }
+
+            // Порция уже зафиксирована у поставщика прошлой попыткой; её итоги сохранены в загрузке
+            if (committedAhead[ordinal] && row.getRowNum() <= partialCommitRow) return;
+
+            SupplierPartition partition = partitionByOrdinal[ordinal];
+            // Поставщик, блок которого совпал с прошлой загрузкой
+            if (partition == null) {
+                counters.unchangedRecords++;
+                return;
+            }
+            if (partition.pending == null) {
+                partition.pending = partition.nextBatch();
+            }
+            // Наименование нужно только записываемым строкам; общая строка листа приходит готовым экземпляром
+            partition.pending.add(ordinal, barcodeKey, textBarcode, row.getString(scan.productNameCol), price);
+            if (partition.pending.isFull()) {
+                RowBatch batch = partition.pending;
+                partition.pending = null;
+                sink.batch(partition, batch);
+            }
+        }
+
+        /**
+         * Порядковый номер поставщика строки или -1. Текстовая ячейка сравнивается с именами
+         * поставщиков по символам; число в колонке поставщика приводится к строке, как при сканировании.
+         */
+        private int supplierOrdinal(ExcelRowReader.SheetRow row) {
+            if (row.isString(scan.supplierNameCol)) {
+                return scan.supplierIndex.get(row.getChars(scan.supplierNameCol));
+            }
+            String supplierName = row.getString(scan.supplierNameCol);
+            return supplierName != null ? scan.supplierOrdinals.getOrDefault(supplierName, -1) : -1;
+        }
+
+        private Set<String> textBarcodesOf(int ordinal) {
+            Set<String> barcodes = seenTextBarcodes[ordinal];
+            if (barcodes == null) {
+                barcodes = new HashSet<>();
+                seenTextBarcodes[ordinal] = barcodes;
+            }
+            return barcodes;
+        }
+
+        /** Встречался ли текстовый штрихкод у поставщика в файле */
+        boolean hasTextBarcode(int ordinal, String barcode) {
+            Set<String> barcodes = seenTextBarcodes[ordinal];
+            return barcodes != null && barcodes.contains(barcode);
+        }
+
+        private void commit(boolean last) throws Exception {
+            chunks++;
+            chunkRow = lastRow;
+            for (SupplierPartition partition : partitions) {
+                if (partition.pending != null) {
+                    RowBatch batch = partition.pending;
+                    partition.pending = null;
+                    sink.batch(partition, batch);
+                }
+            }
+            sink.commit(lastRow, last);
+            rowsSinceCommit = 0;
+        }
+    }
+
+    /**
+     * Пачка проверенных строк одной группы поставщиков. Строка штрихкода хранится только
+     * для штрихкодов, которые нельзя представить long ключом.
+     */
+    private static class RowBatch {
+        static final int CAPACITY = 1000;
+        // Служебные пачки очереди группы: граница порции, конец файла, отмена
+        static final RowBatch COMMIT = new RowBatch();
+        static final RowBatch END = new RowBatch();
+        static final RowBatch ABORT = new RowBatch();
+
+        final int[] supplierOrdinals = new int[CAPACITY];
+        final long[] barcodeKeys = new long[CAPACITY];
+        final String[] textBarcodes = new String[CAPACITY];
+        final String[] productNames = new String[CAPACITY];
+        final double[] prices = new double[CAPACITY];
+        int size;
+
+        void add(int supplierOrdinal, long barcodeKey, String textBarcode, String productName, double price) {
+            supplierOrdinals[size] = supplierOrdinal;
+            barcodeKeys[size] = barcodeKey;
+            textBarcodes[size] = textBarcode;
+            productNames[size] = productName;
+            prices[size] = price;
+            size++;
+        }
+
+        boolean isFull() {
+            return size == CAPACITY;
+        }
+    }
+
+    /**
+     * Согласование групп при параллельной загрузке: ожидание загрузки снимков,
+     * общее решение о фиксации порции после её слияния во всех группах.
+     * Сами фиксации выполняются каждой группой в своей транзакции и вместе не откатываются.
+     */
+    private static class PartitionCoordinator {
+        final CountDownLatch opened;
+        final Phaser merged;
+        final Semaphore committed = new Semaphore(0);
+        final AtomicBoolean failed = new AtomicBoolean();
+
+        PartitionCoordinator(int partitions) {
+            opened = new CountDownLatch(partitions);
+            merged = new Phaser(partitions);
+        }
+
+        void fail() {
+            failed.set(true);
+            // Освобождает группы, ожидающие слияния порции в остальных группах
+            merged.forceTermination();
+        }
+
+        void checkFailure() {
+            if (failed.get()) {
+                throw new CancellationException("Загрузка прервана из-за ошибки в группе поставщиков");
+            }
+        }
     }
 
-    private Double getCellNumericValue(Cell cell) {
-        if (cell == null) return 0.0;
-        return switch (cell.getCellType()) {
-            case NUMERIC -> cell.getNumericCellValue();
-            case STRING -> {
-                String value = cell.getStringCellValue().replace(",", ".").trim();
+    /**
+     * Группа поставщиков: снимок их товаров и собственный COPY поток в staging таблицу.
+     * Транзакция порции открывается при первой пачке и фиксируется на границе порции;
+     * все обращения к группе выполняются одним потоком.
+     */
+    private class SupplierPartition {
+        static final int QUEUE_BATCHES = 4;
+
+        final FileScan scan;
+        final Set<String> suppliers = new HashSet<>();
+        final BlockingQueue<RowBatch> queue = new ArrayBlockingQueue<>(QUEUE_BATCHES);
+        // Обработанные пачки возвращаются потоку чтения для повторного использования
+        final Queue<RowBatch> spareBatches = new ConcurrentLinkedQueue<>();
+        final StringBuilder barcodeBuffer = new StringBuilder(32);
+        long expectedRows;
+        // Заполняемая пачка; используется только потоком чтения
+        RowBatch pending;
+
+        final ProductDiffIndex[] diffIndexes;
+        TransactionStatus transaction;
+        // Версия изменения строк, записанных в транзакции текущей порции
+        long changeVersion;
+        ProductBulkRepository.StagingWriter staging;
+        int inserted;
+        int updated;
+        int unchanged;
+        int removed;
+        // Зафиксированные порции группы, итоги на момент последней фиксации и прирост в ней
+        int committedChunks;
+        int committedInserted;
+        int committedUpdated;
+        int committedUnchanged;
+        int committedRemoved;
+        int chunkInserted;
+        int chunkUpdated;
+        int chunkUnchanged;
+        int chunkRemoved;
+        // Порция зафиксирована, но её изменения ещё не опубликованы в индексах каталога
+        boolean unpublished;
+        // Штрихкоды, записанные или удалённые в текущей порции, для обновления индекса лучших цен
+        final LongIntHashMap touchedKeys = new LongIntHashMap();
+        final Set<String> touchedTextBarcodes = new HashSet<>();
+
+        SupplierPartition(FileScan scan) {
+            this.scan = scan;
+            this.diffIndexes = new ProductDiffIndex[scan.supplierNames.length];
+        }
+
+        RowBatch nextBatch() {
+            RowBatch batch = spareBatches.poll();
+            return batch != null ? batch : new RowBatch();
+        }
+
+        void open() throws Exception {
+            int[] ordinals = suppliers.stream().mapToInt(scan.supplierOrdinals::get).toArray();
+            int[] supplierIds = Arrays.stream(ordinals).map(ordinal -> scan.supplierIds[ordinal]).toArray();
+            inTransaction(() -> {
+                Map<Integer, ProductDiffIndex> indexes = loadDiffIndexes(supplierIds);
+                for (int ordinal : ordinals) {
+                    diffIndexes[ordinal] = indexes.get(scan.supplierIds[ordinal]);
+                }
+                return null;
+            });
+        }
+
+        void process(RowBatch batch) throws SQLException {
+            if (transaction == null) {
+                beginTransaction();
+                staging = productBulkRepository.openStaging();
+            }
+            for (int i = 0; i < batch.size; i++) {
+                ProductDiffIndex diffIndex = diffIndexes[batch.supplierOrdinals[i]];
+                String textBarcode = batch.textBarcodes[i];
+                if (diffIndex != null) {
+                    int slot = textBarcode == null ? diffIndex.find(batch.barcodeKeys[i]) : diffIndex.find(textBarcode);
+                    if (slot >= 0 && !diffIndex.isChanged(slot, batch.productNames[i], batch.prices[i])) {
+                        unchanged++;
+                        continue;
+                    }
+                }
+                CharSequence barcode = textBarcode;
+                if (barcode == null) {
+                    barcodeBuffer.setLength(0);
+                    barcode = BarcodeKeys.appendTo(barcodeBuffer, batch.barcodeKeys[i]);
+                    touchedKeys.putIfAbsent(batch.barcodeKeys[i], 0);
+                } else {
+                    touchedTextBarcodes.add(textBarcode);
+                }
+                staging.add(scan.supplierIds[batch.supplierOrdinals[i]], barcode, batch.productNames[i], batch.prices[i]);
+            }
+            batch.size = 0;
+            spareBatches.offer(batch);
+        }
+
+        /**
+         * Слить staging таблицу порции с products (без фиксации)
+         */
+        void mergeChunk() throws SQLException {
+            if (transaction == null) return;
+            long mergeStart = System.currentTimeMillis();
+            ProductBulkRepository.MergeResult result = staging.merge(changeVersion);
+            inserted += result.getInserted();
+            updated += result.getUpdated();
+            unchanged += result.getUnchanged();
+            log.info("💾 Слияние с products: {} мс ({} поставщиков, {} строк в staging)",
+                System.currentTimeMillis() - mergeStart, suppliers.size(), staging.getRows());
+        }
+
+        /**
+         * Режим замены: удалить товары поставщиков группы, штрихкодов которых нет в файле.
+         * Отсутствующие находятся сравнением снимка с уже собранными штрихкодами файла,
+         * удаление — одним запросом на поставщика в транзакции последней порции.
+         */
+        void removeMissing(RowDispatcher dispatcher) throws SQLException {
+            if (!dispatcher.replace) return;
+            if (transaction == null) {
+                beginTransaction();
+            }
+            long removeStart = System.currentTimeMillis();
+            for (String supplierName : suppliers) {
+                int ordinal = scan.supplierOrdinals.get(supplierName);
+                ProductDiffIndex diffIndex = diffIndexes[ordinal];
+                if (diffIndex == null) continue;
+                long[] missingIds = diffIndex.findMissingIds(dispatcher.seenBarcodes[ordinal],
+                    barcode -> dispatcher.hasTextBarcode(ordinal, barcode));
+                if (missingIds.length > 0) {
+                    removed += productBulkRepository.deleteProducts(missingIds, changeVersion, this::touch);
+                }
+            }
+            log.info("🗑️ Удаление отсутствующих в файле товаров: {} мс ({} товаров, {} поставщиков)",
+                System.currentTimeMillis() - removeStart, removed, suppliers.size());
+        }
+
+        /**
+         * Открыть транзакцию порции и получить для неё версию изменения строк
+         */
+        private void beginTransaction() throws SQLException {
+            transaction = transactionManager.getTransaction(TransactionDefinition.withDefaults());
+            changeVersion = catalogVersionService.beginChange();
+        }
+
+        /**
+         * Освободить версию изменения после фиксации или отката транзакции порции
+         */
+        private void endChange() {
+            if (changeVersion == 0) return;
+            catalogVersionService.endChange(changeVersion);
+            changeVersion = 0;
+        }
+
+        private void touch(String barcode) {
+            long key = BarcodeKeys.toKey(barcode);
+            if (key != BarcodeKeys.NOT_NUMERIC) {
+                touchedKeys.putIfAbsent(key, 0);
+            } else {
+                touchedTextBarcodes.add(barcode);
+            }
+        }
+
+        void commitChunk() throws SQLException {
+            if (transaction != null) {
+                try {
+                    if (staging != null) staging.close();
+                } finally {
+                    staging = null;
+                    TransactionStatus status = transaction;
+                    transaction = null;
+                    try {
+                        transactionManager.commit(status);
+                        unpublished = true;
+                    } finally {
+                        endChange();
+                    }
+                }
+            }
+            chunkInserted = inserted - committedInserted;
+            chunkUpdated = updated - committedUpdated;
+            chunkUnchanged = unchanged - committedUnchanged;
+            chunkRemoved = removed - committedRemoved;
+            committedInserted = inserted;
+            committedUpdated = updated;
+            committedUnchanged = unchanged;
+            committedRemoved = removed;
+            committedChunks++;
+        }
+
+        void rollbackQuietly() {
+            if (transaction == null) return;
+            try {
+                if (staging != null) staging.close();
+            } catch (Exception e) {
+                log.warn("Ошибка закрытия staging таблицы: {}", e.getMessage());
+            } finally {
+                staging = null;
+                TransactionStatus status = transaction;
+                transaction = null;
                 try {
-                    yield Double.parseDouble(value);
-                } catch (NumberFormatException e) {
-                    log.warn("Ошибка парсинга цены: '{}'", value);
-                    yield 0.0;
+                    transactionManager.rollback(status);
+                } finally {
+                    endChange();
                 }
             }
-            default -> 0.0;
-        };
+        }
+
+        /**
+         * Обработка очереди группы в потоке пула. Фиксация порции начинается только если все группы
+         * успешно выполнили её слияние; ошибка фиксации одной группы не откатывает уже зафиксированные.
+         */
+        void runWorker(PartitionCoordinator coordinator, RowDispatcher dispatcher) throws Exception {
+            boolean terminated = false;
+            try {
+                try {
+                    open();
+                } finally {
+                    coordinator.opened.countDown();
+                }
+                while (!terminated) {
+                    RowBatch batch = queue.take();
+                    if (batch == RowBatch.ABORT) {
+                        terminated = true;
+                        throw new CancellationException("Загрузка прервана");
+                    }
+                    if (batch == RowBatch.COMMIT || batch == RowBatch.END) {
+                        terminated = batch == RowBatch.END;
+                        mergeChunk();
+                        if (terminated) removeMissing(dispatcher);
+                        coordinator.merged.arriveAndAwaitAdvance();
+                        coordinator.checkFailure();
+                        commitChunk();
+                        coordinator.committed.release();
+                    } else {
+                        process(batch);
+                    }
+                }
+            } catch (Exception e) {
+                coordinator.fail();
+                rollbackQuietly();
+                // Поток чтения не должен заблокироваться на заполненной очереди
+                while (!terminated) {
+                    RowBatch batch = queue.take();
+                    terminated = batch == RowBatch.END || batch == RowBatch.ABORT;
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Порция зафиксирована не во всех группах поставщиков. Перечисляет поставщиков, у которых она
+     * не зафиксирована: повторная загрузка того же файла повторит её только для них
+     */
+    @Getter
+    public static final class PartialCommitException extends RuntimeException {
+        private final List<String> uncommittedSuppliers;
+
+        PartialCommitException(int chunkRow, List<String> uncommittedSuppliers, Exception cause) {
+            super(String.format("Порция до строки %d зафиксирована не у всех поставщиков. Не зафиксированы: %s. "
+                    + "Повторная загрузка файла повторит её только для них. Причина: %s",
+                chunkRow + 1, String.join(", ", uncommittedSuppliers), cause.getMessage()), cause);
+            this.uncommittedSuppliers = uncommittedSuppliers;
+        }
+    }
+
+    private static final class CheckedException extends RuntimeException {
+        CheckedException(Exception cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized Exception getCause() {
+            return (Exception) super.getCause();
+        }
     }
-}
\ No newline at end of file
+}
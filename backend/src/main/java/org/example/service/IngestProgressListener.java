@@ -0,0 +1,21 @@
+package org.example.service;
+
+import org.example.dto.UploadJobStatus;
+
+/**
+ * Получатель прогресса загрузки файла поставщиков
+ */
+public interface IngestProgressListener {
+
+    IngestProgressListener NONE = new IngestProgressListener() {
+    };
+
+    default void onPhase(UploadJobStatus.Phase phase) {
+    }
+
+    default void onTotalRows(int totalRows) {
+    }
+
+    default void onRowsProcessed(int rowsProcessed) {
+    }
+}
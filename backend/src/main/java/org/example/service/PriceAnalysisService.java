@@ -6,12 +6,16 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.poi.ss.usermodel.*;
 import org.example.dto.PriceAnalysisResult;
 import org.example.entity.History;
-import org.example.entity.Product;
-import org.example.repository.ProductRepository;
+import org.example.dto.BestOfferDto;
+import org.example.repository.ProductBulkRepository;
 import org.example.util.CurrentUserUtil;
+import org.example.util.FileFingerprint;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.SQLException;
 import java.util.*;
 
 @Slf4j
@@ -19,15 +23,45 @@ import java.util.*;
 @RequiredArgsConstructor
 public class PriceAnalysisService {
 
-    private final ProductRepository productRepository;
+    private final ProductBulkRepository productBulkRepository;
     private final HistoryService historyService;
     private final CurrentUserUtil currentUserUtil;
     private final ObjectMapper objectMapper;
+    private final BestPriceIndex bestPriceIndex;
+    private final CatalogVersionService catalogVersionService;
+    private final AnalysisResultCache analysisResultCache;
+    private final ProductNameMatcher productNameMatcher;
 
-    public List<PriceAnalysisResult> analyzePrices(MultipartFile file) {
+    /**
+     * Анализ цен по файлу заказа; результат возвращается готовым JSON. Повторный анализ того же
+     * файла с тем же фильтром поставщиков при неизменной версии каталога берётся из кэша
+     * без разбора файла и поиска цен.
+     */
+    public AnalysisResultCache.CachedAnalysis analyzePrices(MultipartFile file, SupplierFilter filter) {
         long startTime = System.currentTimeMillis();
         List<PriceAnalysisResult> results = new ArrayList<>();
 
+        String cacheKey;
+        long catalogVersion = catalogVersionService.current();
+        // Пока индексы подбора по наименованию строятся, у ненайденных строк нет похожих товаров
+        boolean cacheable = productNameMatcher.isReady();
+        try (InputStream in = file.getInputStream()) {
+            cacheKey = FileFingerprint.sha256(in) + filter.cacheKey();
+        } catch (IOException e) {
+            log.error("Ошибка чтения файла", e);
+            throw new RuntimeException("Ошибка обработки файла: " + e.getMessage());
+        }
+
+        AnalysisResultCache.CachedAnalysis cached = analysisResultCache.get(cacheKey, catalogVersion);
+        if (cached != null) {
+            log.info("♻️ Анализ взят из кэша за {} мс ({} элементов, версия каталога {})",
+                System.currentTimeMillis() - startTime, cached.resultCount(), catalogVersion);
+            String requestDetails = "Анализ цен: файл " + file.getOriginalFilename() + describe(filter) + " (повторный, из кэша)";
+            historyService.saveHistory(currentUserUtil.getCurrentClient(), requestDetails, cached.responseJson(),
+                cached.fileContent(), History.HistoryType.PRICE_ANALYSIS);
+            return cached;
+        }
+
         try (Workbook workbook = WorkbookFactory.create(file.getInputStream())) {
             Sheet sheet = workbook.getSheetAt(0);
 
@@ -37,10 +71,16 @@ public class PriceAnalysisService {
             if (barcodeCol == -1 || quantityCol == -1) {
                 throw new IllegalArgumentException("Не найдены необходимые заголовки 'Штрихкод' или 'Количество' в файле. Убедитесь, что файл предназначен для анализа цен.");
             }
+            // Необязательная колонка: по наименованию подбираются товары, штрихкода которых нет в базе
+            int nameCol = findColumnIndex(sheet, "Наименование");
+            if (nameCol == -1) {
+                nameCol = findColumnIndex(sheet, "Наименование товара");
+            }
 
             long parseStart = System.currentTimeMillis();
             List<String> barcodes = new ArrayList<>();
             Map<String, Integer> barcodeQuantities = new HashMap<>();
+            Map<String, String> barcodeNames = new HashMap<>();
             List<Map<String, Object>> fileContent = new ArrayList<>();
 
             // Одноразовый парс файла с сохранением содержимого и сбором штрихкодов
@@ -58,6 +98,12 @@ public class PriceAnalysisService {
                 barcode = barcode.trim();
                 barcodes.add(barcode);
                 barcodeQuantities.put(barcode, quantity);
+                if (nameCol != -1) {
+                    String name = getCellStringValue(row.getCell(nameCol));
+                    if (name != null && !name.isEmpty()) {
+                        barcodeNames.put(barcode, name);
+                    }
+                }
                 
                 // Собираем данные для истории
                 Map<String, Object> rowData = new HashMap<>();
@@ -76,71 +122,109 @@ public class PriceAnalysisService {
                 System.currentTimeMillis() - parseStart, barcodes.size());
 
             if (barcodes.isEmpty()) {
-                return results;
+                return new AnalysisResultCache.CachedAnalysis("[]", 0, fileContent);
             }
 
-            // Загружаем товары за один запрос с использованием индекса
-            long dbStart = System.currentTimeMillis();
-            List<Product> products = productRepository.findByBarcodesOrderedByPrice(barcodes);
-            log.info("🗄️ Загрузка товаров: {} мс ({} товаров)", 
-                System.currentTimeMillis() - dbStart, products.size());
-            
-            // Кэшируем минимальную цену по каждому штрихкоду
-            Map<String, Product> minPriceProducts = new HashMap<>();
-            for (Product p : products) {
-                String bc = p.getBarcode();
-                if (!minPriceProducts.containsKey(bc) || p.getPriceWithVat() < minPriceProducts.get(bc).getPriceWithVat()) {
-                    minPriceProducts.put(bc, p);
-                }
-            }
-
-            // Формируем результаты в памяти
-            for (Map.Entry<String, Integer> entry : barcodeQuantities.entrySet()) {
-                String barcode = entry.getKey();
-                Integer quantity = entry.getValue();
-                Product minProduct = minPriceProducts.get(barcode);
-
-                if (minProduct == null) {
-                    results.add(PriceAnalysisResult.builder()
-                            .barcode(barcode)
-                            .quantity(quantity)
-                            .requiresManualProcessing(true)
-                            .message("Товар не найден в базе")
-                            .build());
-                    continue;
-                }
-
-                double totalPrice = minProduct.getPriceWithVat() * quantity;
-                String message = String.format("Поставщик %s по цене %.2f за единицу",
-                        minProduct.getSupplier().getSupplierName(), minProduct.getPriceWithVat());
-
-                results.add(PriceAnalysisResult.builder()
-                        .barcode(barcode)
-                        .quantity(quantity)
-                        .productName(minProduct.getProductName())
-                        .supplierName(minProduct.getSupplier().getSupplierName())
-                        .unitPrice(minProduct.getPriceWithVat())
-                        .totalPrice(totalPrice)
-                        .requiresManualProcessing(false)
-                        .message(message)
-                        .build());
+            if (bestPriceIndex.isReady()) {
+                analyzeInMemory(barcodeQuantities, barcodeNames, filter, results);
+            } else {
+                analyzeFromDatabase(barcodeQuantities, barcodeNames, filter, results);
             }
 
             long totalTime = System.currentTimeMillis() - startTime;
             log.info("✅ Анализ завершен за {} мс для {} элементов ({} записей/сек)", 
                 totalTime, results.size(), Math.round(barcodes.size() / (totalTime / 1000.0)));
 
-            String requestDetails = "Анализ цен: файл " + file.getOriginalFilename();
+            String requestDetails = "Анализ цен: файл " + file.getOriginalFilename() + describe(filter);
             String responseDetails = objectMapper.writeValueAsString(results);
             historyService.saveHistory(currentUserUtil.getCurrentClient(), requestDetails, responseDetails, fileContent, History.HistoryType.PRICE_ANALYSIS);
 
-            return results;
+            AnalysisResultCache.CachedAnalysis analysis = new AnalysisResultCache.CachedAnalysis(responseDetails, results.size(), fileContent);
+            if (cacheable) {
+                analysisResultCache.put(cacheKey, catalogVersion, analysis);
+            }
+            return analysis;
         } catch (Exception e) {
             log.error("Ошибка обработки файла", e);
             throw new RuntimeException("Ошибка обработки файла: " + e.getMessage());
         }
     }
 
+    /**
+     * Лучшие цены из индекса в памяти, без обращения к базе
+     */
+    private void analyzeInMemory(Map<String, Integer> barcodeQuantities, Map<String, String> barcodeNames,
+                                 SupplierFilter filter, List<PriceAnalysisResult> results) {
+        long lookupStart = System.nanoTime();
+        List<String> barcodes = new ArrayList<>(barcodeQuantities.keySet());
+        BestPriceIndex.BestOffer[] offers = bestPriceIndex.findAll(barcodes, filter);
+        long lookupNanos = System.nanoTime() - lookupStart;
+        log.info("🧠 Поиск в индексе лучших цен: {} мкс ({} штрихкодов, {} штрихкодов/сек)",
+            lookupNanos / 1000, barcodes.size(), lookupNanos > 0 ? barcodes.size() * 1_000_000_000L / lookupNanos : 0);
+
+        for (int i = 0; i < offers.length; i++) {
+            String barcode = barcodes.get(i);
+            BestPriceIndex.BestOffer offer = offers[i];
+            results.add(offer == null
+                ? productNameMatcher.unmatchedResult(barcode, barcodeQuantities.get(barcode), barcodeNames.get(barcode), filter)
+                : bestOfferResult(barcode, barcodeQuantities.get(barcode), offer.supplierName(), offer.priceWithVat(), offer.productName()));
+        }
+    }
+
+    /**
+     * Лучшие цены запросом к базе, пока индекс в памяти не построен. Штрихкоды передаются одним
+     * параметром-массивом, а база возвращает только лучшее предложение по каждому штрихкоду.
+     */
+    private void analyzeFromDatabase(Map<String, Integer> barcodeQuantities, Map<String, String> barcodeNames,
+                                     SupplierFilter filter, List<PriceAnalysisResult> results) throws SQLException {
+        long dbStart = System.currentTimeMillis();
+        Map<String, BestOfferDto> bestOffers = new HashMap<>();
+        for (BestOfferDto offer : productBulkRepository.findBestOffers(barcodeQuantities.keySet(),
+                filter.getMode(), filter.getSupplierNames())) {
+            bestOffers.put(offer.getBarcode(), offer);
+        }
+        log.info("🗄️ Загрузка лучших предложений: {} мс ({} штрихкодов, найдено {})",
+            System.currentTimeMillis() - dbStart, barcodeQuantities.size(), bestOffers.size());
+
+        for (Map.Entry<String, Integer> entry : barcodeQuantities.entrySet()) {
+            BestOfferDto offer = bestOffers.get(entry.getKey());
+            results.add(offer == null
+                ? productNameMatcher.unmatchedResult(entry.getKey(), entry.getValue(), barcodeNames.get(entry.getKey()), filter)
+                : bestOfferResult(entry.getKey(), entry.getValue(), offer.getSupplierName(),
+                    offer.getPriceWithVat(), offer.getProductName()));
+        }
+    }
+
+    static String describe(SupplierFilter filter) {
+        return filter.isEmpty() ? "" : " (" + filter + ")";
+    }
+
+    static PriceAnalysisResult notFoundResult(String barcode, Integer quantity) {
+        return PriceAnalysisResult.builder()
+                .barcode(barcode)
+                .quantity(quantity)
+                .requiresManualProcessing(true)
+                .message("Товар не найден в базе")
+                .build();
+    }
+
+    static PriceAnalysisResult bestOfferResult(String barcode, Integer quantity, String supplierName,
+                                        double unitPrice, String productName) {
+        double totalPrice = unitPrice * quantity;
+        String message = String.format("Поставщик %s по цене %.2f за единицу", supplierName, unitPrice);
+
+        return PriceAnalysisResult.builder()
+                .barcode(barcode)
+                .quantity(quantity)
+                .productName(productName)
+                .supplierName(supplierName)
+                .unitPrice(unitPrice)
+                .totalPrice(totalPrice)
+                .requiresManualProcessing(false)
+                .message(message)
+                .build();
+    }
+
     private String getCellStringValue(Cell cell) {
         if (cell == null) return null;
         return switch (cell.getCellType()) {
@@ -0,0 +1,126 @@
+package org.example.service;
+
+import org.example.util.BarcodeKeys;
+import org.example.util.LongIntHashMap;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Компактный снимок товаров одного поставщика для определения изменений при загрузке.
+ * Для каждого товара хранятся только id, цена и 64-битный хеш наименования в параллельных
+ * массивах; цифровые штрихкоды адресуются через long-ключи без создания объектов.
+ */
+public class ProductDiffIndex {
+
+    private final LongIntHashMap numericSlots;
+    private final Map<String, Integer> textSlots = new HashMap<>();
+
+    private long[] ids;
+    private double[] prices;
+    private long[] nameHashes;
+    private int size;
+
+    public ProductDiffIndex(int expectedSize) {
+        int capacity = Math.max(16, expectedSize);
+        numericSlots = new LongIntHashMap(capacity);
+        ids = new long[capacity];
+        prices = new double[capacity];
+        nameHashes = new long[capacity];
+    }
+
+    public void add(long id, String barcode, Double priceWithVat, String productName) {
+        if (size == ids.length) {
+            int capacity = size * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            prices = Arrays.copyOf(prices, capacity);
+            nameHashes = Arrays.copyOf(nameHashes, capacity);
+        }
+        int slot = size++;
+        ids[slot] = id;
+        prices[slot] = priceWithVat != null ? priceWithVat : Double.NaN;
+        nameHashes[slot] = nameHash(productName);
+
+        long key = BarcodeKeys.toKey(barcode);
+        if (key != BarcodeKeys.NOT_NUMERIC) {
+            numericSlots.put(key, slot);
+        } else {
+            textSlots.put(barcode, slot);
+        }
+    }
+
+    /**
+     * Найти товар по штрихкоду; возвращает номер ячейки или -1
+     */
+    public int find(String barcode) {
+        long key = BarcodeKeys.toKey(barcode);
+        if (key != BarcodeKeys.NOT_NUMERIC) {
+            return numericSlots.get(key);
+        }
+        Integer slot = textSlots.get(barcode);
+        return slot != null ? slot : -1;
+    }
+
+    /**
+     * Найти товар по ключу цифрового штрихкода (см. BarcodeKeys); возвращает номер ячейки или -1
+     */
+    public int find(long barcodeKey) {
+        return numericSlots.get(barcodeKey);
+    }
+
+    /**
+     * Отличаются ли наименование или цена от снимка; отсутствующая цена передаётся как NaN
+     */
+    public boolean isChanged(int slot, String productName, double priceWithVat) {
+        return Double.compare(prices[slot], priceWithVat) != 0 || nameHashes[slot] != nameHash(productName);
+    }
+
+    /**
+     * id товаров снимка, штрихкодов которых нет среди переданных: цифровые штрихкоды
+     * проверяются по набору long-ключей, остальные — предикатом
+     */
+    public long[] findMissingIds(LongIntHashMap presentKeys, Predicate<String> textPresent) {
+        BitSet present = new BitSet(size);
+        numericSlots.forEach((key, slot) -> {
+            if (presentKeys.containsKey(key)) present.set(slot);
+        });
+        textSlots.forEach((barcode, slot) -> {
+            if (textPresent.test(barcode)) present.set(slot);
+        });
+        long[] missing = new long[size - present.cardinality()];
+        int count = 0;
+        for (int slot = present.nextClearBit(0); slot < size; slot = present.nextClearBit(slot + 1)) {
+            missing[count++] = ids[slot];
+        }
+        return missing;
+    }
+
+    public long getId(int slot) {
+        return ids[slot];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Примерный объём памяти в байтах
+     */
+    public long estimatedBytes() {
+        return (long) ids.length * 24 + (long) numericSlots.size() * 20 + (long) textSlots.size() * 96;
+    }
+
+    // 64-битный FNV-1a; для null возвращается 0
+    private static long nameHash(String value) {
+        if (value == null) return 0;
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h == 0 ? 1 : h;
+    }
+}
@@ -0,0 +1,467 @@
+package org.example.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.repository.ProductBulkRepository;
+import org.example.util.BarcodeKeys;
+import org.example.util.LongIntHashMap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Инвертированный индекс триграмм наименований товаров для подбора похожих товаров по названию,
+ * когда штрихкода строки заказа нет в каталоге. Документ индекса — штрихкод каталога с наименованием
+ * самого дешёвого предложения; для каждой триграммы хранится упорядоченный список id документов.
+ * Сходство — коэффициент Жаккара по множествам триграмм. Кандидаты набираются из самых редких
+ * триграмм запроса, пока их списки в сумме не длиннее {@code MAX_CANDIDATE_POSTINGS}; сходство
+ * кандидата считается по триграммам документа и битовой карте триграмм запроса. Если списков хватает
+ * на границу «документ с нужным числом общих триграмм встретится хотя бы в одном из них», результат
+ * точный; иначе предлагаются только товары, совпадающие с запросом хотя бы по двум редким триграммам, —
+ * общие с тысячами товаров триграммы формы, дозировки и фасовки сами по себе похожий товар не находят.
+ * Списки триграмм, встречающихся больше чем в 2% документов, после построения не хранятся:
+ * для подбора кандидатов они не используются, а для сходства хватает триграмм документа.
+ * Индекс строится в фоне после старта и обновляется загрузкой поставщиков; изменённые документы
+ * помечаются удалёнными и добавляются заново, а при большой доле удалённых индекс перестраивается.
+ */
+@Slf4j
+@Service
+public class ProductNameIndex {
+
+    private static final int REFRESH_BATCH = 10_000;
+
+    // Предел суммарной длины списков, из которых набираются кандидаты одного запроса
+    private static final int MAX_CANDIDATE_POSTINGS = 10_000;
+    // Пропущенная буква убирает до трёх триграмм запроса, поэтому самых редких списков берётся не меньше
+    // MIN_CANDIDATE_LISTS, если каждый из них — не больше 1/RARE_GRAM_SHARE документов: тогда у товара
+    // с опечаткой в запросе остаются две общие редкие триграммы
+    private static final int MIN_CANDIDATE_LISTS = 4;
+    private static final int RARE_GRAM_SHARE = 150;
+
+    // Сколько редких триграмм запроса должно быть у кандидата, когда границы точного поиска не хватило
+    private static final int MIN_RARE_SHARED = 2;
+
+    // Список триграммы из более чем 1/STOP_GRAM_SHARE документов не хранится; в малом каталоге — из более чем MAX_CANDIDATE_POSTINGS
+    private static final int STOP_GRAM_SHARE = 50;
+
+    private final ProductBulkRepository productBulkRepository;
+    private final TransactionTemplate readOnlyTransaction;
+    private final boolean enabled;
+    private final double minSimilarity;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object updateMonitor = new Object();
+    private volatile boolean ready;
+
+    private Postings postings = new Postings(16);
+
+    public ProductNameIndex(ProductBulkRepository productBulkRepository,
+                            PlatformTransactionManager transactionManager,
+                            @Value("${analysis.fuzzy.enabled:true}") boolean enabled,
+                            @Value("${analysis.fuzzy.min-similarity:0.4}") double minSimilarity) {
+        this.productBulkRepository = productBulkRepository;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.enabled = enabled;
+        this.minSimilarity = minSimilarity;
+    }
+
+    /**
+     * Похожий товар каталога: штрихкод, наименование и сходство от 0 до 1
+     */
+    public record Candidate(String barcode, String productName, double similarity) {
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildInBackground() {
+        if (!enabled) return;
+        Thread thread = new Thread(this::rebuild, "product-name-index");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * До limit самых похожих товаров с сходством не ниже analysis.fuzzy.min-similarity,
+     * от более похожих к менее похожим. Пока индекс не построен, возвращает пустой список.
+     */
+    public List<Candidate> findSimilar(String productName, int limit) {
+        if (!ready || productName == null) return List.of();
+        long[] grams = trigrams(productName);
+        if (grams.length == 0) return List.of();
+
+        lock.readLock().lock();
+        try {
+            return postings.search(grams, minSimilarity, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Обновить наименования изменённых штрихкодов после фиксации загрузки.
+     * Ошибка чтения не прерывает загрузку: индекс перестраивается целиком.
+     */
+    public void refresh(LongIntHashMap barcodeKeys, Collection<String> textBarcodes) {
+        if (barcodeKeys.isEmpty() && textBarcodes.isEmpty()) return;
+        List<String> barcodes = new ArrayList<>(barcodeKeys.size() + textBarcodes.size());
+        barcodeKeys.forEach((key, value) -> barcodes.add(BarcodeKeys.toBarcode(key)));
+        barcodes.addAll(textBarcodes);
+
+        long start = System.currentTimeMillis();
+        boolean compact;
+        synchronized (updateMonitor) {
+            if (!ready) return;
+            try {
+                Map<String, String> names = new HashMap<>();
+                for (int from = 0; from < barcodes.size(); from += REFRESH_BATCH) {
+                    productBulkRepository.findProductNames(barcodes.subList(from, Math.min(from + REFRESH_BATCH, barcodes.size())), names::put);
+                }
+                lock.writeLock().lock();
+                try {
+                    for (String barcode : barcodes) {
+                        String name = names.get(barcode);
+                        if (name == null) {
+                            postings.remove(barcode);
+                        } else if (!name.equals(postings.nameOf(barcode))) {
+                            postings.remove(barcode);
+                            postings.add(barcode, name, trigrams(name));
+                        }
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                // Удалённые документы занимают место в списках триграмм, пока индекс не перестроен
+                compact = postings.deletedCount > postings.docCount / 4;
+            } catch (Exception e) {
+                log.warn("Ошибка обновления индекса наименований, индекс будет перестроен: {}", e.getMessage());
+                compact = true;
+            }
+        }
+        log.info("🔄 Обновление индекса наименований: {} мс ({} штрихкодов)",
+                System.currentTimeMillis() - start, barcodes.size());
+        if (compact) {
+            buildInBackground();
+        }
+    }
+
+    private void rebuild() {
+        long start = System.currentTimeMillis();
+        synchronized (updateMonitor) {
+            try {
+                Postings built = new Postings(1 << 16);
+                readOnlyTransaction.executeWithoutResult(status -> {
+                    try {
+                        productBulkRepository.streamProductNames((barcode, name) -> built.add(barcode, name, trigrams(name)));
+                    } catch (SQLException e) {
+                        throw new IllegalStateException(e.getMessage(), e);
+                    }
+                });
+                built.trim();
+                lock.writeLock().lock();
+                try {
+                    postings = built;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                ready = true;
+                log.info("🔤 Индекс наименований построен: {} мс ({} товаров, {} триграмм, ~{} КБ)",
+                        System.currentTimeMillis() - start, built.docCount, built.gramSlots.size(), built.estimatedBytes() / 1024);
+            } catch (Exception e) {
+                log.error("Ошибка построения индекса наименований, подбор по названию недоступен", e);
+            }
+        }
+    }
+
+    /**
+     * Множество триграмм наименования: строка приводится к нижнему регистру, ё заменяется на е,
+     * всё кроме букв и цифр считается разделителем слов. Каждое слово дополняется двумя пробелами
+     * слева и одним справа, как в pg_trgm. Триграмма упаковывается в long по 16 бит на символ.
+     */
+    static long[] trigrams(String text) {
+        long[] grams = new long[text.length() * 2 + 4];
+        int count = 0;
+        char previous2 = ' ';
+        char previous1 = ' ';
+        boolean inWord = false;
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? normalize(text.charAt(i)) : ' ';
+            if (c == ' ') {
+                if (inWord) {
+                    grams[count++] = pack(previous2, previous1, ' ');
+                    inWord = false;
+                }
+                previous2 = ' ';
+                previous1 = ' ';
+                continue;
+            }
+            inWord = true;
+            grams[count++] = pack(previous2, previous1, c);
+            previous2 = previous1;
+            previous1 = c;
+        }
+        Arrays.sort(grams, 0, count);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || grams[unique - 1] != grams[i]) {
+                grams[unique++] = grams[i];
+            }
+        }
+        return Arrays.copyOf(grams, unique);
+    }
+
+    static char normalize(char c) {
+        if (!Character.isLetterOrDigit(c)) return ' ';
+        char lower = Character.toLowerCase(c);
+        return lower == 'ё' ? 'е' : lower;
+    }
+
+    private static long pack(char first, char second, char third) {
+        return ((long) first << 32) | ((long) second << 16) | third;
+    }
+
+    /**
+     * Списки документов по триграммам и номера триграмм каждого документа.
+     * Документы только добавляются, поэтому id в каждом списке возрастают.
+     */
+    private static final class Postings {
+        final LongIntHashMap gramSlots;
+        int[][] docLists = new int[1024][];
+        int[] docListSizes = new int[1024];
+        // Триграммы, списки которых не хранятся
+        final BitSet stopGrams = new BitSet();
+        int gramCount;
+
+        String[] docBarcodes;
+        String[] docNames;
+        // Триграммы документа в общем массиве docGrams: с docGramOffsets[doc] их число, затем номера
+        int[] docGramOffsets;
+        int[] docGrams;
+        int docGramsSize;
+        final BitSet deleted = new BitSet();
+        int docCount;
+        int deletedCount;
+
+        // Текущий документ штрихкода
+        final LongIntHashMap numericDocs;
+        final Map<String, Integer> textDocs = new HashMap<>();
+
+        Postings(int expectedDocs) {
+            gramSlots = new LongIntHashMap(expectedDocs / 4);
+            numericDocs = new LongIntHashMap(expectedDocs);
+            docBarcodes = new String[expectedDocs];
+            docNames = new String[expectedDocs];
+            docGramOffsets = new int[expectedDocs];
+            docGrams = new int[expectedDocs * 16];
+        }
+
+        int docOf(String barcode) {
+            long key = BarcodeKeys.toKey(barcode);
+            if (key != BarcodeKeys.NOT_NUMERIC) {
+                return numericDocs.get(key);
+            }
+            Integer doc = textDocs.get(barcode);
+            return doc != null ? doc : -1;
+        }
+
+        String nameOf(String barcode) {
+            int doc = docOf(barcode);
+            return doc >= 0 && !deleted.get(doc) ? docNames[doc] : null;
+        }
+
+        void add(String barcode, String name, long[] grams) {
+            if (grams.length == 0) return;
+            if (docCount == docBarcodes.length) {
+                int capacity = docCount * 2;
+                docBarcodes = Arrays.copyOf(docBarcodes, capacity);
+                docNames = Arrays.copyOf(docNames, capacity);
+                docGramOffsets = Arrays.copyOf(docGramOffsets, capacity);
+            }
+            if (docGramsSize + grams.length + 1 > docGrams.length) {
+                docGrams = Arrays.copyOf(docGrams, Math.max(docGrams.length * 2, docGramsSize + grams.length + 1));
+            }
+            int doc = docCount++;
+            docBarcodes[doc] = barcode;
+            docNames[doc] = name;
+            docGramOffsets[doc] = docGramsSize;
+            docGrams[docGramsSize++] = grams.length;
+            long key = BarcodeKeys.toKey(barcode);
+            if (key != BarcodeKeys.NOT_NUMERIC) {
+                numericDocs.put(key, doc);
+            } else {
+                textDocs.put(barcode, doc);
+            }
+            for (long gram : grams) {
+                int slot = gramSlots.get(gram);
+                if (slot < 0) {
+                    slot = allocateGram();
+                    gramSlots.put(gram, slot);
+                }
+                docGrams[docGramsSize++] = slot;
+                if (stopGrams.get(slot)) continue;
+                int[] list = docLists[slot];
+                int size = docListSizes[slot];
+                if (list == null) {
+                    list = docLists[slot] = new int[4];
+                } else if (size == list.length) {
+                    list = docLists[slot] = Arrays.copyOf(list, size + (size >> 1) + 1);
+                }
+                list[size] = doc;
+                docListSizes[slot] = size + 1;
+            }
+        }
+
+        void remove(String barcode) {
+            int doc = docOf(barcode);
+            if (doc >= 0 && !deleted.get(doc)) {
+                deleted.set(doc);
+                deletedCount++;
+            }
+        }
+
+        private int allocateGram() {
+            if (gramCount == docLists.length) {
+                docLists = Arrays.copyOf(docLists, gramCount * 2);
+                docListSizes = Arrays.copyOf(docListSizes, gramCount * 2);
+            }
+            return gramCount++;
+        }
+
+        /**
+         * После построения: отбросить списки самых частых триграмм и обрезать остальные до фактического размера
+         */
+        void trim() {
+            int stopSize = Math.max(MAX_CANDIDATE_POSTINGS, docCount / STOP_GRAM_SHARE);
+            for (int slot = 0; slot < gramCount; slot++) {
+                if (docListSizes[slot] > stopSize) {
+                    stopGrams.set(slot);
+                    docLists[slot] = null;
+                    docListSizes[slot] = 0;
+                } else if (docLists[slot].length != docListSizes[slot]) {
+                    docLists[slot] = Arrays.copyOf(docLists[slot], docListSizes[slot]);
+                }
+            }
+            docGrams = Arrays.copyOf(docGrams, docGramsSize);
+        }
+
+        List<Candidate> search(long[] grams, double minSimilarity, int limit) {
+            int queryGrams = grams.length;
+            // Жаккар s / (q + d - s) не больше s / q, значит общих триграмм нужно не меньше t * q
+            int minShared = Math.max(1, (int) Math.ceil(minSimilarity * queryGrams - 1e-9));
+
+            int[] slots = new int[queryGrams];
+            int present = 0;
+            for (long gram : grams) {
+                int slot = gramSlots.get(gram);
+                if (slot >= 0) {
+                    slots[present++] = slot;
+                }
+            }
+            if (present < minShared) return List.of();
+            int[] querySlots = Arrays.copyOf(slots, present);
+            long[] queryBits = new long[(gramCount + 63) >>> 6];
+            for (int slot : querySlots) {
+                queryBits[slot >>> 6] |= 1L << slot;
+            }
+
+            // Документ с minShared общими триграммами встретится хотя бы в одном из present - minShared + 1
+            // самых редких списков. Списки берутся, пока хватает предела длины, но не меньше MIN_RARE_SHARED
+            // и не меньше MIN_CANDIDATE_LISTS коротких;
+            // если все они не поместились, кандидат должен быть в MIN_RARE_SHARED из выбранных списков
+            int[] ordered = Arrays.stream(querySlots).filter(slot -> !stopGrams.get(slot)).boxed()
+                    .sorted(Comparator.comparingInt(slot -> docListSizes[slot]))
+                    .mapToInt(Integer::intValue).toArray();
+            int exactLists = present - minShared + 1;
+            int lists = 0;
+            long postings = 0;
+            while (lists < ordered.length && lists < exactLists
+                    && (lists < MIN_RARE_SHARED
+                        || postings + docListSizes[ordered[lists]] <= MAX_CANDIDATE_POSTINGS
+                        || lists < MIN_CANDIDATE_LISTS && docListSizes[ordered[lists]] <= docCount / RARE_GRAM_SHARE)) {
+                postings += docListSizes[ordered[lists++]];
+            }
+            if (lists == 0) return List.of();
+            int minRare = lists == exactLists ? 1 : Math.min(lists, MIN_RARE_SHARED);
+
+            // Длина документа со сходством не ниже t — от t * q до q / t
+            int minGrams = (int) Math.ceil(minSimilarity * queryGrams - 1e-9);
+            int maxGrams = minSimilarity > 0 ? (int) Math.floor(queryGrams / minSimilarity + 1e-9) : Integer.MAX_VALUE;
+            // Сколько выбранных списков содержат документ
+            LongIntHashMap shared = new LongIntHashMap((int) postings);
+            for (int i = 0; i < lists; i++) {
+                int slot = ordered[i];
+                int[] list = docLists[slot];
+                for (int j = 0, size = docListSizes[slot]; j < size; j++) {
+                    int doc = list[j];
+                    int count = shared.get(doc);
+                    shared.put(doc, count < 0 ? 1 : count + 1);
+                }
+            }
+
+            List<Candidate> candidates = new ArrayList<>();
+            shared.forEach((key, rare) -> {
+                if (rare < minRare) return;
+                int doc = (int) key;
+                int offset = docGramOffsets[doc];
+                int docGramCount = docGrams[offset];
+                if (docGramCount < minGrams || docGramCount > maxGrams) return;
+                // Жаккар s / (q + d - s) не ниже t, когда s >= t * (q + d) / (1 + t)
+                int needed = (int) Math.ceil(minSimilarity * (queryGrams + docGramCount) / (1 + minSimilarity) - 1e-9);
+                int common = commonGrams(queryBits, offset + 1, offset + 1 + docGramCount, needed);
+                if (common < needed) return;
+                double similarity = (double) common / (queryGrams + docGramCount - common);
+                if (similarity >= minSimilarity && !deleted.get(doc)) {
+                    candidates.add(new Candidate(docBarcodes[doc], docNames[doc], similarity));
+                }
+            });
+            candidates.sort(Comparator.comparingDouble(Candidate::similarity).reversed());
+            return candidates.size() > limit ? new ArrayList<>(candidates.subList(0, limit)) : candidates;
+        }
+
+        /**
+         * Число общих триграмм запроса и документа (docGrams[from, to)); подсчёт прекращается,
+         * как только needed общих триграмм уже не набрать
+         */
+        private int commonGrams(long[] queryBits, int from, int to, int needed) {
+            int common = 0;
+            for (int i = from; i < to && common + to - i >= needed; i++) {
+                int slot = docGrams[i];
+                common += (int) (queryBits[slot >>> 6] >>> slot) & 1;
+            }
+            return common;
+        }
+
+        /**
+         * Примерный объём памяти в байтах без самих строк
+         */
+        long estimatedBytes() {
+            long bytes = (long) docBarcodes.length * 16 + (long) docGrams.length * 4
+                    + (long) numericDocs.size() * 20 + (long) textDocs.size() * 96;
+            for (int slot = 0; slot < gramCount; slot++) {
+                bytes += 16 + (docLists[slot] != null ? (long) docLists[slot].length * 4 : 0);
+            }
+            return bytes + (long) gramSlots.size() * 20;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package org.example.service;
+
+import org.example.dto.NameMatchCandidate;
+import org.example.dto.PriceAnalysisResult;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Подбор товаров по наименованию для строк заказа, штрихкода которых нет в каталоге.
+ * Похожие товары берутся из индекса триграмм, цены — из индекса лучших цен с учётом фильтра
+ * поставщиков; товары без разрешённых предложений не предлагаются.
+ */
+@Service
+public class ProductNameMatcher {
+
+    private final ProductNameIndex productNameIndex;
+    private final BestPriceIndex bestPriceIndex;
+    private final int maxCandidates;
+
+    public ProductNameMatcher(ProductNameIndex productNameIndex, BestPriceIndex bestPriceIndex,
+                              @Value("${analysis.fuzzy.candidates:3}") int maxCandidates) {
+        this.productNameIndex = productNameIndex;
+        this.bestPriceIndex = bestPriceIndex;
+        this.maxCandidates = maxCandidates;
+    }
+
+    /**
+     * Подбор работает в полную силу: индекс наименований построен (или подбор выключен),
+     * а цены похожих товаров берутся из готового индекса лучших цен
+     */
+    public boolean isReady() {
+        return (!productNameIndex.isEnabled() || productNameIndex.isReady()) && bestPriceIndex.isReady();
+    }
+
+    /**
+     * Результат для строки без штрихкода в каталоге: с похожими товарами, если они нашлись
+     */
+    public PriceAnalysisResult unmatchedResult(String barcode, Integer quantity, String productName, SupplierFilter filter) {
+        PriceAnalysisResult result = PriceAnalysisService.notFoundResult(barcode, quantity);
+        if (productName == null || productName.isBlank()) return result;
+        List<NameMatchCandidate> candidates = findCandidates(productName, filter);
+        if (!candidates.isEmpty()) {
+            result.setProductName(productName);
+            result.setCandidates(candidates);
+            result.setMessage("Товар не найден по штрихкоду, найдены похожие по наименованию");
+        }
+        return result;
+    }
+
+    private List<NameMatchCandidate> findCandidates(String productName, SupplierFilter filter) {
+        // С запасом: часть похожих товаров может не пройти фильтр поставщиков
+        List<ProductNameIndex.Candidate> similar = productNameIndex.findSimilar(productName,
+                filter.isEmpty() ? maxCandidates : maxCandidates * 3);
+        if (similar.isEmpty()) return List.of();
+
+        BestPriceIndex.BestOffer[] offers = null;
+        if (bestPriceIndex.isReady()) {
+            List<String> barcodes = new ArrayList<>(similar.size());
+            for (ProductNameIndex.Candidate candidate : similar) {
+                barcodes.add(candidate.barcode());
+            }
+            offers = bestPriceIndex.findAll(barcodes, filter);
+        }
+
+        List<NameMatchCandidate> candidates = new ArrayList<>(maxCandidates);
+        for (int i = 0; i < similar.size() && candidates.size() < maxCandidates; i++) {
+            ProductNameIndex.Candidate candidate = similar.get(i);
+            BestPriceIndex.BestOffer offer = offers != null ? offers[i] : null;
+            if (offers != null && offer == null && !filter.isEmpty()) continue;
+            candidates.add(NameMatchCandidate.builder()
+                    .barcode(candidate.barcode())
+                    .productName(candidate.productName())
+                    .similarity(Math.round(candidate.similarity() * 1000) / 1000.0)
+                    .supplierName(offer != null ? offer.supplierName() : null)
+                    .unitPrice(offer != null ? offer.priceWithVat() : null)
+                    .build());
+        }
+        return candidates;
+    }
+}
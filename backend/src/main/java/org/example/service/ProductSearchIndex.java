@@ -0,0 +1,396 @@
+package org.example.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.example.dto.BestOfferDto;
+import org.example.dto.ProductSearchHit;
+import org.example.repository.ProductBulkRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Поиск товаров каталога по началу штрихкода и по началу слов наименования для автодополнения.
+ * Индекс — два отсортированных массива: id товаров в порядке возрастания штрихкода и начала слов
+ * нормализованных наименований (id товара и смещение слова, упакованные в long), упорядоченные по тексту
+ * от начала слова до конца наименования. Поиск — двоичный поиск нижней границы префикса и просмотр диапазона, строки
+ * ключей не создаются. Снимок индекса неизменяем и подменяется целиком, поэтому поиск идёт без блокировок.
+ * После каждой загрузки поставщиков индекс перестраивается в фоне; повторные запросы на перестроение
+ * во время построения объединяются в одно.
+ * Метрика products.search — время поиска с перцентилями и границей analysis.search.latency-target-ms.
+ */
+@Slf4j
+@Service
+public class ProductSearchIndex {
+
+    // Верхняя граница просмотра диапазона слова, чтобы короткий префикс не просматривал весь каталог
+    private static final int MAX_SCAN = 20_000;
+
+    private final ProductBulkRepository productBulkRepository;
+    private final BestPriceIndex bestPriceIndex;
+    private final TransactionTemplate readOnlyTransaction;
+    private final Timer searchTimer;
+
+    private final AtomicBoolean rebuildRequested = new AtomicBoolean();
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    private volatile Snapshot snapshot;
+
+    public ProductSearchIndex(ProductBulkRepository productBulkRepository, BestPriceIndex bestPriceIndex,
+                              PlatformTransactionManager transactionManager, MeterRegistry meterRegistry,
+                              @Value("${analysis.search.latency-target-ms:20}") long latencyTargetMs) {
+        this.productBulkRepository = productBulkRepository;
+        this.bestPriceIndex = bestPriceIndex;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.searchTimer = Timer.builder("products.search")
+                .description("Время поиска товаров")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .serviceLevelObjectives(Duration.ofMillis(latencyTargetMs))
+                .register(meterRegistry);
+    }
+
+    public boolean isReady() {
+        return snapshot != null;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildInBackground() {
+        requestRebuild();
+    }
+
+    /**
+     * Перестроить индекс в фоне; если построение уже идёт, оно будет повторено после завершения
+     */
+    public void requestRebuild() {
+        rebuildRequested.set(true);
+        if (!rebuilding.compareAndSet(false, true)) return;
+        Thread thread = new Thread(() -> {
+            try {
+                while (rebuildRequested.getAndSet(false)) {
+                    rebuild();
+                }
+            } finally {
+                rebuilding.set(false);
+            }
+            // Запрос мог прийти между последней проверкой и снятием флага
+            if (rebuildRequested.get()) {
+                requestRebuild();
+            }
+        }, "product-search-index");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Товары, у которых штрихкод или одно из слов наименования начинается с запроса, с лучшими
+     * предложениями среди разрешённых фильтром поставщиков. Если запрос из нескольких слов,
+     * каждое из них должно быть началом какого-либо слова наименования.
+     */
+    public List<ProductSearchHit> search(String query, int limit, SupplierFilter filter) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            Snapshot current = snapshot;
+            if (current == null || query == null || query.isBlank() || limit <= 0) return List.of();
+
+            Set<Integer> docs = new LinkedHashSet<>();
+            current.findByBarcodePrefix(query.trim(), limit, docs);
+            if (docs.size() < limit) {
+                current.findByWordPrefixes(normalizeWords(query), limit, docs);
+            }
+            return withOffers(current, new ArrayList<>(docs), filter);
+        } finally {
+            searchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private List<ProductSearchHit> withOffers(Snapshot current, List<Integer> docs, SupplierFilter filter) throws SQLException {
+        List<String> barcodes = new ArrayList<>(docs.size());
+        for (int doc : docs) {
+            barcodes.add(current.barcodes[doc]);
+        }
+        List<ProductSearchHit> hits = new ArrayList<>(docs.size());
+        if (bestPriceIndex.isReady()) {
+            BestPriceIndex.BestOffer[] offers = bestPriceIndex.findAll(barcodes, filter);
+            for (int i = 0; i < docs.size(); i++) {
+                BestPriceIndex.BestOffer offer = offers[i];
+                hits.add(new ProductSearchHit(barcodes.get(i), current.names[docs.get(i)],
+                        offer != null ? offer.supplierName() : null, offer != null ? offer.priceWithVat() : null));
+            }
+            return hits;
+        }
+        Map<String, BestOfferDto> bestOffers = new HashMap<>();
+        if (!barcodes.isEmpty()) {
+            for (BestOfferDto offer : productBulkRepository.findBestOffers(barcodes, filter.getMode(), filter.getSupplierNames())) {
+                bestOffers.put(offer.getBarcode(), offer);
+            }
+        }
+        for (int i = 0; i < docs.size(); i++) {
+            BestOfferDto offer = bestOffers.get(barcodes.get(i));
+            hits.add(new ProductSearchHit(barcodes.get(i), current.names[docs.get(i)],
+                    offer != null ? offer.getSupplierName() : null, offer != null ? offer.getPriceWithVat() : null));
+        }
+        return hits;
+    }
+
+    private void rebuild() {
+        long start = System.currentTimeMillis();
+        try {
+            Snapshot.Builder builder = new Snapshot.Builder();
+            readOnlyTransaction.executeWithoutResult(status -> {
+                try {
+                    productBulkRepository.streamProductNames(builder::add);
+                } catch (SQLException e) {
+                    throw new IllegalStateException(e.getMessage(), e);
+                }
+            });
+            Snapshot built = builder.build();
+            snapshot = built;
+            log.info("🔍 Индекс поиска товаров построен: {} мс ({} товаров, {} слов, ~{} КБ)",
+                    System.currentTimeMillis() - start, built.barcodes.length, built.wordEntries.length,
+                    built.estimatedBytes() / 1024);
+        } catch (Exception e) {
+            log.error("Ошибка построения индекса поиска товаров", e);
+        }
+    }
+
+    /**
+     * Нормализованное наименование: нижний регистр, ё -> е, слова из букв и цифр через один пробел
+     */
+    static String normalize(String text) {
+        StringBuilder normalized = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = ProductNameIndex.normalize(text.charAt(i));
+            if (c != ' ') {
+                normalized.append(c);
+            } else if (!normalized.isEmpty() && normalized.charAt(normalized.length() - 1) != ' ') {
+                normalized.append(' ');
+            }
+        }
+        int length = normalized.length();
+        if (length > 0 && normalized.charAt(length - 1) == ' ') {
+            normalized.setLength(length - 1);
+        }
+        return normalized.toString();
+    }
+
+    private static String[] normalizeWords(String query) {
+        String normalized = normalize(query);
+        return normalized.isEmpty() ? new String[0] : normalized.split(" ");
+    }
+
+    /**
+     * Неизменяемый снимок индекса
+     */
+    private static final class Snapshot {
+        final String[] barcodes;
+        final String[] names;
+        final String[] normalizedNames;
+        // id товаров в порядке возрастания штрихкода
+        final int[] barcodeOrder;
+        // (id товара << 16) | смещение начала слова в нормализованном наименовании
+        final long[] wordEntries;
+
+        private Snapshot(String[] barcodes, String[] names, String[] normalizedNames, int[] barcodeOrder, long[] wordEntries) {
+            this.barcodes = barcodes;
+            this.names = names;
+            this.normalizedNames = normalizedNames;
+            this.barcodeOrder = barcodeOrder;
+            this.wordEntries = wordEntries;
+        }
+
+        void findByBarcodePrefix(String prefix, int limit, Set<Integer> docs) {
+            int low = 0;
+            int high = barcodeOrder.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (barcodes[barcodeOrder[middle]].compareTo(prefix) < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            for (int i = low; i < barcodeOrder.length && docs.size() < limit; i++) {
+                int doc = barcodeOrder[i];
+                if (!barcodes[doc].startsWith(prefix)) break;
+                docs.add(doc);
+            }
+        }
+
+        /**
+         * Диапазон ищется по самому длинному слову запроса как самому избирательному,
+         * остальные слова проверяются по найденным наименованиям
+         */
+        void findByWordPrefixes(String[] words, int limit, Set<Integer> docs) {
+            if (words.length == 0) return;
+            String anchor = words[0];
+            for (String word : words) {
+                if (word.length() > anchor.length()) {
+                    anchor = word;
+                }
+            }
+
+            int low = 0;
+            int high = wordEntries.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (compareSuffix(wordEntries[middle], anchor) < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            int end = Math.min(wordEntries.length, low + MAX_SCAN);
+            for (int i = low; i < end && docs.size() < limit; i++) {
+                long entry = wordEntries[i];
+                int doc = (int) (entry >>> 16);
+                String name = normalizedNames[doc];
+                if (!name.startsWith(anchor, (int) (entry & 0xFFFF))) break;
+                if (!docs.contains(doc) && containsWordPrefixes(name, words)) {
+                    docs.add(doc);
+                }
+            }
+        }
+
+        private int compareSuffix(long entry, String key) {
+            String name = normalizedNames[(int) (entry >>> 16)];
+            int offset = (int) (entry & 0xFFFF);
+            int length = Math.min(name.length() - offset, key.length());
+            for (int i = 0; i < length; i++) {
+                int diff = name.charAt(offset + i) - key.charAt(i);
+                if (diff != 0) return diff;
+            }
+            return (name.length() - offset) - key.length();
+        }
+
+        private static boolean containsWordPrefixes(String name, String[] words) {
+            for (String word : words) {
+                int from = 0;
+                boolean found = false;
+                while (!found) {
+                    int index = name.indexOf(word, from);
+                    if (index < 0) return false;
+                    found = index == 0 || name.charAt(index - 1) == ' ';
+                    from = index + 1;
+                }
+            }
+            return true;
+        }
+
+        long estimatedBytes() {
+            long bytes = (long) barcodeOrder.length * 4 + (long) wordEntries.length * 8;
+            for (int doc = 0; doc < barcodes.length; doc++) {
+                bytes += 3 * 40L + barcodes[doc].length() + names[doc].length() * 2L + normalizedNames[doc].length();
+            }
+            return bytes;
+        }
+
+        static final class Builder {
+            private final List<String> barcodes = new ArrayList<>();
+            private final List<String> names = new ArrayList<>();
+            private final List<String> normalizedNames = new ArrayList<>();
+            private long[] wordEntries = new long[1 << 16];
+            private int wordCount;
+            // Одинаковые нормализованные наименования хранятся одной строкой
+            private final Map<String, String> interned = new HashMap<>();
+
+            void add(String barcode, String name) {
+                String normalized = normalize(name);
+                // Смещение слова хранится в 16 битах
+                if (normalized.isEmpty() || normalized.length() > 0xFFFF) return;
+                String existing = interned.putIfAbsent(normalized, normalized);
+                if (existing != null) {
+                    normalized = existing;
+                }
+                int doc = barcodes.size();
+                barcodes.add(barcode);
+                names.add(name);
+                normalizedNames.add(normalized);
+                for (int offset = 0; offset < normalized.length(); offset++) {
+                    if (offset == 0 || normalized.charAt(offset - 1) == ' ') {
+                        if (wordCount == wordEntries.length) {
+                            wordEntries = Arrays.copyOf(wordEntries, wordCount * 2);
+                        }
+                        wordEntries[wordCount++] = ((long) doc << 16) | offset;
+                    }
+                }
+            }
+
+            Snapshot build() {
+                String[] barcodeArray = barcodes.toArray(new String[0]);
+                String[] normalizedArray = normalizedNames.toArray(new String[0]);
+
+                long[] docsByBarcode = new long[barcodeArray.length];
+                for (int doc = 0; doc < docsByBarcode.length; doc++) {
+                    docsByBarcode[doc] = doc;
+                }
+                sort(docsByBarcode, (a, b) -> barcodeArray[(int) a].compareTo(barcodeArray[(int) b]));
+                int[] barcodeOrder = new int[docsByBarcode.length];
+                for (int i = 0; i < barcodeOrder.length; i++) {
+                    barcodeOrder[i] = (int) docsByBarcode[i];
+                }
+
+                Snapshot built = new Snapshot(barcodeArray, names.toArray(new String[0]), normalizedArray,
+                        barcodeOrder, Arrays.copyOf(wordEntries, wordCount));
+                sort(built.wordEntries, built::compareEntries);
+                return built;
+            }
+
+            @FunctionalInterface
+            private interface EntryComparator {
+                int compare(long first, long second);
+            }
+
+            /**
+             * Сортировка слиянием массива long без упаковки элементов
+             */
+            private static void sort(long[] entries, EntryComparator comparator) {
+                long[] buffer = new long[entries.length];
+                for (int width = 1; width < entries.length; width <<= 1) {
+                    for (int from = 0; from < entries.length; from += width << 1) {
+                        int middle = Math.min(from + width, entries.length);
+                        int to = Math.min(from + (width << 1), entries.length);
+                        int left = from;
+                        int right = middle;
+                        int out = from;
+                        while (left < middle && right < to) {
+                            buffer[out++] = comparator.compare(entries[left], entries[right]) <= 0
+                                    ? entries[left++] : entries[right++];
+                        }
+                        while (left < middle) buffer[out++] = entries[left++];
+                        while (right < to) buffer[out++] = entries[right++];
+                    }
+                    System.arraycopy(buffer, 0, entries, 0, entries.length);
+                }
+            }
+        }
+
+        private int compareEntries(long first, long second) {
+            String firstName = normalizedNames[(int) (first >>> 16)];
+            int firstOffset = (int) (first & 0xFFFF);
+            String secondName = normalizedNames[(int) (second >>> 16)];
+            int secondOffset = (int) (second & 0xFFFF);
+            int length = Math.min(firstName.length() - firstOffset, secondName.length() - secondOffset);
+            for (int i = 0; i < length; i++) {
+                int diff = firstName.charAt(firstOffset + i) - secondName.charAt(secondOffset + i);
+                if (diff != 0) return diff;
+            }
+            return (firstName.length() - firstOffset) - (secondName.length() - secondOffset);
+        }
+    }
+}
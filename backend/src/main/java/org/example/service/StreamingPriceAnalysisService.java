@@ -0,0 +1,427 @@
+package org.example.service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.example.dto.BestOfferDto;
+import org.example.dto.PriceAnalysisResult;
+import org.example.entity.History;
+import org.example.repository.ProductBulkRepository;
+import org.example.util.CurrentUserUtil;
+import org.example.util.ExcelRowReader;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Потоковый анализ цен для больших файлов заказа.
+ * Лист читается событийной моделью POI (ExcelRowReader), строки собираются в пачки фиксированного
+ * размера, и каждая пачка сразу уходит на поиск лучших цен в пул потоков, пока чтение продолжается.
+ * Результаты отдаются получателю в порядке строк файла. В памяти одновременно находится не больше
+ * analysis.stream.max-in-flight пачек.
+ * Как и обычный анализ, строки с одним штрихкодом объединяются: количество берётся из последней
+ * строки, наименование — из последней непустой, а результаты выдаются после чтения всех строк
+ * в порядке первого появления штрихкода. С perLine строки не объединяются: результат выдаётся
+ * на каждую строку сразу по готовности пачки. В историю, как и в обычном анализе, сохраняются
+ * результаты и содержимое строк заказа.
+ */
+@Slf4j
+@Service
+public class StreamingPriceAnalysisService {
+
+    private final BestPriceIndex bestPriceIndex;
+    private final ProductBulkRepository productBulkRepository;
+    private final HistoryService historyService;
+    private final CurrentUserUtil currentUserUtil;
+    private final ObjectMapper objectMapper;
+    private final ProductNameMatcher productNameMatcher;
+    private final ExecutorService lookupExecutor;
+    private final int batchSize;
+    private final int maxInFlight;
+
+    public StreamingPriceAnalysisService(BestPriceIndex bestPriceIndex,
+                                         ProductBulkRepository productBulkRepository,
+                                         HistoryService historyService,
+                                         CurrentUserUtil currentUserUtil,
+                                         ObjectMapper objectMapper,
+                                         ProductNameMatcher productNameMatcher,
+                                         @Value("${analysis.stream.batch-size:1000}") int batchSize,
+                                         @Value("${analysis.stream.max-in-flight:4}") int maxInFlight,
+                                         @Value("${analysis.stream.lookup-threads:4}") int lookupThreads) {
+        this.bestPriceIndex = bestPriceIndex;
+        this.productBulkRepository = productBulkRepository;
+        this.historyService = historyService;
+        this.currentUserUtil = currentUserUtil;
+        this.objectMapper = objectMapper;
+        this.productNameMatcher = productNameMatcher;
+        this.batchSize = batchSize;
+        this.maxInFlight = maxInFlight;
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.lookupExecutor = Executors.newFixedThreadPool(lookupThreads,
+                runnable -> new Thread(runnable, "price-lookup-" + threadNumber.incrementAndGet()));
+    }
+
+    /**
+     * Получатель результатов анализа. Пачка завершается вызовом flush, чтобы клиент
+     * получил первые результаты до окончания чтения файла.
+     */
+    public interface ResultSink {
+        void accept(PriceAnalysisResult result) throws IOException;
+
+        default void flush() throws IOException {
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        lookupExecutor.shutdownNow();
+    }
+
+    public int analyzePrices(MultipartFile file, SupplierFilter filter, boolean perLine, ResultSink sink) throws Exception {
+        Path tempFile = Files.createTempFile("price-analysis-", ".tmp");
+        try {
+            try (InputStream in = file.getInputStream()) {
+                Files.copy(in, tempFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return analyzePrices(tempFile, file.getOriginalFilename(), filter, perLine, sink);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Проанализировать файл заказа с диска; возвращает число строк с результатом
+     */
+    public int analyzePrices(Path file, String fileName, SupplierFilter filter, boolean perLine,
+                             ResultSink sink) throws Exception {
+        return analyzeLines("файл " + fileName, filter, perLine, sink, (lines, fileContent) -> {
+            int[] columns = {-1, -1, -1};
+            ExcelRowReader.read(file, row -> {
+                if (row.getRowNum() == 0) {
+                    columns[0] = findColumnIndex(row, "Штрихкод");
+                    columns[1] = findColumnIndex(row, "Количество");
+                    if (columns[0] == -1 || columns[1] == -1) {
+                        throw new IllegalArgumentException("Не найдены необходимые заголовки 'Штрихкод' или 'Количество' в файле. Убедитесь, что файл предназначен для анализа цен.");
+                    }
+                    columns[2] = findColumnIndex(row, "Наименование");
+                    if (columns[2] == -1) {
+                        columns[2] = findColumnIndex(row, "Наименование товара");
+                    }
+                    return;
+                }
+                String barcode = row.getString(columns[0]);
+                Double quantity = row.getNumeric(columns[1]);
+                if (barcode == null || barcode.isEmpty() || quantity == null || quantity.intValue() <= 0) {
+                    return;
+                }
+                lines.accept(barcode, quantity.intValue(), columns[2] != -1 ? row.getString(columns[2]) : null);
+
+                Map<String, Object> rowData = new HashMap<>();
+                for (int j = 0; j < row.getLastCellNum(); j++) {
+                    Object value = row.getValue(j);
+                    if (value instanceof String text) {
+                        value = text.replaceAll("[\\r\\n\\t]", "");
+                    }
+                    rowData.put("column_" + j, value);
+                }
+                fileContent.add(rowData);
+            });
+            if (columns[0] == -1) {
+                throw new IllegalArgumentException("Не найдены необходимые заголовки 'Штрихкод' или 'Количество' в файле. Убедитесь, что файл предназначен для анализа цен.");
+            }
+        });
+    }
+
+    /**
+     * Проанализировать строки заказа из JSON без Excel. Принимается JSON массив объектов
+     * {"barcode": ..., "quantity": ..., "name": ...} или NDJSON — по объекту на строку; name необязателен. Тело читается
+     * потоковым парсером Jackson, поэтому первые результаты уходят клиенту до конца чтения запроса.
+     * Строки без штрихкода или с неположительным количеством пропускаются, как и в файле.
+     */
+    public int analyzeJson(InputStream body, String format, SupplierFilter filter, boolean perLine,
+                           ResultSink sink) throws Exception {
+        return analyzeLines("пакет " + format, filter, perLine, sink, (lines, fileContent) -> {
+            try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+                JsonToken token = parser.nextToken();
+                boolean array = token == JsonToken.START_ARRAY;
+                if (array) {
+                    token = parser.nextToken();
+                }
+                while (token != null && token != JsonToken.END_ARRAY) {
+                    if (token != JsonToken.START_OBJECT) {
+                        throw new IllegalArgumentException("Ожидался объект строки заказа: " + parser.getCurrentLocation());
+                    }
+                    String barcode = null;
+                    String name = null;
+                    int quantity = 0;
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String field = parser.getCurrentName();
+                        parser.nextToken();
+                        switch (field) {
+                            case "barcode" -> barcode = parser.getValueAsString();
+                            case "quantity" -> quantity = parser.getValueAsInt();
+                            case "name" -> name = parser.getValueAsString();
+                            default -> parser.skipChildren();
+                        }
+                    }
+                    if (barcode != null && !(barcode = barcode.trim()).isEmpty() && quantity > 0) {
+                        lines.accept(barcode, quantity, name);
+                        Map<String, Object> rowData = new HashMap<>();
+                        rowData.put("barcode", barcode);
+                        rowData.put("quantity", quantity);
+                        rowData.put("name", name);
+                        fileContent.add(rowData);
+                    }
+                    token = parser.nextToken();
+                }
+                if (array && token == null) {
+                    throw new IllegalArgumentException("JSON массив не завершён");
+                }
+            }
+        });
+    }
+
+    /**
+     * Источник строк заказа: передаёт каждую строку получателю по мере чтения,
+     * а её содержимое для истории — в fileContent
+     */
+    @FunctionalInterface
+    private interface OrderLineSource {
+        void read(OrderLineConsumer lines, List<Map<String, Object>> fileContent) throws Exception;
+    }
+
+    @FunctionalInterface
+    private interface OrderLineConsumer {
+        void accept(String barcode, int quantity, String productName) throws Exception;
+    }
+
+    private int analyzeLines(String source, SupplierFilter filter, boolean perLine, ResultSink sink,
+                             OrderLineSource lines) throws Exception {
+        long startTime = System.currentTimeMillis();
+        List<Map<String, Object>> fileContent = new ArrayList<>();
+        HistorySink history = new HistorySink(sink);
+        Pipeline pipeline = new Pipeline(filter, history);
+        try {
+            if (perLine) {
+                lines.read(pipeline::add, fileContent);
+            } else {
+                Map<String, MergedLine> merged = new LinkedHashMap<>();
+                lines.read((barcode, quantity, productName) ->
+                    merged.computeIfAbsent(barcode, key -> new MergedLine()).update(quantity, productName), fileContent);
+                for (Map.Entry<String, MergedLine> entry : merged.entrySet()) {
+                    pipeline.add(entry.getKey(), entry.getValue().quantity, entry.getValue().productName);
+                }
+            }
+            pipeline.finish();
+        } catch (Exception e) {
+            pipeline.cancel();
+            throw e;
+        }
+
+        long totalTime = System.currentTimeMillis() - startTime;
+        log.info("✅ Потоковый анализ завершен за {} мс для {} строк ({} пачек, {} записей/сек)",
+            totalTime, pipeline.lines, pipeline.batches, Math.round(pipeline.lines / (totalTime / 1000.0)));
+
+        String requestDetails = String.format("Потоковый анализ цен: %s%s, %d %s",
+            source, PriceAnalysisService.describe(filter), pipeline.lines, perLine ? "строк" : "штрихкодов");
+        historyService.saveHistory(currentUserUtil.getCurrentClient(), requestDetails, history.toJson(), fileContent,
+            History.HistoryType.PRICE_ANALYSIS);
+        return pipeline.lines;
+    }
+
+    /**
+     * Объединённые строки одного штрихкода: количество из последней строки, наименование из последней непустой
+     */
+    private static final class MergedLine {
+        int quantity;
+        String productName;
+
+        void update(int quantity, String productName) {
+            this.quantity = quantity;
+            if (productName != null && !productName.isEmpty()) {
+                this.productName = productName;
+            }
+        }
+    }
+
+    /**
+     * Передаёт результаты получателю и собирает их JSON для истории
+     */
+    private final class HistorySink implements ResultSink {
+        private final ResultSink target;
+        private final StringBuilder json = new StringBuilder("[");
+
+        HistorySink(ResultSink target) {
+            this.target = target;
+        }
+
+        @Override
+        public void accept(PriceAnalysisResult result) throws IOException {
+            target.accept(result);
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append(objectMapper.writeValueAsString(result));
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target.flush();
+        }
+
+        String toJson() {
+            return json + "]";
+        }
+    }
+
+    /**
+     * Найти лучшие цены для пачки: из индекса в памяти или одним запросом к базе
+     */
+    private PriceAnalysisResult[] lookup(Batch batch, SupplierFilter filter) throws SQLException {
+        List<String> barcodes = Arrays.asList(batch.barcodes).subList(0, batch.size);
+        PriceAnalysisResult[] results = new PriceAnalysisResult[batch.size];
+
+        if (bestPriceIndex.isReady()) {
+            BestPriceIndex.BestOffer[] offers = bestPriceIndex.findAll(barcodes, filter);
+            for (int i = 0; i < batch.size; i++) {
+                BestPriceIndex.BestOffer offer = offers[i];
+                results[i] = offer == null
+                    ? productNameMatcher.unmatchedResult(batch.barcodes[i], batch.quantities[i], batch.names[i], filter)
+                    : PriceAnalysisService.bestOfferResult(batch.barcodes[i], batch.quantities[i],
+                        offer.supplierName(), offer.priceWithVat(), offer.productName());
+            }
+            return results;
+        }
+
+        Map<String, BestOfferDto> bestOffers = new HashMap<>();
+        for (BestOfferDto offer : productBulkRepository.findBestOffers(barcodes, filter.getMode(), filter.getSupplierNames())) {
+            bestOffers.put(offer.getBarcode(), offer);
+        }
+        for (int i = 0; i < batch.size; i++) {
+            BestOfferDto offer = bestOffers.get(batch.barcodes[i]);
+            results[i] = offer == null
+                ? productNameMatcher.unmatchedResult(batch.barcodes[i], batch.quantities[i], batch.names[i], filter)
+                : PriceAnalysisService.bestOfferResult(batch.barcodes[i], batch.quantities[i],
+                    offer.getSupplierName(), offer.getPriceWithVat(), offer.getProductName());
+        }
+        return results;
+    }
+
+    private int findColumnIndex(ExcelRowReader.SheetRow headerRow, String expectedHeader) {
+        String normalizedExpected = expectedHeader.trim().replaceAll("\\s+", "").toLowerCase();
+
+        for (int i = 0; i < headerRow.getLastCellNum(); i++) {
+            String cellValue = headerRow.getString(i);
+            if (cellValue != null) {
+                String normalizedCell = cellValue.trim().replaceAll("\\s+", "").toLowerCase();
+                if (normalizedCell.equals(normalizedExpected)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static final class Batch {
+        final String[] barcodes;
+        final int[] quantities;
+        final String[] names;
+        int size;
+
+        Batch(int capacity) {
+            barcodes = new String[capacity];
+            quantities = new int[capacity];
+            names = new String[capacity];
+        }
+    }
+
+    /**
+     * Очередь пачек в работе. Когда в работе max-in-flight пачек, поток чтения ждёт самую старую
+     * и отдаёт её результаты, поэтому порядок строк сохраняется, а чтение не убегает вперёд.
+     */
+    private final class Pipeline {
+        final SupplierFilter filter;
+        final ResultSink sink;
+        final ArrayDeque<Future<PriceAnalysisResult[]>> inFlight = new ArrayDeque<>();
+        Batch pending;
+        int lines;
+        int batches;
+
+        Pipeline(SupplierFilter filter, ResultSink sink) {
+            this.filter = filter;
+            this.sink = sink;
+        }
+
+        void add(String barcode, int quantity, String productName) throws Exception {
+            if (pending == null) {
+                pending = new Batch(batchSize);
+            }
+            pending.barcodes[pending.size] = barcode;
+            pending.quantities[pending.size] = quantity;
+            pending.names[pending.size] = productName;
+            if (++pending.size == batchSize) {
+                submitPending();
+            }
+        }
+
+        void finish() throws Exception {
+            if (pending != null) {
+                submitPending();
+            }
+            while (!inFlight.isEmpty()) {
+                emitOldest();
+            }
+        }
+
+        void cancel() {
+            inFlight.forEach(future -> future.cancel(true));
+            inFlight.clear();
+        }
+
+        private void submitPending() throws Exception {
+            Batch batch = pending;
+            pending = null;
+            if (inFlight.size() >= maxInFlight) {
+                emitOldest();
+            }
+            inFlight.add(lookupExecutor.submit(() -> lookup(batch, filter)));
+            batches++;
+        }
+
+        private void emitOldest() throws Exception {
+            PriceAnalysisResult[] results;
+            try {
+                results = inFlight.poll().get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception cause ? cause : e;
+            }
+            for (PriceAnalysisResult result : results) {
+                sink.accept(result);
+            }
+            sink.flush();
+            lines += results.length;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.example.service;
+
+import org.example.util.FileFingerprint;
+
+import java.security.MessageDigest;
+import java.util.HexFormat;
+
+/**
+ * SHA-256 блока строк одного поставщика в файле: нормализованные штрихкод, наименование и цена
+ * в порядке следования. Совпадение с дайджестом прошлой загрузки означает, что прайс поставщика
+ * не изменился и его можно не обрабатывать.
+ */
+public class SupplierBlockDigest {
+
+    private final MessageDigest digest = FileFingerprint.newDigest();
+    private byte[] buffer = new byte[256];
+    private int length;
+
+    public void addRow(long barcodeKey, String textBarcode, String productName, double price) {
+        length = 0;
+        if (textBarcode == null) {
+            putByte(1);
+            putLong(barcodeKey);
+        } else {
+            putByte(2);
+            putChars(textBarcode);
+        }
+        if (productName == null) {
+            putByte(0);
+        } else {
+            putByte(1);
+            putChars(productName);
+        }
+        putLong(Double.doubleToLongBits(price));
+        digest.update(buffer, 0, length);
+    }
+
+    public String toHex() {
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private void putChars(String value) {
+        putLong(value.length());
+        ensureCapacity(value.length() * 2);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            buffer[length++] = (byte) (c >>> 8);
+            buffer[length++] = (byte) c;
+        }
+    }
+
+    private void putLong(long value) {
+        ensureCapacity(8);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buffer[length++] = (byte) (value >>> shift);
+        }
+    }
+
+    private void putByte(int value) {
+        ensureCapacity(1);
+        buffer[length++] = (byte) value;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > buffer.length) {
+            byte[] grown = new byte[Math.max(buffer.length * 2, length + extra)];
+            System.arraycopy(buffer, 0, grown, 0, length);
+            buffer = grown;
+        }
+    }
+}
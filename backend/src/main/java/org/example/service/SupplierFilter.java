@@ -0,0 +1,88 @@
+package org.example.service;
+
+import org.example.entity.Client;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Фильтр поставщиков для анализа цен: разрешённый список (ALLOW) или запрещённый (DENY).
+ * Фильтр из запроса заменяет фильтр из профиля клиента; без обоих анализ идёт по всем поставщикам.
+ */
+public final class SupplierFilter {
+
+    public static final SupplierFilter NONE = new SupplierFilter(null, Set.of());
+
+    private final Client.SupplierFilterMode mode;
+    private final Set<String> supplierNames;
+
+    private SupplierFilter(Client.SupplierFilterMode mode, Set<String> supplierNames) {
+        this.mode = mode;
+        this.supplierNames = supplierNames;
+    }
+
+    public static SupplierFilter of(Client.SupplierFilterMode mode, Collection<String> supplierNames) {
+        if (mode == null) return NONE;
+        Set<String> names = new TreeSet<>();
+        if (supplierNames != null) {
+            for (String name : supplierNames) {
+                if (name != null && !name.isBlank()) {
+                    names.add(name.trim());
+                }
+            }
+        }
+        // Пустой запрещённый список ничего не запрещает; пустой разрешённый — не разрешает никого
+        if (mode == Client.SupplierFilterMode.DENY && names.isEmpty()) return NONE;
+        return new SupplierFilter(mode, Set.copyOf(names));
+    }
+
+    /**
+     * Фильтр из параметров запроса, а если их нет — из профиля клиента
+     */
+    public static SupplierFilter resolve(List<String> allowSuppliers, List<String> denySuppliers, Client client) {
+        boolean allow = allowSuppliers != null && !allowSuppliers.isEmpty();
+        boolean deny = denySuppliers != null && !denySuppliers.isEmpty();
+        if (allow && deny) {
+            throw new IllegalArgumentException("Нельзя одновременно указать разрешённых и запрещённых поставщиков");
+        }
+        if (allow) return of(Client.SupplierFilterMode.ALLOW, allowSuppliers);
+        if (deny) return of(Client.SupplierFilterMode.DENY, denySuppliers);
+        return client != null ? of(client.getSupplierFilterMode(), client.getSupplierFilterNames()) : NONE;
+    }
+
+    public boolean isEmpty() {
+        return mode == null;
+    }
+
+    public Client.SupplierFilterMode getMode() {
+        return mode;
+    }
+
+    public Set<String> getSupplierNames() {
+        return supplierNames;
+    }
+
+    public boolean permits(String supplierName) {
+        if (mode == null) return true;
+        return supplierNames.contains(supplierName) == (mode == Client.SupplierFilterMode.ALLOW);
+    }
+
+    /**
+     * Ключ для кэша результатов: одинаковые фильтры дают одинаковый ключ
+     */
+    public String cacheKey() {
+        return mode == null ? "" : mode + ":" + String.join("\u0000", new TreeSet<>(supplierNames));
+    }
+
+    /**
+     * Описание для истории запросов
+     */
+    @Override
+    public String toString() {
+        if (mode == null) return "все поставщики";
+        String names = String.join(", ", new TreeSet<>(supplierNames));
+        return (mode == Client.SupplierFilterMode.ALLOW ? "только поставщики: " : "кроме поставщиков: ") + names;
+    }
+}
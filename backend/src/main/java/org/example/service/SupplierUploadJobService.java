@@ -0,0 +1,221 @@
+package org.example.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.example.dto.ExcelUploadResponse;
+import org.example.dto.UploadJobStatus;
+import org.example.util.TimeUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Фоновая загрузка файлов поставщиков.
+ * Файл сохраняется на диск, задача ставится в ограниченную очередь, клиент сразу получает
+ * идентификатор задачи и опрашивает её статус. Задача не зависит от HTTP запроса,
+ * поэтому обрыв соединения клиента её не прерывает.
+ * Синхронная загрузка проходит через ту же очередь: число одновременных загрузок ограничено
+ * ingest.jobs.max-concurrent, на которое рассчитан бюджет соединений групп. Результата она ждёт
+ * не дольше ingest.jobs.sync-wait-seconds, после чего отдаёт статус задачи, а загрузка продолжается в фоне.
+ */
+@Slf4j
+@Service
+public class SupplierUploadJobService {
+
+    private final ExcelProcessingService excelProcessingService;
+    private final ThreadPoolExecutor executor;
+    private final Map<String, UploadJob> jobs = new ConcurrentHashMap<>();
+    private final Path spoolDir;
+    private final long retentionMinutes;
+    private final long syncWaitSeconds;
+
+    public SupplierUploadJobService(ExcelProcessingService excelProcessingService,
+                                    @Value("${ingest.jobs.max-concurrent:2}") int maxConcurrent,
+                                    @Value("${ingest.jobs.queue-capacity:10}") int queueCapacity,
+                                    @Value("${ingest.jobs.spool-dir:${java.io.tmpdir}}") String spoolDir,
+                                    @Value("${ingest.jobs.retention-minutes:60}") long retentionMinutes,
+                                    @Value("${ingest.jobs.sync-wait-seconds:60}") long syncWaitSeconds) throws IOException {
+        this.excelProcessingService = excelProcessingService;
+        this.spoolDir = Files.createDirectories(Path.of(spoolDir));
+        this.retentionMinutes = retentionMinutes;
+        this.syncWaitSeconds = syncWaitSeconds;
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> new Thread(runnable, "supplier-upload-" + threadNumber.incrementAndGet()));
+        log.info("Фоновая загрузка поставщиков: {} одновременных задач, очередь {}", maxConcurrent, queueCapacity);
+    }
+
+    /**
+     * Сохранить файл на диск и поставить его обработку в очередь
+     */
+    public UploadJobStatus submit(MultipartFile file, boolean replace) throws IOException {
+        return enqueue(file, replace).toStatus();
+    }
+
+    /**
+     * Загрузить файл в общей очереди и подождать результата не дольше ingest.jobs.sync-wait-seconds.
+     * Если загрузка не успела завершиться, возвращается статус задачи без результата:
+     * задача продолжается в фоне, и её можно опрашивать по идентификатору.
+     */
+    public UploadJobStatus process(MultipartFile file, boolean replace) throws Exception {
+        UploadJob job = enqueue(file, replace);
+        try {
+            job.done.get(syncWaitSeconds, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            log.info("Задача загрузки {} не завершилась за {} с, продолжается в фоне", job.id, syncWaitSeconds);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+        return job.toStatus();
+    }
+
+    private UploadJob enqueue(MultipartFile file, boolean replace) throws IOException {
+        evictFinishedJobs();
+
+        UploadJob job = new UploadJob(UUID.randomUUID().toString(), file.getOriginalFilename(), replace);
+        job.file = Files.createTempFile(spoolDir, "supplier-upload-", ".tmp");
+        try (InputStream in = file.getInputStream()) {
+            Files.copy(in, job.file, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        jobs.put(job.id, job);
+        try {
+            executor.execute(() -> run(job));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.id);
+            Files.deleteIfExists(job.file);
+            throw new IllegalStateException("Очередь загрузок переполнена, повторите попытку позже");
+        }
+        log.info("Задача загрузки {} поставлена в очередь: файл {}", job.id, job.fileName);
+        return job;
+    }
+
+    public Optional<UploadJobStatus> getStatus(String jobId) {
+        evictFinishedJobs();
+        return Optional.ofNullable(jobs.get(jobId)).map(UploadJob::toStatus);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void run(UploadJob job) {
+        job.startedAt = TimeUtil.nowMoscow();
+        try {
+            job.result = excelProcessingService.processSupplierDataFile(job.file, job.fileName, job.replace, job);
+            job.phase = UploadJobStatus.Phase.DONE;
+            log.info("Задача загрузки {} завершена: {}", job.id, job.result.getMessage());
+            job.done.complete(job.result);
+        } catch (Exception e) {
+            job.error = e.getMessage();
+            if (e instanceof ExcelProcessingService.PartialCommitException partial) {
+                job.uncommittedSuppliers = partial.getUncommittedSuppliers();
+            }
+            job.phase = UploadJobStatus.Phase.FAILED;
+            log.error("Ошибка задачи загрузки {}: {}", job.id, e.getMessage(), e);
+            job.done.completeExceptionally(e);
+        } finally {
+            job.finishedAt = TimeUtil.nowMoscow();
+            try {
+                Files.deleteIfExists(job.file);
+            } catch (IOException e) {
+                log.warn("Не удалось удалить временный файл {}: {}", job.file, e.getMessage());
+            }
+        }
+    }
+
+    private void evictFinishedJobs() {
+        LocalDateTime threshold = TimeUtil.nowMoscow().minusMinutes(retentionMinutes);
+        jobs.values().removeIf(job -> job.finishedAt != null && job.finishedAt.isBefore(threshold));
+    }
+
+    private static class UploadJob implements IngestProgressListener {
+        private final String id;
+        private final String fileName;
+        private final boolean replace;
+        private final LocalDateTime createdAt = TimeUtil.nowMoscow();
+        private final CompletableFuture<ExcelUploadResponse> done = new CompletableFuture<>();
+        private Path file;
+
+        private volatile UploadJobStatus.Phase phase = UploadJobStatus.Phase.QUEUED;
+        private volatile int totalRows;
+        private volatile int rowsProcessed;
+        private volatile long rowsStartNanos;
+        private volatile long rowsEndNanos;
+        private volatile LocalDateTime startedAt;
+        private volatile LocalDateTime finishedAt;
+        private volatile ExcelUploadResponse result;
+        private volatile String error;
+        private volatile List<String> uncommittedSuppliers;
+
+        UploadJob(String id, String fileName, boolean replace) {
+            this.id = id;
+            this.fileName = fileName;
+            this.replace = replace;
+        }
+
+        @Override
+        public void onPhase(UploadJobStatus.Phase phase) {
+            if (phase == UploadJobStatus.Phase.ROWS) {
+                rowsStartNanos = System.nanoTime();
+            } else if (this.phase == UploadJobStatus.Phase.ROWS) {
+                rowsEndNanos = System.nanoTime();
+            }
+            this.phase = phase;
+        }
+
+        @Override
+        public void onTotalRows(int totalRows) {
+            this.totalRows = totalRows;
+        }
+
+        @Override
+        public void onRowsProcessed(int rowsProcessed) {
+            this.rowsProcessed = rowsProcessed;
+        }
+
+        UploadJobStatus toStatus() {
+            long rowsStart = rowsStartNanos;
+            long rowsEnd = rowsEndNanos != 0 ? rowsEndNanos : System.nanoTime();
+            long elapsedNanos = rowsStart == 0 ? 0 : rowsEnd - rowsStart;
+            long rowsPerSecond = elapsedNanos > 0 ? rowsProcessed * 1_000_000_000L / elapsedNanos : 0;
+            return UploadJobStatus.builder()
+                    .jobId(id)
+                    .fileName(fileName)
+                    .phase(phase)
+                    .rowsProcessed(rowsProcessed)
+                    .totalRows(totalRows)
+                    .rowsPerSecond(rowsPerSecond)
+                    .createdAt(createdAt)
+                    .startedAt(startedAt)
+                    .finishedAt(finishedAt)
+                    .result(result)
+                    .error(error)
+                    .uncommittedSuppliers(uncommittedSuppliers)
+                    .build();
+        }
+    }
+}
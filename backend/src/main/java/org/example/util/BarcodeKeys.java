@@ -0,0 +1,73 @@
+package org.example.util;
+
+/**
+ * Компактное представление штрихкодов для хеш-таблиц с примитивными ключами.
+ * Цифровой штрихкод длиной до 17 знаков кодируется в long вместе с длиной,
+ * поэтому ведущие нули сохраняются ("0123" и "123" дают разные ключи).
+ */
+public final class BarcodeKeys {
+
+    /** Признак штрихкода, который нельзя представить числом */
+    public static final long NOT_NUMERIC = -1L;
+
+    private static final int MAX_DIGITS = 17;
+
+    private BarcodeKeys() {
+    }
+
+    public static long toKey(CharSequence barcode) {
+        return toKey(barcode, 0, barcode.length());
+    }
+
+    /**
+     * Ключ для части строки [start, end) без создания подстроки
+     */
+    public static long toKey(CharSequence barcode, int start, int end) {
+        int length = end - start;
+        if (length <= 0 || length > MAX_DIGITS) return NOT_NUMERIC;
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            char c = barcode.charAt(i);
+            if (c < '0' || c > '9') return NOT_NUMERIC;
+            value = value * 10 + (c - '0');
+        }
+        return (value << 5) | length;
+    }
+
+    /**
+     * Ключ штрихкода, записанного в ячейке числом (без ведущих нулей)
+     */
+    public static long fromNumber(long value) {
+        if (value < 0) return NOT_NUMERIC;
+        int length = digitCount(value);
+        return length > MAX_DIGITS ? NOT_NUMERIC : (value << 5) | length;
+    }
+
+    /**
+     * Восстановить строку штрихкода из ключа
+     */
+    public static String toBarcode(long key) {
+        return appendTo(new StringBuilder(MAX_DIGITS), key).toString();
+    }
+
+    /**
+     * Дописать цифры штрихкода в буфер без промежуточных строк
+     */
+    public static StringBuilder appendTo(StringBuilder target, long key) {
+        int length = (int) (key & 31);
+        long value = key >>> 5;
+        for (int i = digitCount(value); i < length; i++) {
+            target.append('0');
+        }
+        return target.append(value);
+    }
+
+    private static int digitCount(long value) {
+        int count = 1;
+        while (value >= 10) {
+            value /= 10;
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,62 @@
+package org.example.util;
+
+/**
+ * Неизменяемая таблица строка -> порядковый номер с открытой адресацией. Поиск идёт по символам
+ * CharSequence с обрезкой пробелов по краям, как у String.trim, без создания строк.
+ * get возвращает -1 для отсутствующего ключа.
+ */
+public final class CharSequenceIndex {
+
+    private final String[] keys;
+    private final int[] values;
+
+    /**
+     * Таблица из ключей: номер ключа — его позиция в массиве
+     */
+    public CharSequenceIndex(String[] names) {
+        int capacity = Integer.highestOneBit(Math.max(4, names.length * 2) - 1) << 1;
+        keys = new String[capacity];
+        values = new int[capacity];
+        int mask = capacity - 1;
+        for (int ordinal = 0; ordinal < names.length; ordinal++) {
+            String name = names[ordinal];
+            int i = mix(name.hashCode()) & mask;
+            while (keys[i] != null && !keys[i].equals(name)) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = name;
+            values[i] = ordinal;
+        }
+    }
+
+    public int get(CharSequence chars) {
+        if (chars == null) return -1;
+        int start = 0;
+        int end = chars.length();
+        while (start < end && chars.charAt(start) <= ' ') start++;
+        while (end > start && chars.charAt(end - 1) <= ' ') end--;
+
+        // Тот же хеш, что у String.hashCode для подстроки
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + chars.charAt(i);
+        }
+        int mask = keys.length - 1;
+        for (int i = mix(hash) & mask; keys[i] != null; i = (i + 1) & mask) {
+            if (matches(keys[i], chars, start, end)) return values[i];
+        }
+        return -1;
+    }
+
+    private static boolean matches(String key, CharSequence chars, int start, int end) {
+        if (key.length() != end - start) return false;
+        for (int i = 0; i < key.length(); i++) {
+            if (key.charAt(i) != chars.charAt(start + i)) return false;
+        }
+        return true;
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,176 @@
+package org.example.util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Запись таблицы в CSV или TSV (UTF-8) прямо в поток, без Apache POI. Экранирование по RFC 4180:
+ * поле с разделителем, кавычкой или переводом строки заключается в кавычки, кавычки удваиваются;
+ * строки разделяются CRLF. Числа пишутся без экспоненты и разделителей разрядов, деньги и проценты —
+ * с двумя знаками после точки; цифры собираются в переиспользуемом буфере без создания строк.
+ */
+public final class DelimitedTableWriter implements TableWriter {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final char BOM = '\uFEFF';
+
+    private final Writer writer;
+    private final char delimiter;
+    private final char[] digits = new char[24];
+    private int rowNum;
+    private int column;
+
+    public DelimitedTableWriter(OutputStream out, char delimiter, boolean bom, String... headers) throws IOException {
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+        this.delimiter = delimiter;
+        if (bom) {
+            writer.write(BOM);
+        }
+        row();
+        for (String header : headers) {
+            text(header);
+        }
+    }
+
+    @Override
+    public DelimitedTableWriter row() {
+        try {
+            if (rowNum > 0) {
+                writer.write("\r\n");
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        rowNum++;
+        column = 0;
+        return this;
+    }
+
+    @Override
+    public DelimitedTableWriter text(String value) {
+        return text(value, Style.GENERAL);
+    }
+
+    @Override
+    public DelimitedTableWriter text(String value, Style style) {
+        try {
+            separate();
+            if (value != null && !value.isEmpty()) {
+                writeEscaped(value);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+    @Override
+    public DelimitedTableWriter number(double value) {
+        return number(value, Style.GENERAL);
+    }
+
+    @Override
+    public DelimitedTableWriter number(double value, Style style) {
+        try {
+            separate();
+            writeNumber(value, style);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+    @Override
+    public DelimitedTableWriter skip() {
+        try {
+            separate();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+    private void separate() throws IOException {
+        if (column++ > 0) {
+            writer.write(delimiter);
+        }
+    }
+
+    private void writeEscaped(String value) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == delimiter || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        int from = 0;
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) == '"') {
+                writer.write(value, from, i + 1 - from);
+                writer.write('"');
+                from = i + 1;
+            }
+        }
+        writer.write(value, from, value.length() - from);
+        writer.write('"');
+    }
+
+    private void writeNumber(double value, Style style) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) return;
+        boolean fixed = style == Style.MONEY || style == Style.PERCENT;
+        if (fixed && Math.abs(value) < 1e15) {
+            writeFixed(Math.round(value * 100), 2);
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e17) {
+            writeFixed((long) value, 0);
+        } else {
+            writer.write(BigDecimal.valueOf(value).toPlainString());
+        }
+    }
+
+    /**
+     * Записать value / 10^scale с scale знаками после точки
+     */
+    private void writeFixed(long value, int scale) throws IOException {
+        boolean negative = value < 0;
+        long rest = Math.abs(value);
+        int position = digits.length;
+        int written = 0;
+        do {
+            digits[--position] = (char) ('0' + rest % 10);
+            rest /= 10;
+            if (++written == scale) {
+                digits[--position] = '.';
+            }
+        } while (rest > 0 || written <= scale);
+        if (negative) {
+            digits[--position] = '-';
+        }
+        writer.write(digits, position, digits.length - position);
+    }
+
+    @Override
+    public int dataRows() {
+        return rowNum - 1;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        writer.write("\r\n");
+        writer.flush();
+    }
+
+    @Override
+    public void close() {
+        // Поток принадлежит вызывающему коду; дописанные данные сбрасывает finish
+    }
+}
@@ -0,0 +1,445 @@
+package org.example.util;
+
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.poifs.filesystem.FileMagic;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Построчное чтение первого листа Excel файла.
+ * Для .xlsx используется событийная модель POI (XSSFReader + SAX): в памяти держится
+ * только текущая строка, поэтому потребление памяти не зависит от размера файла.
+ * Общие строки (sharedStrings.xml) разрешаются один раз на индекс и дальше отдаются тем же
+ * экземпляром String, встроенные строки копируются в переиспользуемые буферы ячеек.
+ * Старый формат .xls читается через usermodel.
+ */
+public final class ExcelRowReader {
+
+    private ExcelRowReader() {
+    }
+
+    @FunctionalInterface
+    public interface RowHandler {
+        void handleRow(SheetRow row) throws Exception;
+    }
+
+    /**
+     * Прочитать первый лист файла, вызывая обработчик для каждой непустой строки (включая заголовок)
+     */
+    public static void read(Path file, RowHandler handler) throws Exception {
+        FileMagic magic;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            magic = FileMagic.valueOf(in);
+        }
+        if (magic == FileMagic.OOXML) {
+            readXlsx(file.toFile(), handler);
+        } else {
+            readWithUserModel(file.toFile(), handler);
+        }
+    }
+
+    private static void readXlsx(File file, RowHandler handler) throws Exception {
+        try (OPCPackage pkg = OPCPackage.open(file, PackageAccess.READ)) {
+            XSSFReader reader = new XSSFReader(pkg);
+            ReadOnlySharedStringsTable sharedStrings = new ReadOnlySharedStringsTable(pkg);
+            Iterator<InputStream> sheets = reader.getSheetsData();
+            if (!sheets.hasNext()) {
+                return;
+            }
+            try (InputStream sheet = sheets.next()) {
+                XMLReader parser = XMLHelper.newXMLReader();
+                parser.setContentHandler(new SheetHandler(sharedStrings, handler));
+                parser.parse(new InputSource(sheet));
+            } catch (RowHandlerException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    private static void readWithUserModel(File file, RowHandler handler) throws Exception {
+        try (Workbook workbook = WorkbookFactory.create(file, null, true)) {
+            Sheet sheet = workbook.getSheetAt(0);
+            SheetRow sheetRow = new SheetRow();
+            for (int i = 0; i <= sheet.getLastRowNum(); i++) {
+                Row row = sheet.getRow(i);
+                if (row == null) continue;
+
+                sheetRow.reset(i);
+                for (int j = 0; j < row.getLastCellNum(); j++) {
+                    Cell cell = row.getCell(j);
+                    if (cell == null) continue;
+                    switch (cell.getCellType()) {
+                        case STRING -> sheetRow.set(j, SheetRow.STRING, cell.getStringCellValue());
+                        case NUMERIC -> sheetRow.setNumber(j, String.valueOf(cell.getNumericCellValue()));
+                        case BOOLEAN -> sheetRow.set(j, SheetRow.BOOLEAN, cell.getBooleanCellValue() ? "1" : "0");
+                        default -> sheetRow.set(j, SheetRow.OTHER, null);
+                    }
+                }
+                handler.handleRow(sheetRow);
+            }
+        }
+    }
+
+    /**
+     * Строка листа. Объект переиспользуется между вызовами обработчика, поэтому его
+     * нельзя сохранять — нужные значения следует скопировать.
+     * Преобразования значений повторяют поведение getCellStringValue/getCellValue сервисов:
+     * формулы и ошибки считаются пустыми ячейками.
+     * Числа и встроенные строки хранятся в переиспользуемых буферах; String для них создаётся
+     * только при запросе значения, а {@link #getChars(int)} отдаёт сам буфер.
+     */
+    public static final class SheetRow {
+        static final byte EMPTY = 0;
+        static final byte STRING = 1;
+        static final byte NUMERIC = 2;
+        static final byte BOOLEAN = 3;
+        static final byte OTHER = 4;
+
+        // 10^n точно представимы в double до n = 22
+        private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+        };
+        private static final int MAX_EXACT_DIGITS = 15;
+
+        private int rowNum;
+        private int lastCellNum;
+        private byte[] types = new byte[16];
+        private String[] values = new String[16];
+        // Обрезанные значения; для общих строк вычисляются один раз на индекс
+        private String[] trimmed = new String[16];
+        private StringBuilder[] numbers = new StringBuilder[16];
+        // Встроенные строки, ещё не превращённые в String (values[col] == null)
+        private StringBuilder[] texts = new StringBuilder[16];
+
+        void reset(int rowNum) {
+            Arrays.fill(types, 0, lastCellNum, EMPTY);
+            Arrays.fill(values, 0, lastCellNum, null);
+            Arrays.fill(trimmed, 0, lastCellNum, null);
+            this.rowNum = rowNum;
+            this.lastCellNum = 0;
+        }
+
+        void set(int col, byte type, String value) {
+            ensureCapacity(col);
+            types[col] = type;
+            values[col] = value;
+            trimmed[col] = null;
+            lastCellNum = Math.max(lastCellNum, col + 1);
+        }
+
+        void setShared(int col, String value, String trimmedValue) {
+            set(col, STRING, value);
+            trimmed[col] = trimmedValue;
+        }
+
+        void setText(int col, CharSequence raw) {
+            ensureCapacity(col);
+            StringBuilder text = texts[col];
+            if (text == null) {
+                text = texts[col] = new StringBuilder(64);
+            }
+            text.setLength(0);
+            text.append(raw);
+            types[col] = STRING;
+            values[col] = null;
+            trimmed[col] = null;
+            lastCellNum = Math.max(lastCellNum, col + 1);
+        }
+
+        void setNumber(int col, CharSequence raw) {
+            ensureCapacity(col);
+            StringBuilder number = numbers[col];
+            if (number == null) {
+                number = numbers[col] = new StringBuilder(24);
+            }
+            number.setLength(0);
+            number.append(raw);
+            types[col] = NUMERIC;
+            lastCellNum = Math.max(lastCellNum, col + 1);
+        }
+
+        private String text(int col) {
+            String value = values[col];
+            if (value == null) {
+                value = values[col] = texts[col].toString();
+            }
+            return value;
+        }
+
+        private void ensureCapacity(int col) {
+            if (col >= types.length) {
+                int size = Math.max(col + 1, types.length * 2);
+                types = Arrays.copyOf(types, size);
+                values = Arrays.copyOf(values, size);
+                trimmed = Arrays.copyOf(trimmed, size);
+                numbers = Arrays.copyOf(numbers, size);
+                texts = Arrays.copyOf(texts, size);
+            }
+        }
+
+        /** Номер строки на листе (с нуля, 0 — заголовок) */
+        public int getRowNum() {
+            return rowNum;
+        }
+
+        public int getLastCellNum() {
+            return lastCellNum;
+        }
+
+        public boolean isString(int col) {
+            return col >= 0 && col < lastCellNum && types[col] == STRING;
+        }
+
+        public boolean isNumeric(int col) {
+            return col >= 0 && col < lastCellNum && types[col] == NUMERIC;
+        }
+
+        /** Строка без обработки: текст для строковых ячеек, исходная запись числа для числовых */
+        public String getRaw(int col) {
+            if (col < 0 || col >= lastCellNum) return null;
+            return switch (types[col]) {
+                case NUMERIC -> numbers[col].toString();
+                case STRING -> text(col);
+                default -> values[col];
+            };
+        }
+
+        /**
+         * Исходные символы строковой или числовой ячейки без копирования.
+         * Действительны только до перехода к следующей строке.
+         */
+        public CharSequence getChars(int col) {
+            if (col < 0 || col >= lastCellNum) return null;
+            return switch (types[col]) {
+                case STRING -> values[col] != null ? values[col] : texts[col];
+                case NUMERIC -> numbers[col];
+                default -> null;
+            };
+        }
+
+        /** Строковое значение: текст обрезается, число приводится к целому */
+        public String getString(int col) {
+            if (col < 0 || col >= lastCellNum) return null;
+            return switch (types[col]) {
+                case STRING -> trimmed[col] != null ? trimmed[col] : (trimmed[col] = text(col).trim());
+                case NUMERIC -> String.valueOf((long) parseNumber(numbers[col]));
+                default -> null;
+            };
+        }
+
+        /** Числовое значение ячейки или null, если ячейка не числовая */
+        public Double getNumeric(int col) {
+            return isNumeric(col) ? parseNumber(numbers[col]) : null;
+        }
+
+        /** Числовое значение ячейки или NaN, если ячейка не числовая */
+        public double getDouble(int col) {
+            return isNumeric(col) ? parseNumber(numbers[col]) : Double.NaN;
+        }
+
+        /** Значение ячейки как объект: String, Double или Boolean */
+        public Object getValue(int col) {
+            if (col < 0 || col >= lastCellNum) return null;
+            return switch (types[col]) {
+                case STRING -> getString(col);
+                case NUMERIC -> parseNumber(numbers[col]);
+                case BOOLEAN -> "1".equals(values[col]);
+                default -> null;
+            };
+        }
+
+        /**
+         * Разбор числа. Десятичная запись без экспоненты с не более чем 15 значащими цифрами
+         * разбирается как целое / 10^n: оба числа точны в double, поэтому результат совпадает
+         * с Double.parseDouble. Остальные записи передаются в Double.parseDouble.
+         */
+        private static double parseNumber(CharSequence raw) {
+            int length = raw.length();
+            int i = 0;
+            boolean negative = length > 0 && raw.charAt(0) == '-';
+            if (negative) i++;
+
+            long mantissa = 0;
+            int digits = 0;
+            int fractionDigits = -1;
+            for (; i < length; i++) {
+                char c = raw.charAt(i);
+                if (c >= '0' && c <= '9') {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (++digits > MAX_EXACT_DIGITS) break;
+                    if (fractionDigits >= 0) fractionDigits++;
+                } else if (c == '.' && fractionDigits < 0) {
+                    fractionDigits = 0;
+                } else {
+                    break;
+                }
+            }
+            if (i < length || digits == 0) {
+                return Double.parseDouble(raw.toString());
+            }
+            double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+            return negative ? -value : value;
+        }
+    }
+
+    private static final class RowHandlerException extends SAXException {
+        RowHandlerException(Exception cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized Exception getCause() {
+            return (Exception) super.getCause();
+        }
+    }
+
+    /**
+     * SAX обработчик XML листа (sheetN.xml)
+     */
+    private static final class SheetHandler extends DefaultHandler {
+        private final ReadOnlySharedStringsTable sharedStrings;
+        private final RowHandler handler;
+        private final SheetRow row = new SheetRow();
+        private final StringBuilder value = new StringBuilder(64);
+        // Разрешённые общие строки по индексу: исходные и обрезанные
+        private String[] shared;
+        private String[] sharedTrimmed;
+
+        private int nextRowNum;
+        private int nextCol;
+        private int col;
+        private String cellType;
+        private boolean formula;
+        private boolean collecting;
+
+        SheetHandler(ReadOnlySharedStringsTable sharedStrings, RowHandler handler) {
+            this.sharedStrings = sharedStrings;
+            this.handler = handler;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            switch (localName) {
+                case "row" -> {
+                    String ref = attributes.getValue("r");
+                    int rowNum = ref != null ? Integer.parseInt(ref) - 1 : nextRowNum;
+                    row.reset(rowNum);
+                    nextRowNum = rowNum + 1;
+                    nextCol = 0;
+                }
+                case "c" -> {
+                    String ref = attributes.getValue("r");
+                    col = ref != null ? columnIndex(ref) : nextCol;
+                    nextCol = col + 1;
+                    cellType = attributes.getValue("t");
+                    formula = false;
+                    value.setLength(0);
+                }
+                case "f" -> formula = true;
+                case "v", "t" -> collecting = true;
+                default -> {
+                }
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (collecting) {
+                value.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            switch (localName) {
+                case "v", "t" -> collecting = false;
+                case "c" -> endCell();
+                case "row" -> {
+                    try {
+                        handler.handleRow(row);
+                    } catch (Exception e) {
+                        throw new RowHandlerException(e);
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+
+        private void endCell() {
+            if (formula) {
+                row.set(col, SheetRow.OTHER, null);
+                return;
+            }
+            if (cellType == null || "n".equals(cellType)) {
+                if (!value.isEmpty()) {
+                    row.setNumber(col, value);
+                }
+                return;
+            }
+            switch (cellType) {
+                case "s" -> setShared(sharedStringIndex());
+                case "inlineStr", "str" -> row.setText(col, value);
+                case "b" -> row.set(col, SheetRow.BOOLEAN, value.toString());
+                default -> row.set(col, SheetRow.OTHER, null);
+            }
+        }
+
+        /**
+         * getItemAt создаёт на каждый вызов XSSFRichTextString с XML объектом внутри,
+         * поэтому строка по индексу разрешается один раз
+         */
+        private void setShared(int index) {
+            if (shared == null || index >= shared.length) {
+                int size = Math.max(index + 1, Math.max(sharedStrings.getUniqueCount(), shared == null ? 16 : shared.length * 2));
+                shared = shared == null ? new String[size] : Arrays.copyOf(shared, size);
+                sharedTrimmed = sharedTrimmed == null ? new String[size] : Arrays.copyOf(sharedTrimmed, size);
+            }
+            String resolved = shared[index];
+            if (resolved == null) {
+                resolved = shared[index] = sharedStrings.getItemAt(index).getString();
+                sharedTrimmed[index] = resolved.trim();
+            }
+            row.setShared(col, resolved, sharedTrimmed[index]);
+        }
+
+        private int sharedStringIndex() {
+            int index = 0;
+            for (int i = 0; i < value.length(); i++) {
+                index = index * 10 + (value.charAt(i) - '0');
+            }
+            return index;
+        }
+
+        private static int columnIndex(String cellRef) {
+            int col = 0;
+            for (int i = 0; i < cellRef.length(); i++) {
+                char c = cellRef.charAt(i);
+                if (c < 'A' || c > 'Z') break;
+                col = col * 26 + (c - 'A' + 1);
+            }
+            return col - 1;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package org.example.util;
+
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.DataFormat;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Потоковая запись одного листа xlsx для выгрузок. В памяти держится окно из последних строк,
+ * остальные уходят во временный сжатый файл. Стили заводятся один раз на книгу (набор Style),
+ * ширина колонок считается по длине текста первых SAMPLE_ROWS строк вместо autoSizeColumn,
+ * который измеряет каждую ячейку шрифтом и требует держать все строки в памяти.
+ * Лист xlsx вмещает не больше 1 048 576 строк: при заполнении листа строки продолжаются
+ * на следующем листе («Лист (2)», «Лист (3)», ...) с той же строкой заголовков.
+ *
+ * <pre>
+ * try (ExcelSheetWriter writer = new ExcelSheetWriter(out, "Лист", headers)) {
+ *     writer.row().text(barcode).number(quantity, Style.INTEGER);
+ *     writer.finish();
+ * }
+ * </pre>
+ */
+public final class ExcelSheetWriter implements TableWriter {
+
+    public static final String CONTENT_TYPE = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+
+    private static final int ROW_WINDOW = 100;
+    private static final int SAMPLE_ROWS = 1000;
+    private static final int MIN_WIDTH = 6;
+    private static final int MAX_WIDTH = 80;
+    private static final int MAX_SHEET_ROWS = SpreadsheetVersion.EXCEL2007.getMaxRows();
+    private static final int MAX_SHEET_NAME = 31;
+
+    private final OutputStream out;
+    private final int maxSheetRows;
+    private final SXSSFWorkbook workbook;
+    private final String sheetName;
+    private final String[] headers;
+    private final List<SXSSFSheet> sheets = new ArrayList<>();
+    private final Map<Style, CellStyle> styles = new EnumMap<>(Style.class);
+    private final int[] widths;
+    private SXSSFSheet sheet;
+    // Строк во всех листах (для выборки ширины) и в текущем листе, включая заголовки
+    private int rowNum;
+    private int sheetRowNum;
+    private int dataRows;
+    private Row row;
+    private int column;
+
+    public ExcelSheetWriter(OutputStream out, String sheetName, String... headers) {
+        this(out, MAX_SHEET_ROWS, sheetName, headers);
+    }
+
+    /**
+     * Лист не больше maxSheetRows строк вместе с заголовком — для проверки переноса строк на новый лист
+     */
+    ExcelSheetWriter(OutputStream out, int maxSheetRows, String sheetName, String... headers) {
+        this.out = out;
+        this.maxSheetRows = maxSheetRows;
+        this.sheetName = sheetName;
+        this.headers = headers;
+        workbook = new SXSSFWorkbook(ROW_WINDOW);
+        workbook.setCompressTempFiles(true);
+        widths = new int[headers.length];
+        registerStyles();
+        startSheet();
+    }
+
+    /**
+     * Новый лист со строкой заголовков
+     */
+    private void startSheet() {
+        String name = sheetName;
+        if (!sheets.isEmpty()) {
+            String suffix = " (" + (sheets.size() + 1) + ")";
+            name = sheetName.length() + suffix.length() > MAX_SHEET_NAME
+                    ? sheetName.substring(0, MAX_SHEET_NAME - suffix.length()) + suffix
+                    : sheetName + suffix;
+        }
+        sheet = workbook.createSheet(name);
+        sheets.add(sheet);
+        sheetRowNum = 0;
+        nextRow();
+        for (String header : headers) {
+            text(header, Style.HEADER);
+        }
+    }
+
+    private void registerStyles() {
+        DataFormat format = workbook.createDataFormat();
+        Font bold = workbook.createFont();
+        bold.setBold(true);
+
+        styles.put(Style.GENERAL, null);
+        CellStyle header = workbook.createCellStyle();
+        header.setFont(bold);
+        styles.put(Style.HEADER, header);
+        styles.put(Style.INTEGER, style(format, "0"));
+        styles.put(Style.MONEY, style(format, "#,##0.00"));
+        styles.put(Style.PERCENT, style(format, "0.00\"%\""));
+        styles.put(Style.SCIENTIFIC, style(format, "0.#####E+00"));
+    }
+
+    private CellStyle style(DataFormat format, String pattern) {
+        CellStyle style = workbook.createCellStyle();
+        style.setDataFormat(format.getFormat(pattern));
+        return style;
+    }
+
+    @Override
+    public ExcelSheetWriter row() {
+        if (sheetRowNum == maxSheetRows) {
+            startSheet();
+        }
+        nextRow();
+        dataRows++;
+        return this;
+    }
+
+    private void nextRow() {
+        row = sheet.createRow(sheetRowNum++);
+        rowNum++;
+        column = 0;
+    }
+
+    @Override
+    public ExcelSheetWriter text(String value) {
+        return text(value, Style.GENERAL);
+    }
+
+    /**
+     * Текстовая ячейка; null записывается пустой строкой
+     */
+    @Override
+    public ExcelSheetWriter text(String value, Style style) {
+        String text = value != null ? value : "";
+        Cell cell = next(style);
+        cell.setCellValue(text);
+        sample(text.length());
+        column++;
+        return this;
+    }
+
+    @Override
+    public ExcelSheetWriter number(double value) {
+        return number(value, Style.GENERAL);
+    }
+
+    @Override
+    public ExcelSheetWriter number(double value, Style style) {
+        Cell cell = next(style);
+        cell.setCellValue(value);
+        if (rowNum <= SAMPLE_ROWS) {
+            // Оценка длины отображаемого числа: целая часть с разделителями и два знака после запятой
+            long whole = (long) Math.abs(value);
+            int digits = whole == 0 ? 1 : (int) Math.log10(whole) + 1;
+            sample(digits + digits / 3 + (style == Style.INTEGER ? 0 : 3) + (value < 0 ? 1 : 0));
+        }
+        column++;
+        return this;
+    }
+
+    @Override
+    public ExcelSheetWriter skip() {
+        column++;
+        return this;
+    }
+
+    private Cell next(Style style) {
+        Cell cell = row.createCell(column);
+        CellStyle cellStyle = styles.get(style);
+        if (cellStyle != null) {
+            cell.setCellStyle(cellStyle);
+        }
+        return cell;
+    }
+
+    private void sample(int length) {
+        if (rowNum <= SAMPLE_ROWS && column < widths.length && length > widths[column]) {
+            widths[column] = length;
+        }
+    }
+
+    /**
+     * Задать ширину колонок по собранным длинам и записать книгу в поток
+     */
+    @Override
+    public void finish() throws IOException {
+        for (int i = 0; i < widths.length; i++) {
+            int chars = Math.max(MIN_WIDTH, Math.min(widths[i], MAX_WIDTH)) + 2;
+            for (SXSSFSheet target : sheets) {
+                target.setColumnWidth(i, chars * 256);
+            }
+        }
+        workbook.write(out);
+    }
+
+    @Override
+    public int dataRows() {
+        return dataRows;
+    }
+
+    @Override
+    public void close() throws IOException {
+        workbook.dispose();
+        workbook.close();
+    }
+}
@@ -0,0 +1,72 @@
+package org.example.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+
+/**
+ * Формат файла выгрузки. Выбирается параметром format (xlsx, csv, tsv), а без него — по заголовку
+ * Accept; по умолчанию Excel.
+ */
+public enum ExportFormat {
+    XLSX(ExcelSheetWriter.CONTENT_TYPE, "xlsx"),
+    CSV("text/csv;charset=UTF-8", "csv"),
+    TSV("text/tab-separated-values;charset=UTF-8", "tsv");
+
+    private final String contentType;
+    private final String extension;
+
+    ExportFormat(String contentType, String extension) {
+        this.contentType = contentType;
+        this.extension = extension;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public boolean isText() {
+        return this != XLSX;
+    }
+
+    /**
+     * Формат по параметру запроса или заголовку Accept; неизвестный параметр — IllegalArgumentException
+     */
+    public static ExportFormat resolve(String format, String accept) {
+        return resolve(format, accept, XLSX);
+    }
+
+    /**
+     * Формат по параметру запроса или заголовку Accept, без них — fallback
+     */
+    public static ExportFormat resolve(String format, String accept, ExportFormat fallback) {
+        if (format != null && !format.isBlank()) {
+            for (ExportFormat value : values()) {
+                if (value.extension.equals(format.trim().toLowerCase(Locale.ROOT))) return value;
+            }
+            throw new IllegalArgumentException("Неизвестный формат выгрузки: " + format + " (xlsx, csv, tsv)");
+        }
+        if (accept != null) {
+            String lower = accept.toLowerCase(Locale.ROOT);
+            if (lower.contains("text/csv")) return CSV;
+            if (lower.contains("text/tab-separated-values")) return TSV;
+        }
+        return fallback;
+    }
+
+    /**
+     * Открыть запись таблицы в поток; bom — признак порядка байтов UTF-8 в начале текстового файла,
+     * по которому Excel распознаёт кириллицу
+     */
+    public TableWriter open(OutputStream out, boolean bom, String sheetName, String... headers) throws IOException {
+        return switch (this) {
+            case XLSX -> new ExcelSheetWriter(out, sheetName, headers);
+            case CSV -> new DelimitedTableWriter(out, ',', bom, headers);
+            case TSV -> new DelimitedTableWriter(out, '\t', bom, headers);
+        };
+    }
+}
@@ -0,0 +1,121 @@
+package org.example.util;
+
+import java.util.Arrays;
+
+/**
+ * Хеш-таблица long -> int с открытой адресацией без упаковки ключей и значений в объекты.
+ * Отрицательные значения не поддерживаются: get возвращает -1 для отсутствующего ключа.
+ */
+public final class LongIntHashMap {
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] keys;
+    // значение + 1, 0 означает пустую ячейку
+    private int[] values;
+    private int size;
+    private int threshold;
+
+    public LongIntHashMap() {
+        this(16);
+    }
+
+    public LongIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    public int get(long key) {
+        int mask = keys.length - 1;
+        for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+            if (values[i] == 0) return -1;
+            if (keys[i] == key) return values[i] - 1;
+        }
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) >= 0;
+    }
+
+    /**
+     * Записать значение; возвращает предыдущее значение или -1
+     */
+    public int put(long key, int value) {
+        if (value < 0) throw new IllegalArgumentException("Отрицательное значение: " + value);
+        int mask = keys.length - 1;
+        for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+            if (values[i] == 0) {
+                keys[i] = key;
+                values[i] = value + 1;
+                if (++size > threshold) rehash();
+                return -1;
+            }
+            if (keys[i] == key) {
+                int previous = values[i] - 1;
+                values[i] = value + 1;
+                return previous;
+            }
+        }
+    }
+
+    /**
+     * Записать значение, только если ключа ещё нет; возвращает true, если ключ добавлен
+     */
+    public boolean putIfAbsent(long key, int value) {
+        if (containsKey(key)) return false;
+        put(key, value);
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Удалить все пары, сохранив ёмкость таблицы
+     */
+    public void clear() {
+        if (size == 0) return;
+        Arrays.fill(values, 0);
+        size = 0;
+    }
+
+    /**
+     * Обойти все пары ключ-значение без создания объектов
+     */
+    public void forEach(EntryConsumer consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] != 0) consumer.accept(keys[i], values[i] - 1);
+        }
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(long key, int value);
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(oldKeys.length * 2);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != 0) put(oldKeys[i], oldValues[i] - 1);
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,65 @@
+package org.example.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Построчная запись таблицы выгрузки независимо от формата файла. Первая строка — заголовки,
+ * переданные при открытии; ячейки строки заполняются слева направо.
+ */
+public interface TableWriter extends Closeable {
+
+    /**
+     * Вид значения ячейки: в Excel — стиль с форматом числа, в текстовых форматах — запись числа
+     */
+    enum Style {
+        GENERAL, HEADER, INTEGER, MONEY, PERCENT, SCIENTIFIC
+    }
+
+    /**
+     * Запись строки таблицы по элементу источника
+     */
+    @FunctionalInterface
+    interface RowRenderer<T> {
+        void render(T item, TableWriter writer);
+    }
+
+    /**
+     * Начать следующую строку
+     */
+    TableWriter row();
+
+    TableWriter text(String value);
+
+    TableWriter text(String value, Style style);
+
+    TableWriter number(double value);
+
+    TableWriter number(double value, Style style);
+
+    /**
+     * Пропустить ячейку
+     */
+    TableWriter skip();
+
+    /**
+     * Строки из источника, по одной на элемент
+     */
+    default <T> TableWriter rows(Iterable<? extends T> items, RowRenderer<T> renderer) {
+        for (T item : items) {
+            row();
+            renderer.render(item, this);
+        }
+        return this;
+    }
+
+    /**
+     * Число строк данных без заголовка
+     */
+    int dataRows();
+
+    /**
+     * Дописать таблицу в поток; поток не закрывается
+     */
+    void finish() throws IOException;
+}
@@ -0,0 +1,131 @@
+package org.example.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.service.CatalogVersionService;
+import org.example.support.PostgresIntegrationTest;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Выгрузка изменений каталога с версии since: вставки и отметки удаления в порядке версий,
+ * заголовок X-Catalog-Version для следующего запроса и ответ 410, когда отметки удаления
+ * после since уже удалены по сроку хранения
+ */
+class CatalogChangesIntegrationTest extends PostgresIntegrationTest {
+
+    @Autowired
+    private DataController dataController;
+
+    @Autowired
+    private CatalogVersionService catalogVersionService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private long supplierId;
+
+    @BeforeEach
+    void fillCatalog() {
+        jdbcTemplate.execute("TRUNCATE products, product_tombstones, supplier_uploads, suppliers CASCADE");
+        supplierId = jdbcTemplate.queryForObject(
+                "INSERT INTO suppliers (supplier_name) VALUES ('ООО \"Поставщик\"') RETURNING id", Long.class);
+    }
+
+    @Test
+    void returnsChangesAfterSinceInVersionOrder() throws Exception {
+        long before = catalogVersionService.highWaterMark();
+        insertProduct("4600000000001", catalogVersionService.bump());
+        insertTombstone("4600000000002", catalogVersionService.bump(), "now()");
+
+        MockHttpServletResponse response = changes(before);
+
+        assertEquals(HttpStatus.OK.value(), response.getStatus());
+        List<JsonNode> rows = ndjson(response);
+        assertEquals(2, rows.size());
+        assertEquals("4600000000001", rows.get(0).get("barcode").asText());
+        assertFalse(rows.get(0).get("deleted").asBoolean());
+        assertEquals(150.0, rows.get(0).get("priceWithVat").asDouble());
+        assertEquals("4600000000002", rows.get(1).get("barcode").asText());
+        assertTrue(rows.get(1).get("deleted").asBoolean());
+        assertFalse(rows.get(1).has("productName"));
+
+        // Следующий запрос с версии из заголовка изменений уже не получает
+        long next = Long.parseLong(response.getHeader("X-Catalog-Version"));
+        assertTrue(next >= rows.get(1).get("version").asLong());
+        assertTrue(ndjson(changes(next)).isEmpty());
+    }
+
+    @Test
+    void sinceBelowHorizonIsGone() throws Exception {
+        long before = catalogVersionService.highWaterMark();
+        long expired = catalogVersionService.bump();
+        insertTombstone("4600000000003", expired, "'2000-01-01'");
+        long kept = catalogVersionService.bump();
+        insertProduct("4600000000004", kept);
+
+        catalogVersionService.purgeTombstones();
+
+        assertEquals(expired, catalogVersionService.horizon());
+        MockHttpServletResponse gone = changes(before);
+        assertEquals(HttpStatus.GONE.value(), gone.getStatus());
+        JsonNode error = objectMapper.readTree(gone.getContentAsString());
+        assertTrue(error.get("error").asText().contains(String.valueOf(expired)), error.toString());
+
+        // С горизонта выгрузка снова полна: удалённая отметка не нужна
+        MockHttpServletResponse fromHorizon = changes(expired);
+        assertEquals(HttpStatus.OK.value(), fromHorizon.getStatus());
+        List<JsonNode> rows = ndjson(fromHorizon);
+        assertEquals(1, rows.size());
+        assertEquals(kept, rows.get(0).get("version").asLong());
+    }
+
+    @Test
+    void negativeSinceIsBadRequest() throws Exception {
+        assertEquals(HttpStatus.BAD_REQUEST.value(), changes(-1).getStatus());
+    }
+
+    private MockHttpServletResponse changes(long since) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/data/download-database/changes");
+        request.setParameter("since", String.valueOf(since));
+        request.setParameter("format", "ndjson");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        dataController.downloadDatabaseChanges(since, request, response);
+        return response;
+    }
+
+    private List<JsonNode> ndjson(MockHttpServletResponse response) throws Exception {
+        List<JsonNode> rows = new ArrayList<>();
+        for (String line : response.getContentAsString().split("\n")) {
+            if (!line.isBlank()) {
+                rows.add(objectMapper.readTree(line));
+            }
+        }
+        return rows;
+    }
+
+    private void insertProduct(String barcode, long version) {
+        jdbcTemplate.update("INSERT INTO products (supplier_id, barcode, product_name, price_with_vat, change_version) "
+                + "VALUES (?, ?, 'Товар', 150.0, ?)", supplierId, barcode, version);
+    }
+
+    private void insertTombstone(String barcode, long version, String createdAt) {
+        jdbcTemplate.update("INSERT INTO product_tombstones (supplier_id, barcode, change_version, created_at) "
+                + "VALUES (?, ?, ?, " + createdAt + ")", supplierId, barcode, version);
+    }
+}
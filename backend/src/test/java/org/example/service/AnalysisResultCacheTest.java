@@ -0,0 +1,118 @@
+package org.example.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Кэш анализа: вытеснение давно не использованных записей по числу и весу, сброс результатов
+ * прошлых версий каталога и счётчики метрик
+ */
+class AnalysisResultCacheTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void evictsLeastRecentlyUsedBeyondMaxEntries() {
+        AnalysisResultCache cache = new AnalysisResultCache(meterRegistry, 2, 1);
+        cache.put("a", 1, analysis("[1]"));
+        cache.put("b", 1, analysis("[2]"));
+        assertNotNull(cache.get("a", 1));
+
+        cache.put("c", 1, analysis("[3]"));
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get("b", 1));
+        assertNotNull(cache.get("a", 1));
+        assertNotNull(cache.get("c", 1));
+        assertEquals(1.0, meterRegistry.get("analysis.cache.evictions").functionCounter().count());
+    }
+
+    @Test
+    void evictsByWeight() {
+        AnalysisResultCache cache = new AnalysisResultCache(meterRegistry, 100, 1);
+        // ~400 КБ каждая: в мегабайт помещаются две
+        String json = "x".repeat(200_000);
+        cache.put("a", 1, analysis(json));
+        cache.put("b", 1, analysis(json));
+        cache.put("c", 1, analysis(json));
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get("a", 1));
+        assertEquals(2 * analysis(json).weight(), cache.weight());
+    }
+
+    @Test
+    void entryHeavierThanLimitIsNotCached() {
+        AnalysisResultCache cache = new AnalysisResultCache(meterRegistry, 100, 1);
+        cache.put("small", 1, analysis("[]"));
+
+        cache.put("huge", 1, analysis("x".repeat(600_000)));
+
+        assertNull(cache.get("huge", 1));
+        assertNotNull(cache.get("small", 1));
+    }
+
+    @Test
+    void newerCatalogVersionDropsOlderResults() {
+        AnalysisResultCache cache = new AnalysisResultCache(meterRegistry, 100, 1);
+        cache.put("a", 1, analysis("[1]"));
+        cache.put("b", 1, analysis("[2]"));
+
+        assertNull(cache.get("a", 2));
+
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.weight());
+        assertEquals(2.0, meterRegistry.get("analysis.cache.evictions").functionCounter().count());
+    }
+
+    @Test
+    void resultOfOlderVersionIsNotStored() {
+        AnalysisResultCache cache = new AnalysisResultCache(meterRegistry, 100, 1);
+        cache.put("a", 2, analysis("[2]"));
+
+        // Анализ начался до загрузки поставщиков и закончился после
+        cache.put("a", 1, analysis("[1]"));
+
+        assertEquals(1, cache.size());
+        assertNull(cache.get("a", 1));
+        assertEquals("[2]", cache.get("a", 2).responseJson());
+    }
+
+    @Test
+    void replacingEntryKeepsWeightConsistent() {
+        AnalysisResultCache cache = new AnalysisResultCache(meterRegistry, 100, 1);
+        AnalysisResultCache.CachedAnalysis second = analysis("[1, 2, 3]");
+        cache.put("a", 1, analysis("[1]"));
+
+        cache.put("a", 1, second);
+
+        assertEquals(1, cache.size());
+        assertEquals(second.weight(), cache.weight());
+        assertSame(second, cache.get("a", 1));
+    }
+
+    @Test
+    void countsHitsAndMisses() {
+        AnalysisResultCache cache = new AnalysisResultCache(meterRegistry, 100, 1);
+        cache.put("a", 1, analysis("[]"));
+
+        cache.get("a", 1);
+        cache.get("a", 1);
+        cache.get("b", 1);
+
+        assertEquals(2.0, meterRegistry.get("analysis.cache.requests").tag("result", "hit").functionCounter().count());
+        assertEquals(1.0, meterRegistry.get("analysis.cache.requests").tag("result", "miss").functionCounter().count());
+    }
+
+    private static AnalysisResultCache.CachedAnalysis analysis(String json) {
+        return new AnalysisResultCache.CachedAnalysis(json, 1, List.of(Map.of("column_0", "4600000000001")));
+    }
+}
@@ -0,0 +1,70 @@
+package org.example.service;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Случайные корзины для тестов и бенчмарков разбиения: у каждой строки несколько поставщиков
+ * с разбросом цен, у поставщиков — минимальная сумма заказа и доставка
+ */
+final class BasketInstances {
+
+    private BasketInstances() {
+    }
+
+    record Instance(int[] offerStart, int[] offerSupplier, double[] offerCost, double[] minOrder, double[] deliveryFee) {
+
+        BasketOptimizer optimizer() {
+            return new BasketOptimizer(offerStart, offerSupplier, offerCost, minOrder, deliveryFee);
+        }
+
+        int lineCount() {
+            return offerStart.length - 1;
+        }
+    }
+
+    static Instance random(long seed, int lines, int suppliers, int offersPerLine,
+                                  double maxMinOrder, double maxDeliveryFee) {
+        Random random = new Random(seed);
+        int[] offerStart = new int[lines + 1];
+        int[] offerSupplier = new int[lines * offersPerLine];
+        double[] offerCost = new double[lines * offersPerLine];
+        int position = 0;
+        int[] candidates = new int[suppliers];
+        for (int line = 0; line < lines; line++) {
+            for (int s = 0; s < suppliers; s++) {
+                candidates[s] = s;
+            }
+            double basePrice = 20 + random.nextDouble() * 500;
+            int quantity = 1 + random.nextInt(10);
+            int count = 1 + random.nextInt(offersPerLine);
+            long[] keyed = new long[count];
+            double[] costs = new double[count];
+            for (int k = 0; k < count; k++) {
+                int pick = k + random.nextInt(suppliers - k);
+                int supplier = candidates[pick];
+                candidates[pick] = candidates[k];
+                candidates[k] = supplier;
+                costs[k] = Math.round(basePrice * (0.8 + random.nextDouble() * 0.5) * quantity * 100) / 100.0;
+                keyed[k] = k;
+            }
+            // Предложения строки по возрастанию стоимости, как их отдаёт индекс лучших цен
+            Long[] order = Arrays.stream(keyed).boxed().toArray(Long[]::new);
+            Arrays.sort(order, (a, b) -> Double.compare(costs[a.intValue()], costs[b.intValue()]));
+            for (Long k : order) {
+                offerSupplier[position] = candidates[k.intValue()];
+                offerCost[position] = costs[k.intValue()];
+                position++;
+            }
+            offerStart[line + 1] = position;
+        }
+        double[] minOrder = new double[suppliers];
+        double[] deliveryFee = new double[suppliers];
+        for (int s = 0; s < suppliers; s++) {
+            minOrder[s] = Math.round(random.nextDouble() * maxMinOrder);
+            deliveryFee[s] = Math.round(random.nextDouble() * maxDeliveryFee);
+        }
+        return new Instance(offerStart, Arrays.copyOf(offerSupplier, position),
+                Arrays.copyOf(offerCost, position), minOrder, deliveryFee);
+    }
+}
@@ -0,0 +1,67 @@
+package org.example.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Время разбиения корзины 5000 строк на 50 поставщиков: эвристика без перебора и перебор
+ * до срока analysis.basket.time-budget-ms. Запуск после mvn test-compile:
+ * <pre>
+ * mvn dependency:build-classpath -Dmdep.includeScope=test -Dmdep.outputFile=target/test-classpath.txt
+ * java -cp target/test-classes:target/classes:$(cat target/test-classpath.txt) org.openjdk.jmh.Main BasketOptimizerBenchmark
+ * </pre>
+ * Бюджет времени в тестах проверяет {@link BasketOptimizerTest}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BasketOptimizerBenchmark {
+
+    @Param({"5000"})
+    int lines;
+
+    @Param({"50"})
+    int suppliers;
+
+    // Предложений на строку не больше; у поставщиков минимальная сумма до 20 000 и доставка до 800
+    @Param({"12"})
+    int offersPerLine;
+
+    @Param({"500"})
+    long budgetMs;
+
+    private BasketInstances.Instance instance;
+
+    @Setup
+    public void setUp() {
+        instance = BasketInstances.random(42, lines, suppliers, offersPerLine, 20_000, 800);
+    }
+
+    @Benchmark
+    public BasketOptimizer.Solution heuristic() {
+        return instance.optimizer().optimize(deadline(), false);
+    }
+
+    @Benchmark
+    public BasketOptimizer.Solution exact() {
+        return instance.optimizer().optimize(deadline(), true);
+    }
+
+    private long deadline() {
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMs);
+    }
+}
@@ -0,0 +1,105 @@
+package org.example.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BasketOptimizerTest {
+
+    private static final double EPSILON = 1e-6;
+
+    // Бюджет времени по умолчанию (analysis.basket.time-budget-ms) и запас на сборку мусора и JIT
+    private static final long BUDGET_MS = 500;
+    private static final long BUDGET_SLACK_MS = 250;
+
+    @Test
+    void completedSearchMatchesBruteForce() {
+        int exhaustive = 0;
+        for (long seed = 1; seed <= 200; seed++) {
+            BasketInstances.Instance instance = BasketInstances.random(seed, 8, 4, 4, 4000, 150);
+            BasketOptimizer optimizer = instance.optimizer();
+            double optimum = bruteForce(instance, optimizer);
+
+            BasketOptimizer.Solution solution = optimizer.optimize(deadlineIn(5_000), true);
+
+            assertEquals(solution.totalCost(), optimizer.totalCost(solution.assignment()), EPSILON);
+            assertTrue(solution.totalCost() >= optimum - EPSILON, "seed " + seed);
+            assertFeasible(optimizer, solution.assignment(), "seed " + seed);
+            if (solution.exhaustive()) {
+                assertEquals(optimum, solution.totalCost(), EPSILON, "seed " + seed);
+                exhaustive++;
+            }
+        }
+        assertTrue(exhaustive >= 80, "перебор доказал оптимум только в " + exhaustive + " корзинах из 200");
+    }
+
+    @Test
+    void heuristicFitsLatencyBudgetOnLargeBasket() {
+        BasketInstances.Instance instance = BasketInstances.random(42, 5_000, 50, 12, 20_000, 800);
+        BasketOptimizer optimizer = instance.optimizer();
+        optimizer.optimize(deadlineIn(BUDGET_MS), false);
+
+        long start = System.nanoTime();
+        BasketOptimizer.Solution solution = optimizer.optimize(deadlineIn(BUDGET_MS), false);
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue(elapsedMs <= BUDGET_MS + BUDGET_SLACK_MS, "эвристика заняла " + elapsedMs + " мс");
+        assertFeasible(optimizer, solution.assignment(), "эвристика");
+        assertTrue(solution.totalCost() < BasketOptimizer.UNASSIGNED_PENALTY);
+    }
+
+    @Test
+    void exactSearchStopsAtDeadlineOnLargeBasket() {
+        BasketInstances.Instance instance = BasketInstances.random(7, 5_000, 50, 12, 20_000, 800);
+        BasketOptimizer optimizer = instance.optimizer();
+        BasketOptimizer.Solution heuristic = optimizer.optimize(deadlineIn(BUDGET_MS), false);
+
+        long start = System.nanoTime();
+        BasketOptimizer.Solution solution = optimizer.optimize(deadlineIn(BUDGET_MS), true);
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue(elapsedMs <= BUDGET_MS + BUDGET_SLACK_MS, "перебор занял " + elapsedMs + " мс");
+        assertFeasible(optimizer, solution.assignment(), "перебор");
+        assertTrue(solution.totalCost() <= heuristic.totalCost() + EPSILON);
+    }
+
+    private static long deadlineIn(long ms) {
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ms);
+    }
+
+    private static void assertFeasible(BasketOptimizer optimizer, int[] assignment, String message) {
+        boolean[] below = optimizer.belowMinimum(assignment);
+        for (int s = 0; s < below.length; s++) {
+            assertFalse(below[s], message + ": поставщик " + s + " ниже минимальной суммы");
+        }
+    }
+
+    /**
+     * Полный перебор назначений строк; строка может остаться неразмещённой
+     */
+    private static double bruteForce(BasketInstances.Instance instance, BasketOptimizer optimizer) {
+        int lines = instance.lineCount();
+        int[] assignment = new int[lines];
+        return bruteForce(instance, optimizer, assignment, 0);
+    }
+
+    private static double bruteForce(BasketInstances.Instance instance, BasketOptimizer optimizer,
+                                     int[] assignment, int line) {
+        if (line == assignment.length) {
+            for (boolean violated : optimizer.belowMinimum(assignment)) {
+                if (violated) return Double.MAX_VALUE;
+            }
+            return optimizer.totalCost(assignment);
+        }
+        double best = Double.MAX_VALUE;
+        for (int offer = instance.offerStart()[line] - 1; offer < instance.offerStart()[line + 1]; offer++) {
+            assignment[line] = offer < instance.offerStart()[line] ? -1 : offer;
+            best = Math.min(best, bruteForce(instance, optimizer, assignment, line + 1));
+        }
+        return best;
+    }
+}
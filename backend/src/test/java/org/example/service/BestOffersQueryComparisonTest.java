@@ -0,0 +1,165 @@
+package org.example.service;
+
+import jakarta.persistence.EntityManager;
+import org.example.dto.BestOfferDto;
+import org.example.entity.Product;
+import org.example.repository.ProductBulkRepository;
+import org.example.support.PostgresIntegrationTest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Сравнение запросов лучших предложений по штрихкодам заказа на каталоге из ~1,2 млн строк:
+ * прежний JPQL со списком IN и JOIN FETCH поставщика, из которого минимум выбирался в памяти,
+ * и findBestOffers — DISTINCT ON с одним параметром-массивом. Для 1 000, 10 000 и 50 000
+ * штрихкодов (10% из них нет в каталоге) печатается время каждого запуска; результаты обоих
+ * запросов сверяются. Запуск:
+ * <pre>
+ * TEST_DATABASE_URL=... mvn test -Dtest=BestOffersQueryComparisonTest -Dcomparison=true
+ * </pre>
+ */
+@EnabledIfSystemProperty(named = "comparison", matches = "true")
+class BestOffersQueryComparisonTest extends PostgresIntegrationTest {
+
+    private static final int CATALOG_BARCODES = 300_000;
+    private static final int SUPPLIERS = 100;
+    private static final int[] ORDER_SIZES = {1_000, 10_000, 50_000};
+    private static final int RUNS = 5;
+
+    // Запрос, который findBestOffers заменил
+    private static final String IN_LIST_QUERY =
+            "SELECT p FROM Product p JOIN FETCH p.supplier WHERE p.barcode IN :barcodes ORDER BY p.barcode, p.priceWithVat ASC";
+
+    @Autowired
+    private ProductBulkRepository productBulkRepository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @BeforeEach
+    void fillCatalog() {
+        cleanDatabase();
+        jdbcTemplate.update("""
+                INSERT INTO suppliers (supplier_name)
+                SELECT 'ООО "Поставщик ' || g || '"' FROM generate_series(1, ?) g""", SUPPLIERS);
+        // От 1 до 7 предложений на штрихкод, в среднем 4
+        jdbcTemplate.update("""
+                INSERT INTO products (supplier_id, barcode, product_name, price_with_vat, change_version)
+                SELECT s.id, (4600000000000 + b)::text, 'Товар ' || b, 100 + ((b * 7 + s.id * 13) % 1000) * 0.5, 1
+                FROM generate_series(1, ?) b
+                JOIN LATERAL (SELECT id FROM suppliers ORDER BY (id * 31 + b) % ? LIMIT 1 + b % 7) s ON true""",
+                CATALOG_BARCODES, SUPPLIERS);
+        jdbcTemplate.execute("VACUUM ANALYZE products");
+    }
+
+    @AfterEach
+    void cleanDatabase() {
+        jdbcTemplate.execute("TRUNCATE products, product_tombstones, supplier_uploads, suppliers CASCADE");
+    }
+
+    @Test
+    void compareInListWithDistinctOn() {
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.setReadOnly(true);
+        System.out.printf("%n%-12s %-8s %s%n", "query", "barcodes", "ms per run");
+        for (int size : ORDER_SIZES) {
+            List<String> barcodes = orderBarcodes(size);
+            long[] inList = new long[RUNS];
+            long[] distinctOn = new long[RUNS];
+            Map<String, Double> inListPrices = null;
+            Map<String, Double> distinctOnPrices = null;
+            String inListFailure = null;
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                try {
+                    inListPrices = transaction.execute(status -> inListBestPrices(barcodes));
+                    inList[run] = (System.nanoTime() - start) / 1_000_000;
+                } catch (RuntimeException e) {
+                    inListFailure = e.getClass().getSimpleName() + ": " + rootMessage(e);
+                    break;
+                }
+            }
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                distinctOnPrices = transaction.execute(status -> distinctOnBestPrices(barcodes));
+                distinctOn[run] = (System.nanoTime() - start) / 1_000_000;
+            }
+            System.out.printf("%-12s %-8d %s%n", "in-list", size,
+                    inListFailure != null ? "ошибка — " + inListFailure : Arrays.toString(inList));
+            System.out.printf("%-12s %-8d %s%n", "distinct-on", size, Arrays.toString(distinctOn));
+
+            if (inListPrices != null) {
+                assertEquals(inListPrices, distinctOnPrices);
+            }
+            assertEquals(size - size / 10, distinctOnPrices.size());
+        }
+    }
+
+    private Map<String, Double> inListBestPrices(List<String> barcodes) {
+        List<Product> products = entityManager.createQuery(IN_LIST_QUERY, Product.class)
+                .setParameter("barcodes", barcodes)
+                .getResultList();
+        Map<String, Double> prices = new HashMap<>();
+        for (Product product : products) {
+            if (product.getPriceWithVat() == null) continue;
+            prices.merge(product.getBarcode(), product.getPriceWithVat(), Math::min);
+        }
+        entityManager.clear();
+        return prices;
+    }
+
+    private Map<String, Double> distinctOnBestPrices(List<String> barcodes) {
+        Map<String, Double> prices = new HashMap<>();
+        try {
+            for (BestOfferDto offer : productBulkRepository.findBestOffers(barcodes)) {
+                prices.put(offer.getBarcode(), offer.getPriceWithVat());
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        return prices;
+    }
+
+    /**
+     * Штрихкоды заказа: 90% из каталога вразброс, 10% — отсутствующие
+     */
+    private static List<String> orderBarcodes(int size) {
+        Random random = new Random(size);
+        List<String> barcodes = new ArrayList<>(size);
+        int missing = size / 10;
+        for (int i = 0; i < size - missing; i++) {
+            barcodes.add(String.valueOf(4_600_000_000_000L + 1 + (i * (long) CATALOG_BARCODES / (size - missing) + random.nextInt(3))
+                    % CATALOG_BARCODES));
+        }
+        for (int i = 0; i < missing; i++) {
+            barcodes.add(String.valueOf(4_700_000_000_000L + i));
+        }
+        return barcodes;
+    }
+
+    private static String rootMessage(Throwable e) {
+        while (e.getCause() != null) e = e.getCause();
+        return e.getMessage();
+    }
+}
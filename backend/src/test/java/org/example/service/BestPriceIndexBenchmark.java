@@ -0,0 +1,153 @@
+package org.example.service;
+
+import org.example.entity.Client;
+import org.example.entity.Supplier;
+import org.example.repository.ProductBulkRepository;
+import org.example.repository.SupplierRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Поиск лучших цен для корзины из 10 000 строк в индексе каталога: без фильтра, с разрешённым
+ * и с запрещённым списком поставщиков, и все предложения строки (findOffers). Индекс строится
+ * из сгенерированного каталога через тот же поток предложений, что и из базы. После построения
+ * печатается занятая индексом куча (разница занятой кучи после сборки мусора) и оценка
+ * estimatedBytes из лога построения. Запуск после mvn test-compile:
+ * <pre>
+ * java -cp target/test-classes:target/classes:$(cat target/test-classpath.txt) org.openjdk.jmh.Main BestPriceIndexBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class BestPriceIndexBenchmark {
+
+    private static final int LINES = 10_000;
+
+    @Param({"200000", "1000000"})
+    int barcodes;
+
+    @Param({"100"})
+    int suppliers;
+
+    // Среднее число предложений на штрихкод
+    @Param({"4"})
+    int offersPerBarcode;
+
+    private BestPriceIndex index;
+    private List<String> lines;
+    private SupplierFilter allow;
+    private SupplierFilter deny;
+
+    @Setup
+    public void setUp() throws Exception {
+        ProductBulkRepository productBulkRepository = mock(ProductBulkRepository.class);
+        doAnswer(invocation -> {
+            ProductBulkRepository.BestOfferHandler handler = invocation.getArgument(0);
+            Random random = new Random(42);
+            for (int i = 0; i < barcodes; i++) {
+                String barcode = barcode(i);
+                int offers = 1 + random.nextInt(offersPerBarcode * 2 - 1);
+                double price = 50 + random.nextInt(5000) / 10.0;
+                for (int j = 0; j < offers; j++) {
+                    // Как в запросе: предложения штрихкода подряд, от меньшей цены к большей
+                    price += random.nextInt(100) / 10.0;
+                    handler.accept(barcode, 1 + random.nextInt(suppliers), price, "Товар " + i + " у поставщика " + j);
+                }
+            }
+            return null;
+        }).when(productBulkRepository).streamPricedOffers(any());
+
+        List<Supplier> supplierList = new ArrayList<>();
+        for (int id = 1; id <= suppliers; id++) {
+            supplierList.add(Supplier.builder().id(id).supplierName(supplierName(id)).build());
+        }
+        SupplierRepository supplierRepository = mock(SupplierRepository.class);
+        when(supplierRepository.findAll()).thenReturn(supplierList);
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+
+        long heapBefore = usedHeapAfterGc();
+        index = new BestPriceIndex(productBulkRepository, supplierRepository, transactionManager);
+        index.buildInBackground();
+        while (!index.isReady()) {
+            Thread.sleep(10);
+        }
+        long retained = usedHeapAfterGc() - heapBefore;
+        System.out.printf("%nИндекс: %d штрихкодов, удерживаемая куча %.1f МБ%n", barcodes, retained / 1048576.0);
+
+        // Строки корзины: 90% есть в каталоге, 10% — нет
+        Random random = new Random(7);
+        lines = new ArrayList<>(LINES);
+        for (int i = 0; i < LINES; i++) {
+            lines.add(random.nextInt(10) == 0 ? barcode(barcodes + i) : barcode(random.nextInt(barcodes)));
+        }
+        List<String> listed = new ArrayList<>();
+        for (int id = 1; id <= suppliers; id += 4) {
+            listed.add(supplierName(id));
+        }
+        allow = SupplierFilter.of(Client.SupplierFilterMode.ALLOW, listed);
+        deny = SupplierFilter.of(Client.SupplierFilterMode.DENY, listed);
+    }
+
+    @Benchmark
+    public BestPriceIndex.BestOffer[] findAll() {
+        return index.findAll(lines, SupplierFilter.NONE);
+    }
+
+    @Benchmark
+    public BestPriceIndex.BestOffer[] findAllAllowList() {
+        return index.findAll(lines, allow);
+    }
+
+    @Benchmark
+    public BestPriceIndex.BestOffer[] findAllDenyList() {
+        return index.findAll(lines, deny);
+    }
+
+    @Benchmark
+    public BestPriceIndex.Offers[] findOffers() {
+        return index.findOffers(lines, SupplierFilter.NONE);
+    }
+
+    private static String barcode(int i) {
+        return String.valueOf(4_600_000_000_000L + i);
+    }
+
+    private static String supplierName(int id) {
+        return "ООО \"Поставщик " + id + "\"";
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,152 @@
+package org.example.service;
+
+import org.example.dto.DetailedAnalysisResult;
+import org.example.dto.PriceAnalysisResult;
+import org.example.dto.SupplierOfferDto;
+import org.example.entity.Client;
+import org.example.repository.ProductBulkRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Отбор K самых дешёвых предложений ограниченной кучей: равные цены, K больше числа
+ * предложений, товары без цены, границы K и фильтр поставщиков
+ */
+class DetailedAnalysisServiceTest {
+
+    private static final String BARCODE = "4600000000001";
+
+    private final BestPriceIndex bestPriceIndex = mock(BestPriceIndex.class);
+    private final ProductBulkRepository productBulkRepository = mock(ProductBulkRepository.class);
+    private DetailedAnalysisService service;
+
+    @BeforeEach
+    void setUp() {
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        when(bestPriceIndex.supplierName(anyInt())).thenAnswer(invocation -> "Поставщик " + invocation.getArgument(0));
+        service = new DetailedAnalysisService(productBulkRepository, bestPriceIndex, transactionManager, 10);
+    }
+
+    @Test
+    void tiesKeepOffersSeenFirst() {
+        indexOffers(new int[]{1, 2, 3, 4}, new double[]{10, 10, 10, 12});
+
+        List<SupplierOfferDto> offers = analyze(2).get(0).getOffers();
+
+        assertEquals(List.of("Поставщик 1", "Поставщик 2"), offers.stream().map(SupplierOfferDto::getSupplierName).sorted().toList());
+        assertEquals(List.of(10.0, 10.0), offers.stream().map(SupplierOfferDto::getPriceWithVat).toList());
+    }
+
+    @Test
+    void cheaperOfferDisplacesMostExpensive() {
+        // Из индекса предложения приходят по цене, из базы — в любом порядке
+        indexOffers(new int[]{1, 2, 3, 4, 5}, new double[]{30, 20, 50, 10, 40});
+
+        List<SupplierOfferDto> offers = analyze(3).get(0).getOffers();
+
+        assertEquals(List.of(10.0, 20.0, 30.0), offers.stream().map(SupplierOfferDto::getPriceWithVat).toList());
+        assertEquals(List.of(0.0, 100.0, 200.0), offers.stream().map(SupplierOfferDto::getPercentOverBest).toList());
+    }
+
+    @Test
+    void kLargerThanOffersReturnsAllSorted() {
+        indexOffers(new int[]{1, 2, 3}, new double[]{15, 5, 10});
+
+        List<SupplierOfferDto> offers = analyze(50).get(0).getOffers();
+
+        assertEquals(List.of(5.0, 10.0, 15.0), offers.stream().map(SupplierOfferDto::getPriceWithVat).toList());
+    }
+
+    @Test
+    void kIsClampedToAtLeastOne() {
+        indexOffers(new int[]{1, 2}, new double[]{7, 3});
+
+        List<SupplierOfferDto> offers = analyze(0).get(0).getOffers();
+
+        assertEquals(1, offers.size());
+        assertEquals(3.0, offers.get(0).getPriceWithVat());
+    }
+
+    @Test
+    void productsWithoutPriceAreFoundButNotSelected() throws Exception {
+        when(bestPriceIndex.isReady()).thenReturn(false);
+        doAnswer(invocation -> {
+            ProductBulkRepository.OfferHandler handler = invocation.getArgument(1);
+            handler.accept(BARCODE, 1, "Поставщик 1", null, "Без цены");
+            handler.accept(BARCODE, 2, "Поставщик 2", 8.0, "Товар");
+            handler.accept("4600000000002", 1, "Поставщик 1", null, "Только без цены");
+            return null;
+        }).when(productBulkRepository).streamOffers(any(), any());
+
+        List<DetailedAnalysisResult> detailed = service.analyze(
+                List.of(result(BARCODE, false), result("4600000000002", false)), 5, SupplierFilter.NONE);
+
+        assertEquals(1, detailed.get(0).getOffers().size());
+        assertEquals("Поставщик 2", detailed.get(0).getOffers().get(0).getSupplierName());
+        assertTrue(detailed.get(1).isFoundInDatabase());
+        assertTrue(detailed.get(1).getOffers().isEmpty());
+    }
+
+    @Test
+    void deniedSuppliersAreSkippedInDatabasePath() throws Exception {
+        when(bestPriceIndex.isReady()).thenReturn(false);
+        doAnswer(invocation -> {
+            ProductBulkRepository.OfferHandler handler = invocation.getArgument(1);
+            handler.accept(BARCODE, 1, "Поставщик 1", 5.0, "Товар");
+            handler.accept(BARCODE, 2, "Поставщик 2", 8.0, "Товар");
+            return null;
+        }).when(productBulkRepository).streamOffers(any(), any());
+        SupplierFilter deny = SupplierFilter.of(Client.SupplierFilterMode.DENY, List.of("Поставщик 1"));
+
+        List<SupplierOfferDto> offers = service.analyze(List.of(result(BARCODE, false)), 5, deny).get(0).getOffers();
+
+        assertEquals(List.of("Поставщик 2"), offers.stream().map(SupplierOfferDto::getSupplierName).toList());
+    }
+
+    @Test
+    void manualProcessingLinesAreNotLookedUp() {
+        when(bestPriceIndex.isReady()).thenReturn(true);
+        when(bestPriceIndex.findOffers(any(), any())).thenReturn(new BestPriceIndex.Offers[0]);
+
+        DetailedAnalysisResult detailed = service.analyze(List.of(result(BARCODE, true)), 5, SupplierFilter.NONE).get(0);
+
+        assertFalse(detailed.isFoundInDatabase());
+        assertTrue(detailed.getOffers().isEmpty());
+        verify(bestPriceIndex, never()).contains(anyString());
+    }
+
+    private void indexOffers(int[] supplierIds, double[] prices) {
+        String[] names = new String[supplierIds.length];
+        Arrays.fill(names, "Товар");
+        when(bestPriceIndex.isReady()).thenReturn(true);
+        when(bestPriceIndex.findOffers(eq(List.of(BARCODE)), any()))
+                .thenReturn(new BestPriceIndex.Offers[]{new BestPriceIndex.Offers(supplierIds, prices, names)});
+    }
+
+    private List<DetailedAnalysisResult> analyze(int topK) {
+        return service.analyze(List.of(result(BARCODE, false)), topK, SupplierFilter.NONE);
+    }
+
+    private static PriceAnalysisResult result(String barcode, boolean manual) {
+        return PriceAnalysisResult.builder().barcode(barcode).quantity(1).requiresManualProcessing(manual).build();
+    }
+}
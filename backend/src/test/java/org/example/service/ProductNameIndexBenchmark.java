@@ -0,0 +1,144 @@
+package org.example.service;
+
+import org.example.repository.ProductBulkRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Время подбора похожих товаров для одной строки заказа в индексе триграмм из сгенерированного
+ * каталога: наименование из названия препарата, формы, дозировки и фасовки, как в прайсах поставщиков.
+ * Запросы — наименования каталога с опечаткой и сокращением формы, каждый десятый — товар, которого
+ * в каталоге нет. Режим SampleTime печатает перцентили времени одного вызова. Запуск после mvn test-compile:
+ * <pre>
+ * java -cp target/test-classes:target/classes:$(cat target/test-classpath.txt) org.openjdk.jmh.Main ProductNameIndexBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx3g")
+public class ProductNameIndexBenchmark {
+
+    private static final String CONSONANTS = "бвгдзклмнпрстфхцчш";
+    private static final String VOWELS = "аеиоуыэя";
+    private static final String[] FORMS = {"таблетки", "таблетки п/о", "капсулы", "раствор для инъекций",
+            "сироп", "мазь", "гель", "капли глазные", "суспензия", "порошок"};
+    private static final String[] UNITS = {"мг", "мл", "г", "%"};
+    private static final int QUERIES = 1024;
+
+    @Param({"1000000", "3000000"})
+    int products;
+
+    private ProductNameIndex index;
+    private String[] queries;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        ProductBulkRepository productBulkRepository = mock(ProductBulkRepository.class);
+        doAnswer(invocation -> {
+            ProductBulkRepository.ProductNameHandler handler = invocation.getArgument(0);
+            Random random = new Random(42);
+            for (int i = 0; i < products; i++) {
+                handler.accept(String.valueOf(4_600_000_000_000L + i), productName(random));
+            }
+            return null;
+        }).when(productBulkRepository).streamProductNames(any());
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+
+        index = new ProductNameIndex(productBulkRepository, transactionManager, true, 0.4);
+        index.buildInBackground();
+        while (!index.isReady()) {
+            Thread.sleep(100);
+        }
+
+        // Запросы с опечаткой — наименования начала каталога: генератор с тем же зерном
+        Random catalog = new Random(42);
+        Random random = new Random(7);
+        queries = new String[QUERIES];
+        String[] expected = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            String name = productName(catalog);
+            if (i % 10 == 0) {
+                queries[i] = productName(random) + " " + word(random);
+            } else {
+                queries[i] = misspell(name, random);
+                expected[i] = String.valueOf(4_600_000_000_000L + i);
+            }
+        }
+        int misspelled = 0;
+        int matched = 0;
+        int first = 0;
+        for (int i = 0; i < QUERIES; i++) {
+            String barcode = expected[i];
+            if (barcode == null) continue;
+            List<ProductNameIndex.Candidate> candidates = index.findSimilar(queries[i], 5);
+            misspelled++;
+            if (candidates.stream().anyMatch(candidate -> candidate.barcode().equals(barcode))) matched++;
+            if (!candidates.isEmpty() && candidates.get(0).barcode().equals(barcode)) first++;
+        }
+        System.out.printf("%nИндекс: %d товаров; исходный товар среди 5 кандидатов в %d из %d запросов с опечаткой, первым — в %d%n",
+                products, matched, misspelled, first);
+    }
+
+    @Benchmark
+    public List<ProductNameIndex.Candidate> findSimilar() {
+        String query = queries[next++ & (QUERIES - 1)];
+        return index.findSimilar(query, 5);
+    }
+
+    private static String productName(Random random) {
+        return word(random) + " " + FORMS[random.nextInt(FORMS.length)] + " "
+                + (5 * (1 + random.nextInt(200))) + " " + UNITS[random.nextInt(UNITS.length)]
+                + " №" + (10 * (1 + random.nextInt(10)));
+    }
+
+    /**
+     * Торговое название из 2–4 случайных слогов «согласная + гласная»
+     */
+    private static String word(Random random) {
+        StringBuilder word = new StringBuilder();
+        for (int i = 0, length = 2 + random.nextInt(3); i < length; i++) {
+            word.append(CONSONANTS.charAt(random.nextInt(CONSONANTS.length())))
+                    .append(VOWELS.charAt(random.nextInt(VOWELS.length())));
+        }
+        if (random.nextBoolean()) {
+            word.append(CONSONANTS.charAt(random.nextInt(CONSONANTS.length())));
+        }
+        word.setCharAt(0, Character.toUpperCase(word.charAt(0)));
+        return word.toString();
+    }
+
+    /**
+     * Опечатка в названии (пропущенная буква) и сокращённая форма: «таблетки» -> «табл.»
+     */
+    private static String misspell(String name, Random random) {
+        int space = name.indexOf(' ');
+        int drop = 1 + random.nextInt(space - 1);
+        String typo = name.substring(0, drop) + name.substring(drop + 1);
+        return typo.replace("таблетки", "табл.").replace("капсулы", "капс.");
+    }
+}
@@ -0,0 +1,148 @@
+package org.example.service;
+
+import org.example.repository.ProductBulkRepository;
+import org.example.util.BarcodeKeys;
+import org.example.util.LongIntHashMap;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Подбор похожих товаров по триграммам наименования: порядок по сходству, нормализация,
+ * порог сходства, пустые и короткие запросы и обновление изменённых штрихкодов
+ */
+class ProductNameIndexTest {
+
+    // Наименования товаров «в базе»: из них строится и обновляется индекс
+    private final Map<String, String> catalog = new HashMap<>(Map.of(
+            "4600000000001", "Аспирин таблетки 500 мг №10",
+            "4600000000002", "Аспирин Кардио таблетки 100 мг №28",
+            "4600000000003", "Парацетамол таблетки 500 мг №10",
+            "4600000000004", "Ёжик в тумане, книга",
+            "ART-7", "Бинт стерильный 7м х 14см"));
+
+    private final ProductBulkRepository productBulkRepository = mock(ProductBulkRepository.class);
+
+    @Test
+    void ranksCandidatesBySimilarity() throws Exception {
+        ProductNameIndex index = buildIndex(0.3);
+
+        List<ProductNameIndex.Candidate> candidates = index.findSimilar("аспирин таб. 500мг N10", 5);
+
+        assertEquals("4600000000001", candidates.get(0).barcode());
+        assertEquals("Аспирин таблетки 500 мг №10", candidates.get(0).productName());
+        for (int i = 1; i < candidates.size(); i++) {
+            assertTrue(candidates.get(i - 1).similarity() >= candidates.get(i).similarity());
+        }
+        assertTrue(candidates.stream().allMatch(candidate -> candidate.similarity() >= 0.3));
+    }
+
+    @Test
+    void exactNameHasSimilarityOne() throws Exception {
+        ProductNameIndex index = buildIndex(0.4);
+
+        ProductNameIndex.Candidate best = index.findSimilar("АСПИРИН   таблетки 500 мг №10!", 1).get(0);
+
+        assertEquals("4600000000001", best.barcode());
+        assertEquals(1.0, best.similarity(), 1e-9);
+    }
+
+    @Test
+    void normalizesCaseAndYo() throws Exception {
+        ProductNameIndex index = buildIndex(0.4);
+
+        assertEquals("4600000000004", index.findSimilar("ежик в тумане книга", 1).get(0).barcode());
+        assertEquals("ART-7", index.findSimilar("БИНТ СТЕРИЛЬНЫЙ 7М Х 14СМ", 1).get(0).barcode());
+    }
+
+    @Test
+    void respectsLimitAndThreshold() throws Exception {
+        ProductNameIndex index = buildIndex(0.1);
+        assertEquals(2, index.findSimilar("таблетки 500 мг", 2).size());
+
+        assertTrue(buildIndex(0.9).findSimilar("Аспирин таблетки", 5).isEmpty());
+    }
+
+    @Test
+    void emptyAndShortQueriesFindNothing() throws Exception {
+        ProductNameIndex index = buildIndex(0.4);
+
+        assertTrue(index.findSimilar(null, 5).isEmpty());
+        assertTrue(index.findSimilar("", 5).isEmpty());
+        assertTrue(index.findSimilar(" .,;-№ ", 5).isEmpty());
+        // Одна буква даёт две триграммы, обе редкие — похожих наименований нет
+        assertTrue(index.findSimilar("ы", 5).isEmpty());
+        assertTrue(index.findSimilar("несуществующий товар", 5).isEmpty());
+    }
+
+    @Test
+    void notReadyIndexFindsNothing() {
+        ProductNameIndex index = new ProductNameIndex(productBulkRepository, transactionManager(), true, 0.4);
+
+        assertTrue(index.findSimilar("Аспирин таблетки 500 мг №10", 5).isEmpty());
+    }
+
+    @Test
+    void refreshReplacesChangedAndRemovesDeletedNames() throws Exception {
+        ProductNameIndex index = buildIndex(0.4);
+        catalog.put("4600000000001", "Ибупрофен капсулы 200 мг №20");
+        catalog.remove("4600000000003");
+        catalog.remove("ART-7");
+        LongIntHashMap changed = new LongIntHashMap();
+        changed.put(BarcodeKeys.toKey("4600000000001"), 1);
+        changed.put(BarcodeKeys.toKey("4600000000003"), 1);
+
+        index.refresh(changed, List.of("ART-7"));
+
+        assertEquals("4600000000001", index.findSimilar("ибупрофен капсулы 200мг", 1).get(0).barcode());
+        assertTrue(index.findSimilar("Аспирин таблетки 500 мг №10", 5).stream()
+                .noneMatch(candidate -> candidate.barcode().equals("4600000000001")));
+        assertTrue(index.findSimilar("Парацетамол таблетки 500 мг №10", 5).stream()
+                .noneMatch(candidate -> candidate.barcode().equals("4600000000003")));
+        assertTrue(index.findSimilar("Бинт стерильный 7м х 14см", 5).isEmpty());
+    }
+
+    private ProductNameIndex buildIndex(double minSimilarity) throws Exception {
+        doAnswer(invocation -> {
+            ProductBulkRepository.ProductNameHandler handler = invocation.getArgument(0);
+            catalog.forEach(handler::accept);
+            return null;
+        }).when(productBulkRepository).streamProductNames(any());
+        doAnswer(invocation -> {
+            Collection<String> barcodes = invocation.getArgument(0);
+            ProductBulkRepository.ProductNameHandler handler = invocation.getArgument(1);
+            for (String barcode : barcodes) {
+                if (catalog.containsKey(barcode)) {
+                    handler.accept(barcode, catalog.get(barcode));
+                }
+            }
+            return null;
+        }).when(productBulkRepository).findProductNames(any(), any());
+        ProductNameIndex index = new ProductNameIndex(productBulkRepository, transactionManager(), true, minSimilarity);
+        index.buildInBackground();
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (!index.isReady() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(index.isReady());
+        return index;
+    }
+
+    private static PlatformTransactionManager transactionManager() {
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        return transactionManager;
+    }
+}
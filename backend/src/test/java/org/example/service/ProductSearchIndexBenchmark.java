@@ -0,0 +1,138 @@
+package org.example.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.dto.ProductSearchHit;
+import org.example.repository.ProductBulkRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Время поиска для автодополнения (до 20 результатов) в индексе из сгенерированного каталога
+ * в несколько миллионов товаров: по началу штрихкода, по началу одного слова и по двум словам.
+ * Предложения к найденным товарам не подбираются — репозиторий замокан и возвращает пустой
+ * список, так что измеряется только индекс. Режим SampleTime печатает перцентили p50–p99.99
+ * времени одного запроса; после построения печатается удерживаемая индексом куча. Запуск после mvn test-compile:
+ * <pre>
+ * java -cp target/test-classes:target/classes:$(cat target/test-classpath.txt) org.openjdk.jmh.Main ProductSearchIndexBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx3g")
+public class ProductSearchIndexBenchmark {
+
+    private static final String[] SYLLABLES = {"ам", "бро", "ви", "гал", "дек", "зен", "ил", "ка", "лор", "мин",
+            "нор", "окс", "пра", "рел", "сан", "тил", "ур", "фен", "хим", "цет", "эн", "юс", "ят", "кор", "мет"};
+    private static final String[] FORMS = {"таблетки", "таблетки п/о", "капсулы", "раствор для инъекций",
+            "сироп", "мазь", "гель", "капли глазные", "суспензия", "порошок"};
+    private static final int QUERIES = 1024;
+    private static final int LIMIT = 20;
+
+    @Param({"1000000", "3000000"})
+    int products;
+
+    private ProductSearchIndex index;
+    private String[] barcodePrefixes;
+    private String[] wordPrefixes;
+    private String[] twoWords;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        ProductBulkRepository productBulkRepository = mock(ProductBulkRepository.class);
+        doAnswer(invocation -> {
+            ProductBulkRepository.ProductNameHandler handler = invocation.getArgument(0);
+            Random random = new Random(42);
+            for (int i = 0; i < products; i++) {
+                handler.accept(barcode(i), word(random) + " " + FORMS[random.nextInt(FORMS.length)] + " "
+                        + (5 * (1 + random.nextInt(200))) + " мг №" + (10 * (1 + random.nextInt(10))));
+            }
+            return null;
+        }).when(productBulkRepository).streamProductNames(any());
+        when(productBulkRepository.findBestOffers(anyList(), any(), any())).thenReturn(List.of());
+        BestPriceIndex bestPriceIndex = mock(BestPriceIndex.class);
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+
+        long heapBefore = usedHeapAfterGc();
+        index = new ProductSearchIndex(productBulkRepository, bestPriceIndex, transactionManager, new SimpleMeterRegistry(), 20);
+        index.buildInBackground();
+        while (!index.isReady()) {
+            Thread.sleep(100);
+        }
+        System.out.printf("%nИндекс: %d товаров, удерживаемая куча %.1f МБ%n", products,
+                (usedHeapAfterGc() - heapBefore) / 1048576.0);
+
+        Random random = new Random(7);
+        barcodePrefixes = new String[QUERIES];
+        wordPrefixes = new String[QUERIES];
+        twoWords = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            barcodePrefixes[i] = barcode(random.nextInt(products)).substring(0, 7 + random.nextInt(5));
+            String word = word(random).toLowerCase();
+            wordPrefixes[i] = word.substring(0, Math.min(word.length(), 3 + random.nextInt(3)));
+            twoWords[i] = wordPrefixes[i] + " " + FORMS[random.nextInt(FORMS.length)].substring(0, 3);
+        }
+    }
+
+    @Benchmark
+    public List<ProductSearchHit> barcodePrefix() throws Exception {
+        return index.search(barcodePrefixes[next++ & (QUERIES - 1)], LIMIT, SupplierFilter.NONE);
+    }
+
+    @Benchmark
+    public List<ProductSearchHit> wordPrefix() throws Exception {
+        return index.search(wordPrefixes[next++ & (QUERIES - 1)], LIMIT, SupplierFilter.NONE);
+    }
+
+    @Benchmark
+    public List<ProductSearchHit> twoWordPrefixes() throws Exception {
+        return index.search(twoWords[next++ & (QUERIES - 1)], LIMIT, SupplierFilter.NONE);
+    }
+
+    private static String barcode(int i) {
+        return String.valueOf(4_600_000_000_000L + i * 7L);
+    }
+
+    private static String word(Random random) {
+        StringBuilder word = new StringBuilder();
+        for (int i = 0, length = 2 + random.nextInt(3); i < length; i++) {
+            word.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+        }
+        word.setCharAt(0, Character.toUpperCase(word.charAt(0)));
+        return word.toString();
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,143 @@
+package org.example.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.dto.BestOfferDto;
+import org.example.dto.ProductSearchHit;
+import org.example.repository.ProductBulkRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Поиск товаров по началу штрихкода и началам слов наименования: порядок выдачи, нормализация,
+ * ограничение числа результатов, пустые запросы и лучшие предложения из индекса цен или из базы
+ */
+class ProductSearchIndexTest {
+
+    private static final Map<String, String> CATALOG = new LinkedHashMap<>();
+
+    static {
+        CATALOG.put("4600000000102", "Аспирин Кардио таблетки 100 мг №28");
+        CATALOG.put("4600000000101", "Аспирин таблетки 500 мг №10");
+        CATALOG.put("4600000000200", "Парацетамол таблетки 500 мг №10");
+        CATALOG.put("4610000000001", "Ёлочная игрушка «Шар»");
+        CATALOG.put("ART-55", "Бинт стерильный 7м х 14см");
+    }
+
+    private final ProductBulkRepository productBulkRepository = mock(ProductBulkRepository.class);
+    private final BestPriceIndex bestPriceIndex = mock(BestPriceIndex.class);
+    private ProductSearchIndex index;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        doAnswer(invocation -> {
+            ProductBulkRepository.ProductNameHandler handler = invocation.getArgument(0);
+            CATALOG.forEach(handler::accept);
+            return null;
+        }).when(productBulkRepository).streamProductNames(any());
+        when(bestPriceIndex.isReady()).thenReturn(true);
+        when(bestPriceIndex.findAll(anyList(), any())).thenAnswer(invocation -> {
+            List<String> barcodes = invocation.getArgument(0);
+            BestPriceIndex.BestOffer[] offers = new BestPriceIndex.BestOffer[barcodes.size()];
+            for (int i = 0; i < offers.length; i++) {
+                if (barcodes.get(i).startsWith("46000")) {
+                    offers[i] = new BestPriceIndex.BestOffer("Поставщик", 99.5, CATALOG.get(barcodes.get(i)));
+                }
+            }
+            return offers;
+        });
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+
+        index = new ProductSearchIndex(productBulkRepository, bestPriceIndex, transactionManager, new SimpleMeterRegistry(), 20);
+        index.buildInBackground();
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (!index.isReady() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(index.isReady());
+    }
+
+    @Test
+    void findsByBarcodePrefixInBarcodeOrder() throws Exception {
+        List<ProductSearchHit> hits = index.search("46000000001", 10, SupplierFilter.NONE);
+
+        assertEquals(List.of("4600000000101", "4600000000102"), barcodes(hits));
+        assertEquals("Аспирин таблетки 500 мг №10", hits.get(0).getProductName());
+        assertEquals("Поставщик", hits.get(0).getSupplierName());
+        assertEquals(99.5, hits.get(0).getPriceWithVat());
+    }
+
+    @Test
+    void findsByWordPrefixAnywhereInName() throws Exception {
+        assertEquals(List.of("4600000000102"), barcodes(index.search("кард", 10, SupplierFilter.NONE)));
+        // Совпадение внутри слова не считается
+        assertTrue(index.search("рдио", 10, SupplierFilter.NONE).isEmpty());
+    }
+
+    @Test
+    void everyQueryWordMustStartSomeWord() throws Exception {
+        List<ProductSearchHit> hits = index.search("табл 500", 10, SupplierFilter.NONE);
+        assertEquals(List.of("4600000000101", "4600000000200"), barcodes(hits).stream().sorted().toList());
+
+        assertEquals(List.of("4600000000101"), barcodes(index.search("500 АСП", 10, SupplierFilter.NONE)));
+    }
+
+    @Test
+    void normalizesCaseYoAndPunctuation() throws Exception {
+        assertEquals(List.of("4610000000001"), barcodes(index.search("ЕЛОЧН", 10, SupplierFilter.NONE)));
+        assertEquals(List.of("4610000000001"), barcodes(index.search("«шар»", 10, SupplierFilter.NONE)));
+        assertEquals(List.of("ART-55"), barcodes(index.search("бинт, стер.", 10, SupplierFilter.NONE)));
+    }
+
+    @Test
+    void hitWithoutOfferHasNoPrice() throws Exception {
+        ProductSearchHit hit = index.search("ART", 10, SupplierFilter.NONE).get(0);
+
+        assertEquals("ART-55", hit.getBarcode());
+        assertNull(hit.getSupplierName());
+        assertNull(hit.getPriceWithVat());
+    }
+
+    @Test
+    void respectsLimitAndIgnoresEmptyQueries() throws Exception {
+        assertEquals(1, index.search("таблетки", 1, SupplierFilter.NONE).size());
+        assertEquals(1, index.search("4", 1, SupplierFilter.NONE).size());
+
+        assertTrue(index.search(null, 10, SupplierFilter.NONE).isEmpty());
+        assertTrue(index.search("   ", 10, SupplierFilter.NONE).isEmpty());
+        assertTrue(index.search("--", 10, SupplierFilter.NONE).isEmpty());
+        assertTrue(index.search("аспирин", 0, SupplierFilter.NONE).isEmpty());
+    }
+
+    @Test
+    void readsOffersFromDatabaseUntilPriceIndexIsReady() throws Exception {
+        when(bestPriceIndex.isReady()).thenReturn(false);
+        when(productBulkRepository.findBestOffers(anyList(), any(), any())).thenReturn(List.of(
+                BestOfferDto.builder().barcode("4600000000200").supplierId(3).supplierName("Аптечный склад")
+                        .priceWithVat(12.0).productName("Парацетамол").build()));
+
+        ProductSearchHit hit = index.search("парац", 10, SupplierFilter.NONE).get(0);
+
+        assertEquals("Аптечный склад", hit.getSupplierName());
+        assertEquals(12.0, hit.getPriceWithVat());
+    }
+
+    private static List<String> barcodes(List<ProductSearchHit> hits) {
+        return hits.stream().map(ProductSearchHit::getBarcode).toList();
+    }
+}
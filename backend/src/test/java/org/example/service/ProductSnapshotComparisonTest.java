@@ -0,0 +1,154 @@
+package org.example.service;
+
+import jakarta.persistence.EntityManager;
+import org.example.entity.Product;
+import org.example.repository.ProductBulkRepository;
+import org.example.repository.ProductRepository;
+import org.example.support.PostgresIntegrationTest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Сравнение кэша изменений загрузки на поставщике с 500 000 товаров: прежний кэш управляемых
+ * сущностей (findBySupplierNameIn с JOIN FETCH в HashMap по supplierName|barcode) и снимок
+ * ProductDiffIndex из курсора. Для каждого варианта — время загрузки, удерживаемая куча
+ * (занятая куча после сборки мусора с живым кэшем минус до загрузки) и для сущностей — время
+ * flush без изменений, то есть проверки всех управляемых сущностей. Запуск:
+ * <pre>
+ * TEST_DATABASE_URL=... mvn test -Dtest=ProductSnapshotComparisonTest -Dcomparison=true
+ * </pre>
+ */
+@EnabledIfSystemProperty(named = "comparison", matches = "true")
+class ProductSnapshotComparisonTest extends PostgresIntegrationTest {
+
+    private static final int PRODUCTS = 500_000;
+    private static final int RUNS = 4;
+    private static final String SUPPLIER = "ЗАО \"Сравнение снимков\"";
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private ProductBulkRepository productBulkRepository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private int supplierId;
+
+    private record Result(long loadMs, long retainedBytes, long flushMs, int size) {
+    }
+
+    @BeforeEach
+    void fillSupplier() {
+        cleanDatabase();
+        supplierId = jdbcTemplate.queryForObject(
+                "INSERT INTO suppliers (supplier_name) VALUES (?) RETURNING id", Integer.class, SUPPLIER);
+        jdbcTemplate.update("""
+                INSERT INTO products (supplier_id, barcode, product_name, price_with_vat, change_version)
+                SELECT ?, (4600000000000 + g)::text, 'Товар поставщика номер ' || g, 100 + (g % 1000) * 0.5, 1
+                FROM generate_series(1, ?) g""", supplierId, PRODUCTS);
+        jdbcTemplate.execute("ANALYZE products");
+    }
+
+    @AfterEach
+    void cleanDatabase() {
+        jdbcTemplate.execute("TRUNCATE products, product_tombstones, supplier_uploads, suppliers CASCADE");
+    }
+
+    @Test
+    void compareEntityCacheWithSnapshot() {
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        System.out.printf("%n%-8s %-4s %10s %12s %10s%n", "cache", "run", "load, ms", "retained, MB", "flush, ms");
+        long entityRetained = Long.MAX_VALUE;
+        long snapshotRetained = Long.MAX_VALUE;
+        for (int run = 1; run <= RUNS; run++) {
+            Result entities = transaction.execute(status -> entityCache());
+            print("entities", run, entities);
+            Result snapshot = transaction.execute(status -> snapshot());
+            print("snapshot", run, snapshot);
+
+            assertEquals(PRODUCTS, entities.size());
+            assertEquals(PRODUCTS, snapshot.size());
+            entityRetained = Math.min(entityRetained, entities.retainedBytes());
+            snapshotRetained = Math.min(snapshotRetained, snapshot.retainedBytes());
+        }
+        assertTrue(snapshotRetained < entityRetained);
+    }
+
+    /**
+     * Прежний кэш: управляемые Product и Supplier в контексте персистентности и ключи-строки
+     */
+    private Result entityCache() {
+        long heapBefore = usedHeapAfterGc();
+        long start = System.nanoTime();
+        Map<String, Product> cache = new HashMap<>();
+        List<Product> products = productRepository.findBySupplierNameIn(Set.of(SUPPLIER));
+        for (Product product : products) {
+            cache.put(product.getSupplier().getSupplierName() + "|" + product.getBarcode(), product);
+        }
+        long loadMs = (System.nanoTime() - start) / 1_000_000;
+        long retained = usedHeapAfterGc() - heapBefore;
+
+        start = System.nanoTime();
+        entityManager.flush();
+        long flushMs = (System.nanoTime() - start) / 1_000_000;
+
+        int size = cache.size();
+        entityManager.clear();
+        return new Result(loadMs, retained, flushMs, size);
+    }
+
+    private Result snapshot() {
+        long heapBefore = usedHeapAfterGc();
+        long start = System.nanoTime();
+        Map<Integer, ProductDiffIndex> indexes = new HashMap<>();
+        try {
+            productBulkRepository.streamProductSnapshots(new int[]{supplierId}, (supplier, id, barcode, price, productName) ->
+                    indexes.computeIfAbsent(supplier, key -> new ProductDiffIndex(1024)).add(id, barcode, price, productName));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        long loadMs = (System.nanoTime() - start) / 1_000_000;
+        long retained = usedHeapAfterGc() - heapBefore;
+        return new Result(loadMs, retained, 0, indexes.get(supplierId).size());
+    }
+
+    private static void print(String cache, int run, Result result) {
+        System.out.printf("%-8s %-4d %10d %12.1f %10s%n", cache, run, result.loadMs(),
+                result.retainedBytes() / 1048576.0, cache.equals("entities") ? String.valueOf(result.flushMs()) : "-");
+    }
+
+    private static long usedHeapAfterGc() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,152 @@
+package org.example.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.example.dto.PriceAnalysisResult;
+import org.example.entity.History;
+import org.example.repository.ProductBulkRepository;
+import org.example.util.CurrentUserUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Потоковый анализ: объединение повторяющихся штрихкодов как в обычном анализе,
+ * режим perLine и сохранение результатов и содержимого заказа в историю
+ */
+class StreamingPriceAnalysisServiceTest {
+
+    private static final String ORDER = """
+            [{"barcode": "4600000000001", "quantity": 1, "name": "Аспирин"},
+             {"barcode": "4600000000002", "quantity": 2},
+             {"barcode": "4600000000001", "quantity": 5},
+             {"barcode": "4600000000009", "quantity": 3, "name": "Нет в каталоге"}]""";
+
+    @TempDir
+    Path dir;
+
+    private final BestPriceIndex bestPriceIndex = mock(BestPriceIndex.class);
+    private final HistoryService historyService = mock(HistoryService.class);
+    private final ProductNameMatcher productNameMatcher = mock(ProductNameMatcher.class);
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private StreamingPriceAnalysisService service;
+
+    @BeforeEach
+    void setUp() {
+        when(bestPriceIndex.isReady()).thenReturn(true);
+        when(bestPriceIndex.findAll(any(), any())).thenAnswer(invocation -> {
+            List<String> barcodes = invocation.getArgument(0);
+            BestPriceIndex.BestOffer[] offers = new BestPriceIndex.BestOffer[barcodes.size()];
+            for (int i = 0; i < offers.length; i++) {
+                if (!barcodes.get(i).endsWith("9")) {
+                    offers[i] = new BestPriceIndex.BestOffer("Поставщик", 10, "Товар " + barcodes.get(i));
+                }
+            }
+            return offers;
+        });
+        when(productNameMatcher.unmatchedResult(anyString(), anyInt(), any(), any())).thenAnswer(invocation ->
+                PriceAnalysisService.notFoundResult(invocation.getArgument(0), invocation.getArgument(1)));
+        service = new StreamingPriceAnalysisService(bestPriceIndex, mock(ProductBulkRepository.class), historyService,
+                mock(CurrentUserUtil.class), objectMapper, productNameMatcher, 2, 2, 2);
+    }
+
+    @AfterEach
+    void shutdown() {
+        service.shutdown();
+    }
+
+    @Test
+    void mergesRepeatedBarcodesWithLastQuantity() throws Exception {
+        List<PriceAnalysisResult> results = new ArrayList<>();
+
+        int count = service.analyzeJson(json(ORDER), "JSON", SupplierFilter.NONE, false, results::add);
+
+        assertEquals(3, count);
+        assertEquals(List.of("4600000000001", "4600000000002", "4600000000009"),
+                results.stream().map(PriceAnalysisResult::getBarcode).toList());
+        assertEquals(5, results.get(0).getQuantity());
+        assertEquals(50.0, results.get(0).getTotalPrice());
+        assertTrue(results.get(2).getRequiresManualProcessing());
+        verify(productNameMatcher).unmatchedResult(eq("4600000000009"), eq(3), eq("Нет в каталоге"), any());
+    }
+
+    @Test
+    void perLineKeepsEveryLine() throws Exception {
+        List<PriceAnalysisResult> results = new ArrayList<>();
+
+        int count = service.analyzeJson(json(ORDER), "JSON", SupplierFilter.NONE, true, results::add);
+
+        assertEquals(4, count);
+        assertEquals(List.of(1, 2, 5, 3), results.stream().map(PriceAnalysisResult::getQuantity).toList());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void savesResultsAndFileContentToHistory() throws Exception {
+        Path file = dir.resolve("order.xlsx");
+        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+            Sheet sheet = workbook.createSheet();
+            Row header = sheet.createRow(0);
+            header.createCell(0).setCellValue("Штрихкод");
+            header.createCell(1).setCellValue("Количество");
+            header.createCell(2).setCellValue("Наименование");
+            Object[][] lines = {{"4600000000001", 1, "Аспирин\tшипучий"}, {"4600000000001", 4, ""}};
+            for (int i = 0; i < lines.length; i++) {
+                Row row = sheet.createRow(i + 1);
+                row.createCell(0).setCellValue((String) lines[i][0]);
+                row.createCell(1).setCellValue((Integer) lines[i][1]);
+                row.createCell(2).setCellValue((String) lines[i][2]);
+            }
+            try (OutputStream out = Files.newOutputStream(file)) {
+                workbook.write(out);
+            }
+        }
+
+        List<PriceAnalysisResult> results = new ArrayList<>();
+        service.analyzePrices(file, "order.xlsx", SupplierFilter.NONE, false, results::add);
+
+        ArgumentCaptor<String> response = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<List<Map<String, Object>>> content = ArgumentCaptor.forClass(List.class);
+        verify(historyService).saveHistory(any(), anyString(), response.capture(), content.capture(),
+                eq(History.HistoryType.PRICE_ANALYSIS));
+
+        PriceAnalysisResult[] saved = objectMapper.readValue(response.getValue(), PriceAnalysisResult[].class);
+        assertEquals(1, saved.length);
+        assertEquals(4, saved[0].getQuantity());
+        assertEquals(results.get(0), saved[0]);
+
+        List<Map<String, Object>> rows = content.getValue();
+        assertEquals(2, rows.size());
+        assertEquals("4600000000001", rows.get(0).get("column_0"));
+        assertEquals(1.0, rows.get(0).get("column_1"));
+        // Переводы строк и табуляции убираются, как в обычном анализе
+        assertEquals("Аспириншипучий", rows.get(0).get("column_2"));
+    }
+
+    private static ByteArrayInputStream json(String body) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,149 @@
+package org.example.service;
+
+import org.example.entity.Client;
+import org.example.entity.Supplier;
+import org.example.repository.ProductBulkRepository;
+import org.example.repository.SupplierRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Фильтр поставщиков: разрешённый и запрещённый списки, выбор между запросом и профилем клиента
+ * и применение маской в индексе лучших цен
+ */
+class SupplierFilterTest {
+
+    @Test
+    void allowPermitsOnlyListed() {
+        SupplierFilter filter = SupplierFilter.of(Client.SupplierFilterMode.ALLOW, List.of(" Альфа ", "Бета"));
+
+        assertTrue(filter.permits("Альфа"));
+        assertTrue(filter.permits("Бета"));
+        assertFalse(filter.permits("Гамма"));
+    }
+
+    @Test
+    void denyPermitsAllButListed() {
+        SupplierFilter filter = SupplierFilter.of(Client.SupplierFilterMode.DENY, List.of("Альфа"));
+
+        assertFalse(filter.permits("Альфа"));
+        assertTrue(filter.permits("Бета"));
+    }
+
+    @Test
+    void emptyListsDenyNothingAndAllowNobody() {
+        assertSame(SupplierFilter.NONE, SupplierFilter.of(Client.SupplierFilterMode.DENY, Arrays.asList(" ", null)));
+
+        SupplierFilter allowNobody = SupplierFilter.of(Client.SupplierFilterMode.ALLOW, List.of());
+        assertFalse(allowNobody.isEmpty());
+        assertFalse(allowNobody.permits("Альфа"));
+    }
+
+    @Test
+    void requestOverridesClientProfile() {
+        Client client = new Client();
+        client.setSupplierFilterMode(Client.SupplierFilterMode.DENY);
+        client.setSupplierFilterNames(List.of("Альфа"));
+
+        SupplierFilter fromRequest = SupplierFilter.resolve(List.of("Бета"), null, client);
+        assertEquals(Client.SupplierFilterMode.ALLOW, fromRequest.getMode());
+        assertEquals(Set.of("Бета"), fromRequest.getSupplierNames());
+
+        SupplierFilter fromProfile = SupplierFilter.resolve(null, List.of(), client);
+        assertFalse(fromProfile.permits("Альфа"));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> SupplierFilter.resolve(List.of("Альфа"), List.of("Бета"), client));
+        assertSame(SupplierFilter.NONE, SupplierFilter.resolve(null, null, null));
+    }
+
+    @Test
+    void cacheKeyIgnoresOrderAndSeparatesModes() {
+        SupplierFilter first = SupplierFilter.of(Client.SupplierFilterMode.ALLOW, List.of("Бета", "Альфа"));
+        SupplierFilter second = SupplierFilter.of(Client.SupplierFilterMode.ALLOW, List.of("Альфа", "Бета"));
+        SupplierFilter deny = SupplierFilter.of(Client.SupplierFilterMode.DENY, List.of("Альфа", "Бета"));
+
+        assertEquals(first.cacheKey(), second.cacheKey());
+        assertNotEquals(first.cacheKey(), deny.cacheKey());
+        assertEquals("", SupplierFilter.NONE.cacheKey());
+    }
+
+    @Test
+    void bestPriceIndexAppliesFilterAsMask() throws Exception {
+        // id 70 — во втором слове битовой маски
+        BestPriceIndex index = buildIndex(
+                new Object[]{"4600000000001", 1, 10.0},
+                new Object[]{"4600000000001", 2, 20.0},
+                new Object[]{"4600000000001", 70, 30.0},
+                new Object[]{"ART-1", 2, 5.0});
+        List<String> barcodes = List.of("4600000000001", "ART-1", "4600000000009");
+
+        BestPriceIndex.BestOffer[] all = index.findAll(barcodes, SupplierFilter.NONE);
+        assertEquals("Поставщик 1", all[0].supplierName());
+        assertEquals("Поставщик 2", all[1].supplierName());
+        assertNull(all[2]);
+
+        BestPriceIndex.BestOffer[] allowed = index.findAll(barcodes,
+                SupplierFilter.of(Client.SupplierFilterMode.ALLOW, List.of("Поставщик 70", "Неизвестный")));
+        assertEquals(30.0, allowed[0].priceWithVat());
+        assertNull(allowed[1]);
+
+        BestPriceIndex.BestOffer[] denied = index.findAll(barcodes,
+                SupplierFilter.of(Client.SupplierFilterMode.DENY, List.of("Поставщик 1", "Поставщик 2")));
+        assertEquals("Поставщик 70", denied[0].supplierName());
+        assertNull(denied[1]);
+
+        BestPriceIndex.Offers[] offers = index.findOffers(barcodes,
+                SupplierFilter.of(Client.SupplierFilterMode.DENY, List.of("Поставщик 2")));
+        assertEquals(List.of(1, 70), Arrays.stream(offers[0].supplierIds()).boxed().toList());
+        assertNull(offers[1]);
+    }
+
+    /**
+     * Индекс из предложений {штрихкод, id поставщика, цена}, переданных подряд по штрихкоду и цене
+     */
+    private static BestPriceIndex buildIndex(Object[]... offers) throws Exception {
+        ProductBulkRepository productBulkRepository = mock(ProductBulkRepository.class);
+        doAnswer(invocation -> {
+            ProductBulkRepository.BestOfferHandler handler = invocation.getArgument(0);
+            for (Object[] offer : offers) {
+                handler.accept((String) offer[0], (Integer) offer[1], (Double) offer[2], "Товар");
+            }
+            return null;
+        }).when(productBulkRepository).streamPricedOffers(any());
+        SupplierRepository supplierRepository = mock(SupplierRepository.class);
+        when(supplierRepository.findAll()).thenReturn(List.of(supplier(1), supplier(2), supplier(70)));
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+
+        BestPriceIndex index = new BestPriceIndex(productBulkRepository, supplierRepository, transactionManager);
+        index.buildInBackground();
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (!index.isReady() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(index.isReady());
+        return index;
+    }
+
+    private static Supplier supplier(int id) {
+        return Supplier.builder().id(id).supplierName("Поставщик " + id).build();
+    }
+}
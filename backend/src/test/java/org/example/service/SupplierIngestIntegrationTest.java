@@ -0,0 +1,352 @@
+package org.example.service;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.example.dto.ExcelUploadResponse;
+import org.example.support.PostgresIntegrationTest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.test.context.TestPropertySource;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Загрузка файла поставщиков в PostgreSQL: параллельные группы поставщиков, фиксация порциями
+ * с контрольной точкой и продолжением, режим замены
+ */
+@TestPropertySource(properties = {
+        "ingest.commit-interval-rows=100",
+        "ingest.parallel.threads=3",
+        "ingest.parallel.reserved-connections=2"
+})
+class SupplierIngestIntegrationTest extends PostgresIntegrationTest {
+
+    private static final String[] HEADERS = {"Наименование поставщика", "Штрих код", "Наименование", "ПЦ с НДС опт"};
+    private static final int SUPPLIERS = 6;
+
+    @Autowired
+    private ExcelProcessingService excelProcessingService;
+
+    @Autowired
+    private CatalogVersionService catalogVersionService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @TempDir
+    Path dir;
+
+    private record Line(String supplier, String barcode, String name, double price) {
+    }
+
+    @BeforeEach
+    void cleanDatabase() {
+        jdbcTemplate.execute("TRUNCATE products, product_tombstones, supplier_uploads, suppliers CASCADE");
+    }
+
+    @AfterEach
+    void dropFailureTrigger() {
+        jdbcTemplate.execute("DROP TRIGGER IF EXISTS fail_on_barcode ON products");
+        jdbcTemplate.execute("DROP FUNCTION IF EXISTS fail_on_barcode()");
+    }
+
+    @Test
+    void parallelGroupsWriteAllSuppliersAndDetectChanges() throws Exception {
+        List<Line> lines = catalog(900);
+        List<Line> withDuplicates = new ArrayList<>(lines);
+        withDuplicates.addAll(lines.subList(0, 5));
+
+        ExcelUploadResponse first = upload(withDuplicates, "first.xlsx", false);
+
+        assertEquals(900, first.getNewRecords());
+        assertEquals(900, count("SELECT count(*) FROM products"));
+        assertEquals(SUPPLIERS, count("SELECT count(DISTINCT supplier_id) FROM products"));
+        assertEquals(0, count("SELECT count(*) FROM products WHERE change_version IS NULL"));
+        assertTrue(first.getMessage().contains("пропущено дубликатов: 5"), first.getMessage());
+        assertEquals("COMPLETED", jdbcTemplate.queryForObject(
+                "SELECT status FROM supplier_uploads ORDER BY id DESC LIMIT 1", String.class));
+
+        // Поставщик 0 меняет 40 цен, поставщик 1 добавляет 10 товаров, остальные не меняются
+        List<Line> changed = new ArrayList<>();
+        int repriced = 0;
+        for (Line line : lines) {
+            if (line.supplier().equals(supplier(0)) && repriced < 40) {
+                changed.add(new Line(line.supplier(), line.barcode(), line.name(), line.price() + 1));
+                repriced++;
+            } else {
+                changed.add(line);
+            }
+        }
+        for (int i = 0; i < 10; i++) {
+            changed.add(new Line(supplier(1), "2900000000" + String.format("%03d", i), "Новый товар " + i, 99.5));
+        }
+        // Дубликаты остаются в файле: отпечаток поставщика считается по всем его строкам
+        List<Line> secondFile = new ArrayList<>(changed);
+        secondFile.addAll(lines.subList(0, 5));
+
+        ExcelUploadResponse second = upload(secondFile, "second.xlsx", false);
+
+        assertEquals(10, second.getNewRecords());
+        assertEquals(40, second.getUpdatedRecords());
+        assertEquals(910, count("SELECT count(*) FROM products"));
+        assertTrue(second.getMessage().contains("Поставщиков без изменений: 4"), second.getMessage());
+        assertPricesMatch(changed);
+    }
+
+    @Test
+    void resumesFromCheckpointAfterFailedChunk() throws Exception {
+        List<Line> lines = catalog(900);
+        // Строка 451 листа падает при вставке; её порция откатывается в группе поставщика
+        String failingBarcode = lines.get(449).barcode();
+        createFailureFunction(failingBarcode);
+        jdbcTemplate.execute("""
+                CREATE TRIGGER fail_on_barcode BEFORE INSERT OR UPDATE ON products
+                FOR EACH ROW EXECUTE FUNCTION fail_on_barcode()""");
+
+        Path file = write(lines, "resume.xlsx");
+        assertThrows(Exception.class, () -> excelProcessingService.processSupplierDataFile(
+                file, "resume.xlsx", false, IngestProgressListener.NONE));
+
+        Map<String, Object> checkpoint = jdbcTemplate.queryForMap(
+                "SELECT status, last_committed_row FROM supplier_uploads ORDER BY id DESC LIMIT 1");
+        assertEquals("FAILED", checkpoint.get("status"));
+        int lastCommittedRow = ((Number) checkpoint.get("last_committed_row")).intValue();
+        assertEquals(400, lastCommittedRow);
+        int committed = count("SELECT count(*) FROM products");
+        assertTrue(committed >= 400 && committed < 900, "зафиксировано строк: " + committed);
+        assertEquals(0, count("SELECT count(*) FROM products WHERE barcode = '" + failingBarcode + "'"));
+
+        jdbcTemplate.execute("DROP TRIGGER fail_on_barcode ON products");
+        ExcelUploadResponse resumed = excelProcessingService.processSupplierDataFile(
+                file, "resume.xlsx", false, IngestProgressListener.NONE);
+
+        assertTrue(resumed.getMessage().contains("Загрузка продолжена после строки 401"), resumed.getMessage());
+        assertEquals(900, count("SELECT count(*) FROM products"));
+        assertEquals(900, resumed.getNewRecords() + resumed.getUnchangedRecords());
+        assertEquals(1, count("SELECT count(*) FROM supplier_uploads"));
+        assertPricesMatch(lines);
+    }
+
+    @Test
+    void resumeRetriesOnlySuppliersWhoseCommitFailed() throws Exception {
+        List<Line> lines = catalog(900);
+        // Отложенный триггер срабатывает при фиксации: слияние проходит во всех группах,
+        // а фиксация порции 401-500 падает только в группе поставщика этой строки
+        Line failing = lines.get(449);
+        createFailureFunction(failing.barcode());
+        jdbcTemplate.execute("""
+                CREATE CONSTRAINT TRIGGER fail_on_barcode AFTER INSERT OR UPDATE ON products
+                DEFERRABLE INITIALLY DEFERRED
+                FOR EACH ROW EXECUTE FUNCTION fail_on_barcode()""");
+
+        Path file = write(lines, "partial.xlsx");
+        ExcelProcessingService.PartialCommitException failure = assertThrows(ExcelProcessingService.PartialCommitException.class,
+                () -> excelProcessingService.processSupplierDataFile(file, "partial.xlsx", false, IngestProgressListener.NONE));
+
+        // 6 поставщиков в 3 группах: порцию не зафиксировала одна группа из двух поставщиков
+        List<String> uncommitted = failure.getUncommittedSuppliers();
+        assertEquals(2, uncommitted.size());
+        assertTrue(uncommitted.contains(failing.supplier()), uncommitted.toString());
+        Map<String, Object> checkpoint = jdbcTemplate.queryForMap(
+                "SELECT status, last_committed_row, partial_commit_row, uncommitted_suppliers FROM supplier_uploads");
+        assertEquals("FAILED", checkpoint.get("status"));
+        assertEquals(400, ((Number) checkpoint.get("last_committed_row")).intValue());
+        assertEquals(500, ((Number) checkpoint.get("partial_commit_row")).intValue());
+        assertTrue(checkpoint.get("uncommitted_suppliers").toString().contains(failing.supplier()));
+        // До строки 400 — все поставщики, в строках 401-500 — только зафиксировавшие
+        long committedAhead = lines.subList(400, 500).stream().filter(line -> !uncommitted.contains(line.supplier())).count();
+        assertEquals(400 + committedAhead, count("SELECT count(*) FROM products"));
+
+        jdbcTemplate.execute("DROP TRIGGER fail_on_barcode ON products");
+        ExcelUploadResponse resumed = excelProcessingService.processSupplierDataFile(
+                file, "partial.xlsx", false, IngestProgressListener.NONE);
+
+        assertTrue(resumed.getMessage().contains("До строки 501 повторены только поставщики: " + String.join(", ", uncommitted)),
+                resumed.getMessage());
+        // Строки, зафиксированные первой попыткой, не пишутся и не считаются повторно
+        assertEquals(900, resumed.getNewRecords());
+        assertEquals(0, resumed.getUnchangedRecords());
+        assertEquals(900, count("SELECT count(*) FROM products"));
+        assertEquals(0, count("SELECT partial_commit_row FROM supplier_uploads"));
+        assertPricesMatch(lines);
+    }
+
+    @Test
+    void replaceRemovesProductsMissingFromFileAndRecordsTombstones() throws Exception {
+        List<Line> lines = catalog(600);
+        // Текстовые штрихкоды поставщика 0 сверяются по его набору строк, а не по long ключам
+        List<Line> articles = List.of(
+                new Line(supplier(0), "ART-0", "Артикул 0", 50),
+                new Line(supplier(0), "ART-1", "Артикул 1", 51),
+                new Line(supplier(0), "ART-2", "Артикул 2", 52));
+        List<Line> full = new ArrayList<>(lines);
+        full.addAll(articles);
+        ExcelUploadResponse first = upload(full, "full.xlsx", false);
+        assertEquals(603, first.getNewRecords());
+
+        // В новом прайсе поставщика 0 нет 25 товаров и одного артикула; остальных поставщиков в файле нет
+        List<Line> supplierZero = lines.stream().filter(line -> line.supplier().equals(supplier(0))).toList();
+        List<Line> kept = new ArrayList<>(supplierZero.subList(25, supplierZero.size()));
+        kept.addAll(articles.subList(1, 3));
+        kept.add(articles.get(2));
+        long versionBefore = count("SELECT coalesce(max(change_version), 0) FROM products");
+
+        ExcelUploadResponse replaced = upload(kept, "replace.xlsx", true);
+
+        assertEquals(26, replaced.getRemovedRecords());
+        assertTrue(replaced.getMessage().contains("пропущено дубликатов: 1"), replaced.getMessage());
+        assertEquals(577, count("SELECT count(*) FROM products"));
+        assertEquals(500, count("SELECT count(*) FROM products p JOIN suppliers s ON s.id = p.supplier_id"
+                + " WHERE s.supplier_name <> '" + supplier(0) + "'"));
+        assertEquals(26, count("SELECT count(*) FROM product_tombstones WHERE change_version > " + versionBefore));
+        List<Line> removedLines = new ArrayList<>(supplierZero.subList(0, 25));
+        removedLines.add(articles.get(0));
+        for (Line removed : removedLines) {
+            assertEquals(0, count("SELECT count(*) FROM products WHERE barcode = '" + removed.barcode() + "'"));
+        }
+        assertEquals(2, count("SELECT count(*) FROM products WHERE barcode LIKE 'ART-%'"));
+
+        // Повтор того же файла в режиме замены не пропускается и ничего больше не удаляет
+        ExcelUploadResponse repeated = upload(kept, "replace.xlsx", true);
+        assertEquals(0, repeated.getRemovedRecords());
+        assertEquals(577, count("SELECT count(*) FROM products"));
+    }
+
+    @Test
+    void repeatedFileIsSkippedOnlyWhileItsSuppliersAreUnchanged() throws Exception {
+        List<Line> lines = new ArrayList<>(catalog(300));
+        lines.add(lines.get(0));
+        // Файл пишется один раз: XSSFWorkbook записывает время создания, и повтор записи даёт другой отпечаток
+        Path file = write(lines, "a.xlsx");
+        ExcelUploadResponse first = upload(file);
+        assertEquals(300, first.getNewRecords());
+
+        // Загрузка других поставщиков не мешает пропуску повтора
+        upload(List.of(new Line("Поставщик 9", "4600000009999", "Товар другого поставщика", 10)), "b.xlsx", false);
+        ExcelUploadResponse skipped = upload(file);
+        assertTrue(skipped.getMessage().startsWith("Файл не изменился"), skipped.getMessage());
+        assertTrue(skipped.getMessage().contains("добавлено: 300"), skipped.getMessage());
+        assertTrue(skipped.getMessage().contains("пропущено дубликатов: 1"), skipped.getMessage());
+        assertEquals(300, skipped.getNewRecords());
+        assertEquals(300, skipped.getProcessedRecords());
+        assertEquals(0, skipped.getUnchangedRecords());
+
+        // Другой файл изменил цену поставщика 0: повтор обрабатывается и возвращает её
+        Line changed = lines.get(0);
+        upload(List.of(new Line(changed.supplier(), changed.barcode(), changed.name(), 1)), "c.xlsx", false);
+        ExcelUploadResponse restored = upload(file);
+        assertEquals(1, restored.getUpdatedRecords());
+        assertEquals(299, restored.getUnchangedRecords());
+        assertPricesMatch(lines);
+        assertTrue(upload(file).getMessage().startsWith("Файл не изменился"));
+
+        // Строка без версии изменения, как при миграции, тоже отменяет пропуск
+        jdbcTemplate.update("UPDATE products SET change_version = NULL WHERE barcode = ?", changed.barcode());
+        ExcelUploadResponse afterMigration = upload(file);
+        assertEquals(300, afterMigration.getUnchangedRecords());
+
+        // Миграция дописывает строке новую версию — это тоже изменение после загрузки
+        jdbcTemplate.update("UPDATE products SET change_version = ? WHERE change_version IS NULL", catalogVersionService.bump());
+        assertEquals(300, upload(file).getUnchangedRecords());
+        assertTrue(upload(file).getMessage().startsWith("Файл не изменился"));
+
+        // Очистка отметок удаления выше версии загрузки: отсутствие изменений не доказать
+        long tombstoneVersion = catalogVersionService.bump();
+        int otherSupplier = count("SELECT id FROM suppliers WHERE supplier_name = 'Поставщик 9'");
+        jdbcTemplate.update("INSERT INTO product_tombstones (supplier_id, barcode, change_version, created_at) "
+                + "VALUES (?, '4600000009998', ?, '2000-01-01')", otherSupplier, tombstoneVersion);
+        catalogVersionService.purgeTombstones();
+        ExcelUploadResponse afterPurge = upload(file);
+        assertEquals(300, afterPurge.getUnchangedRecords());
+        assertTrue(upload(file).getMessage().startsWith("Файл не изменился"));
+    }
+
+    private void createFailureFunction(String barcode) {
+        jdbcTemplate.execute("""
+                CREATE OR REPLACE FUNCTION fail_on_barcode() RETURNS trigger AS $$
+                BEGIN
+                    IF NEW.barcode = '%s' THEN
+                        RAISE EXCEPTION 'отказ на тестовом штрихкоде';
+                    END IF;
+                    RETURN NEW;
+                END $$ LANGUAGE plpgsql""".formatted(barcode));
+    }
+
+    private List<Line> catalog(int rows) {
+        List<Line> lines = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            // Поставщики чередуются, поэтому каждая порция задевает все группы
+            lines.add(new Line(supplier(i % SUPPLIERS), String.valueOf(4_600_000_000_000L + i),
+                    "Товар " + i, 100 + i * 0.25));
+        }
+        return lines;
+    }
+
+    private static String supplier(int ordinal) {
+        return "Поставщик " + ordinal;
+    }
+
+    private ExcelUploadResponse upload(List<Line> lines, String fileName, boolean replace) throws Exception {
+        return excelProcessingService.processSupplierDataFile(write(lines, fileName), fileName, replace,
+                IngestProgressListener.NONE);
+    }
+
+    private ExcelUploadResponse upload(Path file) throws Exception {
+        return excelProcessingService.processSupplierDataFile(file, file.getFileName().toString(), false,
+                IngestProgressListener.NONE);
+    }
+
+    private Path write(List<Line> lines, String fileName) throws Exception {
+        Path file = dir.resolve(fileName);
+        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+            Sheet sheet = workbook.createSheet();
+            Row header = sheet.createRow(0);
+            for (int i = 0; i < HEADERS.length; i++) {
+                header.createCell(i).setCellValue(HEADERS[i]);
+            }
+            for (int i = 0; i < lines.size(); i++) {
+                Line line = lines.get(i);
+                Row row = sheet.createRow(i + 1);
+                row.createCell(0).setCellValue(line.supplier());
+                row.createCell(1).setCellValue(line.barcode());
+                row.createCell(2).setCellValue(line.name());
+                row.createCell(3).setCellValue(line.price());
+            }
+            try (OutputStream out = Files.newOutputStream(file)) {
+                workbook.write(out);
+            }
+        }
+        return file;
+    }
+
+    private void assertPricesMatch(List<Line> lines) {
+        Map<String, Double> prices = new HashMap<>();
+        jdbcTemplate.query("""
+                SELECT s.supplier_name, p.barcode, p.price_with_vat
+                FROM products p JOIN suppliers s ON s.id = p.supplier_id""",
+                (RowCallbackHandler) rs -> prices.put(rs.getString(1) + "|" + rs.getString(2), rs.getDouble(3)));
+        for (Line line : lines) {
+            assertEquals(line.price(), prices.get(line.supplier() + "|" + line.barcode()), 1e-9, line.barcode());
+        }
+    }
+
+    private int count(String sql) {
+        return jdbcTemplate.queryForObject(sql, Number.class).intValue();
+    }
+}
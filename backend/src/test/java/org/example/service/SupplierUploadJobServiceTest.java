@@ -0,0 +1,91 @@
+package org.example.service;
+
+import org.example.dto.ExcelUploadResponse;
+import org.example.dto.UploadJobStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Синхронная загрузка через очередь задач: ожидание результата ограничено по времени
+ */
+class SupplierUploadJobServiceTest {
+
+    private static final MockMultipartFile FILE = new MockMultipartFile("file", "suppliers.xlsx", null, new byte[]{1, 2, 3});
+
+    @TempDir
+    Path spoolDir;
+
+    private final ExcelProcessingService excelProcessingService = mock(ExcelProcessingService.class);
+    private SupplierUploadJobService service;
+
+    @AfterEach
+    void shutdown() {
+        if (service != null) service.shutdown();
+    }
+
+    @Test
+    void returnsResultWhenIngestFinishesInTime() throws Exception {
+        ExcelUploadResponse response = ExcelUploadResponse.builder().success(true).message("ok").build();
+        when(excelProcessingService.processSupplierDataFile(any(), anyString(), anyBoolean(), any())).thenReturn(response);
+        service = new SupplierUploadJobService(excelProcessingService, 1, 2, spoolDir.toString(), 60, 5);
+
+        UploadJobStatus status = service.process(FILE, false);
+
+        assertSame(response, status.getResult());
+        assertEquals(UploadJobStatus.Phase.DONE, status.getPhase());
+    }
+
+    @Test
+    void returnsJobStatusWhenIngestOutlivesWait() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        ExcelUploadResponse response = ExcelUploadResponse.builder().success(true).message("ok").build();
+        when(excelProcessingService.processSupplierDataFile(any(), anyString(), anyBoolean(), any())).thenAnswer(invocation -> {
+            release.await();
+            return response;
+        });
+        service = new SupplierUploadJobService(excelProcessingService, 1, 2, spoolDir.toString(), 60, 0);
+
+        UploadJobStatus status = service.process(FILE, false);
+
+        assertNull(status.getResult());
+        assertNotNull(status.getJobId());
+
+        // Задача продолжается в фоне и доступна по идентификатору
+        release.countDown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        UploadJobStatus finished = service.getStatus(status.getJobId()).orElseThrow();
+        while (finished.getResult() == null && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+            finished = service.getStatus(status.getJobId()).orElseThrow();
+        }
+        assertSame(response, finished.getResult());
+    }
+
+    @Test
+    void rethrowsIngestFailure() throws Exception {
+        when(excelProcessingService.processSupplierDataFile(any(), anyString(), anyBoolean(), any()))
+                .thenThrow(new IllegalArgumentException("Не найдены все необходимые заголовки"));
+        service = new SupplierUploadJobService(excelProcessingService, 1, 2, spoolDir.toString(), 60, 5);
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> service.process(FILE, false));
+        assertTrue(e.getMessage().startsWith("Не найдены"));
+    }
+}
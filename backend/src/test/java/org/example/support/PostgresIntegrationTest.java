@@ -0,0 +1,57 @@
+package org.example.support;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.DockerClientFactory;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Интеграционные тесты с PostgreSQL. База — контейнер Testcontainers или, если задана переменная
+ * окружения TEST_DATABASE_URL (с TEST_DATABASE_USER и TEST_DATABASE_PASSWORD), уже запущенный
+ * сервер; без Docker и без этой переменной тесты пропускаются. Схему создаёт Hibernate,
+ * как при обычном старте приложения. Тесты очищают таблицы — для TEST_DATABASE_URL нужна отдельная база.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+        "server.port=0",
+        "jwt.secret=integration-test-secret-integration-test-secret-0123456789",
+        "jwt.access.expiration=900000",
+        "jwt.refresh.expiration=86400000",
+        "subscription.trial.minutes=60",
+        "analysis.export.snapshot-dir=${java.io.tmpdir}/catalog-export-test",
+        "logging.level.org.example=WARN"
+})
+public abstract class PostgresIntegrationTest {
+
+    private static final String EXTERNAL_URL = System.getenv("TEST_DATABASE_URL");
+
+    private static PostgreSQLContainer<?> container;
+
+    @BeforeAll
+    static void requireDatabase() {
+        assumeTrue(EXTERNAL_URL != null || DockerClientFactory.instance().isDockerAvailable(),
+                "Нет Docker и не задан TEST_DATABASE_URL");
+    }
+
+    @DynamicPropertySource
+    static void datasource(DynamicPropertyRegistry registry) {
+        if (EXTERNAL_URL != null) {
+            registry.add("spring.datasource.url", () -> EXTERNAL_URL);
+            registry.add("spring.datasource.username", () -> System.getenv().getOrDefault("TEST_DATABASE_USER", "postgres"));
+            registry.add("spring.datasource.password", () -> System.getenv().getOrDefault("TEST_DATABASE_PASSWORD", ""));
+            return;
+        }
+        synchronized (PostgresIntegrationTest.class) {
+            if (container == null) {
+                container = new PostgreSQLContainer<>("postgres:16-alpine");
+                container.start();
+            }
+        }
+        registry.add("spring.datasource.url", container::getJdbcUrl);
+        registry.add("spring.datasource.username", container::getUsername);
+        registry.add("spring.datasource.password", container::getPassword);
+    }
+}
@@ -0,0 +1,31 @@
+package org.example.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CharSequenceIndexTest {
+
+    @Test
+    void findsKeysByCharsIgnoringSurroundingWhitespace() {
+        String[] names = new String[100];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "Поставщик " + i;
+        }
+        CharSequenceIndex index = new CharSequenceIndex(names);
+
+        for (int i = 0; i < names.length; i++) {
+            assertEquals(i, index.get(names[i]));
+            assertEquals(i, index.get(new StringBuilder(" \t").append(names[i]).append("  ")));
+        }
+        assertEquals(-1, index.get("Поставщик 100"));
+        assertEquals(-1, index.get("Поставщик"));
+        assertEquals(-1, index.get("   "));
+        assertEquals(-1, index.get(null));
+    }
+
+    @Test
+    void emptyIndexFindsNothing() {
+        assertEquals(-1, new CharSequenceIndex(new String[0]).get("Поставщик"));
+    }
+}
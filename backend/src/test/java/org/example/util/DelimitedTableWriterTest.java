@@ -0,0 +1,91 @@
+package org.example.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Запись CSV и TSV: экранирование по RFC 4180, разделитель строк CRLF, признак BOM и запись чисел
+ */
+class DelimitedTableWriterTest {
+
+    @Test
+    void quotesFieldsWithDelimiterQuoteOrLineBreak() throws Exception {
+        String csv = write(',', false, writer -> writer.row()
+                .text("простой текст")
+                .text("Бинт 7м, стерильный")
+                .text("Шар \"Ёлочный\"")
+                .text("две\nстроки")
+                .text("возврат\rкаретки")
+                .text("\t"));
+
+        assertEquals("Штрихкод,Наименование,Цена,A,B,C\r\n"
+                + "простой текст,\"Бинт 7м, стерильный\",\"Шар \"\"Ёлочный\"\"\",\"две\nстроки\",\"возврат\rкаретки\",\t\r\n", csv);
+    }
+
+    @Test
+    void tabSeparatedQuotesTabsButNotCommas() throws Exception {
+        String tsv = write('\t', false, writer -> writer.row()
+                .text("Бинт 7м, стерильный")
+                .text("колонка\tвнутри")
+                .text("\"")
+                .text("конец\r\n"));
+
+        assertEquals("Штрихкод\tНаименование\tЦена\tA\tB\tC\r\n"
+                + "Бинт 7м, стерильный\t\"колонка\tвнутри\"\t\"\"\"\"\t\"конец\r\n\"\r\n", tsv);
+    }
+
+    @Test
+    void nullAndSkippedCellsAreEmpty() throws Exception {
+        String csv = write(',', false, writer -> {
+            writer.row().text(null).skip().text("");
+            writer.row().number(Double.NaN).number(Double.POSITIVE_INFINITY).text("x");
+        });
+
+        assertEquals("Штрихкод,Наименование,Цена,A,B,C\r\n,,\r\n,,x\r\n", csv);
+    }
+
+    @Test
+    void writesNumbersWithoutExponentOrGrouping() throws Exception {
+        String csv = write(',', false, writer -> writer.row()
+                .number(4_600_000_000_001d, TableWriter.Style.SCIENTIFIC)
+                .number(1234567.891, TableWriter.Style.MONEY)
+                .number(0.05, TableWriter.Style.MONEY)
+                .number(-12.5, TableWriter.Style.PERCENT)
+                .number(42, TableWriter.Style.INTEGER)
+                .number(0.125));
+
+        assertEquals("4600000000001,1234567.89,0.05,-12.50,42,0.125\r\n", csv.substring(csv.indexOf("\r\n") + 2));
+    }
+
+    @Test
+    void bomPrecedesUtf8Text() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DelimitedTableWriter writer = new DelimitedTableWriter(out, ';', true, "Цена");
+        writer.row().number(1.5, TableWriter.Style.MONEY);
+        writer.finish();
+        assertEquals(1, writer.dataRows());
+
+        byte[] bytes = out.toByteArray();
+        assertEquals((byte) 0xEF, bytes[0]);
+        assertEquals((byte) 0xBB, bytes[1]);
+        assertEquals((byte) 0xBF, bytes[2]);
+        assertEquals("Цена\r\n1.50\r\n", new String(bytes, 3, bytes.length - 3, StandardCharsets.UTF_8));
+    }
+
+    private static String write(char delimiter, boolean bom, TableFiller filler) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DelimitedTableWriter writer = new DelimitedTableWriter(out, delimiter, bom, "Штрихкод", "Наименование", "Цена", "A", "B", "C");
+        filler.fill(writer);
+        writer.finish();
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    @FunctionalInterface
+    private interface TableFiller {
+        void fill(TableWriter writer) throws Exception;
+    }
+}
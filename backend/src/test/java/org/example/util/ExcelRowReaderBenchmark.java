@@ -0,0 +1,93 @@
+package org.example.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Чтение файла поставщиков с разбором строки, как во втором проходе загрузки: поставщик по
+ * символам ячейки, long ключ штрихкода, цена и наименование записываемой строки.
+ * rowStrings — прежний разбор через String поставщика и словарь. Выделение памяти на строку —
+ * gc.alloc.rate.norm профилировщика gc, делённый на rows. Запуск после mvn test-compile:
+ * <pre>
+ * mvn dependency:build-classpath -Dmdep.includeScope=test -Dmdep.outputFile=target/test-classpath.txt
+ * java -cp target/test-classes:target/classes:$(cat target/test-classpath.txt) org.openjdk.jmh.Main ExcelRowReaderBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExcelRowReaderBenchmark {
+
+    @Param({"20000"})
+    int rows;
+
+    @Param({"50"})
+    int suppliers;
+
+    // true — текст общими строками (Excel), false — встроенными строками (SXSSF)
+    @Param({"true", "false"})
+    boolean sharedStrings;
+
+    private Path file;
+    private CharSequenceIndex supplierIndex;
+    private Map<String, Integer> supplierOrdinals;
+
+    @Setup
+    public void setUp() throws Exception {
+        file = SupplierSheets.write(Files.createTempFile("suppliers", ".xlsx"), rows, suppliers, sharedStrings);
+        String[] names = new String[suppliers];
+        supplierOrdinals = new HashMap<>();
+        for (int i = 0; i < suppliers; i++) {
+            names[i] = SupplierSheets.supplierName(i);
+            supplierOrdinals.put(names[i], i);
+        }
+        supplierIndex = new CharSequenceIndex(names);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public void rowChars(Blackhole blackhole) throws Exception {
+        ExcelRowReader.read(file, row -> {
+            if (row.getRowNum() == 0) return;
+            blackhole.consume(supplierIndex.get(row.getChars(0)));
+            blackhole.consume(BarcodeKeys.toKey(row.getChars(1)));
+            blackhole.consume(row.getDouble(3));
+            blackhole.consume(row.getString(2));
+        });
+    }
+
+    @Benchmark
+    public void rowStrings(Blackhole blackhole) throws Exception {
+        ExcelRowReader.read(file, row -> {
+            if (row.getRowNum() == 0) return;
+            blackhole.consume(supplierOrdinals.get(row.getString(0)));
+            blackhole.consume(BarcodeKeys.toKey(row.getChars(1)));
+            blackhole.consume(row.getDouble(3));
+            blackhole.consume(row.getString(2));
+        });
+    }
+}
@@ -0,0 +1,87 @@
+package org.example.util;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExcelRowReaderTest {
+
+    @TempDir
+    Path dir;
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    void readsTextAndNumbersFromSharedAndInlineStrings(boolean sharedStrings) throws Exception {
+        Path file = dir.resolve("sheet.xlsx");
+        try (SXSSFWorkbook workbook = sharedStrings
+                ? new SXSSFWorkbook(new XSSFWorkbook(), 100, true, true)
+                : new SXSSFWorkbook(100)) {
+            Sheet sheet = workbook.createSheet();
+            for (int r = 0; r < 3; r++) {
+                Row row = sheet.createRow(r);
+                row.createCell(0).setCellValue("  Поставщик " + (r % 2) + " ");
+                row.createCell(1).setCellValue(4_600_000_000_123L);
+                row.createCell(2).setCellValue(12.5);
+            }
+            try (OutputStream out = Files.newOutputStream(file)) {
+                workbook.write(out);
+            }
+            workbook.dispose();
+        }
+
+        List<String> names = new ArrayList<>();
+        List<String> raws = new ArrayList<>();
+        List<String> chars = new ArrayList<>();
+        List<String> barcodes = new ArrayList<>();
+        List<Double> prices = new ArrayList<>();
+        ExcelRowReader.read(file, row -> {
+            chars.add(row.getChars(0).toString());
+            names.add(row.getString(0));
+            raws.add(row.getRaw(0));
+            barcodes.add(row.getString(1));
+            prices.add(row.getDouble(2));
+            assertTrue(row.isString(0));
+            assertSame(row.getString(0), row.getString(0));
+        });
+
+        assertEquals(List.of("Поставщик 0", "Поставщик 1", "Поставщик 0"), names);
+        assertEquals(List.of("  Поставщик 0 ", "  Поставщик 1 ", "  Поставщик 0 "), raws);
+        assertEquals(raws, chars);
+        assertEquals(List.of("4600000000123", "4600000000123", "4600000000123"), barcodes);
+        assertEquals(List.of(12.5, 12.5, 12.5), prices);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    void supplierIndexFindsNamesFromCellChars(boolean sharedStrings) throws Exception {
+        Path file = SupplierSheets.write(dir.resolve("suppliers.xlsx"), 200, 7, sharedStrings);
+        String[] names = new String[7];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = SupplierSheets.supplierName(i);
+        }
+        CharSequenceIndex index = new CharSequenceIndex(names);
+
+        int[] found = new int[1];
+        ExcelRowReader.read(file, row -> {
+            if (row.getRowNum() == 0) return;
+            int ordinal = index.get(row.getChars(0));
+            assertEquals(row.getString(0), names[ordinal]);
+            found[0]++;
+        });
+        assertEquals(200, found[0]);
+    }
+}
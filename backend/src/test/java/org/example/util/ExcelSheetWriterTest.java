@@ -0,0 +1,113 @@
+package org.example.util;
+
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Запись листа выгрузки: заголовки, стили из набора, ширина колонок по длине текста
+ * и продолжение строк на следующем листе при заполнении листа
+ */
+class ExcelSheetWriterTest {
+
+    @Test
+    void writesHeadersCellsAndStyles() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ExcelSheetWriter writer = new ExcelSheetWriter(out, "Накладная", "Штрихкод", "Наименование", "Цена")) {
+            writer.row().text("4600000000001").text("Аспирин").number(1234.5, TableWriter.Style.MONEY);
+            writer.row().text(null).skip().number(7, TableWriter.Style.INTEGER);
+            writer.finish();
+            assertEquals(2, writer.dataRows());
+        }
+
+        try (XSSFWorkbook workbook = new XSSFWorkbook(new ByteArrayInputStream(out.toByteArray()))) {
+            XSSFSheet sheet = workbook.getSheet("Накладная");
+            Row header = sheet.getRow(0);
+            assertEquals("Наименование", header.getCell(1).getStringCellValue());
+            assertTrue(workbook.getFontAt(header.getCell(1).getCellStyle().getFontIndex()).getBold());
+
+            Row first = sheet.getRow(1);
+            assertEquals("4600000000001", first.getCell(0).getStringCellValue());
+            assertEquals(1234.5, first.getCell(2).getNumericCellValue());
+            assertEquals("#,##0.00", first.getCell(2).getCellStyle().getDataFormatString());
+
+            Row second = sheet.getRow(2);
+            assertEquals(CellType.STRING, second.getCell(0).getCellType());
+            assertEquals("", second.getCell(0).getStringCellValue());
+            assertNull(second.getCell(1));
+            assertEquals("0", second.getCell(2).getCellStyle().getDataFormatString());
+        }
+    }
+
+    @Test
+    void columnWidthsFollowSampledTextLength() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ExcelSheetWriter writer = new ExcelSheetWriter(out, "Лист", "A", "Наименование")) {
+            writer.row().text("x").text("Бинт стерильный 7м х 14см, упаковка 10 шт.");
+            writer.row().text("y").text("x".repeat(500));
+            writer.finish();
+        }
+
+        try (XSSFWorkbook workbook = new XSSFWorkbook(new ByteArrayInputStream(out.toByteArray()))) {
+            XSSFSheet sheet = workbook.getSheetAt(0);
+            // Короткая колонка — не уже MIN_WIDTH, длинная — не шире MAX_WIDTH, плюс два знака отступа
+            assertEquals((6 + 2) * 256, sheet.getColumnWidth(0));
+            assertEquals((80 + 2) * 256, sheet.getColumnWidth(1));
+        }
+    }
+
+    @Test
+    void fullSheetContinuesOnNextSheetWithHeaders() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ExcelSheetWriter writer = new ExcelSheetWriter(out, 3, "Каталог", "Штрихкод", "Цена")) {
+            for (int i = 1; i <= 5; i++) {
+                writer.row().text("46000000000" + i).number(i, TableWriter.Style.MONEY);
+            }
+            writer.finish();
+            assertEquals(5, writer.dataRows());
+        }
+
+        try (XSSFWorkbook workbook = new XSSFWorkbook(new ByteArrayInputStream(out.toByteArray()))) {
+            assertEquals(3, workbook.getNumberOfSheets());
+            assertEquals("Каталог", workbook.getSheetName(0));
+            assertEquals("Каталог (2)", workbook.getSheetName(1));
+            assertEquals("Каталог (3)", workbook.getSheetName(2));
+            int expected = 1;
+            for (int s = 0; s < 3; s++) {
+                XSSFSheet sheet = workbook.getSheetAt(s);
+                assertEquals("Штрихкод", sheet.getRow(0).getCell(0).getStringCellValue());
+                assertEquals(sheet.getColumnWidth(0), workbook.getSheetAt(0).getColumnWidth(0));
+                for (int r = 1; r <= sheet.getLastRowNum(); r++) {
+                    assertEquals("46000000000" + expected++, sheet.getRow(r).getCell(0).getStringCellValue());
+                }
+            }
+            assertEquals(6, expected);
+            assertEquals(1, workbook.getSheetAt(2).getLastRowNum());
+        }
+    }
+
+    @Test
+    void longSheetNameIsTruncatedToFitSuffix() throws Exception {
+        String name = "Результат анализа цен поставщиков";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ExcelSheetWriter writer = new ExcelSheetWriter(out, 2, name.substring(0, 31), "Штрихкод")) {
+            writer.row().text("1");
+            writer.row().text("2");
+            writer.finish();
+        }
+
+        try (XSSFWorkbook workbook = new XSSFWorkbook(new ByteArrayInputStream(out.toByteArray()))) {
+            assertEquals(2, workbook.getNumberOfSheets());
+            assertEquals(name.substring(0, 27) + " (2)", workbook.getSheetName(1));
+        }
+    }
+}
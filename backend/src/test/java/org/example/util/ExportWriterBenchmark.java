@@ -0,0 +1,170 @@
+package org.example.util;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Выгрузка накладной: legacyWorkbook — прежний экспорт из DataController (XSSFWorkbook
+ * в памяти, три новых CellStyle на строку, autoSizeColumn по всем строкам; после 64000 стилей,
+ * то есть примерно 21 тысячи строк, POI бросает IllegalStateException), sheetWriter — ExcelSheetWriter,
+ * csv и tsv — DelimitedTableWriter с теми же ячейками. Результат пишется в поток, считающий байты. Запуск после mvn test-compile:
+ * <pre>
+ * java -cp target/test-classes:target/classes:$(cat target/test-classpath.txt) org.openjdk.jmh.Main ExportWriterBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class ExportWriterBenchmark {
+
+    private static final String[] HEADERS = {"Штрихкод", "Наименование", "Количество", "Цена за шт.", "Сумма"};
+    private static final String[] FORMS = {"таблетки", "капсулы", "раствор для инъекций", "сироп", "мазь"};
+
+    @Param({"10000", "20000"})
+    int rows;
+
+    private String[] barcodes;
+    private String[] names;
+    private int[] quantities;
+    private double[] prices;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        barcodes = new String[rows];
+        names = new String[rows];
+        quantities = new int[rows];
+        prices = new double[rows];
+        for (int i = 0; i < rows; i++) {
+            barcodes[i] = String.valueOf(4_600_000_000_000L + random.nextInt(100_000_000));
+            names[i] = "Препарат " + random.nextInt(50_000) + " " + FORMS[random.nextInt(FORMS.length)]
+                    + " " + (5 * (1 + random.nextInt(200))) + " мг №" + (10 * (1 + random.nextInt(10)));
+            quantities[i] = 1 + random.nextInt(100);
+            prices[i] = Math.round(random.nextDouble() * 100_000) / 100.0;
+        }
+    }
+
+    @Benchmark
+    public long legacyWorkbook() throws IOException {
+        CountingStream out = new CountingStream();
+        try (Workbook workbook = new XSSFWorkbook()) {
+            Sheet sheet = workbook.createSheet("Накладная");
+            CellStyle headerStyle = workbook.createCellStyle();
+            Font headerFont = workbook.createFont();
+            headerFont.setBold(true);
+            headerStyle.setFont(headerFont);
+            Row headerRow = sheet.createRow(0);
+            for (int i = 0; i < HEADERS.length; i++) {
+                Cell cell = headerRow.createCell(i);
+                cell.setCellValue(HEADERS[i]);
+                cell.setCellStyle(headerStyle);
+            }
+            for (int i = 0; i < rows; i++) {
+                Row row = sheet.createRow(i + 1);
+                Cell barcodeCell = row.createCell(0);
+                barcodeCell.setCellValue(Double.parseDouble(barcodes[i]));
+                CellStyle scientificStyle = workbook.createCellStyle();
+                scientificStyle.setDataFormat(workbook.createDataFormat().getFormat("0.#####E+00"));
+                barcodeCell.setCellStyle(scientificStyle);
+                row.createCell(1).setCellValue(names[i]);
+                row.createCell(2).setCellValue(quantities[i]);
+                Cell priceCell = row.createCell(3);
+                priceCell.setCellValue(prices[i]);
+                CellStyle priceStyle = workbook.createCellStyle();
+                priceStyle.setDataFormat(workbook.createDataFormat().getFormat("#,##0.00"));
+                priceCell.setCellStyle(priceStyle);
+                Cell totalCell = row.createCell(4);
+                totalCell.setCellValue(prices[i] * quantities[i]);
+                CellStyle totalStyle = workbook.createCellStyle();
+                totalStyle.setDataFormat(workbook.createDataFormat().getFormat("#,##0.00"));
+                totalCell.setCellStyle(totalStyle);
+            }
+            for (int i = 0; i < HEADERS.length; i++) {
+                sheet.autoSizeColumn(i);
+            }
+            workbook.write(out);
+        }
+        return out.bytes;
+    }
+
+    @Benchmark
+    public long sheetWriter() throws IOException {
+        CountingStream out = new CountingStream();
+        try (ExcelSheetWriter writer = new ExcelSheetWriter(out, "Накладная", HEADERS)) {
+            invoice(writer);
+            writer.finish();
+        }
+        return out.bytes;
+    }
+
+    @Benchmark
+    public long csv() throws IOException {
+        return delimited(',');
+    }
+
+    @Benchmark
+    public long tsv() throws IOException {
+        return delimited('\t');
+    }
+
+    private long delimited(char delimiter) throws IOException {
+        CountingStream out = new CountingStream();
+        try (DelimitedTableWriter writer = new DelimitedTableWriter(out, delimiter, true, HEADERS)) {
+            invoice(writer);
+            writer.finish();
+        }
+        return out.bytes;
+    }
+
+    private void invoice(TableWriter writer) {
+        for (int i = 0; i < rows; i++) {
+            writer.row()
+                    .number(Double.parseDouble(barcodes[i]), TableWriter.Style.SCIENTIFIC)
+                    .text(names[i])
+                    .number(quantities[i], TableWriter.Style.INTEGER)
+                    .number(prices[i], TableWriter.Style.MONEY)
+                    .number(prices[i] * quantities[i], TableWriter.Style.MONEY);
+        }
+    }
+
+    /**
+     * Поток без записи, считающий байты
+     */
+    private static final class CountingStream extends OutputStream {
+        long bytes;
+
+        @Override
+        public void write(int b) {
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bytes += len;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package org.example.util;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Файлы поставщиков в формате загрузки: наименование поставщика, штрихкод, наименование, цена.
+ * Текст пишется общими строками (как сохраняет Excel) или встроенными (как пишет SXSSF по умолчанию).
+ */
+final class SupplierSheets {
+
+    static final String[] HEADERS = {"Наименование поставщика", "Штрих код", "Наименование", "ПЦ с НДС опт"};
+
+    private SupplierSheets() {
+    }
+
+    static Path write(Path file, int rows, int suppliers, boolean sharedStrings) throws IOException {
+        Random random = new Random(rows * 31L + suppliers);
+        try (SXSSFWorkbook workbook = sharedStrings
+                ? new SXSSFWorkbook(new XSSFWorkbook(), 1000, true, true)
+                : new SXSSFWorkbook(1000)) {
+            Sheet sheet = workbook.createSheet("Товары");
+            Row header = sheet.createRow(0);
+            for (int i = 0; i < HEADERS.length; i++) {
+                header.createCell(i).setCellValue(HEADERS[i]);
+            }
+            for (int r = 1; r <= rows; r++) {
+                Row row = sheet.createRow(r);
+                row.createCell(0).setCellValue(supplierName(random.nextInt(suppliers)));
+                row.createCell(1).setCellValue(4_600_000_000_000L + r);
+                row.createCell(2).setCellValue("Товар " + (r % 5_000));
+                row.createCell(3).setCellValue(10 + random.nextInt(100_000) / 100.0);
+            }
+            try (OutputStream out = Files.newOutputStream(file)) {
+                workbook.write(out);
+            }
+            workbook.dispose();
+        }
+        return file;
+    }
+
+    static String supplierName(int ordinal) {
+        return "Поставщик " + ordinal;
+    }
+}